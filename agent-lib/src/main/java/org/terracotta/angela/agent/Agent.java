@@ -23,6 +23,8 @@ import org.apache.ignite.IgniteSystemProperties;
 import org.apache.ignite.Ignition;
 import org.apache.ignite.ShutdownPolicy;
 import org.apache.ignite.configuration.IgniteConfiguration;
+import org.apache.ignite.events.DeploymentEvent;
+import org.apache.ignite.events.EventType;
 import org.apache.ignite.logger.NullLogger;
 import org.apache.ignite.logger.slf4j.Slf4jLogger;
 import org.apache.ignite.spi.communication.tcp.TcpCommunicationSpi;
@@ -30,8 +32,12 @@ import org.apache.ignite.spi.discovery.tcp.TcpDiscoverySpi;
 import org.apache.ignite.spi.discovery.tcp.ipfinder.vm.TcpDiscoveryVmIpFinder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.client.WarmClientPool;
 import org.terracotta.angela.agent.com.AgentID;
+import org.terracotta.angela.agent.com.JobClassLoader;
+import org.terracotta.angela.agent.com.RpcExecutor;
 import org.terracotta.angela.common.AngelaProperties;
+import org.terracotta.angela.common.cluster.ClusterLifecycle;
 import org.terracotta.angela.common.net.DefaultPortAllocator;
 import org.terracotta.angela.common.net.PortAllocator;
 import org.terracotta.angela.common.util.AngelaVersion;
@@ -40,9 +46,13 @@ import org.zeroturnaround.process.PidUtil;
 import org.zeroturnaround.process.ProcessUtil;
 import org.zeroturnaround.process.Processes;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -50,7 +60,11 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.terracotta.angela.common.AngelaProperties.IGNITE_LOGGING;
+import static org.terracotta.angela.common.AngelaProperties.RPC_DAEMON;
+import static org.terracotta.angela.common.AngelaProperties.RPC_DAEMON_IDLE_TIMEOUT;
+import static org.terracotta.angela.common.AngelaProperties.RPC_DAEMON_PORT;
 import static org.terracotta.angela.common.AngelaProperties.getEitherOf;
 import static org.terracotta.angela.common.util.FileUtils.createAndValidateDir;
 
@@ -62,6 +76,7 @@ public class Agent implements AutoCloseable {
   public static final String AGENT_TYPE_ORCHESTRATOR = "orchestrator-agent";
   public static final String AGENT_TYPE_REMOTE = "remote-agent";
   public static final String AGENT_IS_READY_MARKER_LOG = "Agent is ready";
+  public static final String AGENT_IS_WARM_MARKER_LOG = "Agent is warm";
   public static final Path ROOT_DIR;
   public static final Path WORK_DIR;
   private static final Path IGNITE_DIR;
@@ -85,11 +100,17 @@ public class Agent implements AutoCloseable {
   private final UUID group;
   private final AgentID agentID;
   private final Ignite ignite;
+  private final RpcExecutor rpcExecutor;
 
   public Agent(UUID group, AgentID agentID, Ignite ignite) {
+    this(group, agentID, ignite, null);
+  }
+
+  private Agent(UUID group, AgentID agentID, Ignite ignite, RpcExecutor rpcExecutor) {
     this.group = group;
     this.agentID = agentID;
     this.ignite = ignite;
+    this.rpcExecutor = rpcExecutor;
   }
 
   public UUID getGroupId() {
@@ -104,6 +125,13 @@ public class Agent implements AutoCloseable {
     return ignite;
   }
 
+  /**
+   * @return the connection to the orchestrator of an agent started with {@link #rpc(UUID, String, AgentID)}, or null
+   */
+  public RpcExecutor getRpcExecutor() {
+    return rpcExecutor;
+  }
+
   @Override
   public String toString() {
     return agentID.toString();
@@ -112,19 +140,54 @@ public class Agent implements AutoCloseable {
   @Override
   public void close() {
     logger.info("Shutting down agent: {}", agentID);
+    WarmClientPool.getInstance().clear(group);
     if (ignite != null) {
       try {
         ignite.close();
       } catch (Exception ignored) {
       }
     }
+    if (rpcExecutor != null) {
+      rpcExecutor.close();
+    }
   }
 
   /**
-   * main method used when starting a new ignite agent locally or remotely
+   * main method used when starting a new ignite agent locally or remotely.
+   * The agent connects to the orchestrator of a {@link RpcExecutor} instead of starting Ignite when {@code angela.rpc.hub} is set
+   * (presenting the secret of the session set in {@code angela.rpc.secret}),
+   * and runs as an {@link AgentDaemon} when {@code angela.rpc.daemon} is set.
+   * A warm client agent, started with {@code angela.warm}, reads its instance name on its standard input.
    */
   public static void main(String[] args) {
-    final String instanceName = System.getProperty("angela.instanceName");
+    if (RPC_DAEMON.getBooleanValue()) {
+      try (AgentDaemon daemon = new AgentDaemon(Integer.parseInt(RPC_DAEMON_PORT.getValue()), System.getProperty("angela.rpc.daemon.jarHash", ""), AgentDaemon.getSharedSecret())) {
+        logger.info("Agent daemon root directory: {}", ROOT_DIR);
+        // Do not use logger here as the marker is being grep'ed at and we do not want to depend upon the logger config
+        System.out.println(AGENT_IS_READY_MARKER_LOG + ": daemon on port: " + daemon.getPort());
+        System.out.flush();
+        daemon.run(Duration.ofSeconds(Long.parseLong(RPC_DAEMON_IDLE_TIMEOUT.getValue())));
+      }
+      return;
+    }
+
+    // created before a warm client agent waits, as it does not depend on the client
+    DefaultPortAllocator portAllocator = new DefaultPortAllocator();
+    String instanceName = System.getProperty("angela.instanceName");
+    if (Boolean.getBoolean("angela.warm")) {
+      // a warm client agent joins the group once it is handed out to a client, under the name of the client
+      System.out.println(AGENT_IS_WARM_MARKER_LOG);
+      System.out.flush();
+      try {
+        instanceName = new BufferedReader(new InputStreamReader(System.in, UTF_8)).readLine();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (instanceName == null) {
+        logger.info("Warm client agent was not handed out. Exiting...");
+        return;
+      }
+    }
     if (instanceName == null) {
       throw new AssertionError("angela.instanceName is missing");
     }
@@ -134,8 +197,10 @@ public class Agent implements AutoCloseable {
       throw new AssertionError("angela.group is missing");
     }
 
-    DefaultPortAllocator portAllocator = new DefaultPortAllocator();
-    Agent agent = ignite(UUID.fromString(group), instanceName, portAllocator, Arrays.asList(System.getProperty("angela.directJoin", "").split(",")));
+    final String hub = System.getProperty("angela.rpc.hub");
+    Agent agent = hub == null ?
+        ignite(UUID.fromString(group), instanceName, portAllocator, Arrays.asList(System.getProperty("angela.directJoin", "").split(","))) :
+        rpc(UUID.fromString(group), instanceName, AgentID.valueOf(hub), System.getProperty("angela.rpc.secret", ""));
     AgentID localAgentID = agent.getAgentID();
 
     logger.info("Agent: {} Root directory: {}", localAgentID, ROOT_DIR);
@@ -170,7 +235,7 @@ public class Agent implements AutoCloseable {
       }.start();
 
       // try a normal close first
-      logger.info("Closing Ignite...");
+      logger.info("Closing agent: {}...", localAgentID);
       agent.close();
       try {
         portAllocator.close();
@@ -183,6 +248,15 @@ public class Agent implements AutoCloseable {
     // Do not use logger here as the marker is being grep'ed at and we do not want to depend upon the logger config
     System.out.println(AGENT_IS_READY_MARKER_LOG + ": " + localAgentID);
     System.out.flush();
+
+    if (agent.getRpcExecutor() != null) {
+      // unlike the ones of Ignite, the threads of a connection to the orchestrator do not keep the JVM alive
+      try {
+        agent.getRpcExecutor().awaitClosed();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
   }
 
   public static Agent local(UUID group) {
@@ -193,6 +267,37 @@ public class Agent implements AutoCloseable {
     return ignite(group, AGENT_TYPE_ORCHESTRATOR, portAllocator, Collections.emptyList());
   }
 
+  /**
+   * The orchestrator of a {@link RpcExecutor}, which listens for its agents on the port of its agent ID
+   */
+  public static Agent rpcOrchestrator(UUID group, PortAllocator portAllocator) {
+    createAndValidateDir(Agent.ROOT_DIR);
+    createAndValidateDir(Agent.WORK_DIR);
+
+    int port = portAllocator.reserve(1).next();
+    AgentID agentID = new AgentID(AGENT_TYPE_ORCHESTRATOR, IpUtils.getHostName(), port, PidUtil.getMyPid());
+
+    Agent agent = new Agent(group, agentID, null);
+    logger.info("Started agent: {} in group: {}", agentID, agent.getGroupId());
+    return agent;
+  }
+
+  /**
+   * An agent connected to the orchestrator of a {@link RpcExecutor}, which is way faster to start than an Ignite agent
+   *
+   * @param secret the secret of the session of the orchestrator, see {@link RpcExecutor#getSecret()}
+   */
+  public static Agent rpc(UUID group, String instanceName, AgentID hub, String secret) {
+    createAndValidateDir(Agent.ROOT_DIR);
+    createAndValidateDir(Agent.WORK_DIR);
+
+    RpcExecutor rpcExecutor = RpcExecutor.connect(group, instanceName, hub, secret, new JobClassLoader(Agent.class.getClassLoader(), false));
+
+    Agent agent = new Agent(group, rpcExecutor.getLocalAgentID(), null, rpcExecutor);
+    logger.info("Started agent: {} in group: {}", agent.getAgentID(), agent.getGroupId());
+    return agent;
+  }
+
   @SuppressWarnings("SwitchStatementWithTooFewBranches")
   public static Agent ignite(UUID group, String instanceName, PortAllocator portAllocator, Collection<String> peers) {
     // Required to avoid a deadlock if a client job causes a system.exit to be run.
@@ -228,7 +333,12 @@ public class Agent implements AutoCloseable {
     cfg.setShutdownPolicy(ShutdownPolicy.IMMEDIATE);
     cfg.setGridLogger(enableLogging ? new Slf4jLogger() : new NullLogger());
     cfg.setPeerClassLoadingEnabled(true);
+    // Ignite only loads the classes of a job from its sender when they are not found locally
+    JobClassLoader jobClassLoader = new JobClassLoader(Agent.class.getClassLoader(), true);
+    cfg.setClassLoader(jobClassLoader);
+    cfg.setIncludeEventTypes(EventType.EVT_CLASS_DEPLOYED, EventType.EVT_TASK_DEPLOYED);
     cfg.setMetricsLogFrequency(0);
+    cfg.setLifecycleBeans(new ClusterLifecycle());
     cfg.setIgniteInstanceName(agentID.getNodeName());
     cfg.setIgniteHome(IGNITE_DIR.resolve(System.getProperty("user.name")).toString());
 
@@ -244,12 +354,23 @@ public class Agent implements AutoCloseable {
     logger.info("Connecting agent: {} to peers: {}", agentID, peers);
 
     Ignite ignite;
+    // the Ignite threads inherit the job class loader, which Ignite looks the classes of the jobs up from
+    Thread thread = Thread.currentThread();
+    ClassLoader contextClassLoader = thread.getContextClassLoader();
+    thread.setContextClassLoader(jobClassLoader);
     try {
       ignite = Ignition.start(cfg);
     } catch (IgniteException e) {
       throw new RuntimeException("Error starting node " + agentID, e);
+    } finally {
+      thread.setContextClassLoader(contextClassLoader);
     }
 
+    ignite.events().localListen(event -> {
+      jobClassLoader.deployed(((DeploymentEvent) event).alias());
+      return true;
+    }, EventType.EVT_CLASS_DEPLOYED, EventType.EVT_TASK_DEPLOYED);
+
     ignite.message(ignite.cluster().forRemotes()).localListen("SYSTEM", (uuid, msg) -> {
       switch (String.valueOf(msg)) {
         case "close": {
@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import org.terracotta.angela.agent.client.RemoteClientManager;
 import org.terracotta.angela.agent.com.AgentGroup;
 import org.terracotta.angela.agent.com.AgentID;
+import org.terracotta.angela.agent.com.FileMetadata;
 import org.terracotta.angela.agent.kit.MonitoringInstance;
 import org.terracotta.angela.agent.kit.RemoteKitManager;
 import org.terracotta.angela.agent.kit.TerracottaInstall;
@@ -61,23 +62,35 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
+import java.util.stream.StreamSupport;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 
 /**
@@ -91,6 +104,8 @@ public class AgentController {
   private final Map<InstanceId, VoterInstall> voterInstalls = new HashMap<>();
   private final Map<InstanceId, ToolInstall> clusterToolInstalls = new HashMap<>();
   private final Map<InstanceId, ToolInstall> configToolInstalls = new HashMap<>();
+  // PIDs of the client agents spawned by this controller
+  private final Map<InstanceId, Integer> clientPids = new ConcurrentHashMap<>();
 
   private final AgentID localAgentID;
   private final PortAllocator portAllocator;
@@ -565,6 +580,7 @@ public class AgentController {
   }
 
   public void stopClient(InstanceId instanceId, int pid) {
+    clientPids.remove(instanceId);
     try {
       logger.info("[{}] killing client '{}' with PID {}", localAgentID, instanceId, pid);
       if (!localAgentID.isLocal()) {
@@ -576,9 +592,9 @@ public class AgentController {
   }
 
   public void deleteClient(InstanceId instanceId) {
-    Path subAgentRoot = new RemoteClientManager(instanceId).getClientInstallationPath();
-    logger.debug("[{}] Cleaning up directory structure '{}' of client {}", localAgentID, subAgentRoot, instanceId);
-    FileUtils.deleteTree(subAgentRoot);
+    RemoteClientManager remoteClientManager = new RemoteClientManager(instanceId);
+    logger.debug("[{}] Cleaning up directory structure '{}' of client {}", localAgentID, remoteClientManager.getClientInstallationPath(), instanceId);
+    remoteClientManager.deleteClientInstallation();
   }
 
   public String instanceWorkDir(InstanceId instanceId) {
@@ -590,7 +606,62 @@ public class AgentController {
       return localAgentID;
     }
     RemoteClientManager remoteClientManager = new RemoteClientManager(instanceId);
-    return remoteClientManager.spawnClient(tcEnv, group);
+    AgentID agentID = remoteClientManager.spawnClient(tcEnv, group);
+    clientPids.put(instanceId, agentID.getPid());
+    return agentID;
+  }
+
+  /**
+   * Stops the servers, TMS, voters and clients started through this controller, and deletes their working directories.
+   * Used by an {@link AgentDaemon} when its lease ends, so that the processes of an orchestrator which did not clean up
+   * do not outlive its lease.
+   */
+  public void stopAll() {
+    Set<InstanceId> instanceIds = new HashSet<>();
+    tsaInstalls.forEach((instanceId, install) -> {
+      instanceIds.add(instanceId);
+      install.getTerracottaServerInstances().forEach(server -> stopQuietly(instanceId, server::stop));
+      install.getTerracottaServerInstances().forEach(TerracottaServerInstance::close);
+    });
+    tmsInstalls.forEach((instanceId, install) -> {
+      instanceIds.add(instanceId);
+      TerracottaManagementServerInstance tms = install.getTerracottaManagementServerInstance();
+      if (tms != null) {
+        stopQuietly(instanceId, tms::stop);
+      }
+    });
+    voterInstalls.forEach((instanceId, install) -> {
+      instanceIds.add(instanceId);
+      install.getTerracottaVoterInstances().forEach(voter -> stopQuietly(instanceId, voter::stop));
+    });
+    instanceIds.addAll(clusterToolInstalls.keySet());
+    instanceIds.addAll(configToolInstalls.keySet());
+    clientPids.forEach((instanceId, pid) -> {
+      instanceIds.add(instanceId);
+      stopQuietly(instanceId, () -> stopClient(instanceId, pid));
+    });
+    tsaInstalls.clear();
+    tmsInstalls.clear();
+    voterInstalls.clear();
+    clusterToolInstalls.clear();
+    configToolInstalls.clear();
+    clientPids.clear();
+    for (InstanceId instanceId : instanceIds) {
+      Path workingPath = Agent.WORK_DIR.resolve(instanceId.toString());
+      logger.debug("[{}] Deleting working directory: {}", localAgentID, workingPath);
+      if (Files.exists(workingPath) && !FileUtils.deleteQuietly(workingPath)) {
+        logger.warn("[{}] Unable to delete working directory: {}", localAgentID, workingPath);
+      }
+    }
+  }
+
+  private void stopQuietly(InstanceId instanceId, Runnable stop) {
+    try {
+      stop.run();
+    } catch (RuntimeException e) {
+      // the process may have never been started, or already be stopped
+      logger.debug("[{}] Error stopping a process of: {}", localAgentID, instanceId, e);
+    }
   }
 
   public List<String> listFiles(String folder) {
@@ -609,6 +680,76 @@ public class AgentController {
     return Arrays.stream(files).map(File::getName).collect(toList());
   }
 
+  /**
+   * Lists all the files and folders under a folder, recursively, in one call
+   *
+   * @param withHashes true to also compute the SHA-256 of the files, which requires reading them
+   */
+  public List<FileMetadata> listTree(String folder, boolean withHashes) {
+    return listTree(folder, Integer.MAX_VALUE, withHashes);
+  }
+
+  /**
+   * Lists the files and folders under a folder, down to a depth, in one call.
+   * The files and folders which disappear while being listed (e.g. rotated logs) are skipped.
+   *
+   * @param maxDepth   1 to only list the content of the folder
+   * @param withHashes true to also compute the SHA-256 of the files, which requires reading them
+   */
+  public List<FileMetadata> listTree(String folder, int maxDepth, boolean withHashes) {
+    Path root = Paths.get(folder);
+    if (!Files.isDirectory(root)) {
+      return Collections.emptyList();
+    }
+    Map<Path, FileMetadata> tree = new TreeMap<>();
+    try {
+      Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+          if (!dir.equals(root)) {
+            add(dir, attributes);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+          // the folders at the max depth are visited as files
+          add(file, attributes);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+          if (e instanceof NoSuchFileException) {
+            return FileVisitResult.CONTINUE;
+          }
+          throw e;
+        }
+
+        private void add(Path path, BasicFileAttributes attributes) throws IOException {
+          String relativePath = StreamSupport.stream(root.relativize(path).spliterator(), false).map(Path::toString).collect(joining("/"));
+          boolean isFolder = attributes.isDirectory();
+          String hash = null;
+          if (withHashes && attributes.isRegularFile()) {
+            try {
+              hash = FileUtils.sha256(path);
+            } catch (UncheckedIOException e) {
+              if (e.getCause() instanceof NoSuchFileException) {
+                return;
+              }
+              throw e;
+            }
+          }
+          tree.put(path, new FileMetadata(relativePath, isFolder, isFolder ? 0 : attributes.size(), attributes.lastModifiedTime().toMillis(), hash));
+        }
+      });
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Error listing folder " + folder, ioe);
+    }
+    return new ArrayList<>(tree.values());
+  }
+
   public byte[] downloadFile(String file) {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     try (FileInputStream fis = new FileInputStream(file)) {
@@ -631,6 +772,10 @@ public class AgentController {
     }
   }
 
+  /**
+   * @deprecated zips the whole folder in memory: {@link org.terracotta.angela.agent.com.Executor#downloadFolder} streams it instead
+   */
+  @Deprecated
   public byte[] downloadFolder(String file) {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     try (ZipOutputStream zos = new ZipOutputStream(baos)) {
@@ -707,6 +852,10 @@ public class AgentController {
     }
   }
 
+  public PortAllocator getPortAllocator() {
+    return portAllocator;
+  }
+
   // 1 controller (linked to 1 agent) per test JVM
 
   @Override
@@ -0,0 +1,395 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.com.AgentID;
+import org.terracotta.angela.agent.com.RpcExecutor;
+import org.terracotta.angela.agent.com.SharedObjects;
+import org.terracotta.angela.common.net.DefaultPortAllocator;
+import org.terracotta.angela.common.util.AngelaVersion;
+import org.terracotta.angela.common.util.IpUtils;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static org.terracotta.angela.common.AngelaProperties.RPC_DAEMON_SECRET;
+
+/**
+ * A remote agent which stays up between orchestrator sessions, so that the test JVMs of a build do not pay the start
+ * of a remote agent per host each (see {@code angela.rpc.daemon}).
+ * <p>
+ * The daemon listens for leases on a fixed port. An orchestrator leases it by connecting to this port and sending the shared
+ * secret of the daemons (see {@link #getSharedSecret()}), its group, its agent ID and the secret of its session:
+ * the daemon then connects to the orchestrator as the RPC agent of the host. Lease requests without the shared secret are denied.
+ * The lease ends when the lease connection is closed or when the orchestrator shuts the agent down. The daemon then stops
+ * the processes started during the lease, deletes their working directories, resets its state (connection,
+ * agent controller, reserved ports) and waits for the next lease.
+ * <p>
+ * A daemon serves one orchestrator at a time. It exits when it is leased by an orchestrator using another agent jar,
+ * and when it has not been leased for the idle timeout.
+ */
+public class AgentDaemon implements Closeable {
+
+  private final static Logger logger = LoggerFactory.getLogger(AgentDaemon.class);
+
+  private static final String LEASED = "leased";
+  private static final String BUSY = "busy";
+  private static final String STALE = "stale";
+  private static final String DENIED = "denied";
+
+  /**
+   * How long a lease request may take to arrive: the daemon serves the lease requests one at a time
+   */
+  private static final int REQUEST_TIMEOUT_MS = 10_000;
+
+  /**
+   * The file of the root directory holding the shared secret of the daemons, see {@link #getSharedSecret()}
+   */
+  public static final String SECRET_FILE = "agent-daemon.secret";
+
+  private final ServerSocket server;
+  private final String jarHash;
+  private final String secret;
+  private final AtomicReference<Lease> lease = new AtomicReference<>();
+
+  /**
+   * @param jarHash the SHA-256 of the agent jar this daemon runs from
+   * @param secret  the shared secret the lease requests must present
+   */
+  public AgentDaemon(int port, String jarHash, String secret) {
+    this.jarHash = jarHash;
+    this.secret = requireNonNull(secret);
+    try {
+      this.server = new ServerSocket();
+      server.setReuseAddress(true);
+      server.bind(new InetSocketAddress(IpUtils.getBindAddress(), port));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to listen for leases on port: " + port, e);
+    }
+  }
+
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  public boolean isLeased() {
+    return lease.get() != null;
+  }
+
+  /**
+   * Serves the leases until the daemon is closed, becomes stale or is idle for longer than the idle timeout
+   */
+  public void run(Duration idleTimeout) {
+    logger.info("Agent daemon listening for leases on port: {}", getPort());
+    try {
+      server.setSoTimeout((int) Math.min(Integer.MAX_VALUE, idleTimeout.toMillis()));
+      while (!server.isClosed()) {
+        Socket socket;
+        try {
+          socket = server.accept();
+        } catch (SocketTimeoutException e) {
+          if (isLeased()) {
+            continue;
+          }
+          logger.info("Agent daemon has not been leased for: {}. Exiting...", idleTimeout);
+          break;
+        }
+        if (!serve(socket)) {
+          logger.info("Agent daemon is stale. Exiting...");
+          break;
+        }
+      }
+    } catch (SocketException e) {
+      if (!server.isClosed()) {
+        throw new UncheckedIOException(e);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      close();
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      server.close();
+    } catch (IOException e) {
+      logger.debug("Error closing agent daemon on port: {}", getPort(), e);
+    }
+    Lease current = lease.get();
+    if (current != null) {
+      current.release();
+    }
+  }
+
+  /**
+   * @return false if the orchestrator uses another agent jar, in which case the daemon must exit
+   */
+  private boolean serve(Socket socket) {
+    try {
+      // a peer which connects without sending a lease request must not hold the daemon
+      socket.setSoTimeout(REQUEST_TIMEOUT_MS);
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      String version = in.readUTF();
+      String expectedJarHash = in.readUTF();
+      String daemonSecret = in.readUTF();
+      if (!MessageDigest.isEqual(daemonSecret.getBytes(UTF_8), secret.getBytes(UTF_8))) {
+        logger.warn("Agent daemon: denied lease request without the shared secret from: {}", socket.getRemoteSocketAddress());
+        reply(socket, out, DENIED);
+        return true;
+      }
+      UUID group = UUID.fromString(in.readUTF());
+      AgentID hub = AgentID.valueOf(in.readUTF());
+      String secret = in.readUTF();
+
+      if (!version.equals(AngelaVersion.getAngelaVersion()) || !expectedJarHash.equals(jarHash)) {
+        logger.info("Agent daemon: version: {} and jar: {} do not match the ones of: {}: version: {} and jar: {}",
+            AngelaVersion.getAngelaVersion(), jarHash, hub, version, expectedJarHash);
+        reply(socket, out, STALE);
+        return isLeased();
+      }
+
+      Lease current = new Lease(socket);
+      if (!lease.compareAndSet(null, current)) {
+        logger.info("Agent daemon is leased: rejecting: {}", hub);
+        reply(socket, out, BUSY);
+        return true;
+      }
+
+      try {
+        current.start(group, hub, secret);
+      } catch (RuntimeException e) {
+        logger.warn("Agent daemon: unable to connect to: {}", hub, e);
+        current.release();
+        return true;
+      }
+      out.writeUTF(LEASED);
+      out.writeUTF(current.agent.getAgentID().toString());
+      out.flush();
+      socket.setSoTimeout(0);
+
+      // the lease ends when the orchestrator closes the lease connection, or when it dies
+      Thread watcher = new Thread(() -> {
+        try {
+          while (in.read() != -1) {
+            // the orchestrator never sends anything after the lease request
+          }
+        } catch (IOException ignored) {
+        } finally {
+          current.release();
+        }
+      }, "angela-daemon-lease");
+      watcher.setDaemon(true);
+      watcher.start();
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Agent daemon: invalid lease request from: {}", socket.getRemoteSocketAddress(), e);
+      closeQuietly(socket);
+    }
+    return true;
+  }
+
+  private static void reply(Socket socket, DataOutputStream out, String status) throws IOException {
+    try {
+      out.writeUTF(status);
+      out.flush();
+    } finally {
+      closeQuietly(socket);
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  private class Lease {
+    final Socket socket;
+    final AtomicBoolean released = new AtomicBoolean();
+    DefaultPortAllocator portAllocator;
+    Agent agent;
+    AgentController agentController;
+
+    Lease(Socket socket) {
+      this.socket = socket;
+    }
+
+    void start(UUID group, AgentID hub, String secret) {
+      portAllocator = new DefaultPortAllocator();
+      agent = Agent.rpc(group, Agent.AGENT_TYPE_REMOTE, hub, secret);
+      agent.getRpcExecutor().setShutdownHandler(this::release);
+      agentController = new AgentController(agent.getAgentID(), portAllocator);
+      AgentController.setUniqueInstance(agentController);
+      logger.info("Agent daemon leased by: {} in group: {}", hub, group);
+    }
+
+    void release() {
+      if (!released.compareAndSet(false, true)) {
+        return;
+      }
+      closeQuietly(socket);
+      if (agentController != null) {
+        agentController.stopHardwareMonitoring();
+        agentController.stopAll();
+        AgentController.removeUniqueInstance(agentController);
+      }
+      if (agent != null) {
+        agent.close();
+      }
+      if (portAllocator != null) {
+        portAllocator.close();
+      }
+      SharedObjects.clear();
+      lease.compareAndSet(this, null);
+      logger.info("Agent daemon released: {}", agent == null ? "" : agent.getAgentID());
+    }
+  }
+
+  /**
+   * The secret shared by the daemons and the orchestrators leasing them: {@code angela.rpc.daemon.secret} when set,
+   * otherwise a random secret kept in the root directory, which only its owner can read.
+   * Orchestrators write their secret in the root directory of the daemons they start.
+   */
+  public static String getSharedSecret() {
+    String configured = RPC_DAEMON_SECRET.getValue();
+    if (configured != null && !configured.isEmpty()) {
+      return configured;
+    }
+    Path file = Agent.ROOT_DIR.resolve(SECRET_FILE);
+    try {
+      if (!Files.exists(file)) {
+        Files.createDirectories(Agent.ROOT_DIR);
+        // temporary files are only readable by their owner
+        Path tmp = Files.createTempFile(Agent.ROOT_DIR, SECRET_FILE, ".tmp");
+        try {
+          Files.write(tmp, RpcExecutor.newSecret().getBytes(UTF_8));
+          // the orchestrators of a build can create the secret concurrently: the first one wins
+          Files.createLink(file, tmp);
+        } catch (FileAlreadyExistsException ignored) {
+        } finally {
+          Files.deleteIfExists(tmp);
+        }
+      }
+      return new String(Files.readAllBytes(file), UTF_8).trim();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read the agent daemon secret from: " + file, e);
+    }
+  }
+
+  // orchestrator side
+
+  /**
+   * Leases the daemon listening on a host
+   *
+   * @param daemonSecret the shared secret of the daemons, see {@link #getSharedSecret()}
+   * @param secret       the secret of the session of the orchestrator, see {@link RpcExecutor#getSecret()}
+   * @param timeout      how long to wait for the daemon to listen, when it is starting
+   * @return the lease, or nothing if the daemon is leased by another orchestrator or denies the shared secret
+   * @throws IOException if no daemon running the agent jar is reachable
+   */
+  public static Optional<Connection> lease(String hostname, int port, String jarHash, String daemonSecret, UUID group, AgentID hub, String secret, Duration timeout) throws IOException, InterruptedException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (true) {
+      Socket socket = new Socket();
+      try {
+        socket.connect(new InetSocketAddress(hostname, port), 5_000);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(AngelaVersion.getAngelaVersion());
+        out.writeUTF(jarHash);
+        out.writeUTF(daemonSecret);
+        out.writeUTF(group.toString());
+        out.writeUTF(hub.toString());
+        out.writeUTF(secret);
+        out.flush();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        String status = in.readUTF();
+        switch (status) {
+          case LEASED:
+            return Optional.of(new Connection(socket, AgentID.valueOf(in.readUTF())));
+          case BUSY:
+            closeQuietly(socket);
+            return Optional.empty();
+          case DENIED:
+            closeQuietly(socket);
+            logger.warn("Agent daemon on: {}:{} was started with another shared secret", hostname, port);
+            return Optional.empty();
+          case STALE:
+            closeQuietly(socket);
+            throw new IOException("Agent daemon on: " + hostname + ":" + port + " is not running the same agent jar");
+          default:
+            throw new IOException("Unexpected reply from agent daemon on: " + hostname + ":" + port + ": " + status);
+        }
+      } catch (ConnectException e) {
+        closeQuietly(socket);
+        if (System.nanoTime() - deadline >= 0) {
+          throw e;
+        }
+        Thread.sleep(200);
+      } catch (IOException | RuntimeException e) {
+        closeQuietly(socket);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * The connection of an orchestrator to the daemon it leased: closing it releases the daemon
+   */
+  public static class Connection implements Closeable {
+    private final Socket socket;
+    private final AgentID agentID;
+
+    Connection(Socket socket, AgentID agentID) {
+      this.socket = socket;
+      this.agentID = agentID;
+    }
+
+    public AgentID getAgentID() {
+      return agentID;
+    }
+
+    @Override
+    public void close() {
+      closeQuietly(socket);
+    }
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.Agent;
+import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.FileUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Per-host store of the client jars, keyed by the SHA-256 of their content.
+ * <p>
+ * The orchestrator sends the hashes of the jars of a client first, and only uploads the ones the agent does not have yet.
+ * The jars are then hard-linked from the store into the classpath folder of the client, so spawning many clients
+ * with the same classpath on a host only transfers each jar once.
+ * Folders (e.g. {@code target/classes}) are not content-addressed and are always uploaded.
+ */
+public class ClientJarStore {
+
+  private final static Logger logger = LoggerFactory.getLogger(ClientJarStore.class);
+
+  private static final String BLOBS_DIR = "blobs";
+  private static final String CLASSPATH_DIR = "classpath";
+  private static final String INCOMING_DIR = "incoming";
+
+  // orchestrator-side cache of the jar hashes, to avoid hashing the same jars for each client
+  private static final Map<Path, Digest> DIGESTS = new ConcurrentHashMap<>();
+
+  private final Path root;
+
+  public ClientJarStore() {
+    this(Agent.ROOT_DIR.resolve("jars"));
+  }
+
+  public ClientJarStore(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * Orchestrator side: computes the hashes of the jars (regular files) in the locations
+   *
+   * @return the hashes keyed by the file name the jars will have in the client classpath
+   */
+  public static Map<String, String> hashJars(List<Path> locations) {
+    Map<String, String> jars = new LinkedHashMap<>();
+    for (Path location : locations) {
+      if (Files.isRegularFile(location)) {
+        jars.put(String.valueOf(location.getFileName()), sha256(location));
+      }
+    }
+    return jars;
+  }
+
+  /**
+   * Orchestrator side: selects the locations to upload, which are the folders and the jars the agent is missing
+   */
+  public static List<Path> toUpload(List<Path> locations, Collection<String> missingHashes) {
+    List<Path> upload = new ArrayList<>(locations.size());
+    Set<String> uploadedHashes = new LinkedHashSet<>();
+    for (Path location : locations) {
+      if (Files.isDirectory(location)) {
+        upload.add(location);
+      } else if (Files.isRegularFile(location)) {
+        String hash = sha256(location);
+        if (missingHashes.contains(hash) && uploadedHashes.add(hash)) {
+          upload.add(location);
+        }
+      }
+    }
+    return upload;
+  }
+
+  /**
+   * Orchestrator side: the name under which a location returned by {@link #toUpload(List, Collection)}
+   * is uploaded into the {@link #getIncomingPath(InstanceId) incoming} folder
+   */
+  public static String remoteName(Path location) {
+    if (Files.isRegularFile(location)) {
+      return BLOBS_DIR + "/" + sha256(location);
+    }
+    return CLASSPATH_DIR + "/" + location.getFileName();
+  }
+
+  public Collection<String> findMissing(Collection<String> hashes) {
+    List<String> missing = new ArrayList<>();
+    for (String hash : hashes) {
+      if (!Files.isRegularFile(root.resolve(hash))) {
+        missing.add(hash);
+      }
+    }
+    logger.debug("Missing {} of {} client jars in: {}", missing.size(), hashes.size(), root);
+    return missing;
+  }
+
+  public Path getIncomingPath(InstanceId instanceId) {
+    return root.resolve(INCOMING_DIR).resolve(instanceId.toString());
+  }
+
+  /**
+   * Agent side: moves the jars received in the incoming folder into the store, then links all the jars
+   * of the client from the store into its classpath folder, next to the received folders.
+   */
+  public void install(Path incoming, Map<String, String> jars, Path classpathRoot) {
+    try {
+      Files.createDirectories(root);
+      Files.createDirectories(classpathRoot);
+
+      Path blobs = incoming.resolve(BLOBS_DIR);
+      if (Files.isDirectory(blobs)) {
+        try (Stream<Path> stream = Files.list(blobs)) {
+          for (Path blob : (Iterable<Path>) stream::iterator) {
+            store(blob);
+          }
+        }
+      }
+
+      for (Map.Entry<String, String> entry : jars.entrySet()) {
+        Path blob = root.resolve(entry.getValue());
+        if (!Files.isRegularFile(blob)) {
+          throw new IllegalStateException("Client jar: " + entry.getKey() + " with hash: " + entry.getValue() + " not found in: " + root);
+        }
+        link(blob, classpathRoot.resolve(entry.getKey()));
+      }
+
+      Path folders = incoming.resolve(CLASSPATH_DIR);
+      if (Files.isDirectory(folders)) {
+        try (Stream<Path> stream = Files.list(folders)) {
+          for (Path folder : (Iterable<Path>) stream::iterator) {
+            Path dest = classpathRoot.resolve(String.valueOf(folder.getFileName()));
+            if (Files.exists(dest)) {
+              FileUtils.deleteTree(dest);
+            }
+            Files.move(folder, dest);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      FileUtils.deleteQuietly(incoming);
+    }
+  }
+
+  /**
+   * Agent side: fills the classpath folder of a client from the one of another client of the same host, which
+   * received the same classpath already. Files are hard-linked when possible, so nothing is transferred nor copied.
+   */
+  public void linkClasspath(Path sourceClasspathRoot, Path classpathRoot) {
+    if (!Files.isDirectory(sourceClasspathRoot)) {
+      throw new IllegalStateException("Client classpath not found in: " + sourceClasspathRoot);
+    }
+    try {
+      Files.createDirectories(classpathRoot);
+      try (Stream<Path> stream = Files.walk(sourceClasspathRoot)) {
+        for (Path source : (Iterable<Path>) stream::iterator) {
+          Path dest = classpathRoot.resolve(sourceClasspathRoot.relativize(source).toString());
+          if (Files.isDirectory(source)) {
+            Files.createDirectories(dest);
+          } else {
+            link(source, dest);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void store(Path blob) throws IOException {
+    String expected = String.valueOf(blob.getFileName());
+    String actual = FileUtils.sha256(blob);
+    if (!expected.equals(actual)) {
+      throw new IOException("Corrupted client jar: " + blob + ": expected hash: " + expected + " but got: " + actual);
+    }
+    try {
+      // blobs are immutable: if another upload stored the same one concurrently, either copy is fine
+      Files.move(blob, root.resolve(expected), ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      Files.delete(blob);
+    }
+  }
+
+  private static void link(Path blob, Path dest) throws IOException {
+    Files.deleteIfExists(dest);
+    try {
+      Files.createLink(dest, blob);
+    } catch (UnsupportedOperationException | IOException e) {
+      logger.debug("Unable to link: {} to: {}, copying it instead: {}", dest, blob, e.toString());
+      Files.copy(blob, dest, REPLACE_EXISTING);
+    }
+  }
+
+  static String sha256(Path file) {
+    try {
+      long size = Files.size(file);
+      long lastModified = Files.getLastModifiedTime(file).toMillis();
+      Digest digest = DIGESTS.get(file);
+      if (digest == null || digest.size != size || digest.lastModified != lastModified) {
+        digest = new Digest(size, lastModified, FileUtils.sha256(file));
+        DIGESTS.put(file, digest);
+      }
+      return digest.hash;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static class Digest {
+    final long size;
+    final long lastModified;
+    final String hash;
+
+    Digest(long size, long lastModified, String hash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.client;
+
+import org.terracotta.angela.agent.com.AgentID;
+import org.terracotta.angela.agent.com.Exceptions;
+import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.ProcessReadiness;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A client agent process started by a {@link RemoteClientManager}, with its working directory.
+ * <p>
+ * A warm client agent waits for the name of the client it is handed out to on its standard input before joining the group.
+ */
+class ClientProcess {
+  private final AtomicReference<InstanceId> instanceId;
+  private final Process process;
+  private final Path installationPath;
+  private final CompletableFuture<AgentID> ready;
+  private final CompletableFuture<Void> exited;
+  private final OutputStream stdin;
+
+  ClientProcess(AtomicReference<InstanceId> instanceId, Process process, Path installationPath, CompletableFuture<AgentID> ready, CompletableFuture<Void> exited, OutputStream stdin) {
+    this.instanceId = instanceId;
+    this.process = process;
+    this.installationPath = installationPath;
+    this.ready = ready;
+    this.exited = exited;
+    this.stdin = stdin;
+  }
+
+  InstanceId getInstanceId() {
+    return instanceId.get();
+  }
+
+  /**
+   * @return the ID of the agent, once it joined the group
+   */
+  AgentID getAgentID() {
+    return ready.getNow(null);
+  }
+
+  Process getProcess() {
+    return process;
+  }
+
+  Path getInstallationPath() {
+    return installationPath;
+  }
+
+  /**
+   * Makes a warm client agent join the group as the agent of a client
+   */
+  AgentID join(InstanceId instanceId) {
+    this.instanceId.set(instanceId);
+    try {
+      try (OutputStream out = stdin) {
+        out.write((instanceId + "\n").getBytes(UTF_8));
+      }
+      if (!ProcessReadiness.await(ready, exited, ProcessReadiness.defaultTimeout())) {
+        throw new RuntimeException("Warm client agent exited before joining the group");
+      }
+      return ready.getNow(null);
+    } catch (IOException | InterruptedException | TimeoutException e) {
+      process.destroyForcibly();
+      throw Exceptions.asRuntime("Error handing out warm client agent to " + instanceId, e);
+    }
+  }
+}
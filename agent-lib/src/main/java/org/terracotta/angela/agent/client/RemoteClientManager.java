@@ -26,19 +26,26 @@ import org.terracotta.angela.agent.com.Exceptions;
 import org.terracotta.angela.common.TerracottaCommandLineEnvironment;
 import org.terracotta.angela.common.topology.InstanceId;
 import org.terracotta.angela.common.util.ExternalLoggers;
+import org.terracotta.angela.common.util.FileUtils;
 import org.terracotta.angela.common.util.LogOutputStream;
 import org.terracotta.angela.common.util.OS;
+import org.terracotta.angela.common.util.ProcessReadiness;
 import org.zeroturnaround.exec.ProcessExecutor;
 import org.zeroturnaround.exec.StartedProcess;
+import org.zeroturnaround.exec.listener.ProcessListener;
 import org.zeroturnaround.process.PidUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
@@ -62,6 +69,10 @@ public class RemoteClientManager {
     this.instanceId = instanceId;
   }
 
+  public InstanceId getInstanceId() {
+    return instanceId;
+  }
+
   public Path getClientInstallationPath() {
     return kitInstallationPath;
   }
@@ -70,9 +81,46 @@ public class RemoteClientManager {
     return kitInstallationPath.resolve(CLASSPATH_SUBDIR_NAME);
   }
 
-  @SuppressWarnings("BusyWait")
-  @SuppressFBWarnings("REC_CATCH_EXCEPTION")
+  /**
+   * Deletes the directory of the client, and the one of the warm agent it was handed out, if any
+   */
+  public void deleteClientInstallation() {
+    Path installationPath = getClientInstallationPath();
+    try {
+      if (Files.isSymbolicLink(installationPath)) {
+        FileUtils.deleteTree(installationPath.toRealPath());
+        Files.delete(installationPath);
+      } else {
+        FileUtils.deleteTree(installationPath);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Spawns the agent of the client, or hands out a warm one from the {@link WarmClientPool} when there is one
+   * started with the same classpath
+   */
   public AgentID spawnClient(TerracottaCommandLineEnvironment tcEnv, AgentGroup group) {
+    return WarmClientPool.getInstance().acquire(this, tcEnv, group)
+        .orElseGet(() -> start(tcEnv, group).getAgentID());
+  }
+
+  ClientProcess start(TerracottaCommandLineEnvironment tcEnv, AgentGroup group) {
+    return start(tcEnv, group, false);
+  }
+
+  /**
+   * Starts a client agent which waits for the name of the client it is handed out to before joining the group,
+   * see {@link ClientProcess#join(InstanceId)}
+   */
+  ClientProcess startWarm(TerracottaCommandLineEnvironment tcEnv, AgentGroup group) {
+    return start(tcEnv, group, true);
+  }
+
+  @SuppressFBWarnings("REC_CATCH_EXCEPTION")
+  private ClientProcess start(TerracottaCommandLineEnvironment tcEnv, AgentGroup group, boolean warm) {
     try {
       // tcEnv comes from the main agent through ignite serialization (from the client array config).
       // Its content will either be what the user has configured for the client array or the default tcEnv used in the main agent.
@@ -81,8 +129,10 @@ public class RemoteClientManager {
       // If the user has overridden the env to use for this client, then it will be either one or the other option above.
       Path javaHome = tcEnv.getJavaHome();
 
-      final AtomicBoolean started = new AtomicBoolean(false);
-      AtomicReference<AgentID> agentID = new AtomicReference<>();
+      AtomicReference<InstanceId> logName = new AtomicReference<>(instanceId);
+      CompletableFuture<Void> waiting = new CompletableFuture<>();
+      CompletableFuture<AgentID> ready = new CompletableFuture<>();
+      CompletableFuture<Void> exited = new CompletableFuture<>();
       List<String> cmdLine = new ArrayList<>();
       if (OS.INSTANCE.isWindows()) {
         cmdLine.add(javaHome + "\\bin\\java.exe");
@@ -98,9 +148,13 @@ public class RemoteClientManager {
       // will point to the exact same JVM as the one used to start the process by default
       cmdLine.add("-Dangela.java.resolver=user");
       cmdLine.add("-Dangela.process=spawned");
-      cmdLine.add("-Dangela.directJoin=" + String.join(",", group.getPeerAddresses()));
+      group.getJoinProperties().forEach((name, value) -> cmdLine.add("-D" + name + "=" + value));
       cmdLine.add("-Dangela.group=" + group.getId());
-      cmdLine.add("-Dangela.instanceName=" + instanceId);
+      if (warm) {
+        cmdLine.add("-Dangela.warm=true");
+      } else {
+        cmdLine.add("-Dangela.instanceName=" + instanceId);
+      }
       cmdLine.add("-D" + ROOT_DIR.getPropertyName() + "=" + Agent.ROOT_DIR);
       cmdLine.add(Agent.class.getName());
 
@@ -115,33 +169,45 @@ public class RemoteClientManager {
           .redirectOutput(new LogOutputStream() {
             @Override
             protected void processLine(String line) {
-              ExternalLoggers.clientLogger.info("[{}] {}", instanceId, line);
-              if (line.startsWith(Agent.AGENT_IS_READY_MARKER_LOG)) {
-                agentID.set(AgentID.valueOf(line.substring(Agent.AGENT_IS_READY_MARKER_LOG.length() + 2)));
-                started.set(true);
+              ExternalLoggers.clientLogger.info("[{}] {}", logName.get(), line);
+              if (line.startsWith(Agent.AGENT_IS_WARM_MARKER_LOG)) {
+                waiting.complete(null);
+              } else if (line.startsWith(Agent.AGENT_IS_READY_MARKER_LOG)) {
+                ready.complete(AgentID.valueOf(line.substring(Agent.AGENT_IS_READY_MARKER_LOG.length() + 2)));
               }
             }
           })
           .redirectErrorStream(true)
-          .directory(getClientInstallationPath().toFile());
+          .directory(getClientInstallationPath().toFile())
+          .addListener(new ProcessListener() {
+            @Override
+            public void afterStop(Process process) {
+              exited.complete(null);
+            }
+          });
+      PipedOutputStream stdin = null;
+      if (warm) {
+        stdin = new PipedOutputStream();
+        processExecutor.redirectInput(new PipedInputStream(stdin));
+      }
       StartedProcess startedProcess = processExecutor.start();
 
       logger.info("Waiting for spawned agent with PID: {} to be ready...", PidUtil.getPid(startedProcess.getProcess()));
-      while (startedProcess.getProcess().isAlive() && !started.get()) {
-        Thread.sleep(200); // no need to do a short wait because ignite startup is really slow
+      boolean isReady;
+      try {
+        isReady = ProcessReadiness.await(warm ? waiting : ready, exited, ProcessReadiness.defaultTimeout());
+      } catch (InterruptedException | TimeoutException e) {
+        // the agent must not outlive a failed spawn
+        startedProcess.getProcess().destroyForcibly();
+        throw e;
       }
-      if (!startedProcess.getProcess().isAlive()) {
+      if (!isReady) {
         throw new RuntimeException("Client process died in infancy");
       }
 
-      AgentID id = agentID.get();
-      if (id == null) {
-        throw new AssertionError("No AgentID");
-      }
-
-      logger.info("Spawned client with PID {}", id.getPid());
-      return id;
-    } catch (IOException | InterruptedException e) {
+      logger.info("Spawned client agent: {} with PID {}", instanceId, PidUtil.getPid(startedProcess.getProcess()));
+      return new ClientProcess(logName, startedProcess.getProcess(), getClientInstallationPath(), ready, exited, stdin);
+    } catch (IOException | InterruptedException | TimeoutException e) {
       throw Exceptions.asRuntime("Error spawning client " + instanceId, e);
     }
   }
@@ -0,0 +1,276 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.com.AgentGroup;
+import org.terracotta.angela.agent.com.AgentID;
+import org.terracotta.angela.common.TerracottaCommandLineEnvironment;
+import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.FileUtils;
+import org.terracotta.angela.common.util.OS;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static org.terracotta.angela.common.AngelaProperties.CLIENT_WARM_POOL_SIZE;
+
+/**
+ * Agent side pool of client agents started ahead of time, per group, JVM and classpath.
+ * <p>
+ * When a client is spawned, up to {@code angela.client.warmPoolSize} other client JVMs are started in the background with
+ * the same classpath: they sit idle until the next client spawned on this agent with the same classpath is handed one of
+ * them instead of waiting for a new JVM. The warm agent then joins the group under the name of the client, and the pool is
+ * refilled in the background. The spares of a group are stopped when the agent leaves it.
+ * <p>
+ * A warm client agent runs in its own directory, and the directory of the client it is handed out to becomes a symbolic
+ * link to it. The pool is therefore not used on Windows.
+ */
+public class WarmClientPool {
+
+  private final static Logger logger = LoggerFactory.getLogger(WarmClientPool.class);
+
+  private static final WarmClientPool INSTANCE = new WarmClientPool();
+
+  private final Map<String, Spares> spares = new ConcurrentHashMap<>();
+  private final AtomicInteger counter = new AtomicInteger();
+  private final AtomicInteger threads = new AtomicInteger();
+  private final ExecutorService starter = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "angela-warm-client-" + threads.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public static WarmClientPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Hands out a warm client agent started with the same classpath, JVM and group as the client, if there is one,
+   * and refills the pool in the background
+   */
+  Optional<AgentID> acquire(RemoteClientManager client, TerracottaCommandLineEnvironment tcEnv, AgentGroup group) {
+    int size = Integer.parseInt(CLIENT_WARM_POOL_SIZE.getValue());
+    if (size <= 0 || OS.INSTANCE.isWindows()) {
+      return Optional.empty();
+    }
+    Path classpathRoot = client.getClientClasspathRoot();
+    Spares pool = spares.computeIfAbsent(key(classpathRoot, tcEnv, group), k -> new Spares(group.getId()));
+    ClientProcess warm = pool.poll();
+    // the spares get their classpath from the one of the client, which is replaced below when a warm agent is handed out
+    refill(pool, size, classpathRoot, tcEnv, group);
+    if (warm == null) {
+      return Optional.empty();
+    }
+    return handOut(pool, warm, client.getInstanceId(), client.getClientInstallationPath());
+  }
+
+  /**
+   * Replaces the directory of the client by a link to the one of the warm agent, and makes the warm agent join the group
+   */
+  static Optional<AgentID> handOut(Spares pool, ClientProcess warm, InstanceId instanceId, Path installationPath) {
+    InstanceId warmId = warm.getInstanceId();
+    Path link = installationPath.resolveSibling(installationPath.getFileName() + ".warm");
+    try {
+      Files.deleteIfExists(link);
+      Files.createSymbolicLink(link, warm.getInstallationPath());
+    } catch (IOException | UnsupportedOperationException e) {
+      logger.warn("Unable to hand out warm client agent: {} to: {}: {}", warmId, instanceId, e.toString());
+      pool.offer(warm);
+      return Optional.empty();
+    }
+    try {
+      FileUtils.deleteTree(installationPath);
+      Files.move(link, installationPath, ATOMIC_MOVE);
+    } catch (IOException e) {
+      warm.getProcess().destroy();
+      throw new UncheckedIOException(e);
+    }
+    AgentID agentID = warm.join(instanceId);
+    logger.info("Handed out warm client agent: {} to: {}", warmId, agentID);
+    return Optional.of(agentID);
+  }
+
+  /**
+   * Stops the idle warm client agents of a group, and the ones being started, when the agent leaves the group
+   */
+  public void clear(UUID group) {
+    spares.values().removeIf(pool -> {
+      if (!pool.group.equals(group)) {
+        return false;
+      }
+      pool.close();
+      return true;
+    });
+  }
+
+  private void refill(Spares pool, int size, Path classpathRoot, TerracottaCommandLineEnvironment tcEnv, AgentGroup group) {
+    int missing = pool.reserve(size);
+    for (int i = 0; i < missing; i++) {
+      RemoteClientManager spare = new RemoteClientManager(new InstanceId(group.getId() + "-warm-" + counter.incrementAndGet(), "client"));
+      try {
+        new ClientJarStore().linkClasspath(classpathRoot, spare.getClientClasspathRoot());
+      } catch (RuntimeException e) {
+        logger.warn("Unable to prepare warm client agent: {}: {}", spare.getInstanceId(), e.toString());
+        FileUtils.deleteQuietly(spare.getClientInstallationPath());
+        pool.release(null);
+        continue;
+      }
+      pool.starting(starter.submit(() -> {
+        ClientProcess process = null;
+        try {
+          if (!pool.isClosed()) {
+            process = spare.startWarm(tcEnv, group);
+          }
+        } catch (RuntimeException e) {
+          if (!pool.isClosed()) {
+            logger.warn("Unable to start warm client agent: {}: {}", spare.getInstanceId(), e.toString());
+          }
+        } finally {
+          if (process == null) {
+            FileUtils.deleteQuietly(spare.getClientInstallationPath());
+          }
+          pool.release(process);
+        }
+      }));
+    }
+  }
+
+  /**
+   * The classpath of the clients of an orchestrator does not change during its session,
+   * so the names and sizes of its files are enough to tell whether a warm agent can be handed out to a client
+   */
+  private static String key(Path classpathRoot, TerracottaCommandLineEnvironment tcEnv, AgentGroup group) {
+    StringBuilder sb = new StringBuilder()
+        .append(group.getId()).append('\n')
+        .append(tcEnv.getJavaHome()).append('\n')
+        .append(tcEnv.getJavaOpts());
+    try (Stream<Path> files = Files.walk(classpathRoot)) {
+      files.filter(Files::isRegularFile)
+          .sorted()
+          .forEach(file -> sb.append('\n').append(classpathRoot.relativize(file)).append(':').append(file.toFile().length()));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return UUID.nameUUIDFromBytes(sb.toString().getBytes(UTF_8)).toString();
+  }
+
+  /**
+   * The warm client agents of a classpath: the idle ones, and the number of the ones being started
+   */
+  static class Spares {
+    private final UUID group;
+    private final Queue<ClientProcess> idle = new ArrayDeque<>();
+    private final Set<Future<?>> pending = new HashSet<>();
+    private int starting;
+    private boolean closed;
+
+    Spares(UUID group) {
+      this.group = group;
+    }
+
+    synchronized ClientProcess poll() {
+      ClientProcess process;
+      while ((process = idle.poll()) != null) {
+        if (process.getProcess().isAlive()) {
+          return process;
+        }
+        logger.warn("Discarding dead warm client agent: {}", process.getInstanceId());
+        FileUtils.deleteQuietly(process.getInstallationPath());
+      }
+      return null;
+    }
+
+    synchronized void offer(ClientProcess process) {
+      idle.add(process);
+    }
+
+    /**
+     * @return the number of spares to start to fill the pool up to its size
+     */
+    synchronized int reserve(int size) {
+      int missing = closed ? 0 : Math.max(0, size - idle.size() - starting);
+      starting += missing;
+      return missing;
+    }
+
+    /**
+     * Keeps track of the start of a spare, so that it is cancelled if the pool is closed before it is started
+     */
+    synchronized void starting(Future<?> start) {
+      if (closed) {
+        start.cancel(true);
+      } else if (!start.isDone()) {
+        pending.add(start);
+      }
+    }
+
+    synchronized void release(ClientProcess started) {
+      starting--;
+      pending.removeIf(Future::isDone);
+      if (started == null) {
+        return;
+      }
+      if (closed) {
+        stop(started);
+      } else {
+        idle.add(started);
+      }
+    }
+
+    synchronized boolean isClosed() {
+      return closed;
+    }
+
+    synchronized int size() {
+      return idle.size() + starting;
+    }
+
+    synchronized void close() {
+      closed = true;
+      // interrupting a start destroys the spare being started
+      pending.forEach(start -> start.cancel(true));
+      pending.clear();
+      idle.forEach(Spares::stop);
+      idle.clear();
+    }
+
+    private static void stop(ClientProcess process) {
+      logger.debug("Stopping warm client agent: {}", process.getInstanceId());
+      process.getProcess().destroy();
+      FileUtils.deleteQuietly(process.getInstallationPath());
+    }
+  }
+}
@@ -17,12 +17,17 @@
 package org.terracotta.angela.agent.com;
 
 import org.apache.ignite.lang.IgniteCallable;
+import org.apache.ignite.lang.IgniteClosure;
+import org.apache.ignite.lang.IgnitePredicate;
 import org.apache.ignite.lang.IgniteRunnable;
+import org.terracotta.angela.agent.kit.LocalKitManager;
+import org.terracotta.angela.common.ToolExecutionResult;
 import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.topology.InstanceId;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
 
@@ -60,9 +65,142 @@ public class AgentExecutor {
 
   public <R> Future<R> executeAsync(IgniteCallable<R> job) {return executor.executeAsync(agentID, job);}
 
+  /**
+   * Creates a pipeline of jobs which are sent to the target in one message and executed there one after the other,
+   * saving a round trip per job compared to calling {@link #execute(IgniteCallable)} for each of them.
+   */
+  public Pipeline pipeline() {
+    return new Pipeline();
+  }
+
+  /**
+   * Executes the commands of a tool in order on the target, in one round trip.
+   * The execution stops after the first command that fails.
+   *
+   * @param tool executes one command of the tool on the target
+   * @return the results of the executed commands, in order
+   */
+  public List<ToolExecutionResult> executeToolCommands(IgniteClosure<String[], ToolExecutionResult> tool, List<String[]> commands) {
+    Pipeline pipeline = pipeline();
+    for (String[] command : commands) {
+      pipeline.then(() -> tool.apply(command), result -> result.getExitStatus() == 0);
+    }
+    List<ToolExecutionResult> results = new ArrayList<>(commands.size());
+    for (Object result : pipeline.execute()) {
+      results.add((ToolExecutionResult) result);
+    }
+    return results;
+  }
+
   public void uploadKit(InstanceId instanceId, Distribution distribution, String kitInstallationName, Path kitInstallationPath) throws IOException, InterruptedException {
     executor.uploadKit(agentID, instanceId, distribution, kitInstallationName, kitInstallationPath);
   }
 
+  public void uploadKit(InstanceId instanceId, Distribution distribution, String kitInstallationName, LocalKitManager localKitManager) {
+    executor.uploadKit(agentID, instanceId, distribution, kitInstallationName, localKitManager);
+  }
+
+  public void syncKit(InstanceId instanceId, Distribution distribution, String kitInstallationName, LocalKitManager localKitManager) {
+    executor.syncKit(agentID, instanceId, distribution, kitInstallationName, localKitManager);
+  }
+
   public void uploadClientJars(InstanceId instanceId, List<Path> locations) throws IOException, InterruptedException {executor.uploadClientJars(agentID, instanceId, locations);}
+
+  public void linkClientJars(InstanceId sourceInstanceId, InstanceId instanceId) {executor.linkClientJars(agentID, sourceInstanceId, instanceId);}
+
+  public void uploadFolder(Path folder, String remoteFolder) {
+    executor.uploadFolder(agentID, folder, remoteFolder);
+  }
+
+  public void downloadFolder(String remoteFolder, Path dest, boolean compress) {
+    executor.downloadFolder(agentID, remoteFolder, dest, compress);
+  }
+
+  public class Pipeline {
+    private final List<IgniteCallable<?>> jobs = new ArrayList<>();
+
+    private Pipeline() {
+    }
+
+    public Pipeline then(IgniteRunnable job) {
+      jobs.add(() -> {
+        job.run();
+        return null;
+      });
+      return this;
+    }
+
+    public Pipeline then(IgniteCallable<?> job) {
+      jobs.add(job);
+      return this;
+    }
+
+    /**
+     * Adds a job after which the pipeline stops if its result does not match the condition,
+     * so that a job can depend on the outcome of the previous ones without a round trip in between.
+     */
+    public <R> Pipeline then(IgniteCallable<R> job, IgnitePredicate<? super R> condition) {
+      jobs.add(new ConditionalJob<>(job, condition));
+      return this;
+    }
+
+    /**
+     * Executes the jobs in order on the target, stopping at the first job that fails, which fails the pipeline.
+     *
+     * @return the results of the executed jobs, in order ({@code null} for runnables), which has fewer elements
+     * than the number of jobs if the pipeline was stopped by a condition
+     */
+    public List<Object> execute() {
+      return executor.execute(agentID, new PipelineJob(jobs));
+    }
+
+    public Future<List<Object>> executeAsync() {
+      return executor.executeAsync(agentID, new PipelineJob(jobs));
+    }
+  }
+
+  private static class PipelineJob implements IgniteCallable<List<Object>> {
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<IgniteCallable<?>> jobs;
+
+    PipelineJob(List<IgniteCallable<?>> jobs) {
+      this.jobs = new ArrayList<>(jobs);
+    }
+
+    @Override
+    public List<Object> call() throws Exception {
+      ArrayList<Object> results = new ArrayList<>(jobs.size());
+      for (IgniteCallable<?> job : jobs) {
+        Object result = job.call();
+        results.add(result);
+        if (job instanceof ConditionalJob && !((ConditionalJob<?>) job).matches(result)) {
+          break;
+        }
+      }
+      return results;
+    }
+  }
+
+  private static class ConditionalJob<R> implements IgniteCallable<R> {
+    private static final long serialVersionUID = 1L;
+
+    private final IgniteCallable<R> job;
+    private final IgnitePredicate<? super R> condition;
+
+    ConditionalJob(IgniteCallable<R> job, IgnitePredicate<? super R> condition) {
+      this.job = job;
+      this.condition = condition;
+    }
+
+    @Override
+    public R call() throws Exception {
+      return job.call();
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean matches(Object result) {
+      return condition.apply((R) result);
+    }
+  }
 }
@@ -21,6 +21,8 @@ import org.terracotta.angela.common.util.HostPort;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.function.Consumer;
@@ -92,6 +94,13 @@ public abstract class AgentGroup implements Serializable {
             .map(addr -> new HostPort(addr).getHostPort()).collect(toList());
   }
 
+  /**
+   * @return the system properties a spawned agent needs to join this group
+   */
+  public Map<String, String> getJoinProperties() {
+    return Collections.singletonMap("angela.directJoin", String.join(",", getPeerAddresses()));
+  }
+
   @Override
   public final String toString() {
     return getId() + "=" + getAllAgents();
@@ -0,0 +1,75 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routing table of an agent group, indexing the route to reach each agent (i.e. an Ignite cluster group)
+ * and the agent serving each hostname, so that dispatching a job does not scan the topology.
+ * <p>
+ * The table is maintained from the topology events: routes are added when agents join and removed when they leave.
+ *
+ * @param <R> the route type
+ */
+class AgentRoutes<R> {
+  private final Map<AgentID, R> routes = new ConcurrentHashMap<>();
+  private final Map<String, AgentID> hostnames = new ConcurrentHashMap<>();
+
+  Optional<R> route(AgentID agentID) {
+    return Optional.ofNullable(routes.get(agentID));
+  }
+
+  /**
+   * @return the route of the agent, which is the given one unless another one was added concurrently
+   */
+  R addRoute(AgentID agentID, R route) {
+    R previous = routes.putIfAbsent(agentID, route);
+    return previous == null ? route : previous;
+  }
+
+  /**
+   * Registers the agent serving the hostname.
+   *
+   * @param override true to replace the agent currently serving the hostname, if any
+   */
+  void serve(String hostname, AgentID agentID, boolean override) {
+    if (override) {
+      hostnames.put(hostname, agentID);
+    } else {
+      hostnames.putIfAbsent(hostname, agentID);
+    }
+  }
+
+  Optional<AgentID> findAgentID(String hostname) {
+    return Optional.ofNullable(hostnames.get(hostname));
+  }
+
+  void remove(AgentID agentID, Collection<String> servedHostnames) {
+    routes.remove(agentID);
+    for (String hostname : servedHostnames) {
+      hostnames.remove(hostname, agentID);
+    }
+  }
+
+  int size() {
+    return routes.size();
+  }
+}
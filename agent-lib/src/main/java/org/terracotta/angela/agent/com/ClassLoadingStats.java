@@ -0,0 +1,65 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long the jobs executed by the agent of this JVM stalled while their classes were loaded from the sending peer,
+ * which is what {@link Executor#deployJobClasses(AgentID, java.util.List)} avoids.
+ */
+public class ClassLoadingStats implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private static final AtomicLong CLASSES = new AtomicLong();
+  private static final AtomicLong NANOS = new AtomicLong();
+
+  private final long classes;
+  private final long nanos;
+
+  private ClassLoadingStats(long classes, long nanos) {
+    this.classes = classes;
+    this.nanos = nanos;
+  }
+
+  static void record(long nanos) {
+    CLASSES.incrementAndGet();
+    NANOS.addAndGet(nanos);
+  }
+
+  public static ClassLoadingStats snapshot() {
+    return new ClassLoadingStats(CLASSES.get(), NANOS.get());
+  }
+
+  /**
+   * @return the number of classes loaded from peers
+   */
+  public long getClasses() {
+    return classes;
+  }
+
+  public long getStallTime(TimeUnit unit) {
+    return unit.convert(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return classes + " classes loaded from peers in " + getStallTime(TimeUnit.MILLISECONDS) + " ms";
+  }
+}
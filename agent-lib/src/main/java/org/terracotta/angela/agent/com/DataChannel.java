@@ -0,0 +1,316 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.AgentController;
+import org.terracotta.angela.common.net.PortAllocator;
+import org.terracotta.angela.common.util.IpUtils;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Direct TCP connection used to stream files without going through the Ignite file transfer queue.
+ * <p>
+ * The sender listens on a port taken from the {@link PortAllocator} of the local {@link AgentController}
+ * and offers it through the file transfer queue. The receiver connects to it and the files are copied with
+ * {@link FileChannel#transferTo} and {@link FileChannel#transferFrom}, which avoids copying the data
+ * through the JVM heap (sendfile on Linux).
+ * <p>
+ * If the receiver does not connect in time, the sender falls back to the chunks of the file transfer queue.
+ * It does so as soon as the receiver puts a refusal on the queue because it cannot connect (see {@link #refuse}),
+ * or as soon as the receiver is done, instead of waiting for the accept timeout.
+ * <p>
+ * The offer carries a random token, that the receiver sends first when connecting: the connections which do not present it
+ * are dropped, so that only the receiver of the queue can get or inject the files.
+ * <p>
+ * Each file is preceded by a header made of the length of its relative path (int), the relative path (UTF-8),
+ * the offset the transfer starts at (long, non-zero when resuming) and the size of the file (long). The end of the transfer is an empty relative path, after which the receiver
+ * acknowledges with one byte once all the files are written.
+ */
+class DataChannel implements Closeable {
+  private final static Logger logger = LoggerFactory.getLogger(DataChannel.class);
+
+  private static final long ACCEPT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+  private static final int CONNECT_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(10);
+  private static final long POLL_MS = 100;
+  private static final byte ACK = 1;
+  private static final int TOKEN_LENGTH = 32;
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final SocketChannel channel;
+  private final PortAllocator.PortReservation portReservation;
+
+  private DataChannel(SocketChannel channel, PortAllocator.PortReservation portReservation) {
+    this.channel = channel;
+    this.portReservation = portReservation;
+  }
+
+  /**
+   * Sender side: offers a data channel to the receiver through the queue and waits for it to connect
+   *
+   * @param receiver the download of the receiver: the sender stops waiting when it is done
+   * @return the connected channel, or null if the receiver did not connect and the queue has to be used instead
+   */
+  static DataChannel offer(BlockingQueue<FileTransfer> queue, Future<?> receiver) throws IOException, InterruptedException {
+    PortAllocator.PortReservation portReservation = reservePort();
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(IpUtils.getBindAddress(), portReservation == null ? 0 : portReservation.next()));
+      int port = server.socket().getLocalPort();
+      byte[] token = new byte[TOKEN_LENGTH];
+      RANDOM.nextBytes(token);
+      queue.put(FileTransfer.dataChannel(IpUtils.getHostName(), port, token));
+      long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT_MS;
+      while (true) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          logger.warn("No connection on data channel port: {} after {} ms. Using the file transfer queue instead.", port, ACCEPT_TIMEOUT_MS);
+          releasePort(portReservation);
+          return null;
+        }
+        Socket socket;
+        try {
+          server.socket().setSoTimeout((int) Math.min(POLL_MS, remaining));
+          socket = server.socket().accept();
+        } catch (SocketTimeoutException e) {
+          if (isRefused(queue) || receiver.isDone()) {
+            logger.warn("Receiver did not connect to data channel port: {}. Using the file transfer queue instead.", port);
+            releasePort(portReservation);
+            return null;
+          }
+          continue;
+        }
+        if (hasToken(socket, token, deadline)) {
+          logger.debug("Data channel connected on port: {} from: {}", port, socket.getRemoteSocketAddress());
+          return new DataChannel(socket.getChannel(), portReservation);
+        }
+        logger.warn("Rejected connection on data channel port: {} from: {}: invalid token", port, socket.getRemoteSocketAddress());
+        socket.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      releasePort(portReservation);
+      throw e;
+    }
+  }
+
+  /**
+   * Receiver side: connects to an offered data channel and writes the received files into the destination
+   *
+   * @return false if the connection could not be established, in which case the sender falls back to the queue
+   */
+  static boolean receive(InetSocketAddress address, byte[] token, Path dest, TransferStats stats) throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    try {
+      channel.socket().connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MS);
+    } catch (IOException e) {
+      logger.warn("Unable to connect to data channel: {}. Waiting for the file transfer queue instead.", address, e);
+      channel.close();
+      return false;
+    }
+    try (DataChannel dataChannel = new DataChannel(channel, null)) {
+      dataChannel.writeFully(ByteBuffer.wrap(token));
+      dataChannel.receiveAll(dest, stats);
+    }
+    return true;
+  }
+
+  /**
+   * Receiver side: tells the sender that the offered data channel cannot be connected to, so that it sends the files
+   * through the queue right away. Returns once the sender took the refusal, so that the receiver does not take it back;
+   * a refusal the sender did not take within the accept timeout is left for the receiver to skip.
+   */
+  static void refuse(BlockingQueue<FileTransfer> queue) throws InterruptedException {
+    queue.put(FileTransfer.REFUSED);
+    long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT_MS;
+    while (System.currentTimeMillis() < deadline) {
+      FileTransfer head = queue.peek();
+      if (head == null || !head.isRefusal()) {
+        return;
+      }
+      Thread.sleep(POLL_MS);
+    }
+  }
+
+  private static boolean isRefused(BlockingQueue<FileTransfer> queue) {
+    FileTransfer head = queue.peek();
+    // the sender is the only one removing a refusal at the head of the queue
+    return head != null && head.isRefusal() && queue.poll() != null;
+  }
+
+  /**
+   * @param offset where to start, to resume the transfer of a file the receiver partially has
+   * @return the number of bytes sent
+   */
+  long send(String relativePath, Path file, long offset) throws IOException {
+    byte[] path = relativePath.getBytes(UTF_8);
+    try (FileChannel fileChannel = FileChannel.open(file, READ)) {
+      long size = fileChannel.size();
+      if (offset < 0 || offset > size) {
+        throw new IOException("Cannot resume the transfer of: " + file + " of size: " + size + " at offset: " + offset);
+      }
+      ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + path.length + Long.BYTES * 2);
+      header.putInt(path.length).put(path).putLong(offset).putLong(size).flip();
+      writeFully(header);
+      long position = offset;
+      while (position < size) {
+        long transferred = fileChannel.transferTo(position, size - position, channel);
+        if (transferred <= 0 && position >= fileChannel.size()) {
+          throw new EOFException("File truncated while being sent: " + file);
+        }
+        position += transferred;
+      }
+      return size - offset;
+    }
+  }
+
+  /**
+   * Sender side: signals the end of the transfer and waits for the receiver to have written all the files
+   */
+  void finish() throws IOException {
+    ByteBuffer end = ByteBuffer.allocate(Integer.BYTES);
+    end.putInt(0).flip();
+    writeFully(end);
+    ByteBuffer ack = ByteBuffer.allocate(1);
+    readFully(channel, ack);
+    if (ack.get(0) != ACK) {
+      throw new IOException("Unexpected acknowledgement on data channel: " + ack.get(0));
+    }
+  }
+
+  private void receiveAll(Path dest, TransferStats stats) throws IOException {
+    while (true) {
+      ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+      readFully(channel, length);
+      int pathLength = length.getInt(0);
+      if (pathLength == 0) {
+        break;
+      }
+      ByteBuffer header = ByteBuffer.allocate(pathLength + Long.BYTES * 2);
+      readFully(channel, header);
+      header.flip();
+      byte[] path = new byte[pathLength];
+      header.get(path);
+      long offset = header.getLong();
+      long size = header.getLong();
+
+      Path file = dest.resolve(new String(path, UTF_8));
+      Path parent = file.getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      try (FileChannel fileChannel = offset == 0 ? FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE) : FileChannel.open(file, WRITE)) {
+        if (offset > 0) {
+          // resumed transfer: the file already has the bytes before the offset
+          if (fileChannel.size() < offset) {
+            throw new IOException("Cannot resume: " + file + " of size: " + fileChannel.size() + " at offset: " + offset);
+          }
+          fileChannel.truncate(offset);
+        }
+        long position = offset;
+        while (position < size) {
+          long transferred = fileChannel.transferFrom(channel, position, size - position);
+          if (transferred <= 0) {
+            throw new EOFException("Data channel closed while receiving: " + file);
+          }
+          position += transferred;
+        }
+      }
+      stats.addBytes(size - offset);
+      stats.addFile();
+      logger.debug("Downloaded: {}", file);
+    }
+    ByteBuffer ack = ByteBuffer.allocate(1);
+    ack.put(ACK).flip();
+    writeFully(ack);
+  }
+
+  private static boolean hasToken(Socket socket, byte[] token, long deadline) throws IOException {
+    byte[] received = new byte[token.length];
+    try {
+      // the stream of the socket honors the timeout, unlike its channel
+      socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+      new DataInputStream(socket.getInputStream()).readFully(received);
+      socket.setSoTimeout(0);
+    } catch (IOException e) {
+      return false;
+    }
+    return MessageDigest.isEqual(token, received);
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Data channel closed");
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      releasePort(portReservation);
+    }
+  }
+
+  private static PortAllocator.PortReservation reservePort() {
+    try {
+      return AgentController.getInstance().getPortAllocator().reserve(1);
+    } catch (IllegalStateException e) {
+      // no agent controller in this JVM: let the system choose a port
+      return null;
+    }
+  }
+
+  private static void releasePort(PortAllocator.PortReservation portReservation) {
+    if (portReservation != null) {
+      portReservation.close();
+    }
+  }
+}
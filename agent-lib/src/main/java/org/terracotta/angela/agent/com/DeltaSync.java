@@ -0,0 +1,528 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.common.util.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * rsync-like synchronization of a folder with a remote copy of it.
+ * <p>
+ * The receiver computes the {@link #signatures(Path) signatures} of the files it has: a weak rolling checksum and a strong hash
+ * for each block of a file. The sender then scans its changed files with the rolling checksum to find the blocks the receiver
+ * already has, at any offset, and {@link #createPatch(Path, Map, Path) writes a patch} made of references to these blocks
+ * and of the literal bytes in between. Only the patch is transferred, and the receiver {@link #applyPatch(Path, Path) applies}
+ * it by rebuilding each changed file from its previous version.
+ */
+public class DeltaSync {
+  private final static Logger logger = LoggerFactory.getLogger(DeltaSync.class);
+
+  private static final int MAGIC = 0x616e6764;
+  private static final int MIN_BLOCK_SIZE = 2 * 1024;
+  private static final int MAX_BLOCK_SIZE = 64 * 1024;
+  private static final int MAX_LITERAL_SIZE = 64 * 1024;
+
+  private static final byte OP_END = 0;
+  private static final byte OP_DELETE = 1;
+  private static final byte OP_FOLDER = 2;
+  private static final byte OP_FILE = 3;
+
+  private static final byte FILE_END = 0;
+  private static final byte FILE_COPY = 1;
+  private static final byte FILE_DATA = 2;
+
+  // signatures are costly to compute and the synchronized files rarely change.
+  // Bounded, since each kit version and each patched copy of a kit adds its own files
+  private static final int MAX_SIGNATURES = 20_000;
+  private static final Map<Path, FileSignature> SIGNATURES = Collections.synchronizedMap(new LinkedHashMap<Path, FileSignature>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, FileSignature> eldest) {
+      return size() > MAX_SIGNATURES;
+    }
+  });
+
+  /**
+   * @return the signatures of the files and folders under the root, keyed by their unix-like relative path
+   */
+  public static Map<String, FileSignature> signatures(Path root) {
+    Map<String, FileSignature> signatures = new LinkedHashMap<>();
+    try (Stream<Path> walk = Files.walk(root)) {
+      for (Path path : (Iterable<Path>) walk.sorted()::iterator) {
+        if (path.equals(root)) {
+          continue;
+        }
+        signatures.put(relativePath(root, path), Files.isDirectory(path) ? FileSignature.FOLDER : signature(path));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return signatures;
+  }
+
+  static FileSignature signature(Path file) throws IOException {
+    long size = Files.size(file);
+    long lastModified = Files.getLastModifiedTime(file).toMillis();
+    FileSignature signature = SIGNATURES.get(file);
+    if (signature == null || signature.size != size || signature.lastModified != lastModified) {
+      signature = computeSignature(file, size, lastModified);
+      SIGNATURES.put(file, signature);
+    }
+    return signature;
+  }
+
+  private static FileSignature computeSignature(Path file, long size, long lastModified) throws IOException {
+    int blockSize = blockSize(size);
+    int blockCount = (int) ((size + blockSize - 1) / blockSize);
+    int[] weak = new int[blockCount];
+    byte[][] strong = new byte[blockCount][];
+    MessageDigest fileDigest = digest("SHA-256");
+    MessageDigest blockDigest = digest("MD5");
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), blockSize))) {
+      byte[] block = new byte[blockSize];
+      for (int i = 0; i < blockCount; i++) {
+        int length = (int) Math.min(blockSize, size - (long) i * blockSize);
+        in.readFully(block, 0, length);
+        weak[i] = weakChecksum(ByteBuffer.wrap(block), 0, length);
+        blockDigest.update(block, 0, length);
+        strong[i] = blockDigest.digest();
+        fileDigest.update(block, 0, length);
+      }
+    }
+    return new FileSignature(size, lastModified, hex(fileDigest.digest()), blockSize, weak, strong);
+  }
+
+  /**
+   * Writes the patch to apply to the remote copy, described by its signatures, to make it identical to the local root.
+   *
+   * @return false if the remote copy is already identical, in which case the patch does not need to be sent
+   */
+  public static boolean createPatch(Path root, Map<String, FileSignature> remoteSignatures, Path patchFile) throws IOException {
+    List<String> deleted = new ArrayList<>();
+    List<String> folders = new ArrayList<>();
+    Map<String, Path> files = new LinkedHashMap<>();
+    Map<String, FileSignature> remaining = new HashMap<>(remoteSignatures);
+    try (Stream<Path> walk = Files.walk(root)) {
+      for (Path path : (Iterable<Path>) walk.sorted()::iterator) {
+        if (path.equals(root)) {
+          continue;
+        }
+        String relativePath = relativePath(root, path);
+        FileSignature remote = remaining.remove(relativePath);
+        if (Files.isDirectory(path)) {
+          if (remote == null || !remote.isFolder()) {
+            folders.add(relativePath);
+          }
+        } else if (remote == null || remote.isFolder() || !remote.sha256.equals(signature(path).sha256)) {
+          files.put(relativePath, path);
+        }
+      }
+    }
+    for (String relativePath : remoteSignatures.keySet()) {
+      // a deleted folder also deletes its content
+      if (remaining.containsKey(relativePath) && deleted.stream().noneMatch(folder -> relativePath.startsWith(folder + "/"))) {
+        deleted.add(relativePath);
+      }
+    }
+    if (deleted.isEmpty() && folders.isEmpty() && files.isEmpty()) {
+      return false;
+    }
+
+    long copied = 0;
+    long literal = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(patchFile)))) {
+      out.writeInt(MAGIC);
+      for (String relativePath : deleted) {
+        out.writeByte(OP_DELETE);
+        out.writeUTF(relativePath);
+      }
+      for (String relativePath : folders) {
+        out.writeByte(OP_FOLDER);
+        out.writeUTF(relativePath);
+      }
+      for (Map.Entry<String, Path> entry : files.entrySet()) {
+        FileSignature remote = remoteSignatures.get(entry.getKey());
+        FileSignature local = signature(entry.getValue());
+        out.writeByte(OP_FILE);
+        out.writeUTF(entry.getKey());
+        out.writeLong(local.size);
+        out.writeUTF(local.sha256);
+        DeltaWriter writer = new DeltaWriter(out, remote == null || remote.isFolder() ? null : remote);
+        writer.write(entry.getValue(), local.size);
+        out.writeByte(FILE_END);
+        copied += writer.copied;
+        literal += writer.literal;
+      }
+      out.writeByte(OP_END);
+    }
+    logger.debug("Patch of: {}: {} deleted, {} folders, {} files, {} bytes reused, {} bytes sent",
+        root, deleted.size(), folders.size(), files.size(), copied, literal);
+    return true;
+  }
+
+  /**
+   * Applies a patch to the root. Each changed file is rebuilt next to its previous version, verified, then moved in place.
+   */
+  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+  public static void applyPatch(Path patchFile, Path root) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(patchFile)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a patch: " + patchFile);
+      }
+      while (true) {
+        byte op = in.readByte();
+        if (op == OP_END) {
+          break;
+        }
+        Path path = resolve(root, in.readUTF());
+        switch (op) {
+          case OP_DELETE:
+            FileUtils.deleteTree(path);
+            break;
+          case OP_FOLDER:
+            if (Files.isRegularFile(path)) {
+              Files.delete(path);
+            }
+            Files.createDirectories(path);
+            break;
+          case OP_FILE:
+            long size = in.readLong();
+            String sha256 = in.readUTF();
+            if (Files.isDirectory(path)) {
+              FileUtils.deleteTree(path);
+            }
+            Files.createDirectories(path.getParent());
+            Path rebuilt = path.resolveSibling(path.getFileName() + ".delta-sync");
+            rebuild(in, path, rebuilt);
+            String actual = FileUtils.sha256(rebuilt);
+            if (Files.size(rebuilt) != size || !actual.equals(sha256)) {
+              Files.delete(rebuilt);
+              throw new IOException("Corrupted file after applying patch: " + path + ": expected hash: " + sha256 + " but got: " + actual);
+            }
+            Files.move(rebuilt, path, ATOMIC_MOVE);
+            break;
+          default:
+            throw new IOException("Corrupted patch: " + patchFile + ": unknown operation: " + op);
+        }
+      }
+    }
+    FileUtils.setCorrectPermissions(root);
+  }
+
+  private static void rebuild(DataInputStream in, Path previous, Path rebuilt) throws IOException {
+    try (FileChannel base = Files.isRegularFile(previous) ? FileChannel.open(previous, READ) : null;
+         FileChannel out = FileChannel.open(rebuilt, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      int blockSize = in.readInt();
+      byte[] buffer = new byte[MAX_LITERAL_SIZE];
+      while (true) {
+        byte op = in.readByte();
+        if (op == FILE_END) {
+          return;
+        }
+        if (op == FILE_COPY) {
+          if (base == null) {
+            throw new IOException("Corrupted patch: no previous version of: " + previous + " to copy blocks from");
+          }
+          long position = (long) in.readInt() * blockSize;
+          long count = Math.min((long) in.readInt() * blockSize, base.size() - position);
+          while (count > 0) {
+            long transferred = base.transferTo(position, count, out);
+            position += transferred;
+            count -= transferred;
+          }
+        } else if (op == FILE_DATA) {
+          int length = in.readInt();
+          in.readFully(buffer, 0, length);
+          ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+          while (bytes.hasRemaining()) {
+            out.write(bytes);
+          }
+        } else {
+          throw new IOException("Corrupted patch: unknown file operation: " + op);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the content of a file as references to the blocks of its previous version, and literal bytes
+   */
+  private static class DeltaWriter {
+    private final DataOutputStream out;
+    private final FileSignature base;
+    private int pendingCopyStart = -1;
+    private int pendingCopyCount;
+    long copied;
+    long literal;
+
+    DeltaWriter(DataOutputStream out, FileSignature base) {
+      this.out = out;
+      this.base = base;
+    }
+
+    void write(Path file, long size) throws IOException {
+      // the block size is written even without a base so the format stays the same
+      out.writeInt(base == null ? 0 : base.blockSize);
+      try (FileChannel channel = FileChannel.open(file, READ)) {
+        if (base == null || size > Integer.MAX_VALUE || size < base.blockSize) {
+          writeLiteral(channel, size);
+          return;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        scan(buffer, (int) size);
+      }
+    }
+
+    private void scan(ByteBuffer buffer, int size) throws IOException {
+      int blockSize = base.blockSize;
+      Map<Integer, List<Integer>> blocksByChecksum = new HashMap<>();
+      boolean[] tags = new boolean[1 << 16];
+      for (int i = 0; i < base.weak.length; i++) {
+        // the last block of the base is shorter: it can only be reused as part of a literal
+        if ((long) (i + 1) * blockSize <= base.size) {
+          blocksByChecksum.computeIfAbsent(base.weak[i], k -> new ArrayList<>(1)).add(i);
+          tags[tag(base.weak[i])] = true;
+        }
+      }
+      MessageDigest blockDigest = digest("MD5");
+
+      int literalStart = 0;
+      int position = 0;
+      int checksum = weakChecksum(buffer, 0, blockSize);
+      while (position + blockSize <= size) {
+        int match = -1;
+        if (tags[tag(checksum)]) {
+          List<Integer> candidates = blocksByChecksum.get(checksum);
+          if (candidates != null) {
+            ByteBuffer block = buffer.duplicate();
+            block.position(position).limit(position + blockSize);
+            blockDigest.update(block);
+            byte[] strong = blockDigest.digest();
+            for (int candidate : candidates) {
+              if (Arrays.equals(base.strong[candidate], strong)) {
+                match = candidate;
+                break;
+              }
+            }
+          }
+        }
+        if (match >= 0) {
+          writeLiteral(buffer, literalStart, position);
+          copy(match);
+          position += blockSize;
+          literalStart = position;
+          if (position + blockSize <= size) {
+            checksum = weakChecksum(buffer, position, blockSize);
+          }
+        } else {
+          if (position + blockSize < size) {
+            checksum = roll(checksum, buffer.get(position), buffer.get(position + blockSize), blockSize);
+          }
+          position++;
+        }
+      }
+      writeLiteral(buffer, literalStart, size);
+      flushCopy();
+    }
+
+    private void copy(int block) throws IOException {
+      if (pendingCopyCount > 0 && pendingCopyStart + pendingCopyCount == block) {
+        pendingCopyCount++;
+      } else {
+        flushCopy();
+        pendingCopyStart = block;
+        pendingCopyCount = 1;
+      }
+      copied += base.blockSize;
+    }
+
+    private void flushCopy() throws IOException {
+      if (pendingCopyCount > 0) {
+        out.writeByte(FILE_COPY);
+        out.writeInt(pendingCopyStart);
+        out.writeInt(pendingCopyCount);
+        pendingCopyCount = 0;
+      }
+    }
+
+    private void writeLiteral(ByteBuffer buffer, int from, int to) throws IOException {
+      if (from == to) {
+        return;
+      }
+      flushCopy();
+      byte[] bytes = new byte[Math.min(MAX_LITERAL_SIZE, to - from)];
+      ByteBuffer source = buffer.duplicate();
+      source.position(from).limit(to);
+      while (source.hasRemaining()) {
+        int length = Math.min(bytes.length, source.remaining());
+        source.get(bytes, 0, length);
+        out.writeByte(FILE_DATA);
+        out.writeInt(length);
+        out.write(bytes, 0, length);
+        literal += length;
+      }
+    }
+
+    private void writeLiteral(FileChannel channel, long size) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(MAX_LITERAL_SIZE, Math.max(size, 1)));
+      long position = 0;
+      while (position < size) {
+        buffer.clear();
+        int read = channel.read(buffer, position);
+        if (read < 0) {
+          throw new IOException("File shrunk while creating the patch: " + position + " < " + size);
+        }
+        out.writeByte(FILE_DATA);
+        out.writeInt(read);
+        out.write(buffer.array(), 0, read);
+        position += read;
+        literal += read;
+      }
+    }
+  }
+
+  /**
+   * The block size grows with the file size to keep signatures small, as rsync does
+   */
+  static int blockSize(long size) {
+    return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, Math.sqrt(size)));
+  }
+
+  // Adler-32 like checksum of rsync, which can be rolled one byte at a time
+  static int weakChecksum(ByteBuffer buffer, int offset, int length) {
+    int a = 0;
+    int b = 0;
+    for (int i = 0; i < length; i++) {
+      int x = buffer.get(offset + i) & 0xff;
+      a += x;
+      b += (length - i) * x;
+    }
+    return ((b & 0xffff) << 16) | (a & 0xffff);
+  }
+
+  static int roll(int checksum, byte out, byte in, int blockSize) {
+    int a = checksum & 0xffff;
+    int b = checksum >>> 16;
+    a = (a - (out & 0xff) + (in & 0xff)) & 0xffff;
+    b = (b - blockSize * (out & 0xff) + a) & 0xffff;
+    return (b << 16) | a;
+  }
+
+  private static int tag(int checksum) {
+    return (checksum ^ (checksum >>> 16)) & 0xffff;
+  }
+
+  private static Path resolve(Path root, String relativePath) throws IOException {
+    Path path = root.resolve(relativePath).normalize();
+    if (!path.startsWith(root.normalize()) || path.equals(root.normalize())) {
+      throw new IOException("Patch entry is outside of the target directory: " + relativePath);
+    }
+    return path;
+  }
+
+  private static String relativePath(Path root, Path path) {
+    return StreamSupport.stream(root.relativize(path).spliterator(), false).map(Path::toString).collect(joining("/"));
+  }
+
+  private static MessageDigest digest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Signature of a file: its size, hash, and the weak and strong checksums of each of its blocks
+   */
+  public static class FileSignature implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final FileSignature FOLDER = new FileSignature(-1, 0, null, 0, new int[0], new byte[0][]);
+
+    private final long size;
+    private final long lastModified;
+    private final String sha256;
+    private final int blockSize;
+    private final int[] weak;
+    private final byte[][] strong;
+
+    @SuppressFBWarnings("EI_EXPOSE_REP2")
+    FileSignature(long size, long lastModified, String sha256, int blockSize, int[] weak, byte[][] strong) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.sha256 = sha256;
+      this.blockSize = blockSize;
+      this.weak = weak;
+      this.strong = strong;
+    }
+
+    public boolean isFolder() {
+      return size < 0;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public String getSha256() {
+      return sha256;
+    }
+  }
+}
@@ -17,9 +17,14 @@
 package org.terracotta.angela.agent.com;
 
 import org.apache.ignite.lang.IgniteCallable;
+import org.apache.ignite.lang.IgniteClosure;
 import org.apache.ignite.lang.IgniteRunnable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.client.ClientJarStore;
+import org.terracotta.angela.agent.client.RemoteClientManager;
+import org.terracotta.angela.agent.kit.LocalKitManager;
+import org.terracotta.angela.agent.kit.RemoteKitManager;
 import org.terracotta.angela.common.clientconfig.ClientId;
 import org.terracotta.angela.common.cluster.Cluster;
 import org.terracotta.angela.common.distribution.Distribution;
@@ -30,14 +35,31 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static org.terracotta.angela.common.AngelaProperties.KIT_UPLOAD_ARCHIVE;
+import static org.terracotta.angela.common.AngelaProperties.KIT_UPLOAD_DELTA;
+import static org.terracotta.angela.common.AngelaProperties.KIT_UPLOAD_RELAY;
 
 /**
  * @author Mathieu Carbou
@@ -70,17 +92,98 @@ public interface Executor extends AutoCloseable {
 
   BlockingQueue<FileTransfer> getFileTransferQueue(InstanceId instanceId);
 
+  /**
+   * Removes the file transfer queue of the instance, once both ends of the transfer are done with it
+   */
+  void closeFileTransferQueue(InstanceId instanceId);
+
   @Override
   void close();
 
-  void uploadClientJars(AgentID agentID, InstanceId instanceId, List<Path> locations);
-
-  void uploadKit(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, Path kitInstallationPath);
-
   Optional<CompletableFuture<Void>> shutdown(AgentID agentID);
 
   // defaults
 
+  default void uploadClientJars(AgentID agentID, InstanceId instanceId, List<Path> locations) {
+    Map<String, String> jars = ClientJarStore.hashJars(locations);
+    Collection<String> hashes = new ArrayList<>(jars.values());
+    Collection<String> missing = execute(agentID, () -> new ClientJarStore().findMissing(hashes));
+    Future<Void> remoteDownloadFuture = executeAsync(agentID, () -> {
+      ClientJarStore store = new ClientJarStore();
+      Path incoming = store.getIncomingPath(instanceId);
+      downloadFiles(instanceId, incoming);
+      store.install(incoming, jars, new RemoteClientManager(instanceId).getClientClasspathRoot());
+    });
+    TransferStats stats = uploadFiles(instanceId, ClientJarStore.toUpload(locations, missing), ClientJarStore::remoteName, remoteDownloadFuture);
+    logger.debug("Client jars of: {} already on: {}: {} of {}", instanceId, agentID, jars.size() - missing.size(), jars.size());
+    logger.info("Uploaded client jars of: {} to: {}: {}", instanceId, agentID, stats);
+  }
+
+  /**
+   * Gives a client the classpath already uploaded for another client on the same agent, instead of uploading it again
+   */
+  default void linkClientJars(AgentID agentID, InstanceId sourceInstanceId, InstanceId instanceId) {
+    execute(agentID, () -> new ClientJarStore().linkClasspath(
+        new RemoteClientManager(sourceInstanceId).getClientClasspathRoot(),
+        new RemoteClientManager(instanceId).getClientClasspathRoot()));
+    logger.debug("Linked client jars of: {} to: {} on: {}", sourceInstanceId, instanceId, agentID);
+  }
+
+  /**
+   * Adds the classes of the orchestrator to the class loader of the jobs of an agent, so that the jobs sent to it do not
+   * stall while their classes are loaded from the orchestrator one by one.
+   * The classpath is uploaded like the one of a client, so only the jars the agent host does not have yet are transferred.
+   */
+  default void deployJobClasses(AgentID agentID, List<Path> classpath) {
+    InstanceId instanceId = new InstanceId(getGroup().getId() + "-" + agentID.getPid(), "job-classes");
+    uploadClientJars(agentID, instanceId, classpath);
+    List<String> names = classpath.stream().map(path -> String.valueOf(path.getFileName())).collect(toList());
+    execute(agentID, () -> JobClassLoader.current().addClasspath(new RemoteClientManager(instanceId).getClientClasspathRoot(), names));
+  }
+
+  default ClassLoadingStats getClassLoadingStats(AgentID agentID) {
+    return execute(agentID, (IgniteCallable<ClassLoadingStats>) ClassLoadingStats::snapshot);
+  }
+
+  default void uploadKit(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, Path kitInstallationPath) {
+    String stagedKitName = String.valueOf(kitInstallationPath.getFileName());
+    uploadFilesResumable(agentID, instanceId, Collections.singletonList(kitInstallationPath),
+        () -> new RemoteKitManager(instanceId, distribution, kitInstallationName).getKitUploadPath(),
+        uploadDir -> {
+          new RemoteKitManager(instanceId, distribution, kitInstallationName).installFromStaging(uploadDir.resolve(stagedKitName));
+          return null;
+        });
+    logger.info("Uploaded kit: {} to: {}", kitInstallationName, agentID);
+  }
+
+  /**
+   * Uploads a kit installer archive and extracts it on the remote agent.
+   *
+   * @return false if the archive does not contain the expected kit installation
+   */
+  default boolean uploadKitArchive(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, Path kitArchivePath) {
+    String kitArchiveName = String.valueOf(kitArchivePath.getFileName());
+    boolean installed = uploadFilesResumable(agentID, instanceId, Collections.singletonList(kitArchivePath),
+        () -> new RemoteKitManager(instanceId, distribution, kitInstallationName).getKitUploadPath(),
+        uploadDir -> new RemoteKitManager(instanceId, distribution, kitInstallationName).installFromArchive(uploadDir.resolve(kitArchiveName)));
+    logger.info("Uploaded kit archive: {} to: {}", kitArchiveName, agentID);
+    return installed;
+  }
+
+  /**
+   * Uploads a patch created with {@link DeltaSync#createPatch(Path, java.util.Map, Path)} and applies it to the kit installation of the remote agent.
+   */
+  default void uploadKitPatch(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, Path patchFile) {
+    String patchName = String.valueOf(patchFile.getFileName());
+    uploadFilesResumable(agentID, instanceId, Collections.singletonList(patchFile),
+        () -> new RemoteKitManager(instanceId, distribution, kitInstallationName).getKitUploadPath(),
+        uploadDir -> {
+          new RemoteKitManager(instanceId, distribution, kitInstallationName).applyKitPatch(uploadDir.resolve(patchName));
+          return null;
+        });
+    logger.info("Uploaded kit patch: {} to: {}", kitInstallationName, agentID);
+  }
+
   default void execute(AgentID agentID, IgniteRunnable job) {
     try {
       executeAsync(agentID, job).get();
@@ -105,20 +208,226 @@ public interface Executor extends AutoCloseable {
     return findAgentID(hostname).orElseThrow(() -> new NoSuchElementException(hostname));
   }
 
+  /**
+   * Uploads the kit of the local kit manager: the installer archive is sent and extracted remotely when available,
+   * otherwise the extracted kit installation is sent file by file.
+   */
+  default void uploadKit(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, LocalKitManager localKitManager) {
+    Optional<Path> kitArchivePath = localKitManager.getKitArchivePath();
+    if (KIT_UPLOAD_ARCHIVE.getBooleanValue() && kitArchivePath.isPresent()) {
+      if (uploadKitArchive(agentID, instanceId, distribution, kitInstallationName, kitArchivePath.get())) {
+        return;
+      }
+      logger.warn("Kit archive: {} does not contain: {}. Uploading the kit installation instead.", kitArchivePath.get(), kitInstallationName);
+    }
+    uploadKit(agentID, instanceId, distribution, kitInstallationName, localKitManager.getKitInstallationPath());
+  }
+
+  /**
+   * SNAPSHOT kits are updated while keeping the same installation name, so a kit installed on an agent can be outdated.
+   * The kit installation of the agent, if any, is brought up to date with the local one by only sending what changed.
+   * This is done once per agent for a local kit manager.
+   */
+  default void syncKit(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, LocalKitManager localKitManager) {
+    if (!distribution.getVersion().isSnapshot() || !KIT_UPLOAD_DELTA.getBooleanValue()
+        || agentID.equals(getLocalAgentID()) || localKitManager.isKitSynced(agentID)) {
+      // the local agent uses the local kit installation
+      return;
+    }
+    Map<String, DeltaSync.FileSignature> signatures = execute(agentID, () -> new RemoteKitManager(instanceId, distribution, kitInstallationName).getKitSignatures());
+    if (signatures != null) {
+      try {
+        Path patchFile = Files.createTempFile("angela-kit-", ".patch");
+        try {
+          if (DeltaSync.createPatch(localKitManager.getKitInstallationPath(), signatures, patchFile)) {
+            uploadKitPatch(agentID, instanceId, distribution, kitInstallationName, patchFile);
+          } else {
+            logger.debug("Kit: {} is up to date on: {}", kitInstallationName, agentID);
+          }
+        } finally {
+          Files.deleteIfExists(patchFile);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    // if the agent has no kit, it is uploaded in full when installing
+    localKitManager.kitSynced(agentID);
+  }
+
+  /**
+   * Uploads a kit to several agents. The orchestrator only uploads the kit to one agent per round, while each agent
+   * which already received the kit relays it to another one, so the number of agents having the kit doubles
+   * at each round: distributing a kit to N agents takes about log2(N) rounds instead of N uploads from the orchestrator.
+   */
+  default void uploadKit(Collection<AgentID> agentIDs, InstanceId instanceId, Distribution distribution, String kitInstallationName, LocalKitManager localKitManager) {
+    if (agentIDs.size() <= 1 || !KIT_UPLOAD_RELAY.getBooleanValue()) {
+      agentIDs.forEach(agentID -> uploadKit(agentID, instanceId, distribution, kitInstallationName, localKitManager));
+      return;
+    }
+    Deque<AgentID> pending = new ArrayDeque<>(agentIDs);
+    List<AgentID> relays = new ArrayList<>(agentIDs.size());
+    ExecutorService pool = Executors.newCachedThreadPool();
+    try {
+      for (int round = 1; !pending.isEmpty(); round++) {
+        List<Future<AgentID>> transfers = new ArrayList<>();
+        AgentID first = pending.poll();
+        transfers.add(pool.submit(() -> {
+          uploadKit(first, relayTransferId(instanceId, first), distribution, kitInstallationName, localKitManager);
+          return first;
+        }));
+        for (AgentID relay : relays) {
+          AgentID target = pending.poll();
+          if (target == null) {
+            break;
+          }
+          transfers.add(pool.submit(() -> {
+            try {
+              relayKit(relay, target, instanceId, distribution, kitInstallationName);
+            } catch (RuntimeException e) {
+              logger.warn("Unable to relay kit: {} from: {} to: {}. Uploading it from the orchestrator instead.", kitInstallationName, relay, target, e);
+              uploadKit(target, relayTransferId(instanceId, target), distribution, kitInstallationName, localKitManager);
+            }
+            return target;
+          }));
+        }
+        logger.info("Distributing kit: {}: round: {}, transfers: {}, remaining agents: {}", kitInstallationName, round, transfers.size(), pending.size());
+        for (Future<AgentID> transfer : transfers) {
+          relays.add(transfer.get());
+        }
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw Exceptions.asRuntime(e);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Copies the kit installation of the source agent to the target agent, without going through the orchestrator.
+   * The kit is received in the staging folder of the transfer and verified before being installed. If the relay fails,
+   * the staging folder is kept so that uploading the kit with the same transfer id resumes it.
+   */
+  default void relayKit(AgentID source, AgentID target, InstanceId instanceId, Distribution distribution, String kitInstallationName) {
+    InstanceId transferId = relayTransferId(instanceId, target);
+    TransferManifest manifest = execute(source, () -> {
+      RemoteKitManager remoteKitManager = new RemoteKitManager(instanceId, distribution, kitInstallationName);
+      return TransferManifest.create(Collections.singletonList(remoteKitManager.getKitInstallationPath()), FileTransfer::rootName);
+    });
+    Future<Void> remoteDownloadFuture = executeAsync(target, () -> {
+      RemoteKitManager remoteKitManager = new RemoteKitManager(transferId, distribution, kitInstallationName);
+      Path uploadDir = remoteKitManager.getKitUploadPath();
+      downloadFiles(transferId, uploadDir);
+      try {
+        manifest.verify(uploadDir);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      remoteKitManager.installFromStaging(uploadDir.resolve(kitInstallationName));
+      FileUtils.deleteQuietly(uploadDir);
+    });
+    try {
+      execute(source, () -> {
+        RemoteKitManager remoteKitManager = new RemoteKitManager(instanceId, distribution, kitInstallationName);
+        // the download on the target is awaited by the orchestrator
+        TransferStats stats = uploadFiles(transferId, Collections.singletonList(remoteKitManager.getKitInstallationPath()), CompletableFuture.completedFuture(null));
+        logger.info("Relayed kit: {} to: {}: {}", kitInstallationName, target, stats);
+      });
+    } finally {
+      try {
+        remoteDownloadFuture.get();
+      } catch (InterruptedException | ExecutionException e) {
+        throw Exceptions.asRuntime(e);
+      }
+    }
+  }
+
+  static InstanceId relayTransferId(InstanceId instanceId, AgentID target) {
+    return new InstanceId(instanceId + "-" + target, "kit-transfer");
+  }
+
+  /**
+   * Uploads the content of a local folder into a folder of an agent.
+   * All the files go through a single transfer, so small files are pipelined instead of costing a round trip each.
+   */
+  default void uploadFolder(AgentID agentID, Path folder, String remoteFolder) {
+    InstanceId transferId = new InstanceId(UUID.randomUUID().toString(), "folder-transfer");
+    try {
+      Future<Void> remoteDownloadFuture = executeAsync(agentID, () -> downloadFiles(transferId, Paths.get(remoteFolder)));
+      // the folder content is written directly into the remote folder
+      TransferStats stats = uploadFiles(transferId, Collections.singletonList(folder), root -> "", remoteDownloadFuture);
+      logger.debug("Uploaded folder: {} to: {}: {}", folder, agentID, stats);
+    } finally {
+      // the download is over once the upload returns
+      closeFileTransferQueue(transferId);
+    }
+  }
+
+  /**
+   * Downloads the content of a folder of an agent into a local folder.
+   * The files are streamed in chunks, so neither side holds the whole folder in memory.
+   *
+   * @param compress true to deflate the chunks, which helps with large compressible files like logs
+   */
+  default void downloadFolder(AgentID agentID, String remoteFolder, Path dest, boolean compress) {
+    InstanceId transferId = new InstanceId(UUID.randomUUID().toString(), "folder-transfer");
+    Future<Void> remoteUploadFuture = executeAsync(agentID, () -> {
+      Path folder = Paths.get(remoteFolder);
+      if (!Files.isDirectory(folder) || !Files.isReadable(folder)) {
+        // the receiver is waiting for the end of upload marker
+        getFileTransferQueue(transferId).offer(FileTransfer.END);
+        throw new UncheckedIOException(new IOException("Folder does not exist or is not readable : " + folder));
+      }
+      // the folder content is written directly into dest, and the download is awaited by the caller
+      TransferStats stats = uploadFiles(transferId, Collections.singletonList(folder), root -> "", compress, CompletableFuture.completedFuture(null));
+      logger.debug("Sent folder: {}: {}", folder, stats);
+    });
+    try {
+      downloadFiles(transferId, dest);
+    } finally {
+      try {
+        remoteUploadFuture.get();
+      } catch (InterruptedException | ExecutionException e) {
+        throw Exceptions.asRuntime(e);
+      } finally {
+        // the sender returns after its last chunk, so the queue is only removed once it is drained on this end too
+        closeFileTransferQueue(transferId);
+      }
+    }
+  }
+
   default void downloadFiles(InstanceId instanceId, Path dest) {
     try {
       BlockingQueue<FileTransfer> queue = getFileTransferQueue(instanceId);
       logger.debug("Downloading files to: {}", dest);
       Files.createDirectories(dest);
-      while (true) {
-        FileTransfer fileTransfer = queue.take();
-        if (fileTransfer.isFinished()) {
-          break;
+      TransferStats stats = new TransferStats();
+      try (FileTransferWriter writer = new FileTransferWriter(dest)) {
+        while (true) {
+          FileTransfer fileTransfer = queue.take();
+          if (fileTransfer.isFinished()) {
+            break;
+          }
+          if (fileTransfer.isRefusal()) {
+            // our own refusal, which the sender did not take in time
+            continue;
+          }
+          if (fileTransfer.getDataChannel() != null) {
+            // if the connection fails, the sender falls back to sending the chunks through the queue
+            if (!DataChannel.receive(fileTransfer.getDataChannel(), fileTransfer.getDataChannelToken(), dest, stats)) {
+              DataChannel.refuse(queue);
+            }
+            continue;
+          }
+          stats.addBytes(fileTransfer.getLength());
+          if (writer.write(fileTransfer)) {
+            stats.addFile();
+            logger.debug("Downloaded: {}", fileTransfer.getRelativePath());
+          }
         }
-        fileTransfer.writeTo(dest);
-        logger.debug("Downloaded: " + fileTransfer);
       }
       FileUtils.setCorrectPermissions(dest);
+      logger.debug("Downloaded files to: {}: {}", dest, stats.finish());
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       throw new RuntimeException(e);
@@ -127,36 +436,154 @@ public interface Executor extends AutoCloseable {
     }
   }
 
-  default void uploadFiles(InstanceId instanceId, List<Path> locations, Future<Void> remoteDownloadFuture) {
+  /**
+   * @return true to stream the uploaded files through a direct {@link DataChannel} instead of the file transfer queue
+   */
+  default boolean useDataChannel() {
+    return false;
+  }
+
+  /**
+   * Uploads the files in chunks through the file transfer queue of the instance.
+   * The queue is bounded, so the memory used depends on the chunk size and the number of in-flight chunks,
+   * not on the size of the files.
+   * If {@link #useDataChannel()} is true, the files are streamed through a direct TCP connection instead,
+   * the queue only being used to offer the connection.
+   */
+  default TransferStats uploadFiles(InstanceId instanceId, List<Path> locations, Future<?> remoteDownloadFuture) {
+    return uploadFiles(instanceId, locations, FileTransfer::rootName, remoteDownloadFuture);
+  }
+
+  /**
+   * Same as {@link #uploadFiles(InstanceId, List, Future)}, but each location is renamed on the receiving side
+   * to the name returned by {@code remoteName}.
+   */
+  default TransferStats uploadFiles(InstanceId instanceId, List<Path> locations, Function<Path, String> remoteName, Future<?> remoteDownloadFuture) {
+    return uploadFiles(instanceId, locations, remoteName, false, remoteDownloadFuture);
+  }
+
+  /**
+   * Same as {@link #uploadFiles(InstanceId, List, Function, Future)}, but the chunks are deflated if {@code compress} is true.
+   * Compressed uploads always go through the file transfer queue.
+   */
+  default TransferStats uploadFiles(InstanceId instanceId, List<Path> locations, Function<Path, String> remoteName, boolean compress, Future<?> remoteDownloadFuture) {
+    return uploadFiles(instanceId, locations, remoteName, compress, null, remoteDownloadFuture);
+  }
+
+  /**
+   * Same as {@link #uploadFiles(InstanceId, List, Function, boolean, Future)}, but only the files listed in the offsets
+   * are sent, starting at their offset, to resume a failed transfer. All the files are sent if the offsets are null.
+   * <p>
+   * The sender stops waiting for room in the file transfer queue as soon as the receiver fails, instead of blocking forever.
+   */
+  default TransferStats uploadFiles(InstanceId instanceId, List<Path> locations, Function<Path, String> remoteName, boolean compress, Map<String, Long> offsets, Future<?> remoteDownloadFuture) {
     try {
       BlockingQueue<FileTransfer> queue = getFileTransferQueue(instanceId);
-      try {
-        for (Path root : locations) {
-          if (Files.exists(root)) {
-            logger.debug("Uploading files from: {}", root);
-            try (Stream<Path> stream = Files.walk(root).filter(Files::isRegularFile)) {
-              stream.map(path -> FileTransfer.from(root, path)).forEach(fileTransfer -> {
-                try {
-                  queue.put(fileTransfer);
-                } catch (InterruptedException e) {
-                  Thread.currentThread().interrupt();
-                  throw new RuntimeException(e);
-                }
-                logger.debug("Uploaded: {}", fileTransfer);
-              });
-            } catch (IOException e) {
-              throw new UncheckedIOException(e);
+      FileTransfer.ChunkSink sink = chunk -> {
+        while (!queue.offer(chunk, 1, TimeUnit.SECONDS)) {
+          if (remoteDownloadFuture.isDone()) {
+            try {
+              remoteDownloadFuture.get();
+            } catch (ExecutionException e) {
+              throw new IOException("Receiver of: " + instanceId + " failed", e.getCause());
             }
-          } else {
-            logger.debug("Skipping non-existing root: {}", root);
           }
         }
+      };
+      TransferStats stats = new TransferStats();
+      try {
+        DataChannel dataChannel = useDataChannel() && !compress ? DataChannel.offer(queue, remoteDownloadFuture) : null;
+        if (dataChannel != null) {
+          try (DataChannel channel = dataChannel) {
+            FileTransfer.sendAll(locations, remoteName, offsets, channel::send, stats);
+            channel.finish();
+          }
+        } else {
+          int chunkSize = FileTransfer.getChunkSize();
+          FileTransfer.sendAll(locations, remoteName, offsets, (relativePath, file, offset) -> FileTransfer.send(relativePath, file, offset, chunkSize, compress, sink), stats);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       } finally {
-        queue.put(FileTransfer.END); // end of upload marker
+        sink.put(FileTransfer.END); // end of upload marker
         remoteDownloadFuture.get();
       }
+      return stats.finish();
     } catch (ExecutionException | InterruptedException e) {
       throw Exceptions.asRuntime(e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Uploads files into a staging folder of an agent, verifies them against their {@link TransferManifest} and installs them.
+   * <p>
+   * If the transfer, the verification or the install fails, the transfer is resumed with a new transfer queue:
+   * the files already received intact are not sent again, and the partially received ones resume after their last complete chunk.
+   * This is also the case for the files left in the staging folder by a previous failed upload.
+   * The staging folder is deleted when the install succeeds, or when all the retries failed.
+   *
+   * @param stagingPath gives the staging folder on the agent
+   * @param install     installs the verified files from the staging folder on the agent
+   */
+  default <R> R uploadFilesResumable(AgentID agentID, InstanceId instanceId, List<Path> locations, IgniteCallable<Path> stagingPath, IgniteClosure<Path, R> install) {
+    TransferManifest manifest = TransferManifest.create(locations, FileTransfer::rootName);
+    int chunkSize = FileTransfer.getChunkSize();
+    int retries = FileTransfer.getRetries();
+    Map<String, Long> offsets = execute(agentID, () -> manifest.resumeOffsets(stagingPath.call(), chunkSize));
+    logger.debug("Uploading: {} to: {}: {} of {} files to send", manifest, agentID, offsets.size(), manifest.getFileCount());
+    for (int attempt = 0; ; attempt++) {
+      InstanceId transferId = attempt == 0 ? instanceId : new InstanceId(instanceId + "-" + attempt, "resume");
+      Future<R> remoteInstallFuture = executeAsync(agentID, () -> {
+        Path staging = stagingPath.call();
+        downloadFiles(transferId, staging);
+        manifest.verify(staging);
+        R result = install.apply(staging);
+        FileUtils.deleteQuietly(staging);
+        return result;
+      });
+      try {
+        TransferStats stats = uploadFiles(transferId, locations, FileTransfer::rootName, false, offsets, remoteInstallFuture);
+        R result = remoteInstallFuture.get();
+        logger.debug("Uploaded: {} to: {}: {}", manifest, agentID, stats);
+        return result;
+      } catch (RuntimeException | InterruptedException | ExecutionException e) {
+        // chunks of the failed attempt left in its queue are not needed anymore
+        BlockingQueue<FileTransfer> queue = getFileTransferQueue(transferId);
+        queue.clear();
+        if (attempt > 0) {
+          // a receiver still waiting is ended before its queue is removed
+          queue.offer(FileTransfer.END);
+        }
+        if (e instanceof InterruptedException || attempt >= retries) {
+          RuntimeException failure = Exceptions.asRuntime(e);
+          try {
+            execute(agentID, () -> {
+              FileUtils.deleteQuietly(stagingPath.call());
+              return null;
+            });
+          } catch (RuntimeException suppressed) {
+            failure.addSuppressed(suppressed);
+          }
+          throw failure;
+        }
+        logger.warn("Transfer of: {} to: {} failed (attempt {} of {}). Resuming it.", manifest, agentID, attempt + 1, retries + 1, e);
+        offsets = execute(agentID, () -> manifest.resumeOffsets(stagingPath.call(), chunkSize));
+      } finally {
+        // the queues of the resumed attempts are only used by this transfer, unlike the one of the instance:
+        // they are removed once their receiver is done
+        if (attempt > 0) {
+          try {
+            remoteInstallFuture.get(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } catch (ExecutionException | TimeoutException | RuntimeException e) {
+            // the outcome of the attempt was already handled
+          }
+          closeFileTransferQueue(transferId);
+        }
+      }
     }
   }
 }
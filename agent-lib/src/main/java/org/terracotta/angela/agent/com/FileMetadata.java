@@ -0,0 +1,88 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Metadata of a file or folder of an agent, as returned by a tree listing
+ */
+public class FileMetadata implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final String relativePath; // unix-like, relative to the listed folder
+  private final boolean folder;
+  private final long size;
+  private final long lastModified;
+  private final String sha256;
+
+  public FileMetadata(String relativePath, boolean folder, long size, long lastModified, String sha256) {
+    this.relativePath = Objects.requireNonNull(relativePath);
+    this.folder = folder;
+    this.size = size;
+    this.lastModified = lastModified;
+    this.sha256 = sha256;
+  }
+
+  public String getRelativePath() {
+    return relativePath;
+  }
+
+  public String getName() {
+    return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * @return the relative path of the parent folder, or an empty string if the parent is the listed folder
+   */
+  public String getParentPath() {
+    int idx = relativePath.lastIndexOf('/');
+    return idx == -1 ? "" : relativePath.substring(0, idx);
+  }
+
+  public boolean isFolder() {
+    return folder;
+  }
+
+  /**
+   * @return the size in bytes, 0 for a folder
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return the last modification time, in milliseconds since the epoch
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return the SHA-256 of a file, if it was requested when listing
+   */
+  public Optional<String> getSha256() {
+    return Optional.ofNullable(sha256);
+  }
+
+  @Override
+  public String toString() {
+    return relativePath + (folder ? "/" : " (" + size + " bytes)");
+  }
+}
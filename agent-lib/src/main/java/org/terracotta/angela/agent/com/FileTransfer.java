@@ -17,68 +17,326 @@
 package org.terracotta.angela.agent.com;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.Serializable;
-import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+import static java.nio.file.StandardOpenOption.READ;
+import static org.terracotta.angela.common.AngelaProperties.FILE_TRANSFER_CHUNK_SIZE;
+import static org.terracotta.angela.common.AngelaProperties.FILE_TRANSFER_MAX_IN_FLIGHT_CHUNKS;
+import static org.terracotta.angela.common.AngelaProperties.FILE_TRANSFER_RETRIES;
+
+/**
+ * A chunk of a file being transferred through a file transfer queue.
+ * <p>
+ * A file is sent as a sequence of chunks of at most {@link #getChunkSize()} bytes, in order, the last one being flagged.
+ * An empty file is sent as a single empty chunk.
+ * <p>
+ * The queue can also carry the offer of a {@link DataChannel}: the files are then streamed through a direct TCP connection
+ * to the sender instead of being split in chunks, and the refusal of this offer by a receiver unable to connect.
+ */
 public class FileTransfer implements Serializable {
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = 3L;
+  private final static Logger logger = LoggerFactory.getLogger(FileTransfer.class);
 
-  public static final FileTransfer END = new FileTransfer(null, null);
+  public static final FileTransfer END = new FileTransfer(null, 0, null, 0, false, true, null);
+  static final FileTransfer REFUSED = new FileTransfer(null, 0, new byte[0], 0, false, true, null);
 
   private final String relativePath; // unix-like
+  private final long offset;
   private final byte[] bytes;
+  private final int length; // length of the chunk in the file, bytes being deflated if compressed
+  private final boolean compressed;
+  private final boolean last;
+  private final InetSocketAddress dataChannel;
 
-  private FileTransfer(String relativePath, byte[] bytes) {
+  private FileTransfer(String relativePath, long offset, byte[] bytes, int length, boolean compressed, boolean last, InetSocketAddress dataChannel) {
     this.relativePath = relativePath;
+    this.offset = offset;
     this.bytes = bytes;
+    this.length = length;
+    this.compressed = compressed;
+    this.last = last;
+    this.dataChannel = dataChannel;
+  }
+
+  /**
+   * @param token the secret the receiver has to present when connecting to the data channel, carried in the bytes of the offer
+   */
+  static FileTransfer dataChannel(String hostname, int port, byte[] token) {
+    return new FileTransfer(null, 0, token, token.length, false, false, InetSocketAddress.createUnresolved(hostname, port));
   }
 
   public boolean isFinished() {
-    return relativePath == null && bytes == null;
+    return relativePath == null && bytes == null && dataChannel == null;
+  }
+
+  /**
+   * @return true if this is the refusal of a data channel offer, see {@link DataChannel#refuse}
+   */
+  boolean isRefusal() {
+    return relativePath == null && bytes != null && dataChannel == null;
+  }
+
+  /**
+   * @return the address to connect to in order to receive the files, or null if this is a file chunk
+   */
+  public InetSocketAddress getDataChannel() {
+    return dataChannel;
+  }
+
+  /**
+   * @return the secret to present to the data channel, or null if this is a file chunk
+   */
+  byte[] getDataChannelToken() {
+    return dataChannel == null ? null : bytes;
+  }
+
+  public String getRelativePath() {
+    return relativePath;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  /**
+   * @return true if this chunk is the last one of its file
+   */
+  public boolean isLast() {
+    return last;
   }
 
   @Override
   public String toString() {
-    return relativePath;
+    if (isRefusal()) {
+      return "data-channel-refused";
+    }
+    return dataChannel != null ? "data-channel[" + dataChannel + "]" : relativePath + "[" + offset + "+" + getLength() + "]";
   }
 
-  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
-  public void writeTo(Path root) {
-    try {
-      Path dest = root.resolve(relativePath);
-      Files.createDirectories(dest.getParent());
-      Files.write(dest, bytes);
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
+  void writeTo(FileChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(compressed ? inflate(bytes, length) : bytes);
+    long position = offset;
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
     }
   }
 
-  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
-  public static FileTransfer from(Path root, Path file) {
+  /**
+   * Splits a file into chunks read from a {@link FileChannel} and puts them on the queue.
+   * Only the chunks waiting in the queue are held in memory.
+   *
+   * @return the number of bytes sent
+   */
+  public static long send(Path root, Path file, int chunkSize, BlockingQueue<? super FileTransfer> queue) throws IOException, InterruptedException {
+    return send(rootName(root), root, file, chunkSize, queue);
+  }
+
+  /**
+   * Same as {@link #send(Path, Path, int, BlockingQueue)} but the root is renamed to {@code rootName} on the receiving side.
+   * The root name can contain '/' to place the root in a sub-folder.
+   */
+  public static long send(String rootName, Path root, Path file, int chunkSize, BlockingQueue<? super FileTransfer> queue) throws IOException, InterruptedException {
+    return send(relativePath(rootName, root, file), file, chunkSize, queue);
+  }
+
+  static long send(String relativePath, Path file, int chunkSize, BlockingQueue<? super FileTransfer> queue) throws IOException, InterruptedException {
+    return send(relativePath, file, chunkSize, false, queue);
+  }
+
+  /**
+   * @param compress true to deflate the chunks, which trades CPU for bandwidth on compressible files like logs
+   */
+  static long send(String relativePath, Path file, int chunkSize, boolean compress, BlockingQueue<? super FileTransfer> queue) throws IOException, InterruptedException {
+    return send(relativePath, file, 0, chunkSize, compress, queue::put);
+  }
+
+  /**
+   * Same as {@link #send(String, Path, int, boolean, BlockingQueue)} but starts at the given offset,
+   * to resume the transfer of a file the receiver partially has.
+   *
+   * @return the number of bytes sent
+   */
+  static long send(String relativePath, Path file, long startOffset, int chunkSize, boolean compress, ChunkSink sink) throws IOException, InterruptedException {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+    }
+    Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+    try (FileChannel channel = FileChannel.open(file, READ)) {
+      final long size = channel.size();
+      if (startOffset < 0 || startOffset > size) {
+        throw new IOException("Cannot resume the transfer of: " + file + " of size: " + size + " at offset: " + startOffset);
+      }
+      long offset = startOffset;
+      do {
+        byte[] bytes = new byte[(int) Math.min(chunkSize, size - offset)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, offset + buffer.position()) < 0) {
+            throw new EOFException("File truncated while being sent: " + file);
+          }
+        }
+        boolean last = offset + bytes.length == size;
+        if (deflater != null) {
+          sink.put(new FileTransfer(relativePath, offset, deflate(deflater, bytes), bytes.length, true, last, null));
+        } else {
+          sink.put(new FileTransfer(relativePath, offset, bytes, bytes.length, false, last, null));
+        }
+        offset += bytes.length;
+      } while (offset < size);
+      return size - startOffset;
+    } finally {
+      if (deflater != null) {
+        deflater.end();
+      }
+    }
+  }
+
+  private static byte[] deflate(Deflater deflater, byte[] bytes) {
+    deflater.reset();
+    deflater.setInput(bytes);
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+    byte[] buffer = new byte[8192];
+    while (!deflater.finished()) {
+      int count = deflater.deflate(buffer);
+      out.write(buffer, 0, count);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] inflate(byte[] bytes, int length) throws IOException {
+    Inflater inflater = new Inflater();
     try {
-      if (Files.isRegularFile(root)) {
-        // if root is a file, then walk will have 1 entry where root == file
-        if (!Objects.equals(root, file)) {
-          throw new IllegalStateException(root + " vs " + file);
+      inflater.setInput(bytes);
+      byte[] inflated = new byte[length];
+      int position = 0;
+      while (position < length) {
+        int count = inflater.inflate(inflated, position, length - position);
+        if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new EOFException("Compressed chunk truncated: expected " + length + " bytes but got " + position);
         }
-        return new FileTransfer(root.getFileName().toString(), Files.readAllBytes(file));
+        position += count;
+      }
+      return inflated;
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupted compressed chunk", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Walks the regular files of the locations, in order, and gives each of them to the sender
+   * with the relative path it has on the receiving side.
+   */
+  static void sendAll(List<Path> locations, Function<Path, String> remoteName, Sender sender, TransferStats stats) throws IOException, InterruptedException {
+    sendAll(locations, remoteName, null, sender, stats);
+  }
 
+  /**
+   * Same as {@link #sendAll(List, Function, Sender, TransferStats)}, but only sends the files listed in the offsets,
+   * starting at their offset. All the files are sent if the offsets are null.
+   */
+  static void sendAll(List<Path> locations, Function<Path, String> remoteName, Map<String, Long> offsets, Sender sender, TransferStats stats) throws IOException, InterruptedException {
+    for (Path root : locations) {
+      if (Files.exists(root)) {
+        logger.debug("Uploading files from: {}", root);
+        String rootName = remoteName.apply(root);
+        try (Stream<Path> stream = Files.walk(root).filter(Files::isRegularFile)) {
+          for (Path path : (Iterable<Path>) stream::iterator) {
+            String relativePath = relativePath(rootName, root, path);
+            Long offset = offsets == null ? Long.valueOf(0) : offsets.get(relativePath);
+            if (offset == null) {
+              logger.debug("Skipping already received: {}", path);
+              continue;
+            }
+            stats.addBytes(sender.send(relativePath, path, offset));
+            stats.addFile();
+            logger.debug("Uploaded: {}", path);
+          }
+        }
       } else {
-        // relative path which contains the root folder name as a base
-        Path relWithBase = root.getFileName().resolve(root.relativize(file));
-        List<String> parts = new ArrayList<>(relWithBase.getNameCount());
-        relWithBase.forEach(part -> parts.add(part.toString()));
-        return new FileTransfer(String.join("/", parts), Files.readAllBytes(file));
+        logger.debug("Skipping non-existing root: {}", root);
       }
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
     }
   }
+
+  @FunctionalInterface
+  interface Sender {
+    /**
+     * @return the number of bytes sent
+     */
+    long send(String relativePath, Path file, long offset) throws IOException, InterruptedException;
+  }
+
+  @FunctionalInterface
+  interface ChunkSink {
+    void put(FileTransfer chunk) throws IOException, InterruptedException;
+  }
+
+  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+  static String rootName(Path root) {
+    return root.getFileName().toString();
+  }
+
+  static String relativePath(Path root, Path file) {
+    return relativePath(rootName(root), root, file);
+  }
+
+  static String relativePath(String rootName, Path root, Path file) {
+    if (root.equals(file)) {
+      // if root is a file, then walk will have 1 entry where root == file
+      return rootName;
+    }
+    if (!file.startsWith(root)) {
+      throw new IllegalStateException(root + " vs " + file);
+    }
+    // relative path which contains the root folder name as a base, unless the root name is empty
+    List<String> parts = new ArrayList<>(root.relativize(file).getNameCount() + 1);
+    if (!rootName.isEmpty()) {
+      parts.add(rootName);
+    }
+    root.relativize(file).forEach(part -> parts.add(part.toString()));
+    return String.join("/", parts);
+  }
+
+  public static int getChunkSize() {
+    return Integer.parseInt(FILE_TRANSFER_CHUNK_SIZE.getValue());
+  }
+
+  public static int getMaxInFlightChunks() {
+    return Integer.parseInt(FILE_TRANSFER_MAX_IN_FLIGHT_CHUNKS.getValue());
+  }
+
+  public static int getRetries() {
+    return Integer.parseInt(FILE_TRANSFER_RETRIES.getValue());
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes the chunks received from a file transfer queue sequentially into a destination folder.
+ * The file currently being received is kept open until its last chunk arrives.
+ */
+class FileTransferWriter implements Closeable {
+  private final Path root;
+  private String currentPath;
+  private FileChannel channel;
+
+  FileTransferWriter(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * @return true if the chunk was the last one of its file
+   */
+  boolean write(FileTransfer chunk) throws IOException {
+    if (!Objects.equals(currentPath, chunk.getRelativePath())) {
+      close();
+      Path dest = root.resolve(chunk.getRelativePath());
+      Path parent = dest.getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      if (chunk.getOffset() == 0) {
+        channel = FileChannel.open(dest, CREATE, TRUNCATE_EXISTING, WRITE);
+      } else {
+        // resumed transfer: the file must already have the bytes before the chunk
+        if (!Files.isRegularFile(dest) || Files.size(dest) < chunk.getOffset()) {
+          throw new IOException("Received chunk: " + chunk + " but expected the start of a file");
+        }
+        channel = FileChannel.open(dest, WRITE);
+        channel.truncate(chunk.getOffset());
+      }
+      currentPath = chunk.getRelativePath();
+    }
+    chunk.writeTo(channel);
+    if (chunk.isLast()) {
+      close();
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    currentPath = null;
+    if (channel != null) {
+      try {
+        channel.close();
+      } finally {
+        channel = null;
+      }
+    }
+  }
+}
@@ -19,6 +19,7 @@ package org.terracotta.angela.agent.com;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.apache.ignite.Ignite;
 import org.apache.ignite.cluster.ClusterGroup;
+import org.apache.ignite.cluster.ClusterNode;
 import org.apache.ignite.cluster.ClusterTopologyException;
 import org.apache.ignite.events.DiscoveryEvent;
 import org.apache.ignite.events.Event;
@@ -32,6 +33,7 @@ import org.terracotta.angela.common.util.AngelaVersion;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -57,6 +59,9 @@ public class IgniteAgentGroup extends AgentGroup {
   @SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
   private final transient Map<AgentID, CompletableFuture<Void>> shutdowns = new ConcurrentHashMap<>();
 
+  @SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
+  private final transient AgentRoutes<ClusterGroup> routes = new AgentRoutes<>();
+
   private final Map<AgentID, Meta> discoveredAgents = new ConcurrentHashMap<>();
 
   IgniteAgentGroup(UUID id, AgentID me, Ignite ignite) {
@@ -73,10 +78,17 @@ public class IgniteAgentGroup extends AgentGroup {
         try {
           switch (event.type()) {
             case EventType.EVT_NODE_JOINED: {
-              joined(AgentID.valueOf(((DiscoveryEvent) event).eventNode().attribute("angela.nodeName")), null);
+              ClusterNode node = ((DiscoveryEvent) event).eventNode();
+              AgentID agentID = AgentID.valueOf(node.attribute("angela.nodeName"));
+              if (Objects.equals(node.attribute("angela.group"), getId().toString())) {
+                routes.addRoute(agentID, ignite.cluster().forNodeId(node.id()));
+              }
+              joined(agentID, null);
               break;
             }
-            case EventType.EVT_NODE_LEFT: {
+            case EventType.EVT_NODE_LEFT:
+            case EventType.EVT_NODE_FAILED: {
+              // a killed agent fails instead of leaving: its routes must be removed as well
               left(AgentID.valueOf(((DiscoveryEvent) event).eventNode().attribute("angela.nodeName")));
               break;
             }
@@ -94,7 +106,7 @@ public class IgniteAgentGroup extends AgentGroup {
       public boolean apply(Event event) {
         return true;
       }
-    }, EventType.EVT_NODE_LEFT, EventType.EVT_NODE_JOINED);
+    }, EventType.EVT_NODE_LEFT, EventType.EVT_NODE_FAILED, EventType.EVT_NODE_JOINED);
   }
 
   @Override
@@ -148,10 +160,15 @@ public class IgniteAgentGroup extends AgentGroup {
       }
       meta.hostnames.add(hostname);
     }
+    if (meta != null && hostname != null && isServingHostnames(agentID)) {
+      // the local agent has precedence over the remote agents
+      routes.serve(hostname, agentID, agentID.equals(getLocalAgentID()));
+    }
   }
 
   private void left(AgentID agentID) {
     Meta meta = discoveredAgents.remove(agentID);
+    routes.remove(agentID, meta == null ? Collections.emptyList() : meta.hostnames);
     if (meta != null) {
       meta.hostnames.clear();
       getShutdown(agentID).complete(null);
@@ -161,43 +178,35 @@ public class IgniteAgentGroup extends AgentGroup {
 
   // search
 
+  /**
+   * The hostnames are served by either the local agent (orchestrator), which can be the case when using
+   * ignite local mode when we skip ssh calls, or by a remote agent spawned to serve them.
+   */
   Optional<AgentID> findRemoteAgentID(String hostname) {
-    // 1. check if the local agent (orchestrator) has been set to serve the hostname
-    // can be the case when using ignite local mode when we skip ssh calls
-    {
-      final AgentID localAgentID = getLocalAgentID();
-      final Meta meta = discoveredAgents.get(localAgentID);
-      if (meta != null && meta.hostnames.contains(hostname)) {
-        return Optional.of(localAgentID);
-      }
-    }
-    // 2. check if a remote agent has been spawned and set to serve the hostname
-    {
-      final AgentID agentID = discoveredAgents.entrySet().stream()
-          .filter(e -> !e.getKey().isLocal())
-          .filter(e -> e.getKey().getName().equals(Agent.AGENT_TYPE_REMOTE))
-          .filter(e -> e.getValue().hostnames.contains(hostname))
-          .map(Map.Entry::getKey)
-          .findFirst()
-          .orElse(null);
-      if (agentID != null) {
-        return Optional.of(agentID);
-      }
-    }
-    return Optional.empty();
+    return routes.findAgentID(hostname).filter(discoveredAgents::containsKey);
+  }
+
+  private boolean isServingHostnames(AgentID agentID) {
+    return agentID.equals(getLocalAgentID()) || !agentID.isLocal() && agentID.getName().equals(Agent.AGENT_TYPE_REMOTE);
   }
 
   Optional<ClusterGroup> clusterGroup(AgentID agentID) {
+    Optional<ClusterGroup> route = routes.route(agentID);
+    if (route.isPresent()) {
+      return route;
+    }
+    // the agent is not indexed yet: its join event was not received, or it is the local agent
     ClusterGroup clusterGroup = ignite.cluster()
         .forAttribute("angela.group", getId().toString())
         .forAttribute("angela.nodeName", agentID.toString());
-    if (clusterGroup.nodes().isEmpty()) {
+    Collection<ClusterNode> nodes = clusterGroup.nodes();
+    if (nodes.isEmpty()) {
       return Optional.empty();
     }
-    if (clusterGroup.nodes().size() > 1) {
+    if (nodes.size() > 1) {
       throw new IllegalStateException("Several agents found matching: " + agentID + " in group " + getId());
     }
-    return Optional.of(clusterGroup);
+    return Optional.of(routes.addRoute(agentID, ignite.cluster().forNodeId(nodes.iterator().next().id())));
   }
 
   // shutdown
@@ -18,15 +18,24 @@ package org.terracotta.angela.agent.com;
 
 import org.apache.ignite.lang.IgniteCallable;
 import org.apache.ignite.lang.IgniteRunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.terracotta.angela.agent.Agent;
+import org.terracotta.angela.agent.client.ClientJarStore;
 import org.terracotta.angela.agent.client.RemoteClientManager;
 import org.terracotta.angela.agent.kit.RemoteKitManager;
 import org.terracotta.angela.common.clientconfig.ClientId;
 import org.terracotta.angela.common.cluster.Cluster;
 import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.FileUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -34,17 +43,34 @@ import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Collections.singletonList;
+import static org.terracotta.angela.common.AngelaProperties.IGNITE_FREE_MAX_THREADS;
+import static org.terracotta.angela.common.AngelaProperties.IGNITE_FREE_VIRTUAL_THREADS;
 
 /**
- * Executor which is not using Ignite and directly execute closures
+ * Executor which is not using Ignite and executes closures in this JVM.
+ * <p>
+ * Each agent has its own queue of jobs, so that the jobs of an agent do not wait behind the ones of another agent.
+ * The jobs run concurrently in virtual threads if the JVM supports them, otherwise in a bounded pool of threads.
  */
 public class IgniteFreeExecutor implements Executor {
+  private final static Logger logger = LoggerFactory.getLogger(IgniteFreeExecutor.class);
 
   private final transient Map<String, BlockingQueue<FileTransfer>> queues = new ConcurrentHashMap<>();
+  private final transient Map<AgentID, ExecutorService> jobQueues = new ConcurrentHashMap<>();
   private final AgentGroup agentGroup;
 
   public IgniteFreeExecutor(Agent agent) {
@@ -66,30 +92,107 @@ public class IgniteFreeExecutor implements Executor {
   @Override
   public void close() {
     queues.clear();
+    for (ExecutorService jobQueue : jobQueues.values()) {
+      for (Runnable pending : jobQueue.shutdownNow()) {
+        if (pending instanceof Job) {
+          ((Job<?>) pending).future.cancel(false);
+        }
+      }
+    }
+    jobQueues.clear();
   }
 
   @Override
   public synchronized void uploadClientJars(AgentID agentID, InstanceId instanceId, List<Path> locations) {
-    CompletableFuture<Void> finished = new CompletableFuture<>();
-    Thread thread = new Thread(() -> {
-      downloadFiles(instanceId, new RemoteClientManager(instanceId).getClientClasspathRoot());
-      finished.complete(null);
-    }, "downloader-" + instanceId);
-    thread.start();
-    uploadFiles(instanceId, locations, finished);
+    ClientJarStore store = new ClientJarStore();
+    Map<String, String> jars = ClientJarStore.hashJars(locations);
+    Collection<String> missing = store.findMissing(jars.values());
+    Future<Void> remoteDownloadFuture = executeAsync(agentID, () -> {
+      Path incoming = store.getIncomingPath(instanceId);
+      downloadFiles(instanceId, incoming);
+      store.install(incoming, jars, new RemoteClientManager(instanceId).getClientClasspathRoot());
+    });
+    TransferStats stats = uploadFiles(instanceId, ClientJarStore.toUpload(locations, missing), ClientJarStore::remoteName, remoteDownloadFuture);
+    logger.debug("Client jars of: {} already on: {}: {} of {}", instanceId, agentID, jars.size() - missing.size(), jars.size());
+    logger.info("Uploaded client jars of: {} to: {}: {}", instanceId, agentID, stats);
   }
 
   @Override
   public void uploadKit(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, Path kitInstallationPath) {
     RemoteKitManager remoteKitManager = new RemoteKitManager(instanceId, distribution, kitInstallationName);
-    Path installDir = remoteKitManager.getKitInstallationPath().getParent();
-    CompletableFuture<Void> finished = new CompletableFuture<>();
-    Thread thread = new Thread(() -> {
-      downloadFiles(instanceId, installDir);
-      finished.complete(null);
-    }, "downloader-" + instanceId);
-    thread.start();
-    uploadFiles(instanceId, singletonList(kitInstallationPath), finished);
+    Path uploadDir = remoteKitManager.getKitUploadPath();
+    TransferManifest manifest = TransferManifest.create(singletonList(kitInstallationPath), FileTransfer::rootName);
+    Future<Void> remoteInstallFuture = executeAsync(agentID, () -> {
+      try {
+        downloadFiles(instanceId, uploadDir);
+        manifest.verify(uploadDir);
+        remoteKitManager.installFromStaging(uploadDir.resolve(String.valueOf(kitInstallationPath.getFileName())));
+        return null;
+      } finally {
+        FileUtils.deleteQuietly(uploadDir);
+      }
+    });
+    TransferStats stats = uploadFiles(instanceId, singletonList(kitInstallationPath), remoteInstallFuture);
+    logger.info("Uploaded kit: {} to: {}: {}", kitInstallationName, agentID, stats);
+  }
+
+  @Override
+  public void uploadKitPatch(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, Path patchFile) {
+    // closures are executed in this JVM, so the kit installation is local
+    new RemoteKitManager(instanceId, distribution, kitInstallationName).applyKitPatch(patchFile);
+    logger.info("Applied kit patch: {} to: {}", kitInstallationName, agentID);
+  }
+
+  @Override
+  public void uploadFolder(AgentID agentID, Path folder, String remoteFolder) {
+    // closures are executed in this JVM, so the remote folder is local: copy the folder instead of going through the transfer queue
+    copyFolder(folder, Paths.get(remoteFolder));
+  }
+
+  @Override
+  public void downloadFolder(AgentID agentID, String remoteFolder, Path dest, boolean compress) {
+    copyFolder(Paths.get(remoteFolder), dest);
+  }
+
+  private static void copyFolder(Path folder, Path dest) {
+    try {
+      if (!Files.isDirectory(folder) || !Files.isReadable(folder)) {
+        throw new IOException("Folder does not exist or is not readable : " + folder);
+      }
+      Files.createDirectories(dest);
+      try (Stream<Path> stream = Files.walk(folder).filter(Files::isRegularFile)) {
+        for (Path file : (Iterable<Path>) stream::iterator) {
+          Path target = dest.resolve(folder.relativize(file).toString());
+          Files.createDirectories(target.getParent());
+          Files.copy(file, target, REPLACE_EXISTING, COPY_ATTRIBUTES);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error copying folder " + folder + " to " + dest, e);
+    }
+  }
+
+  @Override
+  public boolean uploadKitArchive(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, Path kitArchivePath) {
+    RemoteKitManager remoteKitManager = new RemoteKitManager(instanceId, distribution, kitInstallationName);
+    Path uploadDir = remoteKitManager.getKitUploadPath();
+    TransferManifest manifest = TransferManifest.create(singletonList(kitArchivePath), FileTransfer::rootName);
+    Future<Boolean> remoteInstallFuture = executeAsync(agentID, () -> {
+      try {
+        downloadFiles(instanceId, uploadDir);
+        manifest.verify(uploadDir);
+        return remoteKitManager.installFromArchive(uploadDir.resolve(String.valueOf(kitArchivePath.getFileName())));
+      } finally {
+        FileUtils.deleteQuietly(uploadDir);
+      }
+    });
+    TransferStats stats = uploadFiles(instanceId, singletonList(kitArchivePath), remoteInstallFuture);
+    logger.info("Uploaded kit archive: {} to: {}: {}", kitArchivePath.getFileName(), agentID, stats);
+    try {
+      return remoteInstallFuture.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw Exceptions.asRuntime(e);
+    }
   }
 
   @Override
@@ -129,29 +232,67 @@ public class IgniteFreeExecutor implements Executor {
 
   @Override
   public Future<Void> executeAsync(AgentID agentID, IgniteRunnable job) {
-    CompletableFuture<Void> future = new CompletableFuture<>();
-    try {
+    return executeAsync(agentID, (IgniteCallable<Void>) () -> {
       job.run();
-      future.complete(null);
-    } catch (Exception e) {
-      future.completeExceptionally(e);
-    }
-    return future;
+      return null;
+    });
   }
 
   @Override
   public <R> Future<R> executeAsync(AgentID agentID, IgniteCallable<R> job) {
-    CompletableFuture<R> future = new CompletableFuture<>();
+    Job<R> task = new Job<>(job);
     try {
-      future.complete(job.call());
-    } catch (Exception e) {
-      future.completeExceptionally(e);
+      jobQueues.computeIfAbsent(agentID, IgniteFreeExecutor::newJobQueue).execute(task);
+    } catch (RejectedExecutionException e) {
+      task.future.completeExceptionally(e);
+    }
+    return task.future;
+  }
+
+  private static ExecutorService newJobQueue(AgentID agentID) {
+    if (IGNITE_FREE_VIRTUAL_THREADS.getBooleanValue()) {
+      try {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        logger.debug("Virtual threads are not supported, using a thread pool instead: {}", e.toString());
+      }
+    }
+    int maxThreads = Integer.parseInt(IGNITE_FREE_MAX_THREADS.getValue());
+    AtomicInteger threads = new AtomicInteger();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, "angela-job-" + agentID + "-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  private static class Job<R> implements Runnable {
+    final CompletableFuture<R> future = new CompletableFuture<>();
+    final IgniteCallable<R> callable;
+
+    Job(IgniteCallable<R> callable) {
+      this.callable = callable;
+    }
+
+    @Override
+    public void run() {
+      try {
+        future.complete(callable.call());
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
     }
-    return future;
   }
 
   @Override
   public BlockingQueue<FileTransfer> getFileTransferQueue(InstanceId instanceId) {
-    return queues.computeIfAbsent(instanceId + "@file-transfer-queue", s -> new LinkedBlockingQueue<>(500));
+    return queues.computeIfAbsent(instanceId + "@file-transfer-queue", s -> new LinkedBlockingQueue<>(FileTransfer.getMaxInFlightChunks()));
+  }
+
+  @Override
+  public void closeFileTransferQueue(InstanceId instanceId) {
+    queues.remove(instanceId + "@file-transfer-queue");
   }
 }
@@ -23,17 +23,11 @@ import org.apache.ignite.lang.IgniteRunnable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.angela.agent.Agent;
-import org.terracotta.angela.agent.client.RemoteClientManager;
-import org.terracotta.angela.agent.kit.RemoteKitManager;
 import org.terracotta.angela.common.clientconfig.ClientId;
 import org.terracotta.angela.common.cluster.Cluster;
-import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.topology.InstanceId;
 import org.terracotta.angela.common.util.IpUtils;
 
-import java.nio.file.Path;
-import java.util.Collections;
-import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
@@ -44,6 +38,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static java.util.function.Predicate.isEqual;
+import static org.terracotta.angela.common.AngelaProperties.FILE_TRANSFER_DATA_CHANNEL;
 
 /**
  * Executor which is using only one local ignite instance, plus eventually one per client job
@@ -93,19 +88,8 @@ public class IgniteLocalExecutor implements Executor {
   }
 
   @Override
-  public void uploadClientJars(AgentID agentID, InstanceId instanceId, List<Path> locations) {
-    Future<Void> remoteDownloadFuture = executeAsync(agentID, () -> downloadFiles(instanceId, new RemoteClientManager(instanceId).getClientClasspathRoot()));
-    uploadFiles(instanceId, locations, remoteDownloadFuture);
-  }
-
-  @Override
-  public void uploadKit(AgentID agentID, InstanceId instanceId, Distribution distribution, String kitInstallationName, Path kitInstallationPath) {
-    Future<Void> remoteDownloadFuture = executeAsync(agentID, () -> {
-      RemoteKitManager remoteKitManager = new RemoteKitManager(instanceId, distribution, kitInstallationName);
-      Path installDir = remoteKitManager.getKitInstallationPath().getParent();
-      downloadFiles(instanceId, installDir);
-    });
-    uploadFiles(instanceId, Collections.singletonList(kitInstallationPath), remoteDownloadFuture);
+  public boolean useDataChannel() {
+    return FILE_TRANSFER_DATA_CHANNEL.getBooleanValue();
   }
 
   @Override
@@ -166,7 +150,12 @@ public class IgniteLocalExecutor implements Executor {
 
   @Override
   public BlockingQueue<FileTransfer> getFileTransferQueue(InstanceId instanceId) {
-    return ignite.queue(instanceId + "@file-transfer-queue", 500, new CollectionConfiguration().setGroupName(group.toString()));
+    return ignite.queue(instanceId + "@file-transfer-queue", FileTransfer.getMaxInFlightChunks(), new CollectionConfiguration().setGroupName(group.toString()));
+  }
+
+  @Override
+  public void closeFileTransferQueue(InstanceId instanceId) {
+    ignite.queue(instanceId + "@file-transfer-queue", FileTransfer.getMaxInFlightChunks(), new CollectionConfiguration().setGroupName(group.toString())).close();
   }
 
   @Override
@@ -0,0 +1,122 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.apache.ignite.Ignition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class loader of the jobs received by an agent, to which the classes of the orchestrator can be added once
+ * (see {@link Executor#deployJobClasses(AgentID, List)}) so that they are not loaded lazily from the orchestrator,
+ * one class per round trip, the first time each job is executed.
+ * <p>
+ * Ignite only loads a class from its peer when it is not found by this class loader: when {@code trackMisses} is set,
+ * the time between a miss and the {@link #deployed(String) deployment} of the class by Ignite is the time the job stalled.
+ */
+public class JobClassLoader extends URLClassLoader {
+
+  private final static Logger logger = LoggerFactory.getLogger(JobClassLoader.class);
+  private static final int MAX_MISSES = 10_000;
+
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
+
+  private final Map<String, Long> misses;
+
+  public JobClassLoader(ClassLoader parent, boolean trackMisses) {
+    super(new URL[0], parent);
+    this.misses = trackMisses ? new ConcurrentHashMap<>() : null;
+  }
+
+  /**
+   * Adds the entries of a classpath, in order, after the ones already added
+   *
+   * @param root  the folder where the classpath entries were uploaded
+   * @param names the names of the entries in the folder
+   */
+  public synchronized void addClasspath(Path root, List<String> names) {
+    List<URL> urls = Arrays.asList(getURLs());
+    int added = 0;
+    for (String name : names) {
+      Path entry = root.resolve(name);
+      if (!Files.exists(entry)) {
+        continue;
+      }
+      try {
+        URL url = entry.toUri().toURL();
+        if (!urls.contains(url)) {
+          addURL(url);
+          added++;
+        }
+      } catch (MalformedURLException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    logger.info("Added: {} entries from: {} to the job classpath", added, root);
+  }
+
+  /**
+   * Called when Ignite deployed a class loaded from a peer
+   */
+  public void deployed(String className) {
+    Long missed = misses == null ? null : misses.remove(className);
+    if (missed != null) {
+      ClassLoadingStats.record(System.nanoTime() - missed);
+    }
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    try {
+      return super.findClass(name);
+    } catch (ClassNotFoundException e) {
+      if (misses != null) {
+        if (misses.size() > MAX_MISSES) {
+          // names probed by Ignite which were never deployed
+          misses.clear();
+        }
+        misses.putIfAbsent(name, System.nanoTime());
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return the job class loader of the agent executing the current job
+   */
+  static JobClassLoader current() {
+    RpcExecutor executor = RpcExecutor.findCurrent();
+    ClassLoader classLoader = executor != null ? executor.getClassLoader() : Ignition.localIgnite().configuration().getClassLoader();
+    if (!(classLoader instanceof JobClassLoader)) {
+      throw new IllegalStateException("Agent does not support the deployment of job classes: " + classLoader);
+    }
+    return (JobClassLoader) classLoader;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.Agent;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.util.Objects.requireNonNull;
+import static org.terracotta.angela.common.AngelaProperties.RPC_CODEC;
+
+/**
+ * The agents connected to the orchestrator of a {@link RpcExecutor}.
+ * Copies sent to the agents are snapshots of the group.
+ */
+public class RpcAgentGroup extends AgentGroup {
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger logger = LoggerFactory.getLogger(RpcAgentGroup.class);
+
+  // joined agents, with the hostnames they serve
+  private final Map<AgentID, Collection<String>> agents = new ConcurrentHashMap<>();
+  // the secret the agents present to the orchestrator
+  private final String secret;
+
+  RpcAgentGroup(UUID id, AgentID hub, String secret) {
+    super(id, hub);
+    this.secret = requireNonNull(secret);
+    joined(hub, null);
+  }
+
+  @Override
+  public Collection<AgentID> getAllAgents() {
+    return agents.keySet();
+  }
+
+  /**
+   * Spawned agents connect to the orchestrator, which is the local agent of the group
+   */
+  @Override
+  public Map<String, String> getJoinProperties() {
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("angela.rpc.hub", getLocalAgentID().toString());
+    properties.put("angela.rpc.secret", secret);
+    properties.put(RPC_CODEC.getPropertyName(), RPC_CODEC.getValue());
+    return properties;
+  }
+
+  // topology updates
+
+  void joined(AgentID agentID, String hostname) {
+    requireNonNull(agentID);
+    // hostname can be null
+    Collection<String> hostnames = agents.computeIfAbsent(agentID, key -> {
+      logger.info("Agent: {} has joined group: {}", agentID, getId());
+      return new ConcurrentLinkedQueue<>();
+    });
+    if (hostname != null && !hostnames.contains(hostname)) {
+      AgentID existing = findRemoteAgentID(hostname).orElse(null);
+      if (existing != null && !Objects.equals(agentID, existing)) {
+        throw new IllegalStateException("Two agents are serving the same hostname: " + hostname + ": already registered: " + existing + ", new one: " + agentID);
+      }
+      hostnames.add(hostname);
+    }
+  }
+
+  void left(AgentID agentID) {
+    if (agents.remove(agentID) != null) {
+      logger.info("Agent: {} has left group: {}", agentID, getId());
+    }
+  }
+
+  // search
+
+  Optional<AgentID> findRemoteAgentID(String hostname) {
+    // the orchestrator can be set to serve the hostname when remote agents are not spawned
+    Collection<String> hostnames = agents.get(getLocalAgentID());
+    if (hostnames != null && hostnames.contains(hostname)) {
+      return Optional.of(getLocalAgentID());
+    }
+    return agents.entrySet().stream()
+        .filter(e -> e.getKey().getName().equals(Agent.AGENT_TYPE_REMOTE))
+        .filter(e -> e.getValue().contains(hostname))
+        .map(Map.Entry::getKey)
+        .findFirst();
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import java.io.IOException;
+
+/**
+ * Encodes the jobs sent by the {@link RpcExecutor} to its agents, and their results.
+ * <p>
+ * The codec is selected with the {@code angela.rpc.codec} property, which is passed to the spawned agents,
+ * so the orchestrator and its agents use the same codec. Implementations must have a public no-arg constructor.
+ */
+public interface RpcCodec {
+
+  byte[] encode(Object o) throws IOException;
+
+  /**
+   * @param classLoader loads the classes of the decoded objects. It fetches the classes missing in this JVM from the peer.
+   */
+  Object decode(byte[] bytes, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.ignite.lang.IgniteCallable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A connection between the {@link RpcExecutor} of the orchestrator and one of its agents.
+ * <p>
+ * Messages are length-prefixed frames: {@code int payload length, long id, byte kind, payload}.
+ * Both sides send jobs through the same connection: the reader thread hands the received jobs over to the executor
+ * and completes the pending calls with their responses, while the writer thread batches the queued frames into
+ * gathering writes. The classes of a received job which are missing in this JVM are fetched from the peer.
+ */
+class RpcConnection implements Closeable {
+  private final static Logger logger = LoggerFactory.getLogger(RpcConnection.class);
+
+  static final byte HELLO = 1;
+  static final byte REQUEST = 2;
+  static final byte RESPONSE = 3;
+  static final byte FAILURE = 4;
+  static final byte CLASS_REQUEST = 5;
+  static final byte CLASS_RESPONSE = 6;
+
+  private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + 1;
+  private static final int MAX_PAYLOAD_SIZE = 512 * 1024 * 1024;
+  // frames received before the peer is authenticated can only be a hello
+  private static final int MAX_HELLO_SIZE = 64 * 1024;
+  private static final byte[] EMPTY = new byte[0];
+
+  private final SocketChannel channel;
+  private final RpcExecutor owner;
+  private final PeerClassLoader peerClassLoader;
+  private final Map<Long, CompletableFuture<Frame>> pending = new ConcurrentHashMap<>();
+  private final BlockingQueue<ByteBuffer[]> outgoing = new LinkedBlockingQueue<>();
+  private final AtomicLong ids = new AtomicLong();
+  private final CompletableFuture<Void> closed = new CompletableFuture<>();
+  private volatile AgentID peer;
+  private volatile boolean authenticated;
+  private Thread reader;
+  private Thread writer;
+
+  RpcConnection(SocketChannel channel, RpcExecutor owner) throws IOException {
+    channel.configureBlocking(true);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    this.channel = channel;
+    this.owner = owner;
+    this.peerClassLoader = new PeerClassLoader(owner.getClassLoader());
+  }
+
+  synchronized void start() {
+    String name = String.valueOf(channel.socket().getRemoteSocketAddress());
+    reader = new Thread(this::read, "angela-rpc-reader-" + name);
+    reader.setDaemon(true);
+    writer = new Thread(this::write, "angela-rpc-writer-" + name);
+    writer.setDaemon(true);
+    reader.start();
+    writer.start();
+  }
+
+  AgentID getPeer() {
+    return peer;
+  }
+
+  void setPeer(AgentID peer) {
+    this.peer = peer;
+  }
+
+  /**
+   * Lets the peer send jobs through this connection, which is done once its hello is accepted,
+   * or when this side opened the connection to the orchestrator
+   */
+  void authenticated() {
+    this.authenticated = true;
+  }
+
+  CompletableFuture<Void> getClosed() {
+    return closed;
+  }
+
+  /**
+   * Sends a job to the peer
+   */
+  <R> Future<R> call(Object job) {
+    byte[] payload;
+    try {
+      payload = owner.getCodec().encode(job);
+    } catch (IOException e) {
+      CompletableFuture<R> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+    return new Response<>(request(REQUEST, payload));
+  }
+
+  /**
+   * Introduces this side of the connection to the peer
+   */
+  void hello(byte[] payload, long timeout, TimeUnit unit) throws IOException, InterruptedException, TimeoutException {
+    try {
+      Frame frame = request(HELLO, payload).get(timeout, unit);
+      if (frame.kind == FAILURE) {
+        throw new IOException(new String(frame.payload, UTF_8));
+      }
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  @Override
+  public void close() {
+    if (!closed.complete(null)) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.debug("Error closing connection to: {}", peer, e);
+    }
+    synchronized (this) {
+      if (writer != null) {
+        writer.interrupt();
+      }
+    }
+    IOException failure = new IOException("Connection to agent: " + peer + " closed");
+    pending.values().forEach(response -> response.completeExceptionally(failure));
+    pending.clear();
+    owner.closed(this);
+  }
+
+  @Override
+  public String toString() {
+    return String.valueOf(peer);
+  }
+
+  private CompletableFuture<Frame> request(byte kind, byte[] payload) {
+    long id = ids.incrementAndGet();
+    CompletableFuture<Frame> response = new CompletableFuture<>();
+    pending.put(id, response);
+    // the connection can be closed concurrently, after having failed the pending requests
+    if (closed.isDone() && pending.remove(id) != null) {
+      response.completeExceptionally(new IOException("Connection to agent: " + peer + " closed"));
+      return response;
+    }
+    send(id, kind, payload);
+    return response;
+  }
+
+  private void send(long id, byte kind, byte[] payload) {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(payload.length).putLong(id).put(kind);
+    header.flip();
+    // writes are done by the writer thread, because interrupting a thread writing to a channel closes the channel
+    outgoing.add(new ByteBuffer[]{header, ByteBuffer.wrap(payload)});
+  }
+
+  private void write() {
+    List<ByteBuffer[]> frames = new ArrayList<>();
+    try {
+      while (!closed.isDone()) {
+        frames.add(outgoing.take());
+        outgoing.drainTo(frames);
+        ByteBuffer[] buffers = frames.stream().flatMap(Arrays::stream).toArray(ByteBuffer[]::new);
+        frames.clear();
+        long remaining = Arrays.stream(buffers).mapToLong(ByteBuffer::remaining).sum();
+        while (remaining > 0) {
+          remaining -= channel.write(buffers);
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed
+    } catch (IOException e) {
+      logger.debug("Error writing to agent: {}: {}", peer, e.toString());
+    } finally {
+      close();
+    }
+  }
+
+  private void read() {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    try {
+      while (true) {
+        header.clear();
+        if (!readFully(header)) {
+          break;
+        }
+        header.flip();
+        int length = header.getInt();
+        long id = header.getLong();
+        byte kind = header.get();
+        if (length < 0 || length > (authenticated ? MAX_PAYLOAD_SIZE : MAX_HELLO_SIZE)) {
+          throw new IOException("Invalid frame length: " + length);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(payload)) {
+          throw new EOFException();
+        }
+        dispatch(id, kind, payload.array());
+      }
+    } catch (IOException e) {
+      if (!closed.isDone()) {
+        logger.debug("Error reading from agent: {}: {}", peer, e.toString());
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * @return false if the end of the stream is reached before reading anything
+   */
+  private boolean readFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        if (buffer.position() == 0) {
+          return false;
+        }
+        throw new EOFException();
+      }
+    }
+    return true;
+  }
+
+  private void dispatch(long id, byte kind, byte[] payload) throws IOException {
+    if (authenticated == (kind == HELLO)) {
+      // the only frame an unknown peer can send is a hello, which is sent once
+      logger.warn("Closing connection from: {}: unexpected frame of kind: {}", channel.socket().getRemoteSocketAddress(), kind);
+      throw new IOException("Unexpected frame of kind: " + kind);
+    }
+    switch (kind) {
+      case HELLO: {
+        try {
+          owner.hello(this, payload);
+          authenticated();
+          send(id, RESPONSE, EMPTY);
+        } catch (RuntimeException e) {
+          logger.warn("Rejected agent connection from: {}: {}", channel.socket().getRemoteSocketAddress(), e.getMessage());
+          send(id, FAILURE, String.valueOf(e.getMessage()).getBytes(UTF_8));
+        }
+        break;
+      }
+      case REQUEST: {
+        // the job can load classes from the peer, which needs this thread to read the responses
+        owner.submit(() -> execute(id, payload));
+        break;
+      }
+      case CLASS_REQUEST: {
+        owner.submit(() -> sendClass(id, new String(payload, UTF_8)));
+        break;
+      }
+      case RESPONSE:
+      case FAILURE:
+      case CLASS_RESPONSE: {
+        CompletableFuture<Frame> response = pending.remove(id);
+        if (response != null) {
+          response.complete(new Frame(kind, payload));
+        }
+        break;
+      }
+      default:
+        logger.warn("Ignoring frame of unknown kind: {} from agent: {}", kind, peer);
+    }
+  }
+
+  private void execute(long id, byte[] payload) {
+    byte kind;
+    byte[] response;
+    try {
+      Object result = owner.executeJob((IgniteCallable<?>) owner.decode(payload, peerClassLoader));
+      response = owner.getCodec().encode(result);
+      kind = RESPONSE;
+    } catch (Throwable t) {
+      response = encodeFailure(t);
+      kind = FAILURE;
+    }
+    send(id, kind, response);
+  }
+
+  private byte[] encodeFailure(Throwable t) {
+    try {
+      return owner.getCodec().encode(t);
+    } catch (IOException e) {
+      // the failure is not serializable: only keep its stack trace
+      try {
+        StringWriter stackTrace = new StringWriter();
+        t.printStackTrace(new PrintWriter(stackTrace));
+        return owner.getCodec().encode(new IgniteFutureAdapter.RemoteExecutionException(t.toString(), stackTrace.toString()));
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+  }
+
+  private void sendClass(long id, String className) {
+    byte[] bytes = EMPTY;
+    try (InputStream is = owner.getClassLoader().getResourceAsStream(className.replace('.', '/') + ".class")) {
+      if (is != null) {
+        bytes = IOUtils.toByteArray(is);
+      }
+    } catch (IOException e) {
+      logger.debug("Unable to read class: {} requested by agent: {}: {}", className, peer, e.toString());
+    }
+    // an empty response means that the class is not found
+    send(id, CLASS_RESPONSE, bytes);
+  }
+
+  private static class Frame {
+    final byte kind;
+    final byte[] payload;
+
+    Frame(byte kind, byte[] payload) {
+      this.kind = kind;
+      this.payload = payload;
+    }
+  }
+
+  /**
+   * Loads the classes of the received jobs which are missing in this JVM from the peer, like Ignite peer class loading does
+   */
+  private class PeerClassLoader extends ClassLoader {
+    PeerClassLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      long start = System.nanoTime();
+      byte[] bytes;
+      try {
+        bytes = request(CLASS_REQUEST, name.getBytes(UTF_8)).get().payload;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ClassNotFoundException(name, e);
+      } catch (ExecutionException e) {
+        throw new ClassNotFoundException(name, e.getCause());
+      }
+      if (bytes.length == 0) {
+        throw new ClassNotFoundException(name);
+      }
+      logger.debug("Loaded class: {} from agent: {}", name, peer);
+      Class<?> c = defineClass(name, bytes, 0, bytes.length);
+      ClassLoadingStats.record(System.nanoTime() - start);
+      return c;
+    }
+  }
+
+  /**
+   * The result of a job, decoded by the thread waiting for it
+   */
+  private class Response<R> implements Future<R> {
+    private final CompletableFuture<Frame> frame;
+
+    Response(CompletableFuture<Frame> frame) {
+      this.frame = frame;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      // the job keeps running on the peer, its result is ignored
+      return frame.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return frame.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return frame.isDone();
+    }
+
+    @Override
+    public R get() throws InterruptedException, ExecutionException {
+      return decode(frame.get());
+    }
+
+    @Override
+    public R get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      return decode(frame.get(timeout, unit));
+    }
+
+    @SuppressWarnings("unchecked")
+    private R decode(Frame frame) throws ExecutionException {
+      Object value;
+      try {
+        value = owner.decode(frame.payload, peerClassLoader);
+      } catch (IOException | ClassNotFoundException e) {
+        throw new ExecutionException("Unable to decode the result of the job executed on agent: " + peer, e);
+      }
+      if (frame.kind == FAILURE) {
+        throw new ExecutionException("Job execution failed on agent: " + peer, (Throwable) value);
+      }
+      return (R) value;
+    }
+  }
+}
@@ -0,0 +1,732 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.apache.ignite.lang.IgniteCallable;
+import org.apache.ignite.lang.IgniteRunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.Agent;
+import org.terracotta.angela.common.clientconfig.ClientId;
+import org.terracotta.angela.common.cluster.Cluster;
+import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.AngelaVersion;
+import org.terracotta.angela.common.util.IpUtils;
+import org.zeroturnaround.process.PidUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.function.Predicate.isEqual;
+import static org.terracotta.angela.common.AngelaProperties.FILE_TRANSFER_DATA_CHANNEL;
+import static org.terracotta.angela.common.AngelaProperties.RPC_CODEC;
+
+/**
+ * Executor which is not using Ignite: the agents connect to the orchestrator through a lightweight RPC protocol
+ * (see {@link RpcConnection}), so starting an agent only costs a JVM start and one TCP connection.
+ * <p>
+ * The orchestrator listens on the port of its agent ID and keeps one connection per agent, through which jobs are sent
+ * both ways. Agents are only accepted if they present the secret of the session, which the orchestrator generates and
+ * hands over to the agents it spawns through {@link AgentGroup#getJoinProperties()}. It hosts the file transfer queues, and forwards the jobs sent by an agent to another agent.
+ * Jobs sent to the local agent are executed in this JVM.
+ * <p>
+ * The {@link Cluster} primitives are backed by Ignite, and are not supported.
+ */
+public class RpcExecutor implements Executor, Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final static Logger logger = LoggerFactory.getLogger(RpcExecutor.class);
+
+  // the executor decoding or executing a job in this thread, to which the executors captured by the job are resolved
+  private static final ThreadLocal<RpcExecutor> CURRENT = new ThreadLocal<>();
+
+  protected final transient UUID group;
+  protected final transient AgentID agentID;
+  protected final transient RpcAgentGroup agentGroup;
+  private final transient AgentID hubAgentID;
+  private final transient RpcCodec codec = newCodec();
+  private final transient ClassLoader classLoader;
+  private final transient ExecutorService jobs;
+  // orchestrator side
+  private final transient String secret;
+  private final transient ServerSocketChannel server;
+  private final transient Set<RpcConnection> accepted = ConcurrentHashMap.newKeySet();
+  private final transient Map<AgentID, RpcConnection> connections = new ConcurrentHashMap<>();
+  private final transient Map<AgentID, CompletableFuture<Void>> shutdowns = new ConcurrentHashMap<>();
+  private final transient Map<String, BlockingQueue<FileTransfer>> queues = new ConcurrentHashMap<>();
+  // agent side
+  private final transient RpcConnection hub;
+  private final transient CompletableFuture<Void> hubClosed = new CompletableFuture<>();
+  private transient volatile Runnable shutdownHandler;
+
+  public RpcExecutor(Agent agent) {
+    this(agent.getGroupId(), agent.getAgentID());
+  }
+
+  /**
+   * Orchestrator side: listens for the agents on the port of the agent ID
+   */
+  public RpcExecutor(UUID group, AgentID agentID) {
+    this.group = group;
+    this.agentID = agentID;
+    this.hubAgentID = agentID;
+    this.secret = newSecret();
+    this.agentGroup = new RpcAgentGroup(group, agentID, secret);
+    this.classLoader = defaultClassLoader();
+    this.jobs = newJobPool();
+    this.hub = null;
+    try {
+      this.server = ServerSocketChannel.open();
+      server.bind(new InetSocketAddress(IpUtils.getBindAddress(), agentID.getPort()));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to listen for agents on port: " + agentID.getPort(), e);
+    }
+    Thread acceptor = new Thread(this::accept, "angela-rpc-server-" + agentID.getPort());
+    acceptor.setDaemon(true);
+    acceptor.start();
+    logger.info("Agent: {} listening for agents of group: {}", agentID, group);
+  }
+
+  private RpcExecutor(UUID group, AgentID agentID, AgentID hubAgentID, SocketChannel channel, ClassLoader classLoader) throws IOException {
+    this.group = group;
+    this.agentID = agentID;
+    this.hubAgentID = hubAgentID;
+    this.agentGroup = null;
+    this.classLoader = classLoader;
+    this.jobs = newJobPool();
+    this.secret = null;
+    this.server = null;
+    this.hub = new RpcConnection(channel, this);
+    hub.setPeer(hubAgentID);
+    // the agent opened the connection to its orchestrator
+    hub.authenticated();
+  }
+
+  /**
+   * Agent side: connects to the orchestrator of the group
+   *
+   * @param secret the secret of the session, see {@link #getSecret()}
+   */
+  public static RpcExecutor connect(UUID group, String instanceName, AgentID hubAgentID, String secret) {
+    return connect(group, instanceName, hubAgentID, secret, defaultClassLoader());
+  }
+
+  /**
+   * Agent side: connects to the orchestrator of the group
+   *
+   * @param secret      the secret of the session, see {@link #getSecret()}
+   * @param classLoader the class loader of the jobs received by the agent, before loading their classes from the sender
+   */
+  public static RpcExecutor connect(UUID group, String instanceName, AgentID hubAgentID, String secret, ClassLoader classLoader) {
+    try {
+      SocketChannel channel = SocketChannel.open(new InetSocketAddress(hubAgentID.getHostName(), hubAgentID.getPort()));
+      // the agent does not listen: its port identifies its connection to the orchestrator
+      int port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+      AgentID agentID = new AgentID(instanceName, IpUtils.getHostName(), port, PidUtil.getMyPid());
+      RpcExecutor executor = new RpcExecutor(group, agentID, hubAgentID, channel, classLoader);
+      try {
+        executor.hub.start();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+          out.writeUTF(group.toString());
+          out.writeUTF(agentID.toString());
+          out.writeUTF(AngelaVersion.getAngelaVersion());
+          out.writeUTF(secret);
+        }
+        executor.hub.hello(baos.toByteArray(), 30, SECONDS);
+      } catch (IOException | InterruptedException | TimeoutException | RuntimeException e) {
+        executor.close();
+        throw e;
+      }
+      logger.info("Agent: {} connected to: {}", agentID, hubAgentID);
+      return executor;
+    } catch (IOException | InterruptedException | TimeoutException e) {
+      throw Exceptions.asRuntime("Unable to connect to: " + hubAgentID, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getLocalAgentID().toString();
+  }
+
+  /**
+   * Orchestrator side: the random secret the agents must present to join this session
+   */
+  public String getSecret() {
+    if (hub != null) {
+      throw new UnsupportedOperationException("Only the orchestrator knows the secret of the session");
+    }
+    return secret;
+  }
+
+  /**
+   * Agent side: waits until the connection to the orchestrator is closed
+   */
+  public void awaitClosed() throws InterruptedException {
+    try {
+      hubClosed.get();
+    } catch (ExecutionException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (hub != null) {
+      jobs.shutdownNow();
+      hub.close();
+      return;
+    }
+    CompletableFuture<Void> future = CompletableFuture.allOf(agentGroup.getSpawnedAgents().parallelStream()
+        .filter(isEqual(getLocalAgentID()).negate())
+        .map(this::shutdown)
+        .filter(Optional::isPresent)
+        .map(Optional::get)
+        .toArray(CompletableFuture[]::new));
+    try {
+      future.get(20, SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      // impossible to go there
+      throw new AssertionError(e.getCause());
+    } catch (TimeoutException e) {
+      logger.warn("Some agents did not shutdown within 20 seconds: {}", agentGroup.getSpawnedAgents(), e);
+    } finally {
+      try {
+        server.close();
+      } catch (IOException e) {
+        logger.debug("Error closing server of: {}", agentID, e);
+      }
+      accepted.forEach(RpcConnection::close);
+      queues.clear();
+      jobs.shutdownNow();
+    }
+  }
+
+  @Override
+  public boolean useDataChannel() {
+    return FILE_TRANSFER_DATA_CHANNEL.getBooleanValue();
+  }
+
+  @Override
+  public Optional<CompletableFuture<Void>> shutdown(AgentID agentID) {
+    if (getLocalAgentID().equals(agentID)) {
+      throw new IllegalArgumentException("Cannot kill myself: " + agentID);
+    }
+    if (hub != null) {
+      throw new UnsupportedOperationException("Agents can only be shut down by the orchestrator");
+    }
+    RpcConnection connection = connections.get(agentID);
+    if (connection == null) {
+      return Optional.empty();
+    }
+    if (!agentGroup.getSpawnedAgents().contains(agentID)) {
+      if (connections.get(agentID) != connection) {
+        // the agent has left in the meantime
+        return Optional.empty();
+      }
+      throw new IllegalArgumentException("Cannot kill inline or local agent: " + agentID);
+    }
+    CompletableFuture<Void> shutdown = shutdowns.computeIfAbsent(agentID, id -> new CompletableFuture<>());
+    connection.call((IgniteCallable<Void>) () -> {
+      current().shutdownRequested();
+      return null;
+    });
+    logger.info("Requested shutdown of agent: {}", agentID);
+    return Optional.of(shutdown);
+  }
+
+  /**
+   * Agent side: replaces what the agent does when the orchestrator shuts it down, which is to exit the JVM by default
+   */
+  public void setShutdownHandler(Runnable shutdownHandler) {
+    this.shutdownHandler = shutdownHandler;
+  }
+
+  @SuppressFBWarnings("DM_EXIT")
+  private void shutdownRequested() {
+    Runnable handler = shutdownHandler;
+    // the job must not wait for its own connection to close
+    Thread thread = new Thread(() -> {
+      if (handler == null) {
+        logger.info("Agent: {} received a shutdown request. Exiting...", agentID);
+        System.exit(0);
+      } else {
+        logger.info("Agent: {} received a shutdown request", agentID);
+        handler.run();
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public AgentID getLocalAgentID() {
+    return agentID;
+  }
+
+  @Override
+  public Optional<AgentID> findAgentID(String hostname) {
+    if (hub != null) {
+      return Optional.ofNullable(onHub(() -> current().findAgentID(hostname).orElse(null)));
+    }
+    return Optional.ofNullable(IpUtils.isLocal(hostname) ?
+        getLocalAgentID() : // requested hostname is local (i.e. 127.0.0.1, localhost, etc) and then we would use the started orchestrator for it
+        agentGroup.findRemoteAgentID(hostname).orElse(null));
+  }
+
+  @Override
+  public Optional<AgentID> startRemoteAgent(String hostname) {
+    if (hub != null) {
+      return Optional.ofNullable(onHub(() -> current().startRemoteAgent(hostname).orElse(null)));
+    }
+    // remote agents are not spawned: all remote hostnames are handled by the orchestrator
+    agentGroup.joined(getLocalAgentID(), hostname);
+    return Optional.empty();
+  }
+
+  @Override
+  public AgentGroup getGroup() {
+    // agents get a snapshot of the group of the orchestrator
+    return hub == null ? agentGroup : onHub(() -> current().getGroup());
+  }
+
+  @Override
+  public Cluster getCluster() {
+    throw new UnsupportedOperationException("Cluster primitives are only supported by the Ignite executors");
+  }
+
+  @Override
+  public Cluster getCluster(ClientId clientId) {
+    throw new UnsupportedOperationException("Cluster primitives are only supported by the Ignite executors");
+  }
+
+  @Override
+  public Future<Void> executeAsync(AgentID agentID, IgniteRunnable job) {
+    return executeAsync(agentID, (IgniteCallable<Void>) () -> {
+      job.run();
+      return null;
+    });
+  }
+
+  @Override
+  public <R> Future<R> executeAsync(AgentID agentID, IgniteCallable<R> job) {
+    logger.debug("Executing job on: {}", agentID);
+    if (agentID.equals(getLocalAgentID())) {
+      CompletableFuture<R> future = new CompletableFuture<>();
+      submit(() -> {
+        try {
+          future.complete(executeJob(job));
+        } catch (Throwable e) {
+          future.completeExceptionally(e);
+        }
+      });
+      return future;
+    }
+    if (hub == null) {
+      RpcConnection connection = connections.get(agentID);
+      if (connection == null) {
+        throw new IllegalArgumentException("No agent found matching: " + agentID + " in group " + group);
+      }
+      return connection.call(job);
+    }
+    if (agentID.equals(hubAgentID)) {
+      return hub.call(job);
+    }
+    // jobs between agents go through the orchestrator
+    return hub.call((IgniteCallable<R>) () -> execute(agentID, job));
+  }
+
+  @Override
+  public BlockingQueue<FileTransfer> getFileTransferQueue(InstanceId instanceId) {
+    if (hub != null) {
+      return new RemoteQueue(this, instanceId);
+    }
+    return queues.computeIfAbsent(instanceId + "@file-transfer-queue", s -> new LinkedBlockingQueue<>(FileTransfer.getMaxInFlightChunks()));
+  }
+
+  @Override
+  public void closeFileTransferQueue(InstanceId instanceId) {
+    if (hub != null) {
+      new RemoteQueue(this, instanceId).close();
+      return;
+    }
+    queues.remove(instanceId + "@file-transfer-queue");
+  }
+
+  // connection callbacks
+
+  ClassLoader getClassLoader() {
+    return classLoader;
+  }
+
+  RpcCodec getCodec() {
+    return codec;
+  }
+
+  void submit(Runnable task) {
+    try {
+      jobs.execute(task);
+    } catch (RejectedExecutionException e) {
+      logger.debug("Executor: {} is closed: {}", agentID, e.toString());
+    }
+  }
+
+  Object decode(byte[] payload, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    RpcExecutor previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      return codec.decode(payload, classLoader);
+    } finally {
+      restore(previous);
+    }
+  }
+
+  <R> R executeJob(IgniteCallable<R> job) throws Exception {
+    RpcExecutor previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      return job.call();
+    } finally {
+      restore(previous);
+    }
+  }
+
+  void hello(RpcConnection connection, byte[] payload) {
+    if (hub != null) {
+      throw new IllegalStateException("Agent: " + agentID + " is not an orchestrator");
+    }
+    String agentGroupId;
+    AgentID agentID;
+    String version;
+    String agentSecret;
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+      agentGroupId = in.readUTF();
+      agentID = AgentID.valueOf(in.readUTF());
+      version = in.readUTF();
+      agentSecret = in.readUTF();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (!MessageDigest.isEqual(agentSecret.getBytes(UTF_8), secret.getBytes(UTF_8))) {
+      throw new IllegalStateException("Agent: " + agentID + " did not present the secret of group: " + group);
+    }
+    if (!Objects.equals(agentGroupId, group.toString())) {
+      throw new IllegalStateException("Agent: " + agentID + " in group: " + agentGroupId + " is not part of group: " + group);
+    }
+    if (!Objects.equals(version, AngelaVersion.getAngelaVersion())) {
+      throw new IllegalStateException("Agent: " + agentID + " is running version [" + version + "] but the expected version is [" + AngelaVersion.getAngelaVersion() + "]");
+    }
+    connection.setPeer(agentID);
+    connections.put(agentID, connection);
+    agentGroup.joined(agentID, null);
+  }
+
+  void closed(RpcConnection connection) {
+    AgentID peer = connection.getPeer();
+    if (hub != null) {
+      if (!jobs.isShutdown()) {
+        logger.warn("Agent: {} lost its connection to: {}", agentID, peer);
+      }
+      hubClosed.complete(null);
+      return;
+    }
+    accepted.remove(connection);
+    if (peer != null && connections.remove(peer, connection)) {
+      agentGroup.left(peer);
+      shutdowns.computeIfAbsent(peer, id -> new CompletableFuture<>()).complete(null);
+    }
+  }
+
+  private void accept() {
+    while (server.isOpen()) {
+      try {
+        RpcConnection connection = new RpcConnection(server.accept(), this);
+        accepted.add(connection);
+        connection.start();
+      } catch (ClosedChannelException e) {
+        break;
+      } catch (IOException e) {
+        logger.warn("Error accepting agent connection on: {}", agentID, e);
+      }
+    }
+  }
+
+  private <R> R onHub(IgniteCallable<R> job) {
+    try {
+      return hub.<R>call(job).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw Exceptions.asRuntime(e);
+    }
+  }
+
+  /**
+   * @return a random secret of 256 bits, in hexadecimal
+   */
+  public static String newSecret() {
+    byte[] bytes = new byte[32];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  private static void restore(RpcExecutor previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  static RpcExecutor findCurrent() {
+    return CURRENT.get();
+  }
+
+  static RpcExecutor current() {
+    RpcExecutor executor = CURRENT.get();
+    if (executor == null) {
+      throw new IllegalStateException("No job received by a RPC executor in thread: " + Thread.currentThread().getName());
+    }
+    return executor;
+  }
+
+  private static ClassLoader defaultClassLoader() {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    return classLoader == null ? RpcExecutor.class.getClassLoader() : classLoader;
+  }
+
+  private static ExecutorService newJobPool() {
+    AtomicInteger threads = new AtomicInteger();
+    return Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "angela-rpc-job-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static RpcCodec newCodec() {
+    String className = RPC_CODEC.getValue();
+    try {
+      return (RpcCodec) Class.forName(className).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalArgumentException("Invalid RPC codec: " + className, e);
+    }
+  }
+
+  // jobs capturing an executor get the executor of the JVM they are executed in
+
+  private Object writeReplace() {
+    return new Ref();
+  }
+
+  private static class Ref implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Object readResolve() {
+      return current();
+    }
+  }
+
+  /**
+   * File transfer queue of an agent, which is hosted by the orchestrator.
+   * Blocking operations wait on the orchestrator for one second at most, so that a dead agent does not hold a thread.
+   */
+  private static class RemoteQueue extends AbstractQueue<FileTransfer> implements BlockingQueue<FileTransfer> {
+    private final RpcExecutor executor;
+    private final InstanceId instanceId;
+
+    RemoteQueue(RpcExecutor executor, InstanceId instanceId) {
+      this.executor = executor;
+      this.instanceId = instanceId;
+    }
+
+    @Override
+    public boolean offer(FileTransfer fileTransfer) {
+      return uninterruptibly(() -> offer(fileTransfer, 0, MILLISECONDS));
+    }
+
+    @Override
+    public boolean offer(FileTransfer fileTransfer, long timeout, TimeUnit unit) throws InterruptedException {
+      Objects.requireNonNull(fileTransfer);
+      InstanceId instanceId = this.instanceId;
+      return call(() -> current().getFileTransferQueue(instanceId).offer(fileTransfer, timeout, unit));
+    }
+
+    @Override
+    public void put(FileTransfer fileTransfer) throws InterruptedException {
+      while (!offer(fileTransfer, 1, SECONDS)) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    }
+
+    @Override
+    public FileTransfer poll() {
+      return uninterruptibly(() -> poll(0, MILLISECONDS));
+    }
+
+    @Override
+    public FileTransfer poll(long timeout, TimeUnit unit) throws InterruptedException {
+      InstanceId instanceId = this.instanceId;
+      return call(() -> current().getFileTransferQueue(instanceId).poll(timeout, unit));
+    }
+
+    @Override
+    public FileTransfer take() throws InterruptedException {
+      while (true) {
+        FileTransfer fileTransfer = poll(1, SECONDS);
+        if (fileTransfer != null) {
+          return fileTransfer;
+        }
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    }
+
+    @Override
+    public FileTransfer peek() {
+      InstanceId instanceId = this.instanceId;
+      return uninterruptibly(() -> call(() -> current().getFileTransferQueue(instanceId).peek()));
+    }
+
+    @Override
+    public int size() {
+      InstanceId instanceId = this.instanceId;
+      return uninterruptibly(() -> call(() -> current().getFileTransferQueue(instanceId).size()));
+    }
+
+    @Override
+    public int remainingCapacity() {
+      InstanceId instanceId = this.instanceId;
+      return uninterruptibly(() -> call(() -> current().getFileTransferQueue(instanceId).remainingCapacity()));
+    }
+
+    @Override
+    public void clear() {
+      InstanceId instanceId = this.instanceId;
+      uninterruptibly(() -> call(() -> {
+        current().getFileTransferQueue(instanceId).clear();
+        return null;
+      }));
+    }
+
+    @Override
+    public int drainTo(Collection<? super FileTransfer> c) {
+      return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super FileTransfer> c, int maxElements) {
+      InstanceId instanceId = this.instanceId;
+      List<FileTransfer> drained = uninterruptibly(() -> call(() -> {
+        List<FileTransfer> list = new ArrayList<>();
+        current().getFileTransferQueue(instanceId).drainTo(list, maxElements);
+        return list;
+      }));
+      c.addAll(drained);
+      return drained.size();
+    }
+
+    /**
+     * Removes the queue from the orchestrator
+     */
+    void close() {
+      InstanceId instanceId = this.instanceId;
+      uninterruptibly(() -> call(() -> {
+        current().closeFileTransferQueue(instanceId);
+        return null;
+      }));
+    }
+
+    /**
+     * Iterates over a snapshot of the queue, which cannot be modified through the iterator
+     */
+    @Override
+    public Iterator<FileTransfer> iterator() {
+      InstanceId instanceId = this.instanceId;
+      List<FileTransfer> snapshot = uninterruptibly(() -> call(() -> new ArrayList<>(current().getFileTransferQueue(instanceId))));
+      return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    private <R> R call(IgniteCallable<R> job) throws InterruptedException {
+      try {
+        return executor.hub.<R>call(job).get();
+      } catch (ExecutionException e) {
+        throw Exceptions.asRuntime(e);
+      }
+    }
+
+    private static <R> R uninterruptibly(InterruptibleCall<R> call) {
+      try {
+        return call.call();
+      } catch (InterruptedException e) {
+        throw Exceptions.asRuntime(e);
+      }
+    }
+
+    @FunctionalInterface
+    private interface InterruptibleCall<R> {
+      R call() throws InterruptedException;
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.Agent;
+import org.terracotta.angela.agent.AgentDaemon;
+import org.terracotta.angela.common.TerracottaCommandLineEnvironment;
+import org.terracotta.angela.common.util.IpUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.terracotta.angela.common.AngelaProperties.RPC_CODEC;
+import static org.terracotta.angela.common.AngelaProperties.RPC_DAEMON;
+import static org.terracotta.angela.common.AngelaProperties.RPC_DAEMON_IDLE_TIMEOUT;
+import static org.terracotta.angela.common.AngelaProperties.RPC_DAEMON_PORT;
+
+/**
+ * Executor which will deploy a RPC agent remotely for all specified non-local hosts.
+ * <p>
+ * In daemon mode (see {@link #setDaemon(boolean)}), the remote agents are warm {@link AgentDaemon}s which are leased
+ * for the lifetime of this executor, and started on the hosts which do not have one yet.
+ * An agent is spawned for this executor only when the daemon of a host is leased by another orchestrator.
+ */
+public class RpcSshRemoteExecutor extends RpcExecutor {
+  private static final long serialVersionUID = 1L;
+
+  private final static Logger logger = LoggerFactory.getLogger(RpcSshRemoteExecutor.class);
+
+  private transient final SshAgentLauncher launcher = new SshAgentLauncher();
+  private transient final Map<String, AgentDaemon.Connection> leases = new ConcurrentHashMap<>();
+  private transient boolean daemon = RPC_DAEMON.getBooleanValue();
+  private transient int daemonPort = Integer.parseInt(RPC_DAEMON_PORT.getValue());
+
+  public RpcSshRemoteExecutor(Agent agent) {
+    super(agent);
+  }
+
+  public RpcSshRemoteExecutor(UUID group, AgentID agentID) {
+    super(group, agentID);
+  }
+
+  public RpcSshRemoteExecutor setTcEnv(TerracottaCommandLineEnvironment tcEnv) {
+    launcher.setTcEnv(tcEnv);
+    return this;
+  }
+
+  public RpcSshRemoteExecutor setRemoteUserName(String remoteUserName) {
+    launcher.setRemoteUserName(remoteUserName);
+    return this;
+  }
+
+  public RpcSshRemoteExecutor setRemoteUserNameKeyPath(String remoteUserNameKeyPath) {
+    launcher.setRemoteUserNameKeyPath(remoteUserNameKeyPath);
+    return this;
+  }
+
+  public RpcSshRemoteExecutor setPort(int port) {
+    launcher.setPort(port);
+    return this;
+  }
+
+  public RpcSshRemoteExecutor setStrictHostKeyChecking(boolean strictHostKeyChecking) {
+    launcher.setStrictHostKeyChecking(strictHostKeyChecking);
+    return this;
+  }
+
+  public RpcSshRemoteExecutor setDaemon(boolean daemon) {
+    this.daemon = daemon;
+    return this;
+  }
+
+  public RpcSshRemoteExecutor setDaemonPort(int daemonPort) {
+    this.daemonPort = daemonPort;
+    return this;
+  }
+
+  @Override
+  public Optional<AgentID> startRemoteAgent(String hostname) {
+    if (IpUtils.isLocal(hostname)) {
+      agentGroup.joined(getLocalAgentID(), hostname);
+      return Optional.empty();
+    }
+
+    // agents are started concurrently on different hosts
+    synchronized (launcher.getHostLock(hostname)) {
+      return startRemoteAgentOn(hostname);
+    }
+  }
+
+  private Optional<AgentID> startRemoteAgentOn(String hostname) {
+    if (launcher.isLaunched(hostname) || leases.containsKey(hostname) || agentGroup.findRemoteAgentID(hostname).isPresent()) {
+      // if we detect we need an agent for a local hostname, or an already spawned one, re-use the local one
+      return Optional.empty();
+    }
+
+    AgentID agentID = daemon ? leaseDaemon(hostname).orElse(null) : null;
+    if (agentID == null) {
+      agentID = launcher.launch(hostname, group, agentGroup.getJoinProperties());
+    }
+
+    // "hostname" is the hostname used here in the angela test to reach the remote host
+    // agentID.getHostName() is the hostname read by IpUtil when starting the agent remotely
+    agentGroup.joined(agentID, hostname);
+
+    return Optional.of(agentID);
+  }
+
+  private Optional<AgentID> leaseDaemon(String hostname) {
+    String jarHash = launcher.getAgentJarHash();
+    Optional<AgentDaemon.Connection> lease;
+    try {
+      String daemonSecret = AgentDaemon.getSharedSecret();
+      try {
+        lease = AgentDaemon.lease(hostname, daemonPort, jarHash, daemonSecret, group, agentID, getSecret(), Duration.ZERO);
+      } catch (IOException e) {
+        logger.info("No agent daemon available on: {}:{}: {}", hostname, daemonPort, e.getMessage());
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put(RPC_DAEMON.getPropertyName(), "true");
+        properties.put(RPC_DAEMON_PORT.getPropertyName(), String.valueOf(daemonPort));
+        properties.put(RPC_DAEMON_IDLE_TIMEOUT.getPropertyName(), RPC_DAEMON_IDLE_TIMEOUT.getValue());
+        properties.put(RPC_CODEC.getPropertyName(), RPC_CODEC.getValue());
+        launcher.launchDaemon(hostname, properties, daemonSecret);
+        lease = AgentDaemon.lease(hostname, daemonPort, jarHash, daemonSecret, group, agentID, getSecret(), Duration.ofSeconds(60));
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to lease an agent daemon on: {}:{}: spawning an agent instead", hostname, daemonPort, e);
+      return Optional.empty();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    if (!lease.isPresent()) {
+      logger.info("The agent daemon on: {}:{} is not available: spawning an agent instead", hostname, daemonPort);
+      return Optional.empty();
+    }
+    logger.info("Leased agent daemon: {} on: {}", lease.get().getAgentID(), hostname);
+    leases.put(hostname, lease.get());
+    return Optional.of(lease.get().getAgentID());
+  }
+
+  @Override
+  public void close() {
+    // NOTE: closing the ssh RemoteAgentHolder will also kil lthe agent
+    launcher.close();
+    // the leased daemons are released when they are shut down
+    super.close();
+    leases.values().forEach(AgentDaemon.Connection::close);
+    leases.clear();
+  }
+}
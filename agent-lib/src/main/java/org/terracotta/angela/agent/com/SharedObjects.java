@@ -0,0 +1,268 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Objects the orchestrator shares with the agents, so that the closures sent to an agent can reference them
+ * with a small {@link Ref} instead of capturing (and serializing) them on each call.
+ * <p>
+ * An object is pushed to an agent the first time it is shared with it, then again only when it has changed,
+ * as a {@link Delta} when the {@link Sharing} strategy of the object is able to compute one.
+ * A pushed object is cached on the agent until {@link #clear()} is called. The agents cache a copy of the pushed objects and
+ * apply the deltas to a new copy, so that an agent running in the JVM of the orchestrator does not alias its objects.
+ * The orchestrator forgets what it has pushed with {@link #forget(Executor)} when it is closed.
+ */
+public class SharedObjects {
+
+  private final static Logger logger = LoggerFactory.getLogger(SharedObjects.class);
+
+  // agent side: the objects pushed by the orchestrator
+  private static final Map<String, Entry> CACHE = new ConcurrentHashMap<>();
+
+  // orchestrator side: the current version of each shared object, and what has been pushed to each agent,
+  // keyed by the agent ID of the orchestrator first
+  private static final Map<String, Pushed> VERSIONS = new ConcurrentHashMap<>();
+  private static final Map<String, Pushed> PUSHED = new ConcurrentHashMap<>();
+
+  /**
+   * Orchestrator side: makes sure the agent has the current value of the object, pushing it if needed.
+   *
+   * @param key the key of the object, which has to be unique per orchestrator (e.g. prefixed by an instance ID)
+   * @return the reference to capture in the closures sent to the agent, which resolves to null if the value is null
+   */
+  public static <T extends Serializable, S> Ref<T> share(Executor executor, AgentID agentID, String key, T value, Sharing<T, S> sharing) {
+    if (value == null) {
+      return new Ref<>(null, 0);
+    }
+    S snapshot = sharing.snapshot(value);
+    long version;
+    String orchestrator = executor.getLocalAgentID() + "/";
+    Pushed current = VERSIONS.computeIfAbsent(orchestrator + key, k -> new Pushed());
+    synchronized (current) {
+      if (current.snapshot == null || !current.snapshot.equals(snapshot)) {
+        current.version++;
+        current.snapshot = snapshot;
+      }
+      version = current.version;
+    }
+
+    Pushed pushed = PUSHED.computeIfAbsent(orchestrator + agentID + "/" + key, k -> new Pushed());
+    synchronized (pushed) {
+      if (pushed.version != version) {
+        @SuppressWarnings("unchecked")
+        Delta<T> delta = pushed.snapshot == null ? null : sharing.diff((S) pushed.snapshot, value).orElse(null);
+        long base = pushed.version;
+        if (delta != null && executor.execute(agentID, () -> update(key, base, version, delta))) {
+          logger.debug("Pushed delta of: {} from version: {} to version: {} to agent: {}", key, base, version, agentID);
+        } else {
+          executor.execute(agentID, () -> store(key, version, value));
+          logger.debug("Pushed: {} version: {} to agent: {}", key, version, agentID);
+        }
+        pushed.version = version;
+        pushed.snapshot = snapshot;
+      }
+    }
+    return new Ref<>(key, version);
+  }
+
+  /**
+   * Orchestrator side: forgets the objects shared through the executor, and discards them from the cache of this JVM
+   */
+  public static void forget(Executor executor) {
+    String orchestrator = executor.getLocalAgentID() + "/";
+    VERSIONS.keySet().removeIf(key -> {
+      if (!key.startsWith(orchestrator)) {
+        return false;
+      }
+      CACHE.remove(key.substring(orchestrator.length()));
+      return true;
+    });
+    PUSHED.keySet().removeIf(key -> key.startsWith(orchestrator));
+  }
+
+  /**
+   * Agent side: discards the cached objects
+   */
+  public static void clear() {
+    CACHE.clear();
+  }
+
+  static boolean store(String key, long version, Object value) {
+    // the value is the object of the orchestrator when the agent runs in its JVM
+    CACHE.put(key, new Entry(version, deepCopy(value)));
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> boolean update(String key, long base, long version, Delta<T> delta) {
+    AtomicBoolean updated = new AtomicBoolean();
+    CACHE.computeIfPresent(key, (k, entry) -> {
+      if (entry.version == version) {
+        // already pushed through another agent of this JVM
+        updated.set(true);
+        return entry;
+      }
+      if (entry.version != base) {
+        return entry;
+      }
+      // the cached value can be in use by closures, and the delta can reference objects of the orchestrator
+      T value = deepCopy((T) entry.value);
+      deepCopy(delta).applyTo(value);
+      updated.set(true);
+      return new Entry(version, value);
+    });
+    return updated.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> T get(String key, long version) {
+    Entry entry = CACHE.get(key);
+    if (entry == null || entry.version != version) {
+      throw new IllegalStateException("Shared object: " + key + " version: " + version + " not found on agent" + (entry == null ? "" : " (found version: " + entry.version + ")"));
+    }
+    return (T) entry.value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T deepCopy(T value) {
+    if (value == null) {
+      return null;
+    }
+    // the classes of the value can come from the class loader of a job
+    ClassLoader classLoader = value.getClass().getClassLoader();
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+        oos.writeObject(value);
+      }
+      try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())) {
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+          try {
+            return Class.forName(desc.getName(), false, classLoader);
+          } catch (ClassNotFoundException e) {
+            return super.resolveClass(desc);
+          }
+        }
+      }) {
+        return (T) ois.readObject();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The reference to a shared object, resolved from the cache of the agent the closure capturing it is executed on
+   */
+  public static class Ref<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String key;
+    private final long version;
+
+    Ref(String key, long version) {
+      this.key = key;
+      this.version = version;
+    }
+
+    /**
+     * @return the cached object, which is shared by the closures using it and must not be modified
+     */
+    public T get() {
+      return key == null ? null : SharedObjects.get(key, version);
+    }
+
+    /**
+     * @return a copy of the cached object, for the callers that modify it or keep it
+     */
+    public T copy() {
+      return deepCopy(get());
+    }
+
+    @Override
+    public String toString() {
+      return key + "#" + version;
+    }
+  }
+
+  /**
+   * How the orchestrator detects the changes of a shared object, and computes the deltas to push to the agents
+   *
+   * @param <T> the type of the shared object
+   * @param <S> the type of the snapshots of the object
+   */
+  public interface Sharing<T, S> {
+    /**
+     * @return a snapshot of the content of the value, which is compared with {@link Object#equals(Object)}
+     * to the one of the last pushed value to detect changes
+     */
+    S snapshot(T value);
+
+    /**
+     * @return the delta transforming the value pushed when the snapshot was taken into the given value, if possible
+     */
+    default Optional<Delta<T>> diff(S pushed, T value) {
+      return Optional.empty();
+    }
+
+    /**
+     * @return the strategy for the immutable objects, which are only pushed again when they are replaced
+     * by an object that is not equal
+     */
+    static <T> Sharing<T, T> immutable() {
+      return value -> value;
+    }
+  }
+
+  public interface Delta<T> extends Serializable {
+    void applyTo(T value);
+  }
+
+  private static class Entry {
+    final long version;
+    final Object value;
+
+    Entry(long version, Object value) {
+      this.version = version;
+      this.value = value;
+    }
+  }
+
+  private static class Pushed {
+    long version;
+    Object snapshot;
+  }
+}
@@ -0,0 +1,612 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.common.StreamCopier;
+import net.schmizz.sshj.connection.ConnectionException;
+import net.schmizz.sshj.connection.channel.direct.PTYMode;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.transport.TransportException;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.agent.Agent;
+import org.terracotta.angela.agent.AgentDaemon;
+import org.terracotta.angela.common.AngelaProperties;
+import org.terracotta.angela.common.TerracottaCommandLineEnvironment;
+import org.terracotta.angela.common.util.AngelaVersions;
+import org.terracotta.angela.common.util.ExternalLoggers;
+import org.terracotta.angela.common.util.FileUtils;
+import org.terracotta.angela.common.util.JDK;
+import org.terracotta.angela.common.util.JavaLocationResolver;
+import org.terracotta.angela.common.util.LogOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.joining;
+import static org.terracotta.angela.common.AngelaProperties.ROOT_DIR;
+import static org.terracotta.angela.common.AngelaProperties.SSH_PORT;
+import static org.terracotta.angela.common.AngelaProperties.SSH_STRICT_HOST_CHECKING;
+import static org.terracotta.angela.common.AngelaProperties.SSH_USERNAME;
+import static org.terracotta.angela.common.AngelaProperties.SSH_USERNAME_KEY_PATH;
+import static org.terracotta.angela.common.AngelaProperties.getEitherOf;
+
+/**
+ * Deploys agents through SSH, once per remote hostname. The agents are stopped when their SSH session is closed.
+ */
+class SshAgentLauncher implements AutoCloseable {
+
+  private final static Logger logger = LoggerFactory.getLogger(SshAgentLauncher.class);
+  private static final int MAX_LINE_LENGTH = 1024;
+  // markers of the output of the script preparing a host
+  private static final String JAR_PRESENT = "@@jar-present";
+  private static final String JAR_MISSING = "@@jar-missing";
+  private static final String JAR_HASH = "@@jar-hash ";
+  private static final String JAVA_HOME_VALID = "@@java-home-valid";
+  private static final String TOOLCHAINS = "@@toolchains";
+
+  private final Map<String, RemoteAgentHolder> clients = new ConcurrentHashMap<>();
+  private final Map<String, Object> hostLocks = new ConcurrentHashMap<>();
+  private String remoteUserName = SSH_USERNAME.getValue();
+  private String remoteUserNameKeyPath = SSH_USERNAME_KEY_PATH.getValue();
+  private TerracottaCommandLineEnvironment tcEnv = TerracottaCommandLineEnvironment.DEFAULT;
+  private Path agentJarFile;
+  private boolean agentJarFileShouldBeRemoved;
+  private String agentJarHash;
+  private int port = Integer.parseInt(SSH_PORT.getValue());
+  private boolean strictHostKeyChecking = SSH_STRICT_HOST_CHECKING.getBooleanValue();
+
+  private static class RemoteAgentHolder implements AutoCloseable {
+    RemoteAgentHolder(String hostname, SSHClient sshClient, Session session, Session.Command command) {
+      this.hostname = hostname;
+      this.sshClient = sshClient;
+      this.session = session;
+      this.command = command;
+    }
+
+    final String hostname;
+    final SSHClient sshClient;
+    final Session session;
+    final Session.Command command;
+
+    @Override
+    public void close() {
+      logger.info("Cleaning up SSH agent on: {}", hostname);
+
+      // 0x03 is the character for CTRL-C -> send it to the remote PTY
+      try {
+        if (session.isOpen()) {
+          OutputStream os = session.getOutputStream();
+          os.write(0x03);
+        }
+      } catch (IOException e) {
+        logger.debug("Error trying to closing SSH session. Maybe it is already closed ? Details: {}.", e.getMessage(), e);
+      } finally {
+        safeClose(hostname, command);
+        safeClose(hostname, session);
+        safeClose(hostname, sshClient);
+      }
+    }
+  }
+
+  void setTcEnv(TerracottaCommandLineEnvironment tcEnv) {
+    this.tcEnv = tcEnv;
+  }
+
+  void setRemoteUserName(String remoteUserName) {
+    this.remoteUserName = remoteUserName;
+  }
+
+  void setRemoteUserNameKeyPath(String remoteUserNameKeyPath) {
+    this.remoteUserNameKeyPath = remoteUserNameKeyPath;
+  }
+
+  void setPort(int port) {
+    this.port = port;
+  }
+
+  void setStrictHostKeyChecking(boolean strictHostKeyChecking) {
+    this.strictHostKeyChecking = strictHostKeyChecking;
+  }
+
+  boolean isLaunched(String hostname) {
+    return clients.containsKey(hostname);
+  }
+
+  /**
+   * Agents are launched concurrently on different hosts: the callers checking whether a host already has an agent
+   * before launching one synchronize on this lock
+   */
+  Object getHostLock(String hostname) {
+    return hostLocks.computeIfAbsent(hostname, h -> new Object());
+  }
+
+  private synchronized void initAgentJar() {
+    if (agentJarFile != null) {
+      return;
+    }
+    Map.Entry<Path, Boolean> agentJar = findAgentJarFile();
+    this.agentJarFile = agentJar.getKey();
+    this.agentJarFileShouldBeRemoved = agentJar.getValue();
+    if (this.agentJarFile == null) {
+      throw new RuntimeException("agent JAR file not found, cannot use SSH remote agent launcher");
+    }
+  }
+
+  /**
+   * @return the SHA-256 of the agent jar deployed on the remote hosts
+   */
+  synchronized String getAgentJarHash() {
+    initAgentJar();
+    if (agentJarHash == null) {
+      agentJarHash = FileUtils.sha256(agentJarFile);
+    }
+    return agentJarHash;
+  }
+
+  /**
+   * Starts an agent on a remote host
+   *
+   * @param joinProperties the system properties the agent needs to join the group, see {@link AgentGroup#getJoinProperties()}
+   * @return the ID of the started agent
+   */
+  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+  AgentID launch(String hostname, UUID group, Map<String, String> joinProperties) {
+    logger.info("Connecting via SSH to: {}", hostname);
+    initAgentJar();
+
+    try {
+      SSHClient ssh = connect(hostname);
+
+      RemoteSetup setup = prepare(ssh, hostname);
+
+      Session session = ssh.startSession();
+      session.allocatePTY("vt100", 320, 96, 0, 0, Collections.<PTYMode, Integer>emptyMap());
+
+      Map<String, String> properties = new LinkedHashMap<>();
+      properties.put("angela.group", group.toString());
+      properties.put("angela.instanceName", Agent.AGENT_TYPE_REMOTE);
+      properties.putAll(joinProperties);
+      String command = javaCommand(setup, hostname, properties, setup.agentJar);
+
+      if (logger.isDebugEnabled()) {
+        logger.debug("Starting remote agent on: {} with: {}", hostname, command);
+      } else {
+        logger.info("Starting remote agent on: {}", hostname);
+      }
+
+      Session.Command cmd = session.exec(command);
+
+      SshLogOutputStream sshLogOutputStream = new SshLogOutputStream(hostname, cmd);
+      new StreamCopier(cmd.getInputStream(), sshLogOutputStream, net.schmizz.sshj.common.LoggerFactory.DEFAULT).bufSize(MAX_LINE_LENGTH)
+          .spawnDaemon("stdout");
+      new StreamCopier(cmd.getErrorStream(), sshLogOutputStream, net.schmizz.sshj.common.LoggerFactory.DEFAULT).bufSize(MAX_LINE_LENGTH)
+          .spawnDaemon("stderr");
+
+      AgentID agentID = sshLogOutputStream.waitForStartedState();
+
+      logger.info("Agent: {} started on: {}", agentID, hostname);
+      clients.put(hostname, new RemoteAgentHolder(hostname, ssh, session, cmd));
+
+      return agentID;
+    } catch (IOException | InterruptedException e) {
+      RemoteAgentHolder holder = clients.remove(hostname);
+      if (holder != null) {
+        safeClose(hostname, holder);
+      }
+      throw Exceptions.asRuntime("Failed to launch agent at: " + remoteUserName + "@" + hostname + " (using SSH)", e);
+    }
+  }
+
+  /**
+   * Starts an {@link org.terracotta.angela.agent.AgentDaemon} on a remote host, which is detached from the SSH session
+   * and runs from its own copy of the agent jar, so that uploading a new SNAPSHOT agent jar does not affect it.
+   * It does not wait for the daemon to listen.
+   *
+   * @param daemonProperties the system properties of the daemon
+   * @param secret           the secret the daemon requires in the lease requests, which is written to its root directory
+   *                         through the standard input of the SSH command so that it does not show up in a command line
+   */
+  void launchDaemon(String hostname, Map<String, String> daemonProperties, String secret) {
+    logger.info("Connecting via SSH to: {}", hostname);
+    String jarHash = getAgentJarHash();
+
+    try (SSHClient ssh = connect(hostname)) {
+      RemoteSetup setup = prepare(ssh, hostname);
+      String daemonJar = setup.agentJar.substring(0, setup.agentJar.lastIndexOf('/')) + "/angela-agent-daemon-" + jarHash + ".jar";
+
+      Map<String, String> properties = new LinkedHashMap<>(daemonProperties);
+      properties.put("angela.rpc.daemon.jarHash", jarHash);
+      String log = getRemoteBaseDir(hostname) + "/agent-daemon.log";
+      String secretFile = getRemoteBaseDir(hostname) + "/" + AgentDaemon.SECRET_FILE;
+      String command = "(umask 077 && cat > " + secretFile + ") && " +
+          "([ -e " + daemonJar + " ] || cp " + setup.agentJar + " " + daemonJar + ") && " +
+          "nohup " + javaCommand(setup, hostname, properties, daemonJar) + " > " + log + " 2>&1 < /dev/null &";
+
+      if (logger.isDebugEnabled()) {
+        logger.debug("Starting agent daemon on: {} with: {}", hostname, command);
+      } else {
+        logger.info("Starting agent daemon on: {}", hostname);
+      }
+      if (!exec(ssh, command, secret.getBytes(StandardCharsets.UTF_8)).isPresent()) {
+        throw new IOException("Agent daemon command failed on: " + hostname);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to launch agent daemon at: " + remoteUserName + "@" + hostname + " (using SSH)", e);
+    }
+  }
+
+  private SSHClient connect(String hostname) throws IOException {
+    SSHClient ssh = new SSHClient();
+
+    if (!strictHostKeyChecking) {
+      ssh.addHostKeyVerifier(new PromiscuousVerifier());
+    }
+    try {
+      ssh.loadKnownHosts();
+    } catch (IOException e) {
+      logger.warn("Unable to load SSH known hosts. Maybe the file does not exist ? Error: {}", e.getMessage());
+    }
+    ssh.connect(hostname, port);
+
+    // load provided private key file, if available.
+    if (remoteUserNameKeyPath == null) {
+      ssh.authPublickey(remoteUserName);
+    } else {
+      ssh.authPublickey(remoteUserName, remoteUserNameKeyPath);
+    }
+    return ssh;
+  }
+
+  /**
+   * Prepares a host for an agent with as few SSH commands as possible, since each one costs a channel-open round trip:
+   * one script creates the remote folders, checks the agent jar, and either validates the java home cached for this host
+   * or reads the toolchains of the remote user.
+   * Then the agent jar is uploaded if needed, and the JDKs of the toolchains are probed in one command.
+   */
+  private RemoteSetup prepare(SSHClient ssh, String hostname) throws IOException {
+    final String baseDir = getRemoteBaseDir(hostname);
+    final String jarsDir = baseDir + "/jars";
+    final String dest = jarsDir + "/" + agentJarFile.getFileName();
+    final boolean snapshot = agentJarFile.getFileName().toString().endsWith("-SNAPSHOT.jar");
+    final String javaHomeKey = remoteUserName + "@" + hostname + ":" + port + "/" + tcEnv.getJavaVersion() + "/" + tcEnv.getJavaVendors();
+    final String cachedJavaHome = tcEnv.isToolchainBased() ? RemoteJavaHomes.get(javaHomeKey) : null;
+
+    StringBuilder script = new StringBuilder();
+    // ensures correct perms are set (or reset if wrong) for each folder
+    script.append("for d in").append(Stream.of(getRemoteRootDir(), getRemoteRootDir() + "/.angela", baseDir, jarsDir).map(SshAgentLauncher::quote).collect(joining(" ", " ", ";")))
+        .append(" do mkdir -p \"$d\" && chmod a+w \"$d\"; done\n");
+    script.append("if [ -e ").append(quote(dest)).append(" ]; then echo '").append(JAR_PRESENT).append("'; else echo '").append(JAR_MISSING).append("'; fi\n");
+    if (snapshot) {
+      // sha256sum is not available on all systems (e.g. macOS)
+      script.append("(sha256sum ").append(quote(dest)).append(" 2>/dev/null || shasum -a 256 ").append(quote(dest)).append(" 2>/dev/null) | sed 's/^/").append(JAR_HASH).append("/'\n");
+    }
+    if (cachedJavaHome != null) {
+      script.append("if [ -d ").append(quote(cachedJavaHome)).append(" ]; then echo '").append(JAVA_HOME_VALID).append("'; fi\n");
+    }
+    if (tcEnv.isToolchainBased()) {
+      script.append("echo '").append(TOOLCHAINS).append("'\n");
+      script.append("cat \"$HOME/.m2/toolchains.xml\"\n");
+    }
+    script.append("true");
+    String output = exec(ssh, script.toString()).orElseThrow(() -> new IOException("Unable to prepare host: " + hostname));
+
+    int toolchainsIdx = output.indexOf(TOOLCHAINS);
+    List<String> status = Arrays.asList((toolchainsIdx < 0 ? output : output.substring(0, toolchainsIdx)).split("\n"));
+    String localHash = snapshot ? getAgentJarHash() : null;
+    if (status.contains(JAR_MISSING) || snapshot && status.stream().noneMatch(line -> line.startsWith(JAR_HASH + localHash + " "))) {
+      // jar file does not exist, or is a snapshot which changed, upload it
+      logger.debug("Uploading agent jar: {} to: {}...", agentJarFile, hostname);
+      ssh.newSCPFileTransfer().upload(agentJarFile.toString(), dest);
+    }
+
+    String javaHome;
+    if (!tcEnv.isToolchainBased()) {
+      // The current env is not toolchain based: we are using the current java home.
+      // Since we do not have any indication regarding the version and vendor, we
+      // will assume that the remote host is configured like this one and the JVM are
+      // on the same locations.
+      javaHome = tcEnv.getJavaHome().toString();
+      logger.warn("Toolchain not used: will re-use the same current JVM path remotely on: {}: {}", hostname, javaHome);
+      // This will only work if OS are the same.
+    } else if (cachedJavaHome != null && status.contains(JAVA_HOME_VALID)) {
+      javaHome = cachedJavaHome;
+      logger.info("Selected cached remote JDK on: {}: {}", hostname, javaHome);
+    } else {
+      javaHome = findJavaHomeFromRemoteToolchains(ssh, hostname, output.substring(toolchainsIdx + TOOLCHAINS.length()).trim());
+      RemoteJavaHomes.put(javaHomeKey, javaHome);
+    }
+    return new RemoteSetup(dest, javaHome);
+  }
+
+  private String javaCommand(RemoteSetup setup, String hostname, Map<String, String> properties, String jar) {
+    return setup.javaHome + "/bin/java " +
+        String.join(" ", tcEnv.getJavaOpts()) + " " +
+        // angela.java.resolver=user will ensure that any usage of TerracottaCommandLineEnvironment
+        // will point to the exact same JVM as the one used to start the process by default
+        "-Dangela.process=spawned " +
+        "-Dangela.java.resolver=user " +
+        properties.entrySet().stream().map(e -> "-D" + e.getKey() + "=" + e.getValue() + " ").collect(joining()) +
+        "-D" + ROOT_DIR.getPropertyName() + "=" + getRemoteBaseDir(hostname) + " " +
+        "-jar " + jar;
+  }
+
+  private static String getRemoteBaseDir(String hostname) {
+    return getRemoteRootDir() + "/.angela/" + hostname;
+  }
+
+  private static String getRemoteRootDir() {
+    // REMOTE_ROOT_DIR allows to override the remote dir for example to have a local root dir different than a remote dir
+    return Optional.ofNullable(AngelaProperties.REMOTE_ROOT_DIR.getValue())
+        .orElseGet(() -> getEitherOf(AngelaProperties.ROOT_DIR, AngelaProperties.KITS_DIR))
+        .replace('\\', '/');
+  }
+
+  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+  private static Map.Entry<Path, Boolean> findAgentJarFile() {
+    try {
+      if (AngelaVersions.INSTANCE.isSnapshot()) {
+        Path snapshotLocation = Paths.get(System.getProperty("user.home") + "/.m2/repository/org/terracotta/angela-agent/" +
+            AngelaVersions.INSTANCE.getAngelaVersion() +
+            "/angela-agent-" +
+            AngelaVersions.INSTANCE.getAngelaVersion() +
+            ".jar");
+
+        if (Files.isRegularFile(snapshotLocation)) {
+          logger.debug("Found agent jar at " + snapshotLocation);
+          return new HashMap.SimpleEntry<>(snapshotLocation, false);
+        }
+
+        // are we building angela? if yes, find the built agent jar in the module's target folder
+        String projectBaseDir = System.getProperty("basedir");
+        if (projectBaseDir != null) {
+          Path agentBaseDir = Paths.get(projectBaseDir).getParent().resolve("agent");
+          if (Files.isDirectory(agentBaseDir)) {
+            snapshotLocation = agentBaseDir.resolve("target").resolve("angela-agent-" + AngelaVersions.INSTANCE.getAngelaVersion() + ".jar");
+            if (Files.isRegularFile(snapshotLocation)) {
+              logger.debug("Found agent jar at " + snapshotLocation);
+              return new HashMap.SimpleEntry<>(snapshotLocation, false);
+            }
+          }
+        }
+
+        throw new RuntimeException("Agent SNAPSHOT jar file not found at " + snapshotLocation);
+
+      } else {
+        Path agentFile = Files.createTempDirectory("angela").resolve("angela-agent-" + AngelaVersions.INSTANCE.getAngelaVersion() + ".jar");
+        String releaseUrl = "https://search.maven.org/remotecontent?filepath=org/terracotta/angela-agent/" +
+            AngelaVersions.INSTANCE.getAngelaVersion() +
+            "/angela-agent-" +
+            AngelaVersions.INSTANCE.getAngelaVersion() +
+            ".jar";
+        try (InputStream jarIs = new URL(releaseUrl).openStream(); OutputStream fileOutputStream = Files.newOutputStream(agentFile)) {
+          IOUtils.copy(jarIs, fileOutputStream);
+        }
+        logger.debug("Installed agent jar from Nexus at " + agentFile);
+        return new HashMap.SimpleEntry<>(agentFile, true);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not get angela-agent jar: " + e.getMessage(), e);
+    }
+  }
+
+  private static Optional<String> exec(SSHClient ssh, String line) throws TransportException, ConnectionException {
+    return exec(ssh, line, null);
+  }
+
+  private static Optional<String> exec(SSHClient ssh, String line, byte[] stdin) throws TransportException, ConnectionException {
+    try (Session session = ssh.startSession()) {
+      Session.Command cmd = session.exec(line);
+      try {
+        if (stdin != null) {
+          try (OutputStream out = cmd.getOutputStream()) {
+            out.write(stdin);
+          }
+        }
+        cmd.join(10, TimeUnit.SECONDS);
+        String stdout = IOUtils.toString(cmd.getInputStream(), StandardCharsets.UTF_8).trim();
+        if (stdout.isEmpty()) {
+          logger.debug("> Executing on: {}\n> {}", ssh.getRemoteHostname(), line);
+        } else {
+          logger.debug("> Executing on: {}\n> {}\n{}", ssh.getRemoteHostname(), line, stdout);
+        }
+        return cmd.getExitStatus() == 0 ? Optional.of(stdout) : Optional.empty();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        cmd.close();
+      }
+    }
+  }
+
+  private String findJavaHomeFromRemoteToolchains(SSHClient ssh, String hostname, String toolchains) throws IOException {
+    JavaLocationResolver javaLocationResolver = new JavaLocationResolver(new ByteArrayInputStream(toolchains.getBytes(StandardCharsets.UTF_8)));
+    List<JDK> jdks = javaLocationResolver.resolveJavaLocations(tcEnv.getJavaVersion(), tcEnv.getJavaVendors(), false);
+    if (logger.isDebugEnabled()) {
+      logger.debug("JDKs found on remote toolchain on: {} matching version: {} and vendors: {}\n - {}",
+          hostname,
+          tcEnv.getJavaVersion(),
+          tcEnv.getJavaVendors(),
+          jdks.stream().map(JDK::toString).collect(joining("\n - ")));
+    }
+    // check JDK validity remotely, all at once: the first existing one is printed
+    if (!jdks.isEmpty()) {
+      String probe = "for d in" + jdks.stream().map(JDK::getHome).map(SshAgentLauncher::quote).collect(joining(" ", " ", ";")) +
+          " do if [ -d \"$d\" ]; then echo \"$d\"; break; fi; done";
+      String remoteHome = exec(ssh, probe).orElse("");
+      for (JDK jdk : jdks) {
+        if (jdk.getHome().equals(remoteHome)) {
+          logger.info("Selected remote JDK on: {}: {}", hostname, jdk);
+          return remoteHome;
+        }
+      }
+    }
+    throw new RuntimeException("No JDK configured in remote toolchains.xml is valid; wanted : " + tcEnv + ", found : " + jdks);
+  }
+
+  private static String quote(String path) {
+    return "'" + path.replace("'", "'\\''") + "'";
+  }
+
+  @SuppressFBWarnings("RV_RETURN_VALUE_IGNORED_BAD_PRACTICE")
+  @Override
+  public synchronized void close() {
+    // NOTE: closing the ssh RemoteAgentHolder will also kil lthe agent
+
+    if (agentJarFileShouldBeRemoved) {
+      try {
+        org.terracotta.utilities.io.Files.delete(agentJarFile);
+      } catch (IOException ignored) {
+        // not a big deal if we cannot delete...
+      }
+    }
+    UncheckedIOException uioe = null;
+    for (Map.Entry<String, RemoteAgentHolder> entry : clients.entrySet()) {
+      try {
+        entry.getValue().close();
+      } catch (UncheckedIOException e) {
+        if (uioe == null) {
+          uioe = e;
+        } else {
+          uioe.addSuppressed(e);
+        }
+      }
+    }
+    clients.clear();
+    if (uioe != null) {
+      throw uioe;
+    }
+  }
+
+  private static void safeClose(String hostname, AutoCloseable closeable) {
+    try {
+      closeable.close();
+    } catch (Exception e) {
+      logger.warn("Error while cleaning up SSH agent on hostname: " + hostname, e);
+    }
+  }
+
+  private static class RemoteSetup {
+    final String agentJar;
+    final String javaHome;
+
+    RemoteSetup(String agentJar, String javaHome) {
+      this.agentJar = agentJar;
+      this.javaHome = javaHome;
+    }
+  }
+
+  /**
+   * The java homes found on the remote hosts, which are kept in the root directory of the orchestrator across runs.
+   * They are keyed by user, host, and java version and vendors.
+   */
+  private static class RemoteJavaHomes {
+    private static final Path FILE = Agent.ROOT_DIR.resolve("remote-java-homes.properties");
+
+    static synchronized String get(String key) {
+      return load().getProperty(key);
+    }
+
+    static synchronized void put(String key, String javaHome) {
+      Properties javaHomes = load();
+      if (javaHome.equals(javaHomes.getProperty(key))) {
+        return;
+      }
+      javaHomes.setProperty(key, javaHome);
+      try {
+        Files.createDirectories(FILE.getParent());
+        // several orchestrators can share the root directory
+        Path tmp = Files.createTempFile(FILE.getParent(), FILE.getFileName().toString(), ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp)) {
+          javaHomes.store(os, "java homes found on the remote hosts");
+        }
+        Files.move(tmp, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        logger.warn("Unable to cache remote java home in: {}: {}", FILE, e.toString());
+      }
+    }
+
+    private static Properties load() {
+      Properties javaHomes = new Properties();
+      if (Files.isRegularFile(FILE)) {
+        try (InputStream is = Files.newInputStream(FILE)) {
+          javaHomes.load(is);
+        } catch (IOException e) {
+          logger.warn("Unable to read cached remote java homes from: {}: {}", FILE, e.toString());
+        }
+      }
+      return javaHomes;
+    }
+  }
+
+  private static class SshLogOutputStream extends LogOutputStream {
+
+    private final String serverName;
+    private final Session.Command cmd;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final AtomicReference<AgentID> agentID = new AtomicReference<>();
+
+    SshLogOutputStream(String serverName, Session.Command cmd) {
+      this.serverName = serverName;
+      this.cmd = cmd;
+    }
+
+    @Override
+    protected void processLine(String line) {
+      ExternalLoggers.sshLogger.info("[{}] {}", serverName, line);
+      if (line.startsWith(Agent.AGENT_IS_READY_MARKER_LOG)) {
+        agentID.set(AgentID.valueOf(line.substring(Agent.AGENT_IS_READY_MARKER_LOG.length() + 2)));
+        started.countDown();
+      }
+    }
+
+    public AgentID waitForStartedState() throws InterruptedException {
+      if (!cmd.isOpen()) {
+        throw new RuntimeException("agent refused to start");
+      }
+      started.await();
+      return agentID.get();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.terracotta.angela.common.provider.TcConfigManager;
+import org.terracotta.angela.common.tcconfig.TcConfig;
+import org.terracotta.angela.common.tcconfig.TerracottaServer;
+import org.terracotta.angela.common.topology.Topology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Shares a {@link Topology} with the agents. The servers added to the topology with
+ * {@link Topology#addStripe(TerracottaServer...)} and {@link Topology#addServer(int, TerracottaServer)}
+ * are pushed as a delta, any other change pushes the whole topology again.
+ */
+public class TopologySharing implements SharedObjects.Sharing<Topology, TopologySharing.Snapshot> {
+
+  public static final TopologySharing INSTANCE = new TopologySharing();
+
+  @Override
+  public Snapshot snapshot(Topology topology) {
+    List<String> tcConfigs = topology.getConfigurationManager() instanceof TcConfigManager ?
+        ((TcConfigManager) topology.getConfigurationManager()).getTcConfigs().stream().map(TcConfig::toXml).collect(toList()) :
+        Collections.emptyList();
+    List<List<String>> stripes = topology.getStripes().stream()
+        .map(servers -> servers.stream().map(TopologySharing::digest).collect(toList()))
+        .collect(toList());
+    return new Snapshot(Arrays.asList(topology.getDistribution(), topology.isNetDisruptionEnabled(), topology.getConfigurationManager().getClass(), tcConfigs), stripes);
+  }
+
+  @Override
+  public Optional<SharedObjects.Delta<Topology>> diff(Snapshot pushed, Topology topology) {
+    Snapshot current = snapshot(topology);
+    if (!pushed.settings.equals(current.settings) || pushed.stripes.size() > current.stripes.size()) {
+      return Optional.empty();
+    }
+    List<List<TerracottaServer>> stripes = topology.getStripes();
+    Map<Integer, List<TerracottaServer>> addedServers = new LinkedHashMap<>();
+    for (int i = 0; i < pushed.stripes.size(); i++) {
+      List<String> before = pushed.stripes.get(i);
+      List<String> after = current.stripes.get(i);
+      if (before.size() > after.size() || !before.equals(after.subList(0, before.size()))) {
+        return Optional.empty();
+      }
+      if (after.size() > before.size()) {
+        addedServers.put(i, new ArrayList<>(stripes.get(i).subList(before.size(), after.size())));
+      }
+    }
+    List<List<TerracottaServer>> addedStripes = new ArrayList<>();
+    for (int i = pushed.stripes.size(); i < stripes.size(); i++) {
+      addedStripes.add(new ArrayList<>(stripes.get(i)));
+    }
+    return Optional.of(new AddServers(addedServers, addedStripes));
+  }
+
+  /**
+   * @return the digest of the serialized server, which changes with any of its fields
+   */
+  private static String digest(TerracottaServer server) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      try (ObjectOutputStream oos = new ObjectOutputStream(new DigestOutputStream(new ByteArrayOutputStream(), digest))) {
+        oos.writeObject(server);
+      }
+      return Base64.getEncoder().encodeToString(digest.digest());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static class Snapshot {
+    private final List<Object> settings;
+    // the digests of the servers of each stripe
+    private final List<List<String>> stripes;
+
+    Snapshot(List<Object> settings, List<List<String>> stripes) {
+      this.settings = settings;
+      this.stripes = stripes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Snapshot snapshot = (Snapshot) o;
+      return settings.equals(snapshot.settings) && stripes.equals(snapshot.stripes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(settings, stripes);
+    }
+  }
+
+  private static class AddServers implements SharedObjects.Delta<Topology> {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<Integer, List<TerracottaServer>> addedServers;
+    private final List<List<TerracottaServer>> addedStripes;
+
+    AddServers(Map<Integer, List<TerracottaServer>> addedServers, List<List<TerracottaServer>> addedStripes) {
+      this.addedServers = addedServers;
+      this.addedStripes = addedStripes;
+    }
+
+    @Override
+    public void applyTo(Topology topology) {
+      addedServers.forEach((stripeIndex, servers) -> servers.forEach(server -> topology.addServer(stripeIndex, server)));
+      addedStripes.forEach(servers -> topology.addStripe(servers.toArray(new TerracottaServer[0])));
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.terracotta.angela.common.util.FileUtils;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Sizes and SHA-256 of the files of a transfer, keyed by the relative path they have on the receiving side.
+ * <p>
+ * The receiver verifies the files it received against the manifest before they are installed, and the sender
+ * uses the manifest to only resend what the receiver is missing when a failed transfer is resumed.
+ */
+public class TransferManifest implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  // sender-side cache of the file hashes, to avoid hashing the same files again for each transfer
+  private static final Map<Path, Entry> DIGESTS = new ConcurrentHashMap<>();
+
+  private static final String CHECKSUM_FILE = ".transfer-checksum";
+
+  private final TreeMap<String, Entry> entries;
+
+  private TransferManifest(TreeMap<String, Entry> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Creates the manifest of the regular files of the locations, with the relative paths used by
+   * {@link FileTransfer#sendAll(List, Function, FileTransfer.Sender, TransferStats)}
+   */
+  public static TransferManifest create(List<Path> locations, Function<Path, String> remoteName) {
+    TreeMap<String, Entry> entries = new TreeMap<>();
+    for (Path root : locations) {
+      if (Files.exists(root)) {
+        String rootName = remoteName.apply(root);
+        try (Stream<Path> stream = Files.walk(root).filter(Files::isRegularFile)) {
+          for (Path path : (Iterable<Path>) stream::iterator) {
+            entries.put(FileTransfer.relativePath(rootName, root, path), entry(path));
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+    return new TransferManifest(entries);
+  }
+
+  public int getFileCount() {
+    return entries.size();
+  }
+
+  public long getTotalSize() {
+    return entries.values().stream().mapToLong(entry -> entry.size).sum();
+  }
+
+  /**
+   * @return the SHA-256 of the whole manifest, which identifies the content of the transfer
+   */
+  public String getChecksum() {
+    MessageDigest messageDigest;
+    try {
+      messageDigest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      String line = entry.getKey() + " " + entry.getValue().size + " " + entry.getValue().sha256 + "\n";
+      messageDigest.update(line.getBytes(StandardCharsets.UTF_8));
+    }
+    StringBuilder sb = new StringBuilder(64);
+    for (byte b : messageDigest.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Receiver side: checks that all the files of the manifest were received intact into the folder
+   *
+   * @throws IOException listing the missing or corrupted files
+   */
+  public void verify(Path dest) throws IOException {
+    List<String> invalid = new ArrayList<>();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      Path file = dest.resolve(entry.getKey());
+      if (!Files.isRegularFile(file) || Files.size(file) != entry.getValue().size || !FileUtils.sha256(file).equals(entry.getValue().sha256)) {
+        invalid.add(entry.getKey());
+      }
+    }
+    if (!invalid.isEmpty()) {
+      throw new IOException("Transfer: " + getChecksum() + " into: " + dest + " has " + invalid.size() + " missing or corrupted files: " + invalid);
+    }
+  }
+
+  /**
+   * Receiver side: computes where the transfer of each file has to resume from, given what a failed transfer
+   * already wrote into the folder. A partially received file resumes after its last complete chunk,
+   * while a missing or corrupted file is sent again from the start.
+   * <p>
+   * The checksum of the manifest is recorded in the folder: what a transfer of different content left is discarded.
+   *
+   * @return the offsets keyed by relative path, without the files which were already received intact
+   */
+  public Map<String, Long> resumeOffsets(Path dest, int chunkSize) {
+    Map<String, Long> offsets = new LinkedHashMap<>();
+    try {
+      String checksum = getChecksum();
+      Path checksumFile = dest.resolve(CHECKSUM_FILE);
+      if (Files.isRegularFile(checksumFile) && !checksum.equals(new String(Files.readAllBytes(checksumFile), StandardCharsets.UTF_8))) {
+        FileUtils.deleteTree(dest);
+      }
+      Files.createDirectories(dest);
+      Files.write(checksumFile, checksum.getBytes(StandardCharsets.UTF_8));
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        Path file = dest.resolve(entry.getKey());
+        long expected = entry.getValue().size;
+        if (!Files.isRegularFile(file)) {
+          offsets.put(entry.getKey(), 0L);
+          continue;
+        }
+        long size = Files.size(file);
+        if (size < expected) {
+          offsets.put(entry.getKey(), size - size % chunkSize);
+        } else if (size > expected || !FileUtils.sha256(file).equals(entry.getValue().sha256)) {
+          offsets.put(entry.getKey(), 0L);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return offsets;
+  }
+
+  private static Entry entry(Path file) throws IOException {
+    long size = Files.size(file);
+    long lastModified = Files.getLastModifiedTime(file).toMillis();
+    Entry entry = DIGESTS.get(file);
+    if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+      entry = new Entry(size, lastModified, FileUtils.sha256(file));
+      DIGESTS.put(file, entry);
+    }
+    return entry;
+  }
+
+  @Override
+  public String toString() {
+    return "TransferManifest{files=" + entries.size() + ", checksum=" + getChecksum() + "}";
+  }
+
+  private static class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final long size;
+    final long lastModified;
+    final String sha256;
+
+    Entry(long size, long lastModified, String sha256) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.sha256 = sha256;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the files and bytes of a transfer to report its throughput
+ */
+public class TransferStats {
+  private final long start = System.nanoTime();
+  private long end;
+  private long files;
+  private long bytes;
+
+  void addBytes(long count) {
+    bytes += count;
+  }
+
+  void addFile() {
+    files++;
+  }
+
+  TransferStats finish() {
+    end = System.nanoTime();
+    return this;
+  }
+
+  public long getFiles() {
+    return files;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getDurationMillis() {
+    return TimeUnit.NANOSECONDS.toMillis((end == 0 ? System.nanoTime() : end) - start);
+  }
+
+  public double getMegabytesPerSecond() {
+    long millis = Math.max(1, getDurationMillis());
+    return (bytes / (1024.0 * 1024.0)) / (millis / 1000.0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "%d files, %.1f MB in %d ms (%.1f MB/s)", files, bytes / (1024.0 * 1024.0), getDurationMillis(), getMegabytesPerSecond());
+  }
+}
@@ -20,10 +20,12 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.angela.KitResolver;
+import org.terracotta.angela.agent.com.AgentID;
 import org.terracotta.angela.common.TerracottaCommandLineEnvironment;
 import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.net.PortAllocator;
 import org.terracotta.angela.common.tcconfig.License;
+import org.terracotta.angela.common.util.KitUtils;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -35,13 +37,18 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
+import static org.terracotta.angela.common.AngelaProperties.KIT_COPY;
+import static org.terracotta.angela.common.topology.PackageType.KIT;
 
 /**
  * @author Aurelien Broszniowski
@@ -50,6 +57,8 @@ public class LocalKitManager extends KitManager {
   private static final Logger logger = LoggerFactory.getLogger(LocalKitManager.class);
   private final Map<String, File> clientJars = new HashMap<>();
   private final KitResolver kitResolver;
+  private Path kitArchivePath; // the installer archive the kit installation was extracted from, if any
+  private final Set<AgentID> kitSyncedAgents = ConcurrentHashMap.newKeySet(); // agents whose kit was checked against the local one
   static final String INSTALLATION_LOCK_FILE_NAME = "angela-install.lock";
 
   public LocalKitManager(PortAllocator portAllocator, Distribution distribution) {
@@ -88,6 +97,7 @@ public class LocalKitManager extends KitManager {
         throw new IllegalArgumentException("kitInstallationPath: " + kitInstallationPath + " isn't a directory");
       }
       this.kitInstallationPath = path;
+      this.kitArchivePath = null;
     } else if (rootInstallationPath != null) {
       Path localInstallerPath = rootInstallationPath.resolve(
           kitResolver.resolveLocalInstallerPath(distribution.getVersion(), distribution.getLicenseType(), distribution.getPackageType()));
@@ -110,6 +120,7 @@ public class LocalKitManager extends KitManager {
           }
           kitResolver.createLocalInstallFromInstaller(distribution.getVersion(), distribution.getPackageType(), license, localInstallerPath, rootInstallationPath, env);
         }
+        this.kitArchivePath = distribution.getPackageType() == KIT && KitUtils.isSupportedArchive(localInstallerPath) ? localInstallerPath : null;
       } finally {
         unlockConcurrentInstall(localInstallerPath);
       }
@@ -220,6 +231,33 @@ public class LocalKitManager extends KitManager {
   }
 
 
+  /**
+   * @return the installer archive of the kit, when the kit installation was extracted from a zip or tar.gz archive
+   */
+  public Optional<Path> getKitArchivePath() {
+    return Optional.ofNullable(kitArchivePath);
+  }
+
+  /**
+   * @param kitInstallationPath the kit installation path given to the install, if any
+   * @return true if the agents install from their own copy of the kit, which has to be synchronized with the local one,
+   * and false if they use the given kit installation as is
+   */
+  public static boolean usesAgentKit(String kitInstallationPath) {
+    return kitInstallationPath == null || KIT_COPY.getBooleanValue();
+  }
+
+  /**
+   * @return true if the kit installation of the agent was already brought up to date with this one
+   */
+  public boolean isKitSynced(AgentID agentID) {
+    return kitSyncedAgents.contains(agentID);
+  }
+
+  public void kitSynced(AgentID agentID) {
+    kitSyncedAgents.add(agentID);
+  }
+
   public File equivalentClientJar(File file) {
     String sourceBundleSymbolicName = loadManifestBundleSymbolicName(file);
     return clientJars.get(sourceBundleSymbolicName);
@@ -16,20 +16,30 @@
  */
 package org.terracotta.angela.agent.kit;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.angela.agent.Agent;
+import org.terracotta.angela.agent.com.DeltaSync;
 import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.tcconfig.License;
 import org.terracotta.angela.common.topology.InstanceId;
 import org.terracotta.angela.common.util.FileUtils;
+import org.terracotta.angela.common.util.KitUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static org.terracotta.angela.common.AngelaProperties.KIT_COPY;
 import static org.terracotta.angela.common.util.IpUtils.areAllLocal;
@@ -43,10 +53,15 @@ import static org.terracotta.utilities.io.Files.ExtendedOption.RECURSIVE;
 public class RemoteKitManager extends KitManager {
   private static final Logger logger = LoggerFactory.getLogger(RemoteKitManager.class);
 
+  // the kit installations are shared by the instances of the agent
+  private static final ConcurrentMap<Path, Object> KIT_LOCKS = new ConcurrentHashMap<>();
+
   private final Path kitPath; // The location containing server logs
+  private final InstanceId instanceId;
 
   public RemoteKitManager(InstanceId instanceId, Distribution distribution, String kitInstallationName) {
     super(distribution);
+    this.instanceId = instanceId;
     this.kitInstallationPath = rootInstallationPath.resolve(kitInstallationName);
     Path workingPath = Agent.WORK_DIR.resolve(instanceId.toString());
     logger.debug("Working directory is: {}", workingPath);
@@ -88,6 +103,112 @@ public class RemoteKitManager extends KitManager {
     return true;
   }
 
+  /**
+   * @return the lock of the kit installation, held while the kit is installed or patched
+   */
+  private Object kitLock() {
+    return KIT_LOCKS.computeIfAbsent(kitInstallationPath.toAbsolutePath().normalize(), path -> new Object());
+  }
+
+  /**
+   * @return the folder where the kit installer archive or patch is uploaded before being installed
+   */
+  public Path getKitUploadPath() {
+    return rootInstallationPath.resolve("upload-" + instanceId);
+  }
+
+  /**
+   * Installs a kit installation uploaded and verified in a staging folder.
+   * The kit is moved into place at once, so that a partially uploaded kit is never seen as available.
+   */
+  public void installFromStaging(Path stagedKit) {
+    synchronized (kitLock()) {
+      doInstallFromStaging(stagedKit);
+    }
+  }
+
+  private void doInstallFromStaging(Path stagedKit) {
+    try {
+      if (isKitAvailable()) {
+        // installed concurrently by another instance
+        logger.debug("Kit installation: {} already available", kitInstallationPath);
+        return;
+      }
+      if (Files.exists(kitInstallationPath)) {
+        logger.debug("Deleting incomplete kit installation: {}", kitInstallationPath);
+        FileUtils.deleteTree(kitInstallationPath);
+      }
+      Files.createDirectories(rootInstallationPath);
+      Files.move(stagedKit, kitInstallationPath, ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+      // installed concurrently by another instance
+      logger.debug("Kit installation: {} already available", kitInstallationPath);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Extracts an uploaded kit installer archive to create the kit installation.
+   * The archive is extracted into a temporary folder first, so that a partially extracted kit is never seen as available.
+   *
+   * @return false if the archive does not contain the expected kit installation
+   */
+  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+  public boolean installFromArchive(Path kitArchivePath) {
+    Path extractPath = rootInstallationPath.resolve("extract-" + instanceId);
+    try {
+      logger.debug("Extracting {} to {}", kitArchivePath, extractPath);
+      KitUtils.extract(kitArchivePath, extractPath, Runtime.getRuntime().availableProcessors());
+      Path extractedKit = extractPath.resolve(kitInstallationPath.getFileName().toString());
+      if (!Files.isDirectory(extractedKit)) {
+        logger.debug("Kit installation: {} not found in: {}", kitInstallationPath.getFileName(), kitArchivePath);
+        return false;
+      }
+      installFromStaging(extractedKit);
+      return true;
+    } finally {
+      FileUtils.deleteQuietly(extractPath);
+    }
+  }
+
+  /**
+   * @return the signatures of the files of the kit installation, or null if the kit is not available
+   */
+  public Map<String, DeltaSync.FileSignature> getKitSignatures() {
+    if (!isKitAvailable()) {
+      return null;
+    }
+    return DeltaSync.signatures(kitInstallationPath);
+  }
+
+  /**
+   * Brings the kit installation up to date by applying a patch created from its signatures.
+   * <p>
+   * Servers can be running from the kit installation, so it is never patched in place: the patch is applied to a copy
+   * of the kit made of hard links, which then replaces the kit at once. The files of the running servers stay intact,
+   * and a failed patch leaves the kit untouched.
+   */
+  public void applyKitPatch(Path patchFile) {
+    synchronized (kitLock()) {
+      Path patched = kitInstallationPath.resolveSibling(kitInstallationPath.getFileName() + ".patched-" + instanceId);
+      Path previous = kitInstallationPath.resolveSibling(kitInstallationPath.getFileName() + ".previous-" + instanceId);
+      try {
+        logger.debug("Applying patch {} to {}", patchFile, kitInstallationPath);
+        FileUtils.deleteQuietly(patched);
+        FileUtils.linkTree(kitInstallationPath, patched);
+        DeltaSync.applyPatch(patchFile, patched);
+        Files.move(kitInstallationPath, previous, ATOMIC_MOVE);
+        Files.move(patched, kitInstallationPath, ATOMIC_MOVE);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        FileUtils.deleteQuietly(patched);
+        FileUtils.deleteQuietly(previous);
+      }
+    }
+  }
+
   public void deleteInstall(File installLocation) {
     logger.debug("Deleting installation in {}", installLocation.getAbsolutePath());
     FileUtils.deleteQuietly(installLocation.toPath());
@@ -24,6 +24,8 @@ import org.terracotta.angela.common.tcconfig.TerracottaServer;
 import org.terracotta.angela.common.topology.Topology;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -82,6 +84,12 @@ public class TerracottaInstall {
     }
   }
 
+  public Collection<TerracottaServerInstance> getTerracottaServerInstances() {
+    synchronized (terracottaServerInstances) {
+      return new ArrayList<>(terracottaServerInstances.values());
+    }
+  }
+
   public int terracottaServerInstanceCount() {
     synchronized (terracottaServerInstances) {
       return terracottaServerInstances.size();
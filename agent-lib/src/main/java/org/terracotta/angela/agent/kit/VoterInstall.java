@@ -23,6 +23,8 @@ import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.tcconfig.SecurityRootDirectory;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -68,6 +70,12 @@ public class VoterInstall {
     }
   }
 
+  public Collection<TerracottaVoterInstance> getTerracottaVoterInstances() {
+    synchronized (terracottaVoterInstances) {
+      return new ArrayList<>(terracottaVoterInstances.values());
+    }
+  }
+
   public int terracottaVoterInstanceCount() {
     synchronized (terracottaVoterInstances) {
       return terracottaVoterInstances.size();
@@ -19,23 +19,40 @@ package org.terracotta.angela.common.cluster;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.apache.ignite.Ignite;
 import org.apache.ignite.IgniteAtomicLong;
-import org.apache.ignite.IgniteCountDownLatch;
+import org.apache.ignite.IgniteInterruptedException;
+import org.apache.ignite.lang.IgniteBiPredicate;
 
 import java.io.Serializable;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+/**
+ * A cyclic barrier shared by the parties of a cluster.
+ * <p>
+ * All the rounds (generations) of a barrier count their arrivals on the same distributed counter: the n-th arrival
+ * belongs to the generation {@code (n - 1) / count}, and the last arrival of a generation releases it by broadcasting
+ * its number to the group. The waiting parties are woken up by that message, and double-check the counter from time
+ * to time in case it was missed. So a round costs one increment per party and one message, and no distributed object
+ * is created or leaked per round.
+ */
 public class Barrier implements Serializable {
   private static final long serialVersionUID = 1L;
 
+  // the generations released on this JVM, per node and barrier, updated by a message listener registered once per barrier
+  // and node, and dropped when the node stops (see ClusterLifecycle)
+  private static final ConcurrentMap<UUID, ConcurrentMap<String, Releases>> RELEASES = new ConcurrentHashMap<>();
+  private static final long RECHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
   @SuppressFBWarnings("SE_BAD_FIELD")
   private final Ignite ignite;
   private final int count;
   private final int index;
   private final String name;
   @SuppressFBWarnings("SE_BAD_FIELD")
-  private volatile IgniteCountDownLatch countDownLatch;
-  private volatile int resetCount;
+  private final IgniteAtomicLong arrivals;
 
   Barrier(Ignite ignite, int count, String name) {
     this.ignite = ignite;
@@ -44,37 +61,113 @@ public class Barrier implements Serializable {
     this.index = (int) igniteCounter.getAndIncrement();
     igniteCounter.compareAndSet(count, 0);
     this.name = name;
-    resetLatch();
-  }
-
-  private void resetLatch() {
-    countDownLatch = ignite.countDownLatch("Barrier-" + name + "#" + (resetCount++), count, true, true);
+    this.arrivals = ignite.atomicLong("Barrier-" + name, 0, true);
+    // listen before arriving, so that the release of the first generation cannot be missed
+    releases();
   }
 
   public int await() {
-    int countDown = countDownLatch.countDown();
     try {
-      if (countDown > 0) {
-        countDownLatch.await();
-      }
-      return index;
-    } finally {
-      resetLatch();
+      awaitRelease(Long.MAX_VALUE);
+    } catch (TimeoutException e) {
+      throw new AssertionError(e);
     }
+    return index;
   }
 
+  /**
+   * A party which times out has still arrived, so the barrier is broken for its generation, like when it was not cyclic
+   */
   public int await(long time, TimeUnit unit) throws TimeoutException {
-    int countDown = countDownLatch.countDown();
+    awaitRelease(unit.toNanos(time));
+    return index;
+  }
+
+  private void awaitRelease(long timeoutNanos) throws TimeoutException {
+    long arrival = arrivals.incrementAndGet();
+    long generation = (arrival - 1) / count;
+    Releases releases = releases();
+    if (arrival % count == 0) {
+      releases.release(generation);
+      ignite.message().send(topic(name), generation);
+      return;
+    }
+
+    long deadline = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + timeoutNanos;
     try {
-      if (countDown > 0) {
-        if (!countDownLatch.await(time, unit)) {
-          throw new TimeoutException();
+      while (!releases.await(generation, Math.min(RECHECK_NANOS, remaining(deadline)))) {
+        if (arrivals.get() >= (generation + 1) * count) {
+          releases.release(generation);
+          return;
+        }
+        if (remaining(deadline) <= 0) {
+          throw new TimeoutException("Barrier: " + name + " not released after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
         }
       }
-      return index;
-    } finally {
-      resetLatch();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IgniteInterruptedException(e);
+    }
+  }
+
+  private Releases releases() {
+    // keyed by node, since a JVM can start several Ignite nodes with the same name one after the other
+    return RELEASES.computeIfAbsent(ignite.cluster().localNode().id(), id -> new ConcurrentHashMap<>()).computeIfAbsent(name, key -> {
+      Releases releases = new Releases();
+      ignite.message().localListen(topic(name), releases);
+      return releases;
+    });
+  }
+
+  /**
+   * Stops listening for the releases of the barriers used on a node, and forgets them
+   */
+  static void nodeStopping(Ignite ignite) {
+    ConcurrentMap<String, Releases> releases = RELEASES.remove(ignite.cluster().localNode().id());
+    if (releases != null) {
+      releases.forEach((name, listener) -> ignite.message().stopLocalListen(topic(name), listener));
     }
   }
 
+  private static String topic(String name) {
+    return "Barrier-" + name;
+  }
+
+  private static long remaining(long deadline) {
+    return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, deadline - System.nanoTime());
+  }
+
+  private static class Releases implements IgniteBiPredicate<UUID, Object> {
+    private static final long serialVersionUID = 1L;
+
+    private long released = -1;
+
+    @Override
+    public boolean apply(UUID nodeId, Object generation) {
+      release((Long) generation);
+      return true;
+    }
+
+    synchronized void release(long generation) {
+      if (generation > released) {
+        released = generation;
+        notifyAll();
+      }
+    }
+
+    /**
+     * @return true if the generation is released, false if it was not released within the time
+     */
+    synchronized boolean await(long generation, long nanos) throws InterruptedException {
+      long deadline = System.nanoTime() + nanos;
+      while (released < generation) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return true;
+    }
+  }
 }
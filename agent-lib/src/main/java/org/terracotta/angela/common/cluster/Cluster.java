@@ -51,6 +51,15 @@ public class Cluster implements Serializable {
     return new AtomicCounter(ignite, name, initialValue);
   }
 
+  /**
+   * A counter updated locally and flushed asynchronously to the cluster, for counting in hot loops
+   *
+   * @see StripedCounter
+   */
+  public StripedCounter stripedCounter(String name) {
+    return new StripedCounter(ignite, name);
+  }
+
   public AtomicBoolean atomicBoolean(String name, boolean initialValue) {
     return new AtomicBoolean(ignite, name, initialValue);
   }
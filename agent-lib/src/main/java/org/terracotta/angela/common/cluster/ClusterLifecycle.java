@@ -0,0 +1,39 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.common.cluster;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.lifecycle.LifecycleBean;
+import org.apache.ignite.lifecycle.LifecycleEventType;
+import org.apache.ignite.resources.IgniteInstanceResource;
+
+/**
+ * Releases the state kept on an Ignite node by the distributed objects of a {@link Cluster} when the node stops
+ */
+public class ClusterLifecycle implements LifecycleBean {
+
+  @IgniteInstanceResource
+  private Ignite ignite;
+
+  @Override
+  public void onLifecycleEvent(LifecycleEventType evt) {
+    if (evt == LifecycleEventType.BEFORE_NODE_STOP) {
+      Barrier.nodeStopping(ignite);
+      StripedCounter.nodeStopping(ignite);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.common.cluster;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteAtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.terracotta.angela.common.AngelaProperties.STRIPED_COUNTER_FLUSH_INTERVAL;
+import static org.terracotta.angela.common.AngelaProperties.STRIPED_COUNTER_FLUSH_THRESHOLD;
+
+/**
+ * A counter shared by the parties of a cluster, with the semantics of a {@link LongAdder}: cheap to update from hot
+ * loops, but only eventually consistent.
+ * <p>
+ * Each JVM accumulates the updates of a counter locally, and adds them to the distributed counter asynchronously,
+ * every {@code angela.cluster.stripedCounter.flushInterval} milliseconds, or sooner when about
+ * {@code angela.cluster.stripedCounter.flushThreshold} counts are pending. So an update does not cost a network round trip.
+ * <p>
+ * {@link #sum()} returns the counts flushed by all the JVMs plus the ones pending in the current JVM. Call {@link #flush()}
+ * at the end of a client job so that its counts are all visible to the other parties when it completes.
+ */
+public class StripedCounter implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final static Logger logger = LoggerFactory.getLogger(StripedCounter.class);
+
+  // the local part of the counters of this JVM, per node and counter like the barriers, dropped when the node stops
+  private static final ConcurrentMap<UUID, ConcurrentMap<String, Stripe>> STRIPES = new ConcurrentHashMap<>();
+  private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "angela-striped-counter-flusher");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // only one update in THRESHOLD_SAMPLING checks the threshold, since summing the cells is what the updates avoid
+  private static final int THRESHOLD_SAMPLING = 64;
+
+  @SuppressFBWarnings("SE_BAD_FIELD")
+  private final Ignite ignite;
+  private final String name;
+  // the stripe of the node the counter is used on, resolved again from the name when the counter is sent to another node
+  private transient volatile Stripe stripe;
+
+  StripedCounter(Ignite ignite, String name) {
+    this.ignite = ignite;
+    this.name = name;
+    this.stripe = resolve();
+  }
+
+  public void increment() {
+    add(1L);
+  }
+
+  public void decrement() {
+    add(-1L);
+  }
+
+  public void add(long x) {
+    stripe().add(x);
+  }
+
+  /**
+   * @return the counts flushed by all the JVMs plus the ones not flushed yet by the current JVM
+   */
+  public long sum() {
+    return stripe().sum();
+  }
+
+  /**
+   * Synchronously flushes the counts accumulated by the current JVM
+   */
+  public void flush() {
+    stripe().flush();
+  }
+
+  @Override
+  public String toString() {
+    return name + ":" + sum();
+  }
+
+  private Stripe stripe() {
+    Stripe stripe = this.stripe;
+    if (stripe == null) {
+      stripe = resolve();
+      this.stripe = stripe;
+    }
+    return stripe;
+  }
+
+  private Stripe resolve() {
+    return STRIPES.computeIfAbsent(ignite.cluster().localNode().id(), id -> new ConcurrentHashMap<>())
+        .computeIfAbsent(name, key -> new Stripe(name, ignite.atomicLong("Striped-Counter-" + name, 0, true)));
+  }
+
+  /**
+   * Flushes the counters used on a node for the last time, and stops their periodic flushes
+   */
+  static void nodeStopping(Ignite ignite) {
+    ConcurrentMap<String, Stripe> stripes = STRIPES.remove(ignite.cluster().localNode().id());
+    if (stripes != null) {
+      stripes.values().forEach(Stripe::close);
+    }
+  }
+
+  private static class Stripe {
+    private final String name;
+    private final IgniteAtomicLong total;
+    private final LongAdder pending = new LongAdder();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final long threshold = Long.parseLong(STRIPED_COUNTER_FLUSH_THRESHOLD.getValue());
+    private final ScheduledFuture<?> periodicFlush;
+
+    Stripe(String name, IgniteAtomicLong total) {
+      this.name = name;
+      this.total = total;
+      long interval = Long.parseLong(STRIPED_COUNTER_FLUSH_INTERVAL.getValue());
+      this.periodicFlush = FLUSHER.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void add(long x) {
+      pending.add(x);
+      if (ThreadLocalRandom.current().nextInt(THRESHOLD_SAMPLING) == 0 && !flushQueued.get() && Math.abs(pending.sum()) >= threshold
+          && flushQueued.compareAndSet(false, true)) {
+        FLUSHER.execute(() -> {
+          flushQueued.set(false);
+          flushQuietly();
+        });
+      }
+    }
+
+    long sum() {
+      return total.get() + pending.sum();
+    }
+
+    synchronized void flush() {
+      // not sumThenReset(), which can lose the updates made concurrently: the counts flushed are subtracted instead
+      long delta = pending.sum();
+      if (delta == 0) {
+        return;
+      }
+      pending.add(-delta);
+      try {
+        total.addAndGet(delta);
+      } catch (RuntimeException e) {
+        pending.add(delta);
+        throw e;
+      }
+    }
+
+    void close() {
+      periodicFlush.cancel(false);
+      flushQuietly();
+    }
+
+    private void flushQuietly() {
+      try {
+        flush();
+      } catch (RuntimeException e) {
+        logger.debug("Unable to flush striped counter: {}: {}", name, e.toString());
+      }
+    }
+  }
+}
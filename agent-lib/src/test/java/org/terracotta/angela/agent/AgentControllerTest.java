@@ -0,0 +1,70 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.terracotta.angela.agent.com.AgentID;
+import org.terracotta.angela.agent.com.FileMetadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AgentControllerTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final AgentController agentController = new AgentController(AgentID.local(), null);
+
+  @Test
+  public void testListTree() throws IOException {
+    Path root = createTree();
+    List<FileMetadata> tree = agentController.listTree(root.toString(), true);
+    assertEquals(Arrays.asList("logs", "logs/old", "logs/old/server-1.log", "logs/server.log", "tc-config.xml"),
+        tree.stream().map(FileMetadata::getRelativePath).collect(toList()));
+    assertTrue(tree.get(0).isFolder());
+    assertEquals(3, tree.get(4).getSize());
+    assertTrue(tree.get(4).getSha256().isPresent());
+  }
+
+  @Test
+  public void testListTreeStopsAtMaxDepth() throws IOException {
+    Path root = createTree();
+    List<FileMetadata> tree = agentController.listTree(root.toString(), 1, false);
+    assertEquals(Arrays.asList("logs", "tc-config.xml"), tree.stream().map(FileMetadata::getRelativePath).collect(toList()));
+    assertTrue(tree.get(0).isFolder());
+  }
+
+  private Path createTree() throws IOException {
+    Path root = tmp.newFolder("work").toPath();
+    Files.createDirectories(root.resolve("logs").resolve("old"));
+    Files.write(root.resolve("logs").resolve("server.log"), "log".getBytes(UTF_8));
+    Files.write(root.resolve("logs").resolve("old").resolve("server-1.log"), "old log".getBytes(UTF_8));
+    Files.write(root.resolve("tc-config.xml"), "xml".getBytes(UTF_8));
+    return root;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.terracotta.angela.common.util.FileUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClientJarStoreTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testOnlyMissingJarsAreUploaded() throws IOException {
+    Path local = tmp.newFolder("local").toPath();
+    Path jar1 = Files.write(local.resolve("a.jar"), "a".getBytes(UTF_8));
+    Path jar2 = Files.write(local.resolve("b.jar"), "b".getBytes(UTF_8));
+    Path classes = Files.createDirectories(local.resolve("classes"));
+    Files.write(classes.resolve("Foo.class"), "foo".getBytes(UTF_8));
+    List<Path> locations = Arrays.asList(jar1, jar2, classes);
+
+    ClientJarStore store = new ClientJarStore(tmp.newFolder("store").toPath());
+    Map<String, String> jars = ClientJarStore.hashJars(locations);
+    assertEquals(2, jars.size());
+
+    Collection<String> missing = store.findMissing(jars.values());
+    assertEquals(2, missing.size());
+    Path classpath1 = tmp.getRoot().toPath().resolve("client1");
+    install(store, locations, missing, jars, tmp.newFolder("incoming1").toPath(), classpath1);
+
+    assertEquals("a", new String(Files.readAllBytes(classpath1.resolve("a.jar")), UTF_8));
+    assertEquals("b", new String(Files.readAllBytes(classpath1.resolve("b.jar")), UTF_8));
+    assertEquals("foo", new String(Files.readAllBytes(classpath1.resolve("classes").resolve("Foo.class")), UTF_8));
+
+    // second client with the same jars: only the folder is uploaded
+    missing = store.findMissing(jars.values());
+    assertTrue(missing.isEmpty());
+    assertEquals(Arrays.asList(classes), ClientJarStore.toUpload(locations, missing));
+    Path classpath2 = tmp.getRoot().toPath().resolve("client2");
+    install(store, locations, missing, jars, tmp.newFolder("incoming2").toPath(), classpath2);
+
+    assertEquals("a", new String(Files.readAllBytes(classpath2.resolve("a.jar")), UTF_8));
+    assertTrue(Files.exists(classpath2.resolve("classes").resolve("Foo.class")));
+  }
+
+  @Test
+  public void testClasspathIsLinkedFromAnotherClient() throws IOException {
+    Path local = tmp.newFolder("local").toPath();
+    Path jar = Files.write(local.resolve("a.jar"), "a".getBytes(UTF_8));
+    Path classes = Files.createDirectories(local.resolve("classes"));
+    Files.write(classes.resolve("Foo.class"), "foo".getBytes(UTF_8));
+    List<Path> locations = Arrays.asList(jar, classes);
+    Map<String, String> jars = ClientJarStore.hashJars(locations);
+
+    ClientJarStore store = new ClientJarStore(tmp.newFolder("store").toPath());
+    Path classpath1 = tmp.getRoot().toPath().resolve("client1");
+    install(store, locations, store.findMissing(jars.values()), jars, tmp.newFolder("incoming").toPath(), classpath1);
+
+    Path classpath2 = tmp.getRoot().toPath().resolve("client2");
+    store.linkClasspath(classpath1, classpath2);
+
+    assertEquals("a", new String(Files.readAllBytes(classpath2.resolve("a.jar")), UTF_8));
+    assertEquals("foo", new String(Files.readAllBytes(classpath2.resolve("classes").resolve("Foo.class")), UTF_8));
+
+    // the classpath of the second client outlives the one it was linked from
+    FileUtils.deleteTree(classpath1);
+    assertEquals("a", new String(Files.readAllBytes(classpath2.resolve("a.jar")), UTF_8));
+  }
+
+  @Test
+  public void testCorruptedJarIsRejected() throws IOException {
+    Path local = tmp.newFolder("local").toPath();
+    Path jar = Files.write(local.resolve("a.jar"), "a".getBytes(UTF_8));
+    List<Path> locations = Arrays.asList(jar);
+    Map<String, String> jars = ClientJarStore.hashJars(locations);
+
+    ClientJarStore store = new ClientJarStore(tmp.newFolder("store").toPath());
+    Path incoming = tmp.newFolder("incoming").toPath();
+    Path blob = incoming.resolve(ClientJarStore.remoteName(jar));
+    Files.createDirectories(blob.getParent());
+    Files.write(blob, "not a".getBytes(UTF_8));
+
+    try {
+      store.install(incoming, jars, tmp.getRoot().toPath().resolve("client"));
+      fail();
+    } catch (UncheckedIOException e) {
+      // expected
+    }
+    assertEquals(new ArrayList<>(jars.values()), store.findMissing(jars.values()));
+    assertFalse(Files.exists(incoming));
+  }
+
+  /**
+   * Does what the file transfer does: copies the uploaded locations into the incoming folder under their remote name
+   */
+  private static void install(ClientJarStore store, List<Path> locations, Collection<String> missing, Map<String, String> jars, Path incoming, Path classpathRoot) throws IOException {
+    for (Path location : ClientJarStore.toUpload(locations, missing)) {
+      Path dest = incoming.resolve(ClientJarStore.remoteName(location));
+      Files.createDirectories(dest.getParent());
+      if (Files.isDirectory(location)) {
+        Files.createDirectories(dest);
+        try (Stream<Path> files = Files.list(location)) {
+          for (Path file : (Iterable<Path>) files::iterator) {
+            Files.copy(file, dest.resolve(file.getFileName().toString()));
+          }
+        }
+      } else {
+        Files.copy(location, dest);
+      }
+    }
+    store.install(incoming, jars, classpathRoot);
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.terracotta.angela.agent.com.AgentID;
+import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.OS;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+public class WarmClientPoolTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final WarmClientPool.Spares pool = new WarmClientPool.Spares(UUID.randomUUID());
+
+  @Test
+  public void testReservedSparesAreAccountedUntilReleased() throws IOException {
+    assertEquals(2, pool.reserve(2));
+    assertEquals(0, pool.reserve(2));
+
+    // a spare which failed to start frees its slot
+    pool.release(null);
+    assertEquals(1, pool.size());
+    assertEquals(1, pool.reserve(2));
+
+    ClientProcess spare = spare("warm-1", new FakeProcess());
+    pool.release(spare);
+    assertEquals(2, pool.size());
+    assertEquals(0, pool.reserve(2));
+
+    assertSame(spare, pool.poll());
+    assertNull(pool.poll());
+    assertEquals(1, pool.size());
+    assertEquals(1, pool.reserve(2));
+  }
+
+  @Test
+  public void testDeadSparesAreDiscarded() throws IOException {
+    FakeProcess dead = new FakeProcess();
+    ClientProcess deadSpare = spare("warm-1", dead);
+    dead.destroy();
+    ClientProcess liveSpare = spare("warm-2", new FakeProcess());
+    pool.offer(deadSpare);
+    pool.offer(liveSpare);
+
+    assertSame(liveSpare, pool.poll());
+    assertFalse(Files.exists(deadSpare.getInstallationPath()));
+    assertTrue(Files.exists(liveSpare.getInstallationPath()));
+  }
+
+  @Test
+  public void testClosedPoolStopsItsSpares() throws IOException {
+    FakeProcess idle = new FakeProcess();
+    ClientProcess idleSpare = spare("warm-1", idle);
+    pool.offer(idleSpare);
+    assertEquals(2, pool.reserve(3));
+    CompletableFuture<Void> start = new CompletableFuture<>();
+    pool.starting(start);
+
+    pool.close();
+    assertTrue(pool.isClosed());
+    assertFalse(idle.isAlive());
+    assertFalse(Files.exists(idleSpare.getInstallationPath()));
+    assertTrue(start.isCancelled());
+    assertNull(pool.poll());
+    assertEquals(0, pool.reserve(3));
+
+    // a spare started while the pool was closing is stopped
+    FakeProcess late = new FakeProcess();
+    ClientProcess lateSpare = spare("warm-2", late);
+    pool.release(lateSpare);
+    assertFalse(late.isAlive());
+    assertFalse(Files.exists(lateSpare.getInstallationPath()));
+    assertNull(pool.poll());
+
+    CompletableFuture<Void> lateStart = new CompletableFuture<>();
+    pool.starting(lateStart);
+    assertTrue(lateStart.isCancelled());
+  }
+
+  @Test
+  public void testHandedOutSpareJoinsInTheDirectoryOfTheClient() throws IOException {
+    assumeFalse(OS.INSTANCE.isWindows());
+    Path client = tmp.newFolder("client-1").toPath();
+    Files.write(client.resolve("stale"), "stale".getBytes(UTF_8));
+    ByteArrayOutputStream stdin = new ByteArrayOutputStream();
+    AgentID agentID = new AgentID("client-1", "localhost", 40000, 1234);
+    CompletableFuture<AgentID> ready = new CompletableFuture<>();
+    ready.complete(agentID);
+    Path warmPath = tmp.newFolder("warm-1").toPath();
+    Files.write(warmPath.resolve("classpath"), "cp".getBytes(UTF_8));
+    ClientProcess spare = new ClientProcess(new AtomicReference<>(new InstanceId("warm-1", "client")), new FakeProcess(), warmPath, ready, new CompletableFuture<>(), stdin);
+
+    InstanceId instanceId = new InstanceId("client-1", "client");
+    Optional<AgentID> handedOut = WarmClientPool.handOut(pool, spare, instanceId, client);
+
+    assertEquals(Optional.of(agentID), handedOut);
+    assertEquals(instanceId + "\n", new String(stdin.toByteArray(), UTF_8));
+    assertEquals(instanceId, spare.getInstanceId());
+    assertTrue(Files.isSymbolicLink(client));
+    assertEquals(warmPath.toRealPath(), client.toRealPath());
+    assertFalse(Files.exists(client.resolve("stale")));
+    assertEquals("cp", new String(Files.readAllBytes(client.resolve("classpath")), UTF_8));
+  }
+
+  private ClientProcess spare(String name, Process process) throws IOException {
+    Path installationPath = tmp.newFolder(name).toPath();
+    return new ClientProcess(new AtomicReference<>(new InstanceId(name, "client")), process, installationPath, new CompletableFuture<>(), new CompletableFuture<>(), new ByteArrayOutputStream());
+  }
+
+  private static class FakeProcess extends Process {
+    private volatile boolean alive = true;
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new ByteArrayOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int waitFor() {
+      return 0;
+    }
+
+    @Override
+    public int exitValue() {
+      if (alive) {
+        throw new IllegalThreadStateException();
+      }
+      return 0;
+    }
+
+    @Override
+    public void destroy() {
+      alive = false;
+    }
+
+    @Override
+    public boolean isAlive() {
+      return alive;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.terracotta.angela.agent.Agent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Microbenchmark of the agent lookups done when dispatching a job, comparing the {@link AgentRoutes} index
+ * with the scan of the discovered agents it replaces, for an increasing number of agents.
+ * <p>
+ * Run with: {@code java -cp <test classpath> org.terracotta.angela.agent.com.AgentRoutesBenchmark}
+ * <p>
+ * The indexed lookups stay flat while the scans grow linearly with the number of agents.
+ */
+public class AgentRoutesBenchmark {
+
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int ROUNDS = 10;
+  // the scans are too slow to do as many lookups with many agents
+  private static final int LOOKUPS = 10_000_000;
+
+  public static void main(String[] args) {
+    System.out.printf("%8s %18s %18s %18s %18s%n", "agents", "route (ns/op)", "scan (ns/op)", "hostname (ns/op)", "scan (ns/op)");
+    for (int agents : new int[]{10, 100, 1_000, 10_000}) {
+      int lookups = Math.max(1_000, LOOKUPS / agents);
+      List<AgentID> agentIDs = new ArrayList<>(agents);
+      AgentRoutes<AgentID> routes = new AgentRoutes<>();
+      Map<AgentID, Collection<String>> discoveredAgents = new ConcurrentHashMap<>();
+      for (int i = 0; i < agents; i++) {
+        // one remote agent per host, plus client agents on the same hosts
+        String hostname = "host-" + (i / 2);
+        AgentID agentID = new AgentID(i % 2 == 0 ? Agent.AGENT_TYPE_REMOTE : "client-" + i, hostname, 10_000 + i, i);
+        agentIDs.add(agentID);
+        routes.addRoute(agentID, agentID);
+        discoveredAgents.put(agentID, i % 2 == 0 ? Collections.singletonList(hostname) : Collections.emptyList());
+        if (i % 2 == 0) {
+          routes.serve(hostname, agentID, false);
+        }
+      }
+
+      for (int i = 0; i < WARMUP_ROUNDS; i++) {
+        run(agentIDs, routes, discoveredAgents, lookups);
+      }
+      long[] total = new long[4];
+      for (int i = 0; i < ROUNDS; i++) {
+        long[] round = run(agentIDs, routes, discoveredAgents, lookups);
+        for (int j = 0; j < total.length; j++) {
+          total[j] += round[j];
+        }
+      }
+      long ops = (long) ROUNDS * lookups;
+      System.out.printf("%8d %18.1f %18.1f %18.1f %18.1f%n", agents,
+          (double) total[0] / ops, (double) total[1] / ops, (double) total[2] / ops, (double) total[3] / ops);
+    }
+  }
+
+  private static long[] run(List<AgentID> agentIDs, AgentRoutes<AgentID> routes, Map<AgentID, Collection<String>> discoveredAgents, int lookups) {
+    int hosts = (agentIDs.size() + 1) / 2;
+    int found = 0;
+    long[] nanos = new long[4];
+
+    long start = System.nanoTime();
+    for (int i = 0; i < lookups; i++) {
+      found += routes.route(agentIDs.get(i % agentIDs.size())).isPresent() ? 1 : 0;
+    }
+    nanos[0] = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < lookups; i++) {
+      AgentID agentID = agentIDs.get(i % agentIDs.size());
+      // what a cluster group filtered on the agent attributes does on each dispatch
+      found += agentIDs.stream().filter(agentID::equals).findFirst().isPresent() ? 1 : 0;
+    }
+    nanos[1] = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < lookups; i++) {
+      found += routes.findAgentID("host-" + (i % hosts)).isPresent() ? 1 : 0;
+    }
+    nanos[2] = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < lookups; i++) {
+      found += scan(discoveredAgents, "host-" + (i % hosts)).isPresent() ? 1 : 0;
+    }
+    nanos[3] = System.nanoTime() - start;
+
+    if (found != 4 * lookups) {
+      throw new AssertionError("Lookups failed: " + found);
+    }
+    return nanos;
+  }
+
+  private static Optional<AgentID> scan(Map<AgentID, Collection<String>> discoveredAgents, String hostname) {
+    return discoveredAgents.entrySet().stream()
+        .filter(e -> !e.getKey().isLocal())
+        .filter(e -> e.getKey().getName().equals(Agent.AGENT_TYPE_REMOTE))
+        .filter(e -> e.getValue().contains(hostname))
+        .map(Map.Entry::getKey)
+        .findFirst();
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class AgentRoutesTest {
+
+  private final AgentID local = new AgentID("orchestrator-agent", "localhost", 1000, 1);
+  private final AgentID remote = new AgentID("remote-agent", "host1", 1001, 2);
+
+  @Test
+  public void testRoutes() {
+    AgentRoutes<String> routes = new AgentRoutes<>();
+    assertFalse(routes.route(remote).isPresent());
+
+    assertEquals("route-1", routes.addRoute(remote, "route-1"));
+    // the first route added wins
+    assertEquals("route-1", routes.addRoute(remote, "route-2"));
+    assertEquals(Optional.of("route-1"), routes.route(remote));
+    assertEquals(1, routes.size());
+
+    routes.remove(remote, Collections.emptyList());
+    assertFalse(routes.route(remote).isPresent());
+    assertEquals(0, routes.size());
+  }
+
+  @Test
+  public void testHostnames() {
+    AgentRoutes<String> routes = new AgentRoutes<>();
+    routes.serve("host1", remote, false);
+    routes.serve("host2", remote, false);
+    assertSame(remote, routes.findAgentID("host1").get());
+
+    // the local agent takes over the hostname
+    routes.serve("host1", local, true);
+    assertSame(local, routes.findAgentID("host1").get());
+    routes.serve("host1", remote, false);
+    assertSame(local, routes.findAgentID("host1").get());
+
+    // only the hostnames still served by the agent are removed
+    routes.remove(remote, asList("host1", "host2"));
+    assertSame(local, routes.findAgentID("host1").get());
+    assertFalse(routes.findAgentID("host2").isPresent());
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.terracotta.angela.common.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaSyncTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testRollingChecksum() {
+    byte[] bytes = randomBytes(10_000, 1);
+    int blockSize = 2048;
+    int checksum = DeltaSync.weakChecksum(ByteBuffer.wrap(bytes), 0, blockSize);
+    for (int i = 1; i + blockSize <= bytes.length; i++) {
+      checksum = DeltaSync.roll(checksum, bytes[i - 1], bytes[i + blockSize - 1], blockSize);
+      assertEquals(DeltaSync.weakChecksum(ByteBuffer.wrap(bytes), i, blockSize), checksum);
+    }
+  }
+
+  @Test
+  public void testPatchOnlyContainsChanges() throws IOException {
+    Path remote = tmp.newFolder("remote").toPath();
+    Path local = tmp.newFolder("local").toPath();
+
+    byte[] jar = randomBytes(1_000_000, 2);
+    Files.write(remote.resolve("server.jar"), jar);
+    Files.write(remote.resolve("removed.txt"), randomBytes(10, 3));
+    Files.createDirectories(remote.resolve("removed").resolve("sub"));
+    Files.write(remote.resolve("removed").resolve("sub").resolve("file.txt"), randomBytes(10, 4));
+    Files.write(remote.resolve("same.txt"), randomBytes(5000, 5));
+
+    // some bytes are inserted in the middle of the jar, shifting the rest of its content
+    byte[] changedJar = new byte[jar.length + 100];
+    System.arraycopy(jar, 0, changedJar, 0, 500_000);
+    System.arraycopy(randomBytes(100, 6), 0, changedJar, 500_000, 100);
+    System.arraycopy(jar, 500_000, changedJar, 500_100, jar.length - 500_000);
+    Files.write(local.resolve("server.jar"), changedJar);
+    Files.createDirectories(local.resolve("lib").resolve("empty"));
+    Files.write(local.resolve("lib").resolve("new.jar"), randomBytes(3000, 7));
+    Files.copy(remote.resolve("same.txt"), local.resolve("same.txt"));
+
+    Path patch = tmp.getRoot().toPath().resolve("kit.patch");
+    assertTrue(DeltaSync.createPatch(local, DeltaSync.signatures(remote), patch));
+    // the patch holds the new file and a few blocks of the jar, not the jar
+    assertTrue(Files.size(patch) < 20_000);
+
+    DeltaSync.applyPatch(patch, remote);
+    assertArrayEquals(changedJar, Files.readAllBytes(remote.resolve("server.jar")));
+    assertArrayEquals(Files.readAllBytes(local.resolve("lib").resolve("new.jar")), Files.readAllBytes(remote.resolve("lib").resolve("new.jar")));
+    assertTrue(Files.isDirectory(remote.resolve("lib").resolve("empty")));
+    assertFalse(Files.exists(remote.resolve("removed.txt")));
+    assertFalse(Files.exists(remote.resolve("removed")));
+    assertFalse(Files.exists(remote.resolve("server.jar.delta-sync")));
+
+    assertFalse(DeltaSync.createPatch(local, DeltaSync.signatures(remote), patch));
+  }
+
+  @Test
+  public void testPatchingLinkedCopyLeavesSourceIntact() throws IOException {
+    Path kit = tmp.newFolder("kit").toPath();
+    Path local = tmp.newFolder("local").toPath();
+    byte[] jar = randomBytes(100_000, 8);
+    Files.write(kit.resolve("server.jar"), jar);
+    Files.write(kit.resolve("removed.txt"), randomBytes(10, 9));
+    byte[] changedJar = randomBytes(100_000, 10);
+    Files.write(local.resolve("server.jar"), changedJar);
+
+    Path patch = tmp.getRoot().toPath().resolve("kit.patch");
+    assertTrue(DeltaSync.createPatch(local, DeltaSync.signatures(kit), patch));
+    Path patched = tmp.getRoot().toPath().resolve("kit.patched");
+    FileUtils.linkTree(kit, patched);
+    DeltaSync.applyPatch(patch, patched);
+
+    assertArrayEquals(changedJar, Files.readAllBytes(patched.resolve("server.jar")));
+    assertFalse(Files.exists(patched.resolve("removed.txt")));
+    // what servers running from the kit use is not modified
+    assertArrayEquals(jar, Files.readAllBytes(kit.resolve("server.jar")));
+    assertTrue(Files.exists(kit.resolve("removed.txt")));
+  }
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileTransferTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testSendSplitsInChunks() throws IOException, InterruptedException {
+    Path root = tmp.newFolder("root").toPath();
+    Path file = Files.write(root.resolve("data.bin"), randomBytes(2500));
+
+    List<FileTransfer> chunks = new ArrayList<>();
+    BlockingQueue<FileTransfer> queue = new LinkedBlockingQueue<>();
+    assertEquals(2500, FileTransfer.send(root, file, 1000, queue));
+    queue.drainTo(chunks);
+
+    assertEquals(3, chunks.size());
+    assertEquals("root/data.bin", chunks.get(0).getRelativePath());
+    assertEquals(0, chunks.get(0).getOffset());
+    assertEquals(1000, chunks.get(1).getOffset());
+    assertEquals(2000, chunks.get(2).getOffset());
+    assertEquals(500, chunks.get(2).getLength());
+    assertFalse(chunks.get(0).isLast());
+    assertFalse(chunks.get(1).isLast());
+    assertTrue(chunks.get(2).isLast());
+  }
+
+  @Test
+  public void testSendEmptyFile() throws IOException, InterruptedException {
+    Path file = tmp.newFile("empty.txt").toPath();
+
+    BlockingQueue<FileTransfer> queue = new LinkedBlockingQueue<>();
+    assertEquals(0, FileTransfer.send(file, file, 1000, queue));
+
+    FileTransfer chunk = queue.poll();
+    assertEquals("empty.txt", chunk.getRelativePath());
+    assertEquals(0, chunk.getLength());
+    assertTrue(chunk.isLast());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testRoundTripThroughBoundedQueue() throws Exception {
+    Path root = tmp.newFolder("files").toPath();
+    Files.createDirectories(root.resolve("sub"));
+    byte[] one = randomBytes(10_000);
+    byte[] two = randomBytes(3);
+    Files.write(root.resolve("one.bin"), one);
+    Files.write(root.resolve("sub").resolve("two.bin"), two);
+    Files.write(root.resolve("sub").resolve("empty.bin"), new byte[0]);
+    Path dest = tmp.newFolder("dest").toPath();
+
+    // the queue can only hold 2 chunks: the sender must wait for the receiver
+    BlockingQueue<FileTransfer> queue = new ArrayBlockingQueue<>(2);
+    CompletableFuture<Integer> received = CompletableFuture.supplyAsync(() -> {
+      int files = 0;
+      try (FileTransferWriter writer = new FileTransferWriter(dest)) {
+        while (true) {
+          FileTransfer chunk = queue.take();
+          if (chunk.isFinished()) {
+            return files;
+          }
+          if (writer.write(chunk)) {
+            files++;
+          }
+        }
+      } catch (IOException | InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    FileTransfer.send(root, root.resolve("one.bin"), 512, queue);
+    FileTransfer.send(root, root.resolve("sub").resolve("two.bin"), 512, queue);
+    FileTransfer.send(root, root.resolve("sub").resolve("empty.bin"), 512, queue);
+    queue.put(FileTransfer.END);
+
+    assertEquals(3, (int) received.get());
+    assertArrayEquals(one, Files.readAllBytes(dest.resolve("files").resolve("one.bin")));
+    assertArrayEquals(two, Files.readAllBytes(dest.resolve("files").resolve("sub").resolve("two.bin")));
+    assertEquals(0, Files.size(dest.resolve("files").resolve("sub").resolve("empty.bin")));
+  }
+
+  @Test
+  public void testCompressedRoundTrip() throws Exception {
+    Path root = tmp.newFolder("logs").toPath();
+    byte[] log = new byte[5000];
+    for (int i = 0; i < log.length; i++) {
+      log[i] = (byte) ('a' + i % 7);
+    }
+    Files.write(root.resolve("server.log"), log);
+    Path dest = tmp.newFolder("dest").toPath();
+
+    BlockingQueue<FileTransfer> queue = new LinkedBlockingQueue<>();
+    // an empty root name writes the content of the root folder directly into the destination
+    assertEquals(5000, FileTransfer.send(FileTransfer.relativePath("", root, root.resolve("server.log")), root.resolve("server.log"), 2048, true, queue));
+
+    List<FileTransfer> chunks = new ArrayList<>(queue);
+    assertEquals(3, chunks.size());
+    assertTrue(chunks.get(0).isCompressed());
+    assertEquals(2048, chunks.get(0).getLength());
+    assertEquals(904, chunks.get(2).getLength());
+
+    try (FileTransferWriter writer = new FileTransferWriter(dest)) {
+      for (FileTransfer chunk : chunks) {
+        writer.write(chunk);
+      }
+    }
+    assertArrayEquals(log, Files.readAllBytes(dest.resolve("server.log")));
+  }
+
+  @Test
+  public void testRoundTripThroughDataChannel() throws Exception {
+    Path root = tmp.newFolder("files").toPath();
+    Files.createDirectories(root.resolve("sub"));
+    byte[] one = randomBytes(3_000_000);
+    byte[] two = randomBytes(3);
+    Files.write(root.resolve("one.bin"), one);
+    Files.write(root.resolve("sub").resolve("two.bin"), two);
+    Files.write(root.resolve("sub").resolve("empty.bin"), new byte[0]);
+    Path dest = tmp.newFolder("dest").toPath();
+
+    BlockingQueue<FileTransfer> queue = new ArrayBlockingQueue<>(2);
+    CompletableFuture<TransferStats> received = CompletableFuture.supplyAsync(() -> {
+      try {
+        FileTransfer offer = queue.take();
+        TransferStats stats = new TransferStats();
+        assertTrue(DataChannel.receive(offer.getDataChannel(), offer.getDataChannelToken(), dest, stats));
+        return stats;
+      } catch (IOException | InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    TransferStats sent = new TransferStats();
+    try (DataChannel channel = DataChannel.offer(queue, new CompletableFuture<>())) {
+      FileTransfer.sendAll(Collections.singletonList(root), FileTransfer::rootName, channel::send, sent);
+      channel.finish();
+    }
+
+    assertEquals(3, sent.getFiles());
+    assertEquals(3, received.get().getFiles());
+    assertEquals(3_000_003, received.get().getBytes());
+    assertArrayEquals(one, Files.readAllBytes(dest.resolve("files").resolve("one.bin")));
+    assertArrayEquals(two, Files.readAllBytes(dest.resolve("files").resolve("sub").resolve("two.bin")));
+    assertEquals(0, Files.size(dest.resolve("files").resolve("sub").resolve("empty.bin")));
+  }
+
+  @Test
+  public void testDataChannelRejectsConnectionsWithoutToken() throws Exception {
+    Path root = tmp.newFolder("files").toPath();
+    byte[] one = randomBytes(1_000);
+    Files.write(root.resolve("one.bin"), one);
+    Path dest = tmp.newFolder("dest").toPath();
+    Path stolen = tmp.newFolder("stolen").toPath();
+
+    BlockingQueue<FileTransfer> queue = new ArrayBlockingQueue<>(2);
+    CompletableFuture<TransferStats> received = CompletableFuture.supplyAsync(() -> {
+      try {
+        FileTransfer offer = queue.take();
+        // another host connects first, without the token of the offer
+        try {
+          DataChannel.receive(offer.getDataChannel(), new byte[offer.getDataChannelToken().length], stolen, new TransferStats());
+          throw new AssertionError("Connection without the token was accepted");
+        } catch (IOException expected) {
+        }
+        TransferStats stats = new TransferStats();
+        assertTrue(DataChannel.receive(offer.getDataChannel(), offer.getDataChannelToken(), dest, stats));
+        return stats;
+      } catch (IOException | InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    try (DataChannel channel = DataChannel.offer(queue, new CompletableFuture<>())) {
+      FileTransfer.sendAll(Collections.singletonList(root), FileTransfer::rootName, channel::send, new TransferStats());
+      channel.finish();
+    }
+
+    assertEquals(1, received.get().getFiles());
+    assertArrayEquals(one, Files.readAllBytes(dest.resolve("files").resolve("one.bin")));
+    assertFalse(Files.exists(stolen.resolve("files")));
+  }
+
+  @Test
+  public void testRefusedDataChannelFallsBackToTheQueue() throws Exception {
+    BlockingQueue<FileTransfer> queue = new ArrayBlockingQueue<>(2);
+    CompletableFuture<Void> refused = CompletableFuture.runAsync(() -> {
+      try {
+        assertNotNull(queue.take().getDataChannel());
+        DataChannel.refuse(queue);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    long start = System.nanoTime();
+    assertNull(DataChannel.offer(queue, new CompletableFuture<>()));
+    assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+    refused.get();
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testDataChannelIsNotAwaitedOnceTheReceiverIsDone() throws Exception {
+    BlockingQueue<FileTransfer> queue = new ArrayBlockingQueue<>(2);
+    CompletableFuture<Void> receiver = new CompletableFuture<>();
+    receiver.completeExceptionally(new IllegalStateException("receiver failed"));
+
+    long start = System.nanoTime();
+    assertNull(DataChannel.offer(queue, receiver));
+    assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+}
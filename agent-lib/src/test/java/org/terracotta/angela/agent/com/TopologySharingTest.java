@@ -0,0 +1,83 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.junit.Test;
+import org.terracotta.angela.common.tcconfig.TerracottaServer;
+import org.terracotta.angela.common.topology.Topology;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.terracotta.angela.common.distribution.Distribution.distribution;
+import static org.terracotta.angela.common.dynamic_cluster.Stripe.stripe;
+import static org.terracotta.angela.common.provider.DynamicConfigManager.dynamicCluster;
+import static org.terracotta.angela.common.tcconfig.TerracottaServer.server;
+import static org.terracotta.angela.common.topology.LicenseType.TERRACOTTA_OS;
+import static org.terracotta.angela.common.topology.PackageType.KIT;
+import static org.terracotta.angela.common.topology.Version.version;
+
+public class TopologySharingTest {
+
+  private final TopologySharing sharing = TopologySharing.INSTANCE;
+
+  @Test
+  public void testAddedServersArePushedAsDelta() throws Exception {
+    Topology topology = new Topology(distribution(version("3.9.0"), KIT, TERRACOTTA_OS),
+        dynamicCluster(stripe(server("server-1", "host-1"), server("server-2", "host-2"))));
+    Topology agentCopy = copy(topology);
+    TopologySharing.Snapshot pushed = sharing.snapshot(topology);
+    assertEquals(pushed, sharing.snapshot(agentCopy));
+
+    topology.addServer(0, server("server-3", "host-3"));
+    topology.addStripe(server("server-4", "host-4"));
+    assertNotEquals(pushed, sharing.snapshot(topology));
+
+    sharing.diff(pushed, topology).get().applyTo(agentCopy);
+    assertEquals(sharing.snapshot(topology), sharing.snapshot(agentCopy));
+  }
+
+  @Test
+  public void testOtherChangesAreNotPushedAsDelta() {
+    Topology topology = new Topology(distribution(version("3.9.0"), KIT, TERRACOTTA_OS),
+        dynamicCluster(stripe(server("server-1", "host-1"), server("server-2", "host-2"))));
+    TopologySharing.Snapshot pushed = sharing.snapshot(topology);
+
+    TerracottaServer server = topology.getServer(0, 1);
+    server.tsaPort(9410);
+    assertFalse(sharing.diff(pushed, topology).isPresent());
+
+    pushed = sharing.snapshot(topology);
+    topology.removeServer(0, 1);
+    assertFalse(sharing.diff(pushed, topology).isPresent());
+  }
+
+  private static Topology copy(Topology topology) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+      oos.writeObject(topology);
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+      return (Topology) ois.readObject();
+    }
+  }
+}
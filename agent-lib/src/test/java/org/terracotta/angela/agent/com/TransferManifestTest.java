@@ -0,0 +1,123 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransferManifestTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testResumePartialTransfer() throws Exception {
+    Path root = tmp.newFolder("kit").toPath();
+    byte[] big = randomBytes(10_000);
+    byte[] small = randomBytes(100);
+    Files.createDirectories(root.resolve("lib"));
+    Files.write(root.resolve("lib").resolve("big.jar"), big);
+    Files.write(root.resolve("small.txt"), small);
+    List<Path> locations = Collections.singletonList(root);
+    TransferManifest manifest = TransferManifest.create(locations, FileTransfer::rootName);
+    assertEquals(2, manifest.getFileCount());
+    assertEquals(10_100, manifest.getTotalSize());
+
+    // a failed transfer left the small file and the first 4500 bytes of the big one
+    Path dest = tmp.newFolder("dest").toPath();
+    Files.createDirectories(dest.resolve("kit").resolve("lib"));
+    Files.write(dest.resolve("kit").resolve("small.txt"), small);
+    Files.write(dest.resolve("kit").resolve("lib").resolve("big.jar"), Arrays.copyOf(big, 4500));
+    try {
+      manifest.verify(dest);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("kit/lib/big.jar"));
+    }
+
+    Map<String, Long> offsets = manifest.resumeOffsets(dest, 1000);
+    assertEquals(Collections.singletonMap("kit/lib/big.jar", 4000L), offsets);
+
+    BlockingQueue<FileTransfer> queue = new LinkedBlockingQueue<>();
+    TransferStats stats = new TransferStats();
+    FileTransfer.sendAll(locations, FileTransfer::rootName, offsets, (relativePath, file, offset) -> FileTransfer.send(relativePath, file, offset, 1000, false, queue::put), stats);
+    assertEquals(6000, stats.getBytes());
+    try (FileTransferWriter writer = new FileTransferWriter(dest)) {
+      for (FileTransfer chunk : queue) {
+        writer.write(chunk);
+      }
+    }
+
+    manifest.verify(dest);
+    assertArrayEquals(big, Files.readAllBytes(dest.resolve("kit").resolve("lib").resolve("big.jar")));
+    assertTrue(manifest.resumeOffsets(dest, 1000).isEmpty());
+  }
+
+  @Test
+  public void testCorruptedFileIsSentAgain() throws Exception {
+    Path file = tmp.newFile("kit.zip").toPath();
+    Files.write(file, randomBytes(3000));
+    TransferManifest manifest = TransferManifest.create(Collections.singletonList(file), FileTransfer::rootName);
+
+    Path dest = tmp.newFolder("dest").toPath();
+    Files.write(dest.resolve("kit.zip"), new byte[3000]);
+
+    assertEquals(Collections.singletonMap("kit.zip", 0L), manifest.resumeOffsets(dest, 1000));
+  }
+
+  @Test
+  public void testLeftoverOfOtherContentIsDiscarded() throws Exception {
+    Path file = tmp.newFile("kit.zip").toPath();
+    Files.write(file, randomBytes(3000));
+    Path dest = tmp.newFolder("dest").toPath();
+    TransferManifest before = TransferManifest.create(Collections.singletonList(file), FileTransfer::rootName);
+    before.resumeOffsets(dest, 1000);
+    Files.write(dest.resolve("kit.zip"), Arrays.copyOf(Files.readAllBytes(file), 2000));
+
+    Files.write(file, randomBytes(2999));
+    TransferManifest after = TransferManifest.create(Collections.singletonList(file), FileTransfer::rootName);
+    assertNotEquals(before.getChecksum(), after.getChecksum());
+
+    assertEquals(Collections.singletonMap("kit.zip", 0L), after.resumeOffsets(dest, 1000));
+    assertFalse(Files.exists(dest.resolve("kit.zip")));
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+}
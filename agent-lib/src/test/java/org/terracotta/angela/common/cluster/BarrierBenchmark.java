@@ -0,0 +1,130 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.common.cluster;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCountDownLatch;
+import org.terracotta.angela.agent.Agent;
+import org.terracotta.angela.common.net.DefaultPortAllocator;
+import org.terracotta.angela.common.net.PortAllocator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmark of the per-await latency of a {@link Barrier} for an increasing number of parties, compared with the barrier
+ * it replaces, which created a new distributed latch after each await.
+ * <p>
+ * Run with: {@code java -cp <test classpath> org.terracotta.angela.common.cluster.BarrierBenchmark}
+ * <p>
+ * The parties are threads of a single Ignite node, so the figures are the cost of the distributed structures themselves,
+ * without the network latency between hosts.
+ */
+public class BarrierBenchmark {
+
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int ROUNDS = 200;
+
+  public static void main(String[] args) throws Exception {
+    try (PortAllocator portAllocator = new DefaultPortAllocator();
+         Agent agent = Agent.igniteOrchestrator(UUID.randomUUID(), portAllocator)) {
+      Ignite ignite = agent.getIgnite();
+      Cluster cluster = new Cluster(ignite, agent.getAgentID(), null);
+      System.out.printf("%8s %22s %22s%n", "parties", "cyclic (us/await)", "latch per await (us/await)");
+      for (int parties : new int[]{2, 16, 128}) {
+        String name = "benchmark-" + parties;
+        double cyclic = run(parties, () -> {
+          Barrier barrier = cluster.barrier(name, parties);
+          return barrier::await;
+        });
+        double latchPerAwait = run(parties, () -> {
+          LatchPerAwaitBarrier barrier = new LatchPerAwaitBarrier(ignite, parties, name);
+          return barrier::await;
+        });
+        System.out.printf("%8d %22.1f %22.1f%n", parties, cyclic, latchPerAwait);
+      }
+    }
+  }
+
+  /**
+   * @return the average time of an await, in microseconds
+   */
+  private static double run(int parties, Callable<Runnable> newParty) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(parties);
+    try {
+      List<Future<Long>> futures = new ArrayList<>();
+      for (int i = 0; i < parties; i++) {
+        futures.add(pool.submit(() -> {
+          Runnable await = newParty.call();
+          for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            await.run();
+          }
+          long start = System.nanoTime();
+          for (int round = 0; round < ROUNDS; round++) {
+            await.run();
+          }
+          return System.nanoTime() - start;
+        }));
+      }
+      long total = 0;
+      for (Future<Long> future : futures) {
+        total += future.get();
+      }
+      return total / 1000.0 / parties / ROUNDS;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * The previous implementation of {@link Barrier}: a latch per generation, created by each party after each await
+   */
+  private static class LatchPerAwaitBarrier {
+    private final Ignite ignite;
+    private final int count;
+    private final String name;
+    private IgniteCountDownLatch countDownLatch;
+    private int resetCount;
+
+    LatchPerAwaitBarrier(Ignite ignite, int count, String name) {
+      this.ignite = ignite;
+      this.count = count;
+      this.name = name;
+      resetLatch();
+    }
+
+    private void resetLatch() {
+      countDownLatch = ignite.countDownLatch("LatchPerAwaitBarrier-" + name + "#" + (resetCount++), count, true, true);
+    }
+
+    void await() {
+      int countDown = countDownLatch.countDown();
+      try {
+        if (countDown > 0) {
+          countDownLatch.await();
+        }
+      } finally {
+        resetLatch();
+      }
+    }
+  }
+}
@@ -74,7 +74,7 @@ public class Ehc3KitResolver extends KitResolver {
   }
 
   private String getParentDirFromZip(Path localInstaller) {
-    try (ArchiveInputStream archiveIs = new ZipArchiveInputStream(new BufferedInputStream(Files.newInputStream(localInstaller)))) {
+    try (ArchiveInputStream<?> archiveIs = new ZipArchiveInputStream(new BufferedInputStream(Files.newInputStream(localInstaller)))) {
       ArchiveEntry entry = archiveIs.getNextEntry();
       return entry.getName().split("/")[0];
     } catch (IOException ioe) {
@@ -24,6 +24,9 @@ import org.terracotta.angela.agent.com.Executor;
 import org.terracotta.angela.agent.com.IgniteFreeExecutor;
 import org.terracotta.angela.agent.com.IgniteLocalExecutor;
 import org.terracotta.angela.agent.com.IgniteSshRemoteExecutor;
+import org.terracotta.angela.agent.com.RpcExecutor;
+import org.terracotta.angela.agent.com.RpcSshRemoteExecutor;
+import org.terracotta.angela.agent.com.SharedObjects;
 import org.terracotta.angela.client.config.ConfigurationContext;
 import org.terracotta.angela.client.config.ConfigurationContextVisitor;
 import org.terracotta.angela.client.config.TsaConfigurationContext;
@@ -144,6 +147,7 @@ public class AngelaOrchestrator implements Closeable {
     try {
       executor.close();
     } finally {
+      SharedObjects.forget(executor);
       try {
         mainAgent.close();
       } finally {
@@ -240,6 +244,43 @@ public class AngelaOrchestrator implements Closeable {
       return this;
     }
 
+    /**
+     * Local RPC agent started, plus one per remote hostname, deployed trough SSH.
+     * Agents connect to the orchestrator instead of starting Ignite, which makes them much faster to start,
+     * but the {@link org.terracotta.angela.common.cluster.Cluster} primitives, and so the client jobs, are not supported.
+     */
+    public AngelaOrchestratorBuilder rpcRemote() {
+      return rpcRemote(executor -> {
+      });
+    }
+
+    /**
+     * Local RPC agent started, plus one per remote hostname, deployed trough SSH.
+     * Agents connect to the orchestrator instead of starting Ignite, which makes them much faster to start,
+     * but the {@link org.terracotta.angela.common.cluster.Cluster} primitives, and so the client jobs, are not supported.
+     */
+    public AngelaOrchestratorBuilder rpcRemote(Consumer<RpcSshRemoteExecutor> configurator) {
+      agentBuilder = () -> Agent.rpcOrchestrator(group, portAllocator);
+      executorBuilder = agent -> {
+        final RpcSshRemoteExecutor executor = new RpcSshRemoteExecutor(agent);
+        configurator.accept(executor);
+        return executor;
+      };
+      mode = RpcSshRemoteExecutor.class.getSimpleName();
+      return this;
+    }
+
+    /**
+     * Only one local RPC agent for all hostnames.
+     * No agents will be deployed through SSH.
+     */
+    public AngelaOrchestratorBuilder rpcLocal() {
+      agentBuilder = () -> Agent.rpcOrchestrator(group, portAllocator);
+      executorBuilder = RpcExecutor::new;
+      mode = RpcExecutor.class.getSimpleName();
+      return this;
+    }
+
     public AngelaOrchestrator build() {
       final Agent agent = agentBuilder.get();
       final Executor executor = executorBuilder.apply(agent);
@@ -41,6 +41,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import static java.util.stream.Collectors.toList;
 import static org.terracotta.angela.common.AngelaProperties.KIT_INSTALLATION_DIR;
@@ -63,15 +64,27 @@ public class Client implements Closeable {
   private final InstanceId instanceId;
   private final ClientId clientId;
   private final transient Executor executor;
+  // the client whose JVM hosts this one, when this client has no JVM of its own
+  private final transient Client jvm;
   private boolean stopped = false;
   private boolean closed = false;
 
-  private Client(Executor executor, InstanceId instanceId, ClientId clientId, AgentID clientAgentID, AgentID parentAgentID) {
+  private Client(Executor executor, InstanceId instanceId, ClientId clientId, AgentID clientAgentID, AgentID parentAgentID, Client jvm) {
     this.instanceId = instanceId;
     this.clientId = clientId;
     this.executor = executor;
     this.clientAgentID = clientAgentID;
     this.parentAgentID = parentAgentID;
+    this.jvm = jvm;
+  }
+
+  /**
+   * @return a client hosted in the JVM of this one, which runs its jobs in its own class loader.
+   * A hosted client cannot be stopped on its own: it is stopped with the JVM hosting it, when its client array is stopped or closed.
+   */
+  Client host(InstanceId instanceId, ClientId clientId) {
+    logger.info("Hosting client: {} instance: {} in the JVM of: {}", clientId, instanceId, clientAgentID);
+    return new Client(executor, instanceId, clientId, clientAgentID, parentAgentID, this);
   }
 
   public AgentID getClientAgentID() {
@@ -87,29 +100,45 @@ public class Client implements Closeable {
   }
 
   public static Client spawn(Executor executor, InstanceId instanceId, ClientId clientId, ClientArrayConfigurationContext clientArrayConfigurationContext, LocalKitManager localKitManager, TerracottaCommandLineEnvironment tcEnv) {
+    final List<Path> jars = prepareClasspath(clientArrayConfigurationContext, localKitManager, tcEnv);
+    return spawn(executor, instanceId, clientId, tcEnv, parentAgentID -> executor.uploadClientJars(parentAgentID, instanceId, jars));
+  }
+
+  /**
+   * Spawns a client whose classpath is installed on its agent by {@code classpathInstaller}, so that the clients
+   * of a {@link ClientArray} can share the classpath uploaded once per host
+   */
+  static Client spawn(Executor executor, InstanceId instanceId, ClientId clientId, TerracottaCommandLineEnvironment tcEnv, Consumer<AgentID> classpathInstaller) {
     final AgentID parentAgentID = executor.getAgentID(clientId.getHostName());
     logger.info("Spawning client: {} instance: {} through agent: {}", clientId, instanceId, parentAgentID);
 
-    String kitInstallationPath = getEitherOf(KIT_INSTALLATION_DIR, KIT_INSTALLATION_PATH);
-    localKitManager.setupLocalInstall(clientArrayConfigurationContext.getLicense(), kitInstallationPath, OFFLINE.getBooleanValue(), tcEnv);
-
     try {
-      final List<Path> jars = listClasspathFiles(localKitManager);
-      for (Path jar : jars) {
-        logger.debug("Uploading classpath file : {}", jar.getFileName());
-      }
-      executor.uploadClientJars(parentAgentID, instanceId, jars);
+      classpathInstaller.accept(parentAgentID);
       AgentGroup group = executor.getGroup();
       AgentID clientAgentID = executor.execute(parentAgentID, () -> AgentController.getInstance().spawnClient(instanceId, tcEnv, group));
       logger.info("Started client: {} instance: {} through agent: {} on agent: {}", clientId, instanceId, parentAgentID, clientAgentID);
 
-      return new Client(executor, instanceId, clientId, clientAgentID, parentAgentID);
+      return new Client(executor, instanceId, clientId, clientAgentID, parentAgentID, null);
     } catch (Exception e) {
       logger.error("Cannot create client: {} through: {}: {}", instanceId, parentAgentID, e.getMessage(), e);
       throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Installs the kit locally if needed and lists the files of the classpath to upload for the clients
+   */
+  static List<Path> prepareClasspath(ClientArrayConfigurationContext clientArrayConfigurationContext, LocalKitManager localKitManager, TerracottaCommandLineEnvironment tcEnv) {
+    String kitInstallationPath = getEitherOf(KIT_INSTALLATION_DIR, KIT_INSTALLATION_PATH);
+    localKitManager.setupLocalInstall(clientArrayConfigurationContext.getLicense(), kitInstallationPath, OFFLINE.getBooleanValue(), tcEnv);
+
+    final List<Path> jars = listClasspathFiles(localKitManager);
+    for (Path jar : jars) {
+      logger.debug("Uploading classpath file : {}", jar.getFileName());
+    }
+    return jars;
+  }
+
   private static List<Path> listClasspathFiles(LocalKitManager localKitManager) {
     List<File> files = new ArrayList<>();
 
@@ -148,6 +177,18 @@ public class Client implements Closeable {
 
   Future<Void> submit(ClientId clientId, ClientJob clientJob) {
     Cluster cluster = executor.getCluster(clientId);
+    if (jvm != null) {
+      byte[] job = LogicalClients.serialize(clientJob);
+      IgniteCallable<Void> call = () -> {
+        try {
+          LogicalClients.run(instanceId, job, cluster);
+          return null;
+        } catch (Throwable t) {
+          throw new IgniteFutureAdapter.RemoteExecutionException("Remote ClientJob failed", exceptionToString(t));
+        }
+      };
+      return executor.executeAsync(clientAgentID, call);
+    }
     IgniteCallable<Void> call = () -> {
       try {
         clientJob.run(cluster);
@@ -175,6 +216,20 @@ public class Client implements Closeable {
     return instanceId;
   }
 
+  /**
+   * @return true if this client is hosted in the JVM of another client, see {@link #host(InstanceId, ClientId)}
+   */
+  boolean isHosted() {
+    return jvm != null;
+  }
+
+  /**
+   * @return the instance of the client which owns the JVM and the working directory of this client
+   */
+  InstanceId getJvmInstanceId() {
+    return jvm == null ? instanceId : jvm.getInstanceId();
+  }
+
   public String getHostName() {
     return getClientId().getHostName();
   }
@@ -183,6 +238,9 @@ public class Client implements Closeable {
     return getClientId().getSymbolicName().getSymbolicName();
   }
 
+  /**
+   * Stops the client and wipes its data. A hosted client is only marked as closed: it is stopped with the JVM hosting it.
+   */
   @Override
   public void close() {
     if (closed) {
@@ -190,6 +248,10 @@ public class Client implements Closeable {
     }
     closed = true;
 
+    if (jvm != null) {
+      stopped = true;
+      return;
+    }
     stop();
     if (!SKIP_UNINSTALL.getBooleanValue()) {
       logger.debug("Wiping up data for client: {} instance: {} started from: {}", clientId, instanceId, parentAgentID);
@@ -197,7 +259,16 @@ public class Client implements Closeable {
     }
   }
 
+  /**
+   * Kills the agent of the client.
+   *
+   * @throws UnsupportedOperationException if the client is hosted in the JVM of another client: the threads and
+   *                                       connections its jobs started cannot be stopped without stopping the JVM
+   */
   public void stop() {
+    if (jvm != null) {
+      throw new UnsupportedOperationException("Client: " + clientId + " is hosted in the JVM of: " + clientAgentID + " and cannot be stopped on its own: stop its client array instead");
+    }
     if (stopped) {
       return;
     }
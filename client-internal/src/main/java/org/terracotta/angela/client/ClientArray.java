@@ -16,6 +16,8 @@
  */
 package org.terracotta.angela.client;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.terracotta.angela.agent.AgentController;
 import org.terracotta.angela.agent.com.AgentExecutor;
 import org.terracotta.angela.agent.com.AgentID;
@@ -36,10 +38,20 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
+import static org.terracotta.angela.common.AngelaProperties.CLIENT_SPAWN_PARALLELISM;
+import static org.terracotta.angela.common.AngelaProperties.CLIENT_SPAWN_PARALLELISM_PER_HOST;
 import static org.terracotta.angela.common.AngelaProperties.SKIP_UNINSTALL;
 
 /**
@@ -47,10 +59,14 @@ import static org.terracotta.angela.common.AngelaProperties.SKIP_UNINSTALL;
  */
 public class ClientArray implements AutoCloseable {
 
+  private final static Logger logger = LoggerFactory.getLogger(ClientArray.class);
+
   private final transient Executor executor;
   private final transient Supplier<InstanceId> clientInstanceIdSupplier;
   private final transient LocalKitManager localKitManager;
   private final transient Map<ClientId, Client> clients = new HashMap<>();
+  // the JVMs hosting the clients, when the array has several clients per JVM
+  private final transient List<Client> jvms = new ArrayList<>();
   private final transient ClientArrayConfigurationContext clientArrayConfigurationContext;
   private boolean closed = false;
 
@@ -59,19 +75,138 @@ public class ClientArray implements AutoCloseable {
     this.clientInstanceIdSupplier = clientInstanceIdSupplier;
     this.executor = executor;
     this.localKitManager = new LocalKitManager(portAllocator, clientArrayConfigurationContext.getClientArrayTopology().getDistribution());
-    installAll();
+    try {
+      installAll();
+    } catch (RuntimeException e) {
+      // the array is not handed out: the clients which did start must be closed now
+      try {
+        uninstallAll();
+      } catch (RuntimeException uninstallError) {
+        e.addSuppressed(uninstallError);
+      }
+      throw e;
+    }
   }
 
+  /**
+   * Spawns the clients, or the JVMs hosting them when the array has several clients per JVM
+   */
   private void installAll() {
-    clientArrayConfigurationContext.getClientArrayTopology().getClientIds().forEach(this::install);
+    Collection<ClientId> clientIds = clientArrayConfigurationContext.getClientArrayTopology().getClientIds();
+    int clientsPerJvm = clientArrayConfigurationContext.getClientsPerJvm();
+    if (clientsPerJvm <= 1) {
+      Map<ClientId, InstanceId> instanceIds = new LinkedHashMap<>();
+      for (ClientId clientId : clientIds) {
+        instanceIds.put(clientId, clientInstanceIdSupplier.get());
+      }
+      spawnAll(instanceIds, this::install);
+      return;
+    }
+
+    // the clients of a host are split in groups of clientsPerJvm, and a JVM is spawned for each group, on behalf of its first client
+    Map<ClientId, List<ClientId>> groups = new LinkedHashMap<>();
+    Map<String, List<ClientId>> lastGroups = new HashMap<>();
+    for (ClientId clientId : clientIds) {
+      List<ClientId> group = lastGroups.get(clientId.getHostName());
+      if (group == null || group.size() == clientsPerJvm) {
+        group = new ArrayList<>();
+        lastGroups.put(clientId.getHostName(), group);
+        groups.put(clientId, group);
+      }
+      group.add(clientId);
+    }
+    Map<ClientId, InstanceId> instanceIds = new LinkedHashMap<>();
+    for (ClientId clientId : groups.keySet()) {
+      instanceIds.put(clientId, clientInstanceIdSupplier.get());
+    }
+    spawnAll(instanceIds, (firstClientId, jvm) -> {
+      jvms.add(jvm);
+      for (ClientId clientId : groups.get(firstClientId)) {
+        install(clientId, jvm.host(clientInstanceIdSupplier.get(), clientId));
+      }
+    });
   }
 
-  private Client install(ClientId clientId) {
-    final InstanceId clientInstanceId = clientInstanceIdSupplier.get();
+  /**
+   * Spawns the client JVMs concurrently, at most {@code angela.client.spawnParallelism} at a time and
+   * {@code angela.client.spawnParallelismPerHost} at a time on a same host.
+   * The classpath is uploaded once per host, for its first client, and linked from there for the other clients of the host.
+   */
+  private void spawnAll(Map<ClientId, InstanceId> instanceIds, BiConsumer<ClientId, Client> spawned) {
+    long start = System.nanoTime();
     final TerracottaCommandLineEnvironment environment = clientArrayConfigurationContext.getTerracottaCommandLineEnvironment();
-    Client client = Client.spawn(executor, clientInstanceId, clientId, clientArrayConfigurationContext, localKitManager, environment);
+    final List<Path> classpath = Client.prepareClasspath(clientArrayConfigurationContext, localKitManager, environment);
+
+    int parallelism = Math.min(instanceIds.size(), Integer.parseInt(CLIENT_SPAWN_PARALLELISM.getValue()));
+    if (parallelism <= 1) {
+      instanceIds.forEach((clientId, instanceId) -> spawned.accept(clientId, Client.spawn(executor, instanceId, clientId, environment,
+          parentAgentID -> executor.uploadClientJars(parentAgentID, instanceId, classpath))));
+      return;
+    }
+
+    AtomicInteger threads = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+      Thread thread = new Thread(r, "angela-client-spawn-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      // the uploads are submitted first so that no spawn can wait on an upload queued behind it
+      Map<String, Future<InstanceId>> uploads = new HashMap<>();
+      instanceIds.forEach((clientId, instanceId) -> uploads.computeIfAbsent(clientId.getHostName(), hostname -> pool.submit(() -> {
+        executor.uploadClientJars(executor.getAgentID(hostname), instanceId, classpath);
+        return instanceId;
+      })));
+
+      int parallelismPerHost = Integer.parseInt(CLIENT_SPAWN_PARALLELISM_PER_HOST.getValue());
+      Map<String, Semaphore> hostPermits = new HashMap<>();
+      Map<ClientId, Future<Client>> futures = new LinkedHashMap<>();
+      instanceIds.forEach((clientId, instanceId) -> {
+        Future<InstanceId> upload = uploads.get(clientId.getHostName());
+        Semaphore permits = hostPermits.computeIfAbsent(clientId.getHostName(), hostname -> new Semaphore(parallelismPerHost));
+        futures.put(clientId, pool.submit(() -> {
+          InstanceId classpathInstanceId = upload.get();
+          permits.acquire();
+          try {
+            return Client.spawn(executor, instanceId, clientId, environment, parentAgentID -> {
+              if (!classpathInstanceId.equals(instanceId)) {
+                executor.linkClientJars(parentAgentID, classpathInstanceId, instanceId);
+              }
+            });
+          } finally {
+            permits.release();
+          }
+        }));
+      });
+
+      RuntimeException failure = null;
+      for (Map.Entry<ClientId, Future<Client>> entry : futures.entrySet()) {
+        try {
+          spawned.accept(entry.getKey(), entry.getValue().get());
+        } catch (ExecutionException e) {
+          RuntimeException error = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+          if (failure == null) {
+            failure = error;
+          } else {
+            failure.addSuppressed(error);
+          }
+        }
+      }
+      if (failure != null) {
+        // the clients which did start are closed by the constructor
+        throw failure;
+      }
+      logger.info("Spawned: {} clients on: {} hosts in {} ms", futures.size(), uploads.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private void install(ClientId clientId, Client client) {
     clients.put(clientId, client);
-    return client;
   }
 
   private void uninstallAll() {
@@ -84,6 +219,14 @@ public class ClientArray implements AutoCloseable {
         exceptions.add(ioe);
       }
     }
+    for (Client jvm : jvms) {
+      try {
+        jvm.close();
+      } catch (Exception e) {
+        exceptions.add(e);
+      }
+    }
+    jvms.clear();
 
     if (!exceptions.isEmpty()) {
       RuntimeException ex = new RuntimeException("Error uninstalling some clients");
@@ -116,8 +259,20 @@ public class ClientArray implements AutoCloseable {
     List<Exception> exceptions = new ArrayList<>();
 
     for (ClientId clientId : clientArrayConfigurationContext.getClientArrayTopology().getClientIds()) {
+      Client client = clients.get(clientId);
+      if (client == null || client.isHosted()) {
+        // hosted clients are stopped with their JVM
+        continue;
+      }
+      try {
+        client.stop();
+      } catch (Exception e) {
+        exceptions.add(e);
+      }
+    }
+    for (Client jvm : jvms) {
       try {
-        stop(clientId);
+        jvm.stop();
       } catch (Exception e) {
         exceptions.add(e);
       }
@@ -160,7 +315,7 @@ public class ClientArray implements AutoCloseable {
   }
 
   public RemoteFolder browse(Client client, String remoteLocation) {
-    final InstanceId instanceId = client.getInstanceId();
+    final InstanceId instanceId = client.getJvmInstanceId();
     final AgentID agentID = executor.getAgentID(client.getHostName());
     final AgentExecutor agentExecutor = executor.forAgent(agentID);
     String clientWorkDir = agentExecutor.execute(() -> AgentController.getInstance().instanceWorkDir(instanceId));
@@ -33,6 +33,10 @@ import org.terracotta.angela.common.metrics.MonitoringCommand;
 import org.terracotta.angela.common.net.PortAllocator;
 import org.terracotta.angela.common.topology.InstanceId;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
@@ -44,9 +48,19 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
+import static org.terracotta.angela.common.AngelaProperties.REMOTE_AGENT_DEPLOY_JOB_CLASSES;
+import static org.terracotta.angela.common.AngelaProperties.REMOTE_AGENT_START_PARALLELISM;
+import static org.terracotta.angela.common.util.JavaBinaries.javaHome;
+import static org.terracotta.angela.common.util.JavaBinaries.jdkHome;
 
 public class ClusterFactory implements AutoCloseable {
   private static final Logger logger = LoggerFactory.getLogger(ClusterFactory.class);
@@ -87,12 +101,11 @@ public class ClusterFactory implements AutoCloseable {
     }
 
     // ensure agents are started on the configured hostnames
-    final List<AgentID> agentIDS = hostnames.stream()
+    final List<String> missing = hostnames.stream()
+        .distinct()
         .filter(hostname -> !executor.findAgentID(hostname).isPresent()) // no agent built for a hostname ?
-        .map(executor::startRemoteAgent) // then try spawn one
-        .filter(Optional::isPresent) //
-        .map(Optional::get)
         .collect(toList());
+    final List<AgentID> agentIDS = startRemoteAgents(missing); // then try spawn one
 
     if (!agentIDS.isEmpty()) {
       logger.info("Spawned agents: {}", agentIDS);
@@ -101,6 +114,83 @@ public class ClusterFactory implements AutoCloseable {
     return new InstanceId(idPrefix + "-" + instanceIndex.getAndIncrement(), type);
   }
 
+  /**
+   * Starts the remote agents of several hosts concurrently, at most {@code angela.remoteAgent.startParallelism} at a time
+   */
+  private List<AgentID> startRemoteAgents(List<String> hostnames) {
+    int parallelism = Math.min(hostnames.size(), Integer.parseInt(REMOTE_AGENT_START_PARALLELISM.getValue()));
+    if (parallelism <= 1) {
+      return hostnames.stream()
+          .map(this::startRemoteAgent)
+          .filter(Optional::isPresent)
+          .map(Optional::get)
+          .collect(toList());
+    }
+
+    long start = System.nanoTime();
+    AtomicInteger threads = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+      Thread thread = new Thread(r, "angela-agent-start-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<Optional<AgentID>>> futures = hostnames.stream()
+          .map(hostname -> pool.submit(() -> startRemoteAgent(hostname)))
+          .collect(toList());
+      List<AgentID> agentIDs = new ArrayList<>();
+      RuntimeException failure = null;
+      for (Future<Optional<AgentID>> future : futures) {
+        try {
+          future.get().ifPresent(agentIDs::add);
+        } catch (ExecutionException e) {
+          RuntimeException error = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+          if (failure == null) {
+            failure = error;
+          } else {
+            failure.addSuppressed(error);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      logger.info("Started agents on: {} hosts in {} ms", hostnames.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      return agentIDs;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private Optional<AgentID> startRemoteAgent(String hostname) {
+    long start = System.nanoTime();
+    Optional<AgentID> agentID = executor.startRemoteAgent(hostname);
+    if (agentID.isPresent()) {
+      logger.info("Agent: {} started on: {} in {} ms", agentID.get(), hostname, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      if (REMOTE_AGENT_DEPLOY_JOB_CLASSES.getBooleanValue()) {
+        start = System.nanoTime();
+        executor.deployJobClasses(agentID.get(), jobClasspath());
+        logger.info("Deployed job classes to agent: {} in {} ms", agentID.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    }
+    return agentID;
+  }
+
+  /**
+   * The classpath of the orchestrator, without the libraries of the JVM
+   */
+  private static List<Path> jobClasspath() {
+    String javaHome = jdkHome().orElse(javaHome()).toString();
+    return Stream.of(System.getProperty("java.class.path").split(File.pathSeparator))
+        .filter(entry -> !entry.isEmpty() && !entry.startsWith(javaHome))
+        .map(Paths::get)
+        .filter(Files::exists)
+        .collect(toList());
+  }
+
   public Cluster cluster() {
     return executor.getCluster();
   }
@@ -219,6 +309,15 @@ public class ClusterFactory implements AutoCloseable {
 
   @Override
   public void close() {
+    if (logger.isDebugEnabled()) {
+      for (AgentID agentID : executor.getGroup().getRemoteAgentIDs()) {
+        try {
+          logger.debug("Agent: {}: {}", agentID, executor.getClassLoadingStats(agentID));
+        } catch (RuntimeException e) {
+          logger.debug("Unable to get the class loading stats of agent: {}: {}", agentID, e.toString());
+        }
+      }
+    }
     boolean interrupt = false;
     for (AutoCloseable controller : controllers) {
       try {
@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import org.terracotta.angela.agent.AgentController;
 import org.terracotta.angela.agent.com.AgentExecutor;
 import org.terracotta.angela.agent.com.Executor;
+import org.terracotta.angela.agent.com.SharedObjects;
 import org.terracotta.angela.agent.kit.LocalKitManager;
 import org.terracotta.angela.client.config.ToolConfigurationContext;
 import org.terracotta.angela.client.filesystem.RemoteFolder;
@@ -76,10 +77,24 @@ public class ClusterTool implements AutoCloseable {
     return executor.execute(() -> AgentController.getInstance().clusterTool(instanceId, env, command));
   }
 
+  public List<ToolExecutionResult> executeCommands(List<String[]> commands) {
+    return executeCommands(Collections.emptyMap(), commands);
+  }
+
+  /**
+   * Executes the commands in order on the agent, in one round trip.
+   * The execution stops after the first command that fails.
+   *
+   * @return the results of the executed commands, in order
+   */
+  public List<ToolExecutionResult> executeCommands(Map<String, String> env, List<String[]> commands) {
+    logger.debug("Executing cluster-tool commands: {} on: {}", instanceId, executor.getTarget());
+    return executor.executeToolCommands(command -> AgentController.getInstance().clusterTool(instanceId, env, command), commands);
+  }
+
   public ClusterTool configure(Map<String, String> env) {
     TerracottaCommandLineEnvironment tcEnv = configContext.getCommandLineEnv();
     SecurityRootDirectory securityRootDirectory = configContext.getSecurityRootDirectory();
-    License license = tsa.getTsaConfigurationContext().getLicense();
     String clusterName = tsa.getTsaConfigurationContext().getClusterName();
     if (clusterName == null) {
       clusterName = instanceId.toString();
@@ -90,7 +105,9 @@ public class ClusterTool implements AutoCloseable {
 
     logger.debug("Executing config-tool configure: {} on: {}", instanceId, executor.getTarget());
 
-    ToolExecutionResult result = executor.execute(() -> AgentController.getInstance().configure(instanceId, topology, proxyTsaPorts, license, securityRootDirectory, tcEnv, env, command));
+    final SharedObjects.Ref<Topology> sharedTopology = tsa.shareTopology(executor.getTarget(), topology);
+    final SharedObjects.Ref<License> sharedLicense = tsa.shareLicense(executor.getTarget());
+    ToolExecutionResult result = executor.execute(() -> AgentController.getInstance().configure(instanceId, sharedTopology.copy(), proxyTsaPorts, sharedLicense.get(), securityRootDirectory, tcEnv, env, command));
     if (result.getExitStatus() != 0) {
       throw new IllegalStateException("Failed to execute cluster-tool configure:\n" + result);
     }
@@ -114,11 +131,15 @@ public class ClusterTool implements AutoCloseable {
 
     logger.info("Installing config-tool: {} on: {}", instanceId, executor.getTarget());
 
-    IgniteCallable<Boolean> callable = () -> AgentController.getInstance().installClusterTool(instanceId, hostName, distribution, license, kitInstallationName, securityRootDirectory, tcEnv, kitInstallationPath);
+    if (LocalKitManager.usesAgentKit(kitInstallationPath)) {
+      executor.syncKit(instanceId, distribution, kitInstallationName, localKitManager);
+    }
+    final SharedObjects.Ref<License> sharedLicense = tsa.shareLicense(executor.getTarget());
+    IgniteCallable<Boolean> callable = () -> AgentController.getInstance().installClusterTool(instanceId, hostName, distribution, sharedLicense.get(), kitInstallationName, securityRootDirectory, tcEnv, kitInstallationPath);
     boolean isRemoteInstallationSuccessful = executor.execute(callable);
     if (!isRemoteInstallationSuccessful && (kitInstallationPath == null || !KIT_COPY.getBooleanValue())) {
       try {
-        executor.uploadKit(instanceId, distribution, kitInstallationName, localKitManager.getKitInstallationPath());
+        executor.uploadKit(instanceId, distribution, kitInstallationName, localKitManager);
         executor.execute(callable);
       } catch (Exception e) {
         throw new RuntimeException("Cannot upload kit to " + hostName, e);
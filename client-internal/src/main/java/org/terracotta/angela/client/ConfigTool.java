@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 import org.terracotta.angela.agent.AgentController;
 import org.terracotta.angela.agent.com.AgentExecutor;
 import org.terracotta.angela.agent.com.Executor;
+import org.terracotta.angela.agent.com.SharedObjects;
 import org.terracotta.angela.agent.kit.LocalKitManager;
 import org.terracotta.angela.client.config.ToolConfigurationContext;
 import org.terracotta.angela.client.filesystem.RemoteFolder;
@@ -68,6 +69,21 @@ public class ConfigTool implements AutoCloseable {
     return executor.execute(() -> AgentController.getInstance().configTool(instanceId, env, arguments));
   }
 
+  public List<ToolExecutionResult> executeCommands(List<String[]> commands) {
+    return executeCommands(Collections.emptyMap(), commands);
+  }
+
+  /**
+   * Executes the commands in order on the agent, in one round trip.
+   * The execution stops after the first command that fails.
+   *
+   * @return the results of the executed commands, in order
+   */
+  public List<ToolExecutionResult> executeCommands(Map<String, String> env, List<String[]> commands) {
+    logger.debug("Executing config-tool commands: {} on: {}", instanceId, executor.getTarget());
+    return executor.executeToolCommands(command -> AgentController.getInstance().configTool(instanceId, env, command), commands);
+  }
+
   /**
    * Add a stripe as part of Dynamic Scale
    *
@@ -387,7 +403,6 @@ public class ConfigTool implements AutoCloseable {
   public ConfigTool activate(Map<String, String> env) {
     TerracottaCommandLineEnvironment tcEnv = configContext.getCommandLineEnv();
     SecurityRootDirectory securityRootDirectory = configContext.getSecurityRootDirectory();
-    License license = tsa.getTsaConfigurationContext().getLicense();
     TerracottaServer terracottaServer = tsa.getTsaConfigurationContext().getTopology().getServers().get(0);
     logger.info("Activating cluster from {}", terracottaServer.getHostName());
     String clusterName = tsa.getTsaConfigurationContext().getClusterName();
@@ -396,7 +411,8 @@ public class ConfigTool implements AutoCloseable {
     }
     List<String> args = new ArrayList<>(Arrays.asList("activate", "-n", clusterName, "-s", terracottaServer.getHostPort()));
     logger.debug("Executing config-tool activate: {} on: {}", instanceId, executor.getTarget());
-    ToolExecutionResult result = executor.execute(() -> AgentController.getInstance().activate(instanceId, license, securityRootDirectory, tcEnv, env, args));
+    final SharedObjects.Ref<License> sharedLicense = tsa.shareLicense(executor.getTarget());
+    ToolExecutionResult result = executor.execute(() -> AgentController.getInstance().activate(instanceId, sharedLicense.get(), securityRootDirectory, tcEnv, env, args));
     if (result.getExitStatus() != 0) {
       throw new IllegalStateException("Failed to execute config-tool activate:\n" + result);
     }
@@ -419,11 +435,15 @@ public class ConfigTool implements AutoCloseable {
     logger.info("Installing config-tool: {} on: {}", instanceId, executor.getTarget());
     final String hostName = configContext.getHostName();
     final String kitInstallationName = localKitManager.getKitInstallationName();
-    final IgniteCallable<Boolean> callable = () -> AgentController.getInstance().installConfigTool(instanceId, hostName, distribution, license, kitInstallationName, securityRootDirectory, tcEnv, kitInstallationPath);
+    if (LocalKitManager.usesAgentKit(kitInstallationPath)) {
+      executor.syncKit(instanceId, distribution, kitInstallationName, localKitManager);
+    }
+    final SharedObjects.Ref<License> sharedLicense = tsa.shareLicense(executor.getTarget());
+    final IgniteCallable<Boolean> callable = () -> AgentController.getInstance().installConfigTool(instanceId, hostName, distribution, sharedLicense.get(), kitInstallationName, securityRootDirectory, tcEnv, kitInstallationPath);
     boolean isRemoteInstallationSuccessful = executor.execute(callable);
     if (!isRemoteInstallationSuccessful && (kitInstallationPath == null || !KIT_COPY.getBooleanValue())) {
       try {
-        executor.uploadKit(instanceId, distribution, kitInstallationName, localKitManager.getKitInstallationPath());
+        executor.uploadKit(instanceId, distribution, kitInstallationName, localKitManager);
         executor.execute(callable);
       } catch (Exception e) {
         throw new RuntimeException("Cannot upload kit to " + hostName, e);
@@ -482,6 +502,7 @@ public class ConfigTool implements AutoCloseable {
             .getTopology()
             .getStripes()
             .get(stripeId - 1);
+    List<String[]> commands = new ArrayList<>(size);
     for (int j = 0; j < size; ++j) {
       TerracottaServer server = stripeServerList.get(j);
       Map<ServerSymbolicName, Integer> proxyGroupPortMapping = tsa.getProxyGroupPortsForServer(server);
@@ -502,7 +523,9 @@ public class ConfigTool implements AutoCloseable {
       propertyBuilder.deleteCharAt(propertyBuilder.lastIndexOf("#"));
       propertyBuilder.append("\"");
 
-      ToolExecutionResult executionResult = executeCommand("set", "-s", server.getHostPort(), "-c", propertyBuilder.toString());
+      commands.add(new String[]{"set", "-s", server.getHostPort(), "-c", propertyBuilder.toString()});
+    }
+    for (ToolExecutionResult executionResult : executeCommands(commands)) {
       if (executionResult.getExitStatus() != 0) {
         throw new RuntimeException("ConfigTool::executeCommand with command parameters failed with: " + executionResult);
       }
@@ -0,0 +1,199 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.angela.common.cluster.Cluster;
+import org.terracotta.angela.common.topology.InstanceId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs the jobs of the clients hosted by a client JVM, when a client array has several clients per JVM.
+ * <p>
+ * Each hosted client loads the classes of its jobs, and of the libraries they use, in its own class loader over the
+ * classpath of the JVM, so that their static state (e.g. their connections to the cluster) is isolated as if they had
+ * their own JVM. The JDK, Angela and logging classes are shared, so that a job gets the {@link Cluster} of its client.
+ */
+class LogicalClients {
+
+  private final static Logger logger = LoggerFactory.getLogger(LogicalClients.class);
+
+  private static final String[] SHARED_PACKAGES = {"java.", "javax.", "jdk.", "sun.", "com.sun.", "org.terracotta.angela.", "org.slf4j."};
+
+  private static final Map<InstanceId, ClientClassLoader> CLASS_LOADERS = new ConcurrentHashMap<>();
+
+  // orchestrator side
+
+  static byte[] serialize(ClientJob job) {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+      oos.writeObject(job);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return baos.toByteArray();
+  }
+
+  // client JVM side
+
+  static void run(InstanceId instanceId, byte[] job, Cluster cluster) throws Exception {
+    ClientClassLoader classLoader = CLASS_LOADERS.computeIfAbsent(instanceId, id -> {
+      logger.info("Creating the class loader of hosted client: {}", id);
+      return new ClientClassLoader(classpath(), LogicalClients.class.getClassLoader());
+    });
+    Thread thread = Thread.currentThread();
+    ClassLoader previous = thread.getContextClassLoader();
+    thread.setContextClassLoader(classLoader);
+    try {
+      ((ClientJob) deserialize(job, classLoader)).run(cluster);
+    } finally {
+      thread.setContextClassLoader(previous);
+    }
+  }
+
+  private static Object deserialize(byte[] bytes, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    try (ObjectInputStream ois = new ClassLoaderObjectInputStream(new ByteArrayInputStream(bytes), classLoader)) {
+      return ois.readObject();
+    }
+  }
+
+  private static URL[] classpath() {
+    List<URL> urls = new ArrayList<>();
+    for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      try {
+        urls.add(Paths.get(entry).toAbsolutePath().toUri().toURL());
+      } catch (MalformedURLException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return urls.toArray(new URL[0]);
+  }
+
+  private static boolean isShared(String name) {
+    for (String prefix : SHARED_PACKAGES) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Loads the classes from its own classpath first, except the shared ones, which are loaded by the class loader of the JVM
+   */
+  private static class ClientClassLoader extends URLClassLoader {
+    static {
+      ClassLoader.registerAsParallelCapable();
+    }
+
+    ClientClassLoader(URL[] urls, ClassLoader parent) {
+      super(urls, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (isShared(name)) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> c = findLoadedClass(name);
+        if (c == null) {
+          try {
+            c = findClass(name);
+          } catch (ClassNotFoundException e) {
+            return super.loadClass(name, resolve);
+          }
+        }
+        if (resolve) {
+          resolveClass(c);
+        }
+        return c;
+      }
+    }
+
+    @Override
+    public URL getResource(String name) {
+      URL url = isShared(name.replace('/', '.')) ? null : findResource(name);
+      return url != null ? url : super.getResource(name);
+    }
+
+    /**
+     * Lists its own resources first, like {@link #getResource(String)}, then the ones of the JVM it does not have
+     */
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+      if (isShared(name.replace('/', '.'))) {
+        return super.getResources(name);
+      }
+      Set<String> found = new HashSet<>();
+      List<URL> urls = new ArrayList<>();
+      for (Enumeration<URL> e = findResources(name); e.hasMoreElements(); ) {
+        URL url = e.nextElement();
+        if (found.add(url.toExternalForm())) {
+          urls.add(url);
+        }
+      }
+      for (Enumeration<URL> e = super.getResources(name); e.hasMoreElements(); ) {
+        URL url = e.nextElement();
+        if (found.add(url.toExternalForm())) {
+          urls.add(url);
+        }
+      }
+      return Collections.enumeration(urls);
+    }
+  }
+
+  private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+    private final ClassLoader classLoader;
+
+    ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+      super(in);
+      this.classLoader = classLoader;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      try {
+        return Class.forName(desc.getName(), false, classLoader);
+      } catch (ClassNotFoundException e) {
+        return super.resolveClass(desc);
+      }
+    }
+  }
+}
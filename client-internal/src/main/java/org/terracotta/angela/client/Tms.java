@@ -185,12 +185,15 @@ public class Tms implements AutoCloseable {
     localKitManager.setupLocalInstall(license, kitInstallationPath, OFFLINE.getBooleanValue(), tcEnv);
     final String kitInstallationName = localKitManager.getKitInstallationName();
 
+    if (LocalKitManager.usesAgentKit(kitInstallationPath)) {
+      executor.syncKit(agentID, instanceId, distribution, kitInstallationName, localKitManager);
+    }
     IgniteCallable<Boolean> callable = () -> AgentController.getInstance().installTms(instanceId, tmsHostname, distribution, license, tmsServerSecurityConfig, kitInstallationName, tcEnv, tmsHostname, kitInstallationPath);
     boolean isRemoteInstallationSuccessful = executor.execute(agentID, callable);
 
     if (!isRemoteInstallationSuccessful) {
       try {
-        executor.uploadKit(agentID, instanceId, distribution, kitInstallationName, localKitManager.getKitInstallationPath());
+        executor.uploadKit(agentID, instanceId, distribution, kitInstallationName, localKitManager);
         executor.execute(agentID, callable);
       } catch (Exception e) {
         throw new RuntimeException("Cannot upload kit to " + tmsHostname, e);
@@ -24,7 +24,10 @@ import org.terracotta.angela.agent.AgentController;
 import org.terracotta.angela.agent.com.AgentExecutor;
 import org.terracotta.angela.agent.com.AgentID;
 import org.terracotta.angela.agent.com.Executor;
+import org.terracotta.angela.agent.com.SharedObjects;
+import org.terracotta.angela.agent.com.TopologySharing;
 import org.terracotta.angela.agent.kit.LocalKitManager;
+import org.terracotta.angela.agent.kit.RemoteKitManager;
 import org.terracotta.angela.client.config.TsaConfigurationContext;
 import org.terracotta.angela.client.filesystem.RemoteFolder;
 import org.terracotta.angela.client.net.DisruptionController;
@@ -50,14 +53,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static java.util.EnumSet.of;
 import static org.terracotta.angela.client.config.TsaConfigurationContext.TerracottaCommandLineEnvironmentKeys.SERVER_START_PREFIX;
-import static org.terracotta.angela.common.AngelaProperties.KIT_COPY;
 import static org.terracotta.angela.common.AngelaProperties.KIT_INSTALLATION_DIR;
 import static org.terracotta.angela.common.AngelaProperties.KIT_INSTALLATION_PATH;
 import static org.terracotta.angela.common.AngelaProperties.OFFLINE;
@@ -123,6 +128,7 @@ public class Tsa implements AutoCloseable {
   void installAll() {
     Topology topology = tsaConfigurationContext.getTopology();
     ConfigurationManager configurationManager = topology.getConfigurationManager();
+    distributeKit(configurationManager.getServers());
     for (TerracottaServer terracottaServer : configurationManager.getServers()) {
       install(terracottaServer, topology);
     }
@@ -132,15 +138,44 @@ public class Tsa implements AutoCloseable {
     installWithKitManager(terracottaServer, topology, this.localKitManager);
   }
 
+  /**
+   * Uploads the kit at once to all the agents which do not have it yet, so that agents can relay it to each other,
+   * instead of uploading it to each agent in turn when installing the servers.
+   */
+  private void distributeKit(Collection<TerracottaServer> servers) {
+    String kitInstallationPath = getEitherOf(KIT_INSTALLATION_DIR, KIT_INSTALLATION_PATH);
+    if (servers.size() <= 1 || !LocalKitManager.usesAgentKit(kitInstallationPath)) {
+      // nothing to relay, or the provided kit installation is used in place
+      return;
+    }
+    Set<AgentID> agentIDs = servers.stream()
+        .map(TerracottaServer::getHostName)
+        .map(executor::getAgentID)
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+    if (agentIDs.size() <= 1) {
+      // nothing to relay: the kit will be uploaded if needed during the install
+      return;
+    }
+
+    checkNotInstalled(servers);
+    Distribution distribution = localKitManager.getDistribution();
+    localKitManager.setupLocalInstall(tsaConfigurationContext.getLicense(), kitInstallationPath, OFFLINE.getBooleanValue(), tsaConfigurationContext.getTerracottaCommandLineEnvironment("install"));
+    final String kitInstallationName = localKitManager.getKitInstallationName();
+    agentIDs.forEach(agentID -> executor.syncKit(agentID, instanceId, distribution, kitInstallationName, localKitManager));
+    List<AgentID> missingKit = agentIDs.stream()
+        .filter(agentID -> !executor.execute(agentID, () -> new RemoteKitManager(instanceId, distribution, kitInstallationName).isKitAvailable()))
+        .collect(Collectors.toList());
+    if (!missingKit.isEmpty()) {
+      logger.info("Distributing kit: {} to: {}", kitInstallationName, missingKit);
+      executor.uploadKit(missingKit, instanceId, distribution, kitInstallationName, localKitManager);
+    }
+  }
+
   private void installWithKitManager(TerracottaServer terracottaServer, Topology topology, LocalKitManager localKitManager) {
     // this is possible that a server gets dynamically added (DC use case)
     // so we need to ensure a port is allocated
     topology.init(portAllocator);
 
-    TerracottaServerState terracottaServerState = getState(terracottaServer);
-    if (terracottaServerState != TerracottaServerState.NOT_INSTALLED) {
-      throw new IllegalStateException("Cannot install: server " + terracottaServer.getServerSymbolicName() + " in state " + terracottaServerState);
-    }
     Distribution distribution = localKitManager.getDistribution();
 
     License license = tsaConfigurationContext.getLicense();
@@ -151,16 +186,22 @@ public class Tsa implements AutoCloseable {
     final AgentID agentID = executor.getAgentID(terracottaServer.getHostName());
 
     logger.info("Installing TSA: {} on: {}", instanceId, agentID);
+    // the agent keeps a private copy of the topology for the server
+    final SharedObjects.Ref<Topology> sharedTopology = shareTopology(agentID, topology);
+    final SharedObjects.Ref<License> sharedLicense = shareLicense(agentID);
 
-    if (kitInstallationPath == null || KIT_COPY.getBooleanValue()) {
+    if (LocalKitManager.usesAgentKit(kitInstallationPath)) {
       // "kitInstallationPath" is either not provided (=> kit download)
       // or it is provided but we specifically ask for a kit copy
-      final IgniteCallable<Boolean> installClosure = () -> AgentController.getInstance().installTsa(instanceId, terracottaServer, license, kitInstallationName, distribution, topology, null);
-      boolean isRemoteInstallationSuccessful = executor.execute(agentID, installClosure);
+      // the kit of an installed server must not be synced
+      checkNotInstalled(Collections.singletonList(terracottaServer));
+      executor.syncKit(agentID, instanceId, distribution, kitInstallationName, localKitManager);
+      final IgniteCallable<Boolean> installClosure = () -> AgentController.getInstance().installTsa(instanceId, terracottaServer, sharedLicense.get(), kitInstallationName, distribution, sharedTopology.copy(), null);
+      boolean isRemoteInstallationSuccessful = installIfNotInstalled(terracottaServer, agentID, installClosure);
       if (!isRemoteInstallationSuccessful) {
         try {
           logger.debug("Uploading: {} on: {}", distribution, agentID);
-          executor.uploadKit(agentID, instanceId, distribution, kitInstallationName, localKitManager.getKitInstallationPath());
+          executor.uploadKit(agentID, instanceId, distribution, kitInstallationName, localKitManager);
           executor.execute(agentID, installClosure);
         } catch (Exception e) {
           throw new RuntimeException("Cannot upload kit to " + terracottaServer.getHostName(), e);
@@ -169,10 +210,50 @@ public class Tsa implements AutoCloseable {
     } else {
       // We are trying to reuse the "kitInstallationPath" if provided (kitInstallationPath != null)
       // To end up here, KIT_COPY should be false
-      executor.execute(agentID, () -> AgentController.getInstance().installTsa(instanceId, terracottaServer, license, kitInstallationName, distribution, topology, kitInstallationPath));
+      installIfNotInstalled(terracottaServer, agentID, () -> AgentController.getInstance().installTsa(instanceId, terracottaServer, sharedLicense.get(), kitInstallationName, distribution, sharedTopology.copy(), kitInstallationPath));
     }
   }
 
+  /**
+   * Shares the topology with the agent, so that it is not serialized in every closure using it
+   */
+  SharedObjects.Ref<Topology> shareTopology(AgentID agentID, Topology topology) {
+    return SharedObjects.share(executor, agentID, instanceId + "/topology", topology, TopologySharing.INSTANCE);
+  }
+
+  SharedObjects.Ref<License> shareLicense(AgentID agentID) {
+    return SharedObjects.share(executor, agentID, instanceId + "/license", tsaConfigurationContext.getLicense(), SharedObjects.Sharing.immutable());
+  }
+
+  /**
+   * Fails if one of the servers is already installed, with one round trip per agent
+   */
+  private void checkNotInstalled(Collection<TerracottaServer> servers) {
+    Map<AgentID, List<TerracottaServer>> serversByAgent = servers.stream()
+        .collect(Collectors.groupingBy(server -> executor.getAgentID(server.getHostName()), LinkedHashMap::new, Collectors.toList()));
+    serversByAgent.forEach((agentID, agentServers) -> {
+      List<TerracottaServerState> states = executor.execute(agentID, () -> agentServers.stream()
+          .map(server -> AgentController.getInstance().getTsaState(instanceId, server))
+          .collect(Collectors.toList()));
+      for (int i = 0; i < agentServers.size(); i++) {
+        if (states.get(i) != TerracottaServerState.NOT_INSTALLED) {
+          throw new IllegalStateException("Cannot install: server " + agentServers.get(i).getServerSymbolicName() + " in state " + states.get(i));
+        }
+      }
+    });
+  }
+
+  private boolean installIfNotInstalled(TerracottaServer terracottaServer, AgentID agentID, IgniteCallable<Boolean> installClosure) {
+    List<Object> results = executor.forAgent(agentID).pipeline()
+        .then(() -> AgentController.getInstance().getTsaState(instanceId, terracottaServer), state -> state == TerracottaServerState.NOT_INSTALLED)
+        .then(installClosure)
+        .execute();
+    if (results.size() == 1) {
+      throw new IllegalStateException("Cannot install: server " + terracottaServer.getServerSymbolicName() + " in state " + results.get(0));
+    }
+    return (Boolean) results.get(1);
+  }
+
   public Tsa upgrade(TerracottaServer server, Distribution newDistribution) {
     logger.info("Upgrading TSA: {} to: {}", server, newDistribution);
     uninstall(server);
@@ -189,23 +270,25 @@ public class Tsa implements AutoCloseable {
   }
 
   private void uninstall(TerracottaServer terracottaServer) {
-    TerracottaServerState terracottaServerState = getState(terracottaServer);
-    if (terracottaServerState == null) {
-      return;
-    }
-    if (terracottaServerState != TerracottaServerState.STOPPED) {
-      throw new IllegalStateException("Cannot uninstall: server " + terracottaServer.getServerSymbolicName() + " in state " + terracottaServerState);
-    }
-
     String kitInstallationPath = getEitherOf(KIT_INSTALLATION_DIR, KIT_INSTALLATION_PATH);
     final AgentID agentID = executor.getAgentID(terracottaServer.getHostName());
     final Topology topology = tsaConfigurationContext.getTopology();
     final String kitInstallationName = localKitManager.getKitInstallationName();
 
-    logger.info("Uninstalling TSA: {} from: {}", instanceId, agentID);
-
-    IgniteRunnable uninstaller = () -> AgentController.getInstance().uninstallTsa(instanceId, topology, terracottaServer, kitInstallationName, kitInstallationPath);
-    executor.execute(agentID, uninstaller);
+    final SharedObjects.Ref<Topology> sharedTopology = shareTopology(agentID, topology);
+    IgniteRunnable uninstaller = () -> AgentController.getInstance().uninstallTsa(instanceId, sharedTopology.get(), terracottaServer, kitInstallationName, kitInstallationPath);
+    List<Object> results = executor.forAgent(agentID).pipeline()
+        .then(() -> AgentController.getInstance().getTsaState(instanceId, terracottaServer), state -> state == STOPPED)
+        .then(uninstaller)
+        .execute();
+    TerracottaServerState terracottaServerState = (TerracottaServerState) results.get(0);
+    if (terracottaServerState == null) {
+      return;
+    }
+    if (terracottaServerState != STOPPED) {
+      throw new IllegalStateException("Cannot uninstall: server " + terracottaServer.getServerSymbolicName() + " in state " + terracottaServerState);
+    }
+    logger.info("Uninstalled TSA: {} from: {}", instanceId, agentID);
   }
 
   public Tsa createAll(String... startUpArgs) {
@@ -230,7 +313,17 @@ public class Tsa implements AutoCloseable {
   }
 
   public Tsa create(TerracottaServer terracottaServer, Map<String, String> envOverrides, String... startUpArgs) {
-    TerracottaServerState terracottaServerState = getState(terracottaServer);
+    final AgentID agentID = executor.getAgentID(terracottaServer.getHostName());
+    String whatFor = SERVER_START_PREFIX + terracottaServer.getServerSymbolicName().getSymbolicName();
+    TerracottaCommandLineEnvironment cliEnv = tsaConfigurationContext.getTerracottaCommandLineEnvironment(whatFor);
+    Duration inactivityKillerDelay = tsaConfigurationContext.getInactivityKillerDelay();
+    IgniteRunnable tsaCreator = () -> AgentController.getInstance().createTsa(instanceId, terracottaServer, cliEnv, envOverrides, Arrays.asList(startUpArgs), inactivityKillerDelay);
+    // the server is only created if it is stopped, which is checked on the agent to save a round trip
+    List<Object> results = executor.forAgent(agentID).pipeline()
+        .then(() -> AgentController.getInstance().getTsaState(instanceId, terracottaServer), state -> state == STOPPED)
+        .then(tsaCreator)
+        .execute();
+    TerracottaServerState terracottaServerState = (TerracottaServerState) results.get(0);
     switch (terracottaServerState) {
       case STARTING:
       case STARTED_AS_ACTIVE:
@@ -238,13 +331,7 @@ public class Tsa implements AutoCloseable {
       case STARTED_IN_DIAGNOSTIC_MODE:
         return this;
       case STOPPED:
-        final AgentID agentID = executor.getAgentID(terracottaServer.getHostName());
-        logger.info("Creating TSA: {} on: {}", instanceId, agentID);
-        String whatFor = SERVER_START_PREFIX + terracottaServer.getServerSymbolicName().getSymbolicName();
-        TerracottaCommandLineEnvironment cliEnv = tsaConfigurationContext.getTerracottaCommandLineEnvironment(whatFor);
-        Duration inactivityKillerDelay = tsaConfigurationContext.getInactivityKillerDelay();
-        IgniteRunnable tsaCreator = () -> AgentController.getInstance().createTsa(instanceId, terracottaServer, cliEnv, envOverrides, Arrays.asList(startUpArgs), inactivityKillerDelay);
-        executor.execute(agentID, tsaCreator);
+        logger.info("Created TSA: {} on: {}", instanceId, agentID);
         return this;
     }
     throw new IllegalStateException("Cannot create: server " + terracottaServer.getServerSymbolicName() + " in state " + terracottaServerState);
@@ -313,13 +400,14 @@ public class Tsa implements AutoCloseable {
   }
 
   public Tsa stop(TerracottaServer terracottaServer) {
-    TerracottaServerState terracottaServerState = getState(terracottaServer);
-    if (terracottaServerState == STOPPED) {
-      return this;
-    }
     final AgentID agentID = executor.getAgentID(terracottaServer.getHostName());
-    logger.info("Stopping TSA: {} on: {}", instanceId, agentID);
-    executor.execute(agentID, () -> AgentController.getInstance().stopTsa(instanceId, terracottaServer));
+    List<Object> results = executor.forAgent(agentID).pipeline()
+        .then(() -> AgentController.getInstance().getTsaState(instanceId, terracottaServer), state -> state != STOPPED)
+        .then(() -> AgentController.getInstance().stopTsa(instanceId, terracottaServer))
+        .execute();
+    if (results.size() > 1) {
+      logger.info("Stopped TSA: {} on: {}", instanceId, agentID);
+    }
     return this;
   }
 
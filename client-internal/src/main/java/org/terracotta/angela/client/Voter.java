@@ -161,10 +161,14 @@ public class Voter implements AutoCloseable {
 
     logger.info("Installing Voter: {} on: {}", instanceId, agentID);
 
+    if (LocalKitManager.usesAgentKit(kitInstallationPath)) {
+      executor.syncKit(agentID, instanceId, distribution, kitInstallationName, localKitManager);
+    }
+
     boolean isRemoteInstallationSuccessful = executor.execute(agentID, callable);
     if (!isRemoteInstallationSuccessful && (kitInstallationPath == null || !KIT_COPY.getBooleanValue())) {
       try {
-        executor.uploadKit(agentID, instanceId, distribution, kitInstallationName, localKitManager.getKitInstallationPath());
+        executor.uploadKit(agentID, instanceId, distribution, kitInstallationName, localKitManager);
         executor.execute(agentID, callable);
       } catch (Exception e) {
         throw new RuntimeException("Cannot upload kit to " + terracottaVoter.getHostName(), e);
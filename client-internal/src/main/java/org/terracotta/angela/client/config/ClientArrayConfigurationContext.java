@@ -26,4 +26,11 @@ public interface ClientArrayConfigurationContext {
   License getLicense();
 
   TerracottaCommandLineEnvironment getTerracottaCommandLineEnvironment();
+
+  /**
+   * @return the maximum number of clients of a same host hosted by a same JVM, each in its own class loader
+   */
+  default int getClientsPerJvm() {
+    return 1;
+  }
 }
@@ -25,6 +25,7 @@ public class CustomClientArrayConfigurationContext implements ClientArrayConfigu
   private ClientArrayTopology clientArrayTopology;
   private License license;
   private TerracottaCommandLineEnvironment terracottaCommandLineEnvironment = TerracottaCommandLineEnvironment.DEFAULT;
+  private int clientsPerJvm = 1;
 
   protected CustomClientArrayConfigurationContext() {
   }
@@ -58,4 +59,22 @@ public class CustomClientArrayConfigurationContext implements ClientArrayConfigu
     this.terracottaCommandLineEnvironment = terracottaCommandLineEnvironment;
     return this;
   }
+
+  @Override
+  public int getClientsPerJvm() {
+    return clientsPerJvm;
+  }
+
+  /**
+   * Hosts up to {@code clientsPerJvm} clients of a same host in a same JVM, instead of spawning a JVM per client.
+   * Each client runs its jobs in its own class loader, so that the libraries it uses are isolated from the other clients
+   * of the JVM, while the JVM startup and memory costs are shared. Such clients cannot be stopped one by one.
+   */
+  public CustomClientArrayConfigurationContext clientsPerJvm(int clientsPerJvm) {
+    if (clientsPerJvm < 1) {
+      throw new IllegalArgumentException("clientsPerJvm must be at least 1: " + clientsPerJvm);
+    }
+    this.clientsPerJvm = clientsPerJvm;
+    return this;
+  }
 }
@@ -18,21 +18,29 @@ package org.terracotta.angela.client.filesystem;
 
 import org.terracotta.angela.agent.AgentController;
 import org.terracotta.angela.agent.com.AgentExecutor;
+import org.terracotta.angela.agent.com.FileMetadata;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Optional;
 
 public class RemoteFile {
   protected final transient AgentExecutor agentExecutor;
   protected final String parentName;
   protected final String name;
+  protected final FileMetadata metadata;
 
   public RemoteFile(AgentExecutor agentExecutor, String parentName, String name) {
+    this(agentExecutor, parentName, name, null);
+  }
+
+  RemoteFile(AgentExecutor agentExecutor, String parentName, String name, FileMetadata metadata) {
     this.agentExecutor = agentExecutor;
     this.parentName = parentName;
     this.name = name;
+    this.metadata = metadata;
   }
 
   public String getName() {
@@ -46,6 +54,13 @@ public class RemoteFile {
     return parentName + "/" + name;
   }
 
+  /**
+   * @return the size, modification time and optional hash of the file, if it was obtained by listing a {@link RemoteFolder}
+   */
+  public Optional<FileMetadata> getMetadata() {
+    return Optional.ofNullable(metadata);
+  }
+
   public boolean isFolder() {
     return this instanceof RemoteFolder;
   }
@@ -18,48 +18,125 @@ package org.terracotta.angela.client.filesystem;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.apache.commons.io.IOUtils;
-import org.apache.ignite.IgniteException;
 import org.terracotta.angela.agent.AgentController;
 import org.terracotta.angela.agent.com.AgentExecutor;
+import org.terracotta.angela.agent.com.FileMetadata;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.UncheckedIOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.stream.Collectors.toList;
+import static org.terracotta.angela.common.AngelaProperties.BROWSE_CACHE_TTL;
+import static org.terracotta.angela.common.AngelaProperties.FILE_TRANSFER_COMPRESS;
 
 public class RemoteFolder extends RemoteFile {
 
+  // shared by a folder and the sub-folders it returns: refreshing any of them invalidates the trees listed by all of them
+  private final AtomicLong epoch;
+  // tree listed from this folder, shared with the sub-folders it returns, so browsing a tree can be a single remote call
+  private List<FileMetadata> tree;
+  private boolean treeHashes;
+  private int treeDepth;
+  private long treeTimestamp;
+  private long treeEpoch;
+
   public RemoteFolder(AgentExecutor agentExecutor, String parentName, String name) {
     super(agentExecutor, parentName, name);
+    this.epoch = new AtomicLong();
   }
 
-  public List<RemoteFile> list() {
-    String absoluteName = getAbsoluteName();
-    List<String> remoteFiles = agentExecutor.execute(() -> AgentController.getInstance().listFiles(absoluteName));
-    List<String> remoteFolders = agentExecutor.execute(() -> AgentController.getInstance().listFolders(absoluteName));
+  private RemoteFolder(AgentExecutor agentExecutor, String parentName, String name, FileMetadata metadata, AtomicLong epoch,
+                       List<FileMetadata> tree, boolean treeHashes, int treeDepth, long treeTimestamp, long treeEpoch) {
+    super(agentExecutor, parentName, name, metadata);
+    this.epoch = epoch;
+    this.tree = tree;
+    this.treeHashes = treeHashes;
+    this.treeDepth = treeDepth;
+    this.treeTimestamp = treeTimestamp;
+    this.treeEpoch = treeEpoch;
+  }
 
+  /**
+   * @return the files, then the folders, directly contained in this folder
+   */
+  public List<RemoteFile> list() {
+    List<FileMetadata> tree = getTree(1, false);
     List<RemoteFile> result = new ArrayList<>();
-    result.addAll(remoteFiles.stream()
-        .map(s -> new RemoteFile(agentExecutor, getAbsoluteName(), s))
+    result.addAll(tree.stream()
+        .filter(metadata -> !metadata.isFolder() && metadata.getParentPath().isEmpty())
+        .map(metadata -> toRemoteFile(tree, metadata))
         .collect(toList()));
-    result.addAll(remoteFolders.stream()
-        .map(s -> new RemoteFolder(agentExecutor, getAbsoluteName(), s))
+    result.addAll(tree.stream()
+        .filter(metadata -> metadata.isFolder() && metadata.getParentPath().isEmpty())
+        .map(metadata -> toRemoteFile(tree, metadata))
         .collect(toList()));
     return result;
   }
 
+  /**
+   * @return all the files and folders under this folder, recursively, with their metadata
+   */
+  public List<RemoteFile> listTree() {
+    return listTree(false);
+  }
+
+  /**
+   * @param withHashes true to also get the SHA-256 of the files, which requires the agent to read them
+   * @return all the files and folders under this folder, recursively, with their metadata
+   */
+  public List<RemoteFile> listTree(boolean withHashes) {
+    List<FileMetadata> tree = getTree(Integer.MAX_VALUE, withHashes);
+    return tree.stream().map(metadata -> toRemoteFile(tree, metadata)).collect(toList());
+  }
+
+  /**
+   * Forgets the trees listed from this folder, its parent folders and its sub-folders,
+   * so the next listing reflects the changes made on the agent
+   */
+  public synchronized void refresh() {
+    epoch.incrementAndGet();
+    tree = null;
+  }
+
+  private synchronized List<FileMetadata> getTree(int depth, boolean withHashes) {
+    long ttl = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(BROWSE_CACHE_TTL.getValue()));
+    if (tree == null || treeEpoch != epoch.get() || treeDepth < depth || (withHashes && !treeHashes) || System.nanoTime() - treeTimestamp >= ttl) {
+      String absoluteName = getAbsoluteName();
+      // read before listing, so that a refresh during the listing is not missed
+      treeEpoch = epoch.get();
+      tree = agentExecutor.execute(() -> AgentController.getInstance().listTree(absoluteName, depth, withHashes));
+      treeHashes = withHashes;
+      treeDepth = depth;
+      treeTimestamp = System.nanoTime();
+    }
+    return tree;
+  }
+
+  private RemoteFile toRemoteFile(List<FileMetadata> tree, FileMetadata metadata) {
+    String parentPath = metadata.getParentPath();
+    String parentName = parentPath.isEmpty() ? getAbsoluteName() : getAbsoluteName() + "/" + parentPath;
+    if (!metadata.isFolder()) {
+      return new RemoteFile(agentExecutor, parentName, metadata.getName(), metadata);
+    }
+    String prefix = metadata.getRelativePath() + "/";
+    List<FileMetadata> subTree = tree.stream()
+        .filter(child -> child.getRelativePath().startsWith(prefix))
+        .map(child -> new FileMetadata(child.getRelativePath().substring(prefix.length()), child.isFolder(), child.getSize(), child.getLastModified(), child.getSha256().orElse(null)))
+        .collect(toList());
+    synchronized (this) {
+      int subTreeDepth = treeDepth == Integer.MAX_VALUE ? treeDepth : treeDepth - 1;
+      return new RemoteFolder(agentExecutor, parentName, metadata.getName(), metadata, epoch, subTree, treeHashes, subTreeDepth, treeTimestamp, treeEpoch);
+    }
+  }
+
   public void upload(File localFile) throws IOException {
     upload(localFile.toPath());
   }
@@ -75,23 +152,13 @@ public class RemoteFolder extends RemoteFile {
     }
   }
 
-  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
   private void uploadFolder(String parentName, Path folder) throws IOException {
-    try (Stream<Path> stream = Files.list(folder)) {
-      stream.forEach(f -> {
-        try {
-          String currentName = parentName + "/" + f.getFileName();
-          if (Files.isDirectory(f)) {
-            uploadFolder(currentName, f);
-          } else {
-            try (InputStream fis = Files.newInputStream(f)) {
-              upload(currentName, fis);
-            }
-          }
-        } catch (IOException e) {
-          throw new UncheckedIOException(e);
-        }
-      });
+    String foldername = getAbsoluteName() + "/" + parentName;
+    try {
+      agentExecutor.uploadFolder(folder, foldername);
+      refresh();
+    } catch (RuntimeException e) {
+      throw new IOException("Error uploading local folder '" + folder + "' into remote folder '" + foldername + "'", e);
     }
   }
 
@@ -105,34 +172,16 @@ public class RemoteFolder extends RemoteFile {
     byte[] data = IOUtils.toByteArray(localStream);
     String filename = getAbsoluteName() + "/" + remoteFilename;
     agentExecutor.execute(() -> AgentController.getInstance().uploadFile(filename, data));
+    refresh();
   }
 
-  @SuppressFBWarnings({"RV_RETURN_VALUE_IGNORED_BAD_PRACTICE", "NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE"})
   @Override
   public void downloadTo(Path localPath) throws IOException {
     String foldername = getAbsoluteName();
-    byte[] bytes;
     try {
-      bytes = agentExecutor.execute(() -> AgentController.getInstance().downloadFolder(foldername));
-    } catch (IgniteException ie) {
-      throw new IOException("Error downloading remote folder '" + foldername + "' into local folder '" + localPath + "'", ie);
-    }
-
-    Files.createDirectories(localPath);
-
-    try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bytes))) {
-      while (true) {
-        ZipEntry nextEntry = zis.getNextEntry();
-        if (nextEntry == null) {
-          break;
-        }
-        String name = nextEntry.getName();
-        Path file = localPath.resolve(name);
-        Files.createDirectories(file.getParent());
-        try (OutputStream fos = Files.newOutputStream(file)) {
-          IOUtils.copy(zis, fos);
-        }
-      }
+      agentExecutor.downloadFolder(foldername, localPath, FILE_TRANSFER_COMPRESS.getBooleanValue());
+    } catch (RuntimeException e) {
+      throw new IOException("Error downloading remote folder '" + foldername + "' into local folder '" + localPath + "'", e);
     }
   }
 
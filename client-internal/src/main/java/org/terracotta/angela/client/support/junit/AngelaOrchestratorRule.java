@@ -19,6 +19,7 @@ package org.terracotta.angela.client.support.junit;
 import org.junit.runner.Description;
 import org.terracotta.angela.agent.com.Executor;
 import org.terracotta.angela.agent.com.IgniteSshRemoteExecutor;
+import org.terracotta.angela.agent.com.RpcSshRemoteExecutor;
 import org.terracotta.angela.client.AngelaOrchestrator;
 import org.terracotta.angela.client.ClusterFactory;
 import org.terracotta.angela.client.config.ConfigurationContext;
@@ -67,6 +68,21 @@ public class AngelaOrchestratorRule extends ExtendedTestRule {
     return this;
   }
 
+  public AngelaOrchestratorRule rpcRemote() {
+    builder = builder.rpcRemote();
+    return this;
+  }
+
+  public AngelaOrchestratorRule rpcRemote(Consumer<RpcSshRemoteExecutor> configurator) {
+    builder = builder.rpcRemote(configurator);
+    return this;
+  }
+
+  public AngelaOrchestratorRule rpcLocal() {
+    builder = builder.rpcLocal();
+    return this;
+  }
+
   public AngelaOrchestrator getAngelaOrchestrator() {
     if (angelaOrchestrator == null) {
       throw new IllegalStateException("Not initialized");
@@ -0,0 +1,116 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.client.filesystem;
+
+import org.apache.ignite.lang.IgniteCallable;
+import org.junit.After;
+import org.junit.Test;
+import org.terracotta.angela.agent.com.AgentExecutor;
+import org.terracotta.angela.agent.com.FileMetadata;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.terracotta.angela.common.AngelaProperties.BROWSE_CACHE_TTL;
+
+public class RemoteFolderTest {
+
+  private final List<FileMetadata> tree = Arrays.asList(
+      new FileMetadata("logs", true, 0, 1000, null),
+      new FileMetadata("logs/server.log", false, 42, 2000, null),
+      new FileMetadata("logs/old", true, 0, 3000, null),
+      new FileMetadata("logs/old/server-1.log", false, 7, 4000, null),
+      new FileMetadata("tc-config.xml", false, 12, 5000, null));
+
+  @After
+  public void tearDown() {
+    System.clearProperty(BROWSE_CACHE_TTL.getPropertyName());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testBrowsingListedTreeIsSingleRemoteCall() {
+    System.setProperty(BROWSE_CACHE_TTL.getPropertyName(), "60000");
+    AgentExecutor agentExecutor = mock(AgentExecutor.class);
+    when(agentExecutor.execute(any(IgniteCallable.class))).thenReturn(tree);
+
+    RemoteFolder root = new RemoteFolder(agentExecutor, null, "work");
+    assertEquals(5, root.listTree().size());
+    List<RemoteFile> children = root.list();
+    assertEquals(Arrays.asList("tc-config.xml", "logs"), children.stream().map(RemoteFile::getName).collect(toList()));
+    assertEquals(12, children.get(0).getMetadata().get().getSize());
+
+    RemoteFolder logs = (RemoteFolder) children.get(1);
+    assertEquals("work/logs", logs.getAbsoluteName());
+    List<RemoteFile> logFiles = logs.list();
+    assertEquals(Arrays.asList("server.log", "old"), logFiles.stream().map(RemoteFile::getName).collect(toList()));
+
+    RemoteFile oldLog = ((RemoteFolder) logFiles.get(1)).list().get(0);
+    assertEquals("work/logs/old/server-1.log", oldLog.getAbsoluteName());
+    assertEquals(4000, oldLog.getMetadata().get().getLastModified());
+
+    verify(agentExecutor, times(1)).execute(any(IgniteCallable.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testListingIsNotCachedByDefault() {
+    AgentExecutor agentExecutor = mock(AgentExecutor.class);
+    when(agentExecutor.execute(any(IgniteCallable.class))).thenReturn(tree);
+
+    RemoteFolder root = new RemoteFolder(agentExecutor, null, "work");
+    assertEquals(2, root.list().size());
+    assertEquals(2, root.list().size());
+    verify(agentExecutor, times(2)).execute(any(IgniteCallable.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testListTreeAndRefresh() {
+    System.setProperty(BROWSE_CACHE_TTL.getPropertyName(), "60000");
+    AgentExecutor agentExecutor = mock(AgentExecutor.class);
+    when(agentExecutor.execute(any(IgniteCallable.class))).thenReturn(tree);
+
+    RemoteFolder root = new RemoteFolder(agentExecutor, null, "work");
+    List<RemoteFile> all = root.listTree();
+    assertEquals(5, all.size());
+    assertTrue(all.get(2).isFolder());
+    assertEquals("work/logs/old", all.get(2).getAbsoluteName());
+
+    root.refresh();
+    root.list();
+    verify(agentExecutor, times(2)).execute(any(IgniteCallable.class));
+
+    // refreshing a sub-folder also invalidates the tree of its parent, and the other way around
+    RemoteFolder logs = (RemoteFolder) root.listTree().get(0);
+    verify(agentExecutor, times(3)).execute(any(IgniteCallable.class));
+    logs.refresh();
+    root.list();
+    verify(agentExecutor, times(4)).execute(any(IgniteCallable.class));
+    root.refresh();
+    logs.list();
+    verify(agentExecutor, times(5)).execute(any(IgniteCallable.class));
+  }
+}
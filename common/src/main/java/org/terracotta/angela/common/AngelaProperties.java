@@ -52,6 +52,10 @@ public enum AngelaProperties {
   // For some testing, it is possible ot fake some local hostnames.
   ADDED_LOCAL_HOSTNAMES("angela.additionalLocalHostnames", ""),
 
+  // address of the interface the sockets opened by angela (RPC hub, agent daemon, data channels) listen on.
+  // Defaults to the address of the local host name, or to all the interfaces if it is a loopback address
+  BIND_ADDRESS("angela.bindAddress", ""),
+
   // do not clean work directory (used to have access to logs after end of test for debugging test issues)
   SKIP_UNINSTALL("angela.skipUninstall", "false"),
 
@@ -59,11 +63,77 @@ public enum AngelaProperties {
   // that changes files in the kit install (e.g. tmc.properties)
   KIT_COPY("angela.kitCopy", "false"),
 
+  // when a kit has to be uploaded to a remote agent, upload its installer archive and extract it remotely
+  // instead of uploading the extracted kit file by file
+  KIT_UPLOAD_ARCHIVE("angela.kit.uploadArchive", "true"),
+
+  // when a kit has to be uploaded to several remote agents, the agents which already received it relay it to the others
+  KIT_UPLOAD_RELAY("angela.kit.uploadRelay", "true"),
+
+  // when a SNAPSHOT kit is already installed on a remote agent, only send the changes to bring it up to date with the local one
+  KIT_UPLOAD_DELTA("angela.kit.uploadDelta", "true"),
+
+  // maximum time, in seconds, to wait for a spawned process (server, TMS, voter, client agent) to be ready
+  PROCESS_READY_TIMEOUT("angela.process.readyTimeout", "600"),
+
+  // Cluster primitives properties
+  // interval, in milliseconds, at which each JVM flushes the counts accumulated locally by its striped counters
+  STRIPED_COUNTER_FLUSH_INTERVAL("angela.cluster.stripedCounter.flushInterval", "100"),
+  // number of counts accumulated locally by a striped counter which triggers a flush before the interval elapses
+  STRIPED_COUNTER_FLUSH_THRESHOLD("angela.cluster.stripedCounter.flushThreshold", "100000"),
+
+  // client array properties
+  // maximum number of clients of a client array spawned at the same time
+  CLIENT_SPAWN_PARALLELISM("angela.client.spawnParallelism", "64"),
+  // maximum number of clients of a client array spawned at the same time on a same host
+  CLIENT_SPAWN_PARALLELISM_PER_HOST("angela.client.spawnParallelismPerHost", "16"),
+  // number of client JVMs each agent keeps started ahead of time, per classpath, to hand them out to the next clients
+  // spawned with that classpath instead of starting new JVMs. 0 disables the pool
+  CLIENT_WARM_POOL_SIZE("angela.client.warmPoolSize", "0"),
+
+  // Ignite-free executor properties
+  // maximum number of jobs running concurrently per agent in a platform thread pool. Other jobs wait for a thread
+  IGNITE_FREE_MAX_THREADS("angela.igniteFree.maxThreads", "256"),
+  // run the jobs of the Ignite-free executor in virtual threads instead, when the JVM supports them (Java 21+)
+  IGNITE_FREE_VIRTUAL_THREADS("angela.igniteFree.virtualThreads", "true"),
+
+  // RPC executor properties
+  // class of the codec encoding the jobs sent between the orchestrator and its agents. It is passed to the spawned agents
+  RPC_CODEC("angela.rpc.codec", "org.terracotta.angela.agent.com.JavaSerializationCodec"),
+  // lease warm agent daemons on the remote hosts instead of spawning a remote agent per orchestrator. A daemon is started
+  // on the hosts which do not have one yet, and stays up between orchestrator sessions
+  RPC_DAEMON("angela.rpc.daemon", "false"),
+  // port the agent daemons listen on for leases
+  RPC_DAEMON_PORT("angela.rpc.daemon.port", "40900"),
+  // how long, in seconds, an agent daemon waits for a lease before exiting
+  RPC_DAEMON_IDLE_TIMEOUT("angela.rpc.daemon.idleTimeout", "3600"),
+  // secret the agent daemons require in the lease requests. Defaults to a random secret kept in the root directory
+  RPC_DAEMON_SECRET("angela.rpc.daemon.secret", ""),
+
   // ssh properties
   SSH_USERNAME("angela.ssh.userName", System.getProperty("user.name")),
   SSH_USERNAME_KEY_PATH("angela.ssh.userName.keyPath", null),
   SSH_STRICT_HOST_CHECKING("angela.ssh.strictHostKeyChecking", "true"),
   SSH_PORT("angela.ssh.port", "22"),
+  // maximum number of hosts on which remote agents are started at the same time
+  REMOTE_AGENT_START_PARALLELISM("angela.remoteAgent.startParallelism", "8"),
+  // add the classpath of the orchestrator to the remote agents when they are started, instead of loading the classes of the jobs lazily
+  REMOTE_AGENT_DEPLOY_JOB_CLASSES("angela.remoteAgent.deployJobClasses", "true"),
+
+  // file transfer properties
+  // size of the chunks that files are split into when uploaded to or downloaded from an agent
+  FILE_TRANSFER_CHUNK_SIZE("angela.fileTransfer.chunkSize", String.valueOf(1024 * 1024)),
+  // maximum number of chunks queued between the sender and the receiver, which bounds the memory used by a transfer
+  FILE_TRANSFER_MAX_IN_FLIGHT_CHUNKS("angela.fileTransfer.maxInFlightChunks", "16"),
+  // stream files through a direct TCP connection between the sender and the receiver instead of the Ignite queue
+  FILE_TRANSFER_DATA_CHANNEL("angela.fileTransfer.dataChannel", "true"),
+  // deflate the chunks of the folders downloaded from agents (e.g. logs), which trades CPU for bandwidth
+  FILE_TRANSFER_COMPRESS("angela.fileTransfer.compress", "false"),
+  // number of times a kit transfer is resumed after a failure before giving up
+  FILE_TRANSFER_RETRIES("angela.fileTransfer.retries", "3"),
+
+  // how long, in milliseconds, the tree listed by a remote folder is reused for browsing its sub-folders. 0 disables the cache
+  BROWSE_CACHE_TTL("angela.browse.cacheTtl", "0"),
 
   // logging properties
   TMS_FULL_LOGGING("angela.tms.fullLogging", "false"),
@@ -64,6 +64,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -95,6 +96,7 @@ public class Distribution102Controller extends DistributionController {
     Map<String, String> env = tcEnv.buildEnv(envOverrides);
     AtomicReference<TerracottaServerState> stateRef = new AtomicReference<>(TerracottaServerState.STOPPED);
     AtomicInteger javaPid = new AtomicInteger(-1);
+    CompletableFuture<Void> pidReady = new CompletableFuture<>();
 
     TriggeringOutputStream serverLogOutputStream = TriggeringOutputStream
         .triggerOn(
@@ -110,6 +112,7 @@ public class Distribution102Controller extends DistributionController {
             compile("^.*PID is (\\d+).*$"), mr -> {
               javaPid.set(parseInt(mr.group(1)));
               stateRef.compareAndSet(TerracottaServerState.STOPPED, TerracottaServerState.STARTING);
+              pidReady.complete(null);
             });
     serverLogOutputStream = tsaFullLogging ?
         serverLogOutputStream.andForward(line -> ExternalLoggers.tsaLogger.info("[{}] {}", terracottaServer.getServerSymbolicName().getSymbolicName(), line)) :
@@ -125,15 +128,7 @@ public class Distribution102Controller extends DistributionController {
         stateRef,
         TerracottaServerState.STOPPED);
 
-    while (javaPid.get() == -1 && watchedProcess.isAlive()) {
-      try {
-        Thread.sleep(100);
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    }
-
-    if (!watchedProcess.isAlive()) {
+    if (!watchedProcess.awaitReady(pidReady, javaPid)) {
       throw new RuntimeException("Terracotta server process died in its infancy : " + terracottaServer.getServerSymbolicName());
     }
 
@@ -213,14 +208,22 @@ public class Distribution102Controller extends DistributionController {
 
     AtomicReference<TerracottaManagementServerState> stateRef = new AtomicReference<>(TerracottaManagementServerState.STOPPED);
     AtomicInteger javaPid = new AtomicInteger(-1);
+    CompletableFuture<Void> pidReady = new CompletableFuture<>();
+    CompletableFuture<Void> started = new CompletableFuture<>();
 
     TriggeringOutputStream outputStream = TriggeringOutputStream
         .triggerOn(
             compile("^.*\\Qstarted on port\\E.*$"),
-            mr -> stateRef.set(TerracottaManagementServerState.STARTED))
+            mr -> {
+              stateRef.set(TerracottaManagementServerState.STARTED);
+              started.complete(null);
+            })
         .andTriggerOn(
             compile("^.*\\QStarting TmsApplication\\E.*with PID (\\d+).*$"),
-            mr -> javaPid.set(parseInt(mr.group(1))));
+            mr -> {
+              javaPid.set(parseInt(mr.group(1)));
+              pidReady.complete(null);
+            });
     outputStream = tmsFullLogging ?
         outputStream.andForward(ExternalLoggers.tmsLogger::info) :
         outputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> ExternalLoggers.tmsLogger.info(mr.group()));
@@ -232,14 +235,7 @@ public class Distribution102Controller extends DistributionController {
         .redirectErrorStream(true)
         .redirectOutput(outputStream), stateRef, TerracottaManagementServerState.STOPPED);
 
-    while ((javaPid.get() == -1 || stateRef.get() == TerracottaManagementServerState.STOPPED) && watchedProcess.isAlive()) {
-      try {
-        Thread.sleep(100);
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    }
-    if (!watchedProcess.isAlive()) {
+    if (!watchedProcess.awaitReady(CompletableFuture.allOf(pidReady, started), javaPid)) {
       throw new RuntimeException("TMS process died before reaching STARTED state");
     }
 
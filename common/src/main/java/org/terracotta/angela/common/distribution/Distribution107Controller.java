@@ -62,6 +62,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -94,6 +95,7 @@ public class Distribution107Controller extends DistributionController {
     Map<String, String> env = tcEnv.buildEnv(envOverrides);
     AtomicReference<TerracottaServerState> stateRef = new AtomicReference<>(TerracottaServerState.STOPPED);
     AtomicInteger javaPid = new AtomicInteger(-1);
+    CompletableFuture<Void> pidReady = new CompletableFuture<>();
 
     TriggeringOutputStream serverLogOutputStream = TriggeringOutputStream
         .triggerOn(
@@ -113,6 +115,7 @@ public class Distribution107Controller extends DistributionController {
             mr -> {
               javaPid.set(parseInt(mr.group(1)));
               stateRef.compareAndSet(TerracottaServerState.STOPPED, TerracottaServerState.STARTING);
+              pidReady.complete(null);
             });
 
     final AtomicReference<OutputStream> stdout = new AtomicReference<>();
@@ -148,15 +151,7 @@ public class Distribution107Controller extends DistributionController {
 
     activityTracker.start();
 
-    while (javaPid.get() == -1 && watchedProcess.isAlive()) {
-      try {
-        Thread.sleep(100);
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    }
-
-    if (!watchedProcess.isAlive()) {
+    if (!watchedProcess.awaitReady(pidReady, javaPid)) {
       throw new RuntimeException("Terracotta server process died in its infancy : " + terracottaServer.getServerSymbolicName());
     }
     final TerracottaServerHandle handle = new TerracottaServerHandle() {
@@ -227,14 +222,22 @@ public class Distribution107Controller extends DistributionController {
 
     AtomicReference<TerracottaManagementServerState> stateRef = new AtomicReference<>(TerracottaManagementServerState.STOPPED);
     AtomicInteger javaPid = new AtomicInteger(-1);
+    CompletableFuture<Void> pidReady = new CompletableFuture<>();
+    CompletableFuture<Void> started = new CompletableFuture<>();
 
     TriggeringOutputStream outputStream = TriggeringOutputStream
         .triggerOn(
             compile("^.*\\Qstarted on port\\E.*$"),
-            mr -> stateRef.set(TerracottaManagementServerState.STARTED))
+            mr -> {
+              stateRef.set(TerracottaManagementServerState.STARTED);
+              started.complete(null);
+            })
         .andTriggerOn(
             compile("^.*\\QStarting TmsApplication\\E.*with PID (\\d+).*$"),
-            mr -> javaPid.set(parseInt(mr.group(1))));
+            mr -> {
+              javaPid.set(parseInt(mr.group(1)));
+              pidReady.complete(null);
+            });
     outputStream = tmsFullLogging ?
         outputStream.andForward(ExternalLoggers.tmsLogger::info) :
         outputStream.andTriggerOn(compile("^.*(WARN|ERROR).*$"), mr -> ExternalLoggers.tmsLogger.info(mr.group()));
@@ -246,14 +249,7 @@ public class Distribution107Controller extends DistributionController {
         .redirectErrorStream(true)
         .redirectOutput(outputStream), stateRef, TerracottaManagementServerState.STOPPED);
 
-    while ((javaPid.get() == -1 || stateRef.get() == TerracottaManagementServerState.STOPPED) && watchedProcess.isAlive()) {
-      try {
-        Thread.sleep(100);
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    }
-    if (!watchedProcess.isAlive()) {
+    if (!watchedProcess.awaitReady(CompletableFuture.allOf(pidReady, started), javaPid)) {
       throw new RuntimeException("TMS process died before reaching STARTED state");
     }
 
@@ -283,6 +279,7 @@ public class Distribution107Controller extends DistributionController {
 
     AtomicReference<TerracottaVoterState> stateRef = new AtomicReference<>(TerracottaVoterState.STOPPED);
     AtomicInteger javaPid = new AtomicInteger(-1);
+    CompletableFuture<Void> pidReady = new CompletableFuture<>();
 
     TriggeringOutputStream outputStream = TriggeringOutputStream
         .triggerOn(
@@ -290,6 +287,7 @@ public class Distribution107Controller extends DistributionController {
             mr -> {
               javaPid.set(parseInt(mr.group(1)));
               stateRef.compareAndSet(TerracottaVoterState.STOPPED, TerracottaVoterState.STARTED);
+              pidReady.complete(null);
             })
         .andTriggerOn(
             compile("^.*\\QVote owner state: ACTIVE-COORDINATOR\\E.*$"),
@@ -307,14 +305,7 @@ public class Distribution107Controller extends DistributionController {
         stateRef,
         TerracottaVoterState.STOPPED);
 
-    while ((javaPid.get() == -1 || stateRef.get() == TerracottaVoterState.STOPPED) && watchedProcess.isAlive()) {
-      try {
-        Thread.sleep(100);
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
-    }
-    if (!watchedProcess.isAlive()) {
+    if (!watchedProcess.awaitReady(pidReady, javaPid)) {
       throw new RuntimeException("Voter process died before reaching STARTED state");
     }
 
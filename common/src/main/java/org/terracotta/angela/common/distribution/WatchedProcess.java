@@ -16,13 +16,20 @@
  */
 package org.terracotta.angela.common.distribution;
 
+import org.terracotta.angela.common.util.ProcessReadiness;
 import org.zeroturnaround.exec.ProcessExecutor;
 import org.zeroturnaround.exec.ProcessResult;
 import org.zeroturnaround.exec.StartedProcess;
 import org.zeroturnaround.exec.listener.ProcessListener;
 import org.zeroturnaround.process.PidUtil;
+import org.zeroturnaround.process.Processes;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 
@@ -30,17 +37,20 @@ class WatchedProcess<S extends Enum<S>> {
 
   private final StartedProcess startedProcess;
   private final int pid;
+  private final CompletableFuture<Void> exited = new CompletableFuture<>();
 
   public WatchedProcess(ProcessExecutor processExecutor, final AtomicReference<S> stateRef, final S deadState) {
     processExecutor.addListener(new ProcessListener() {
       @Override
       public void afterFinish(Process process, ProcessResult result) {
         stateRef.set(deadState);
+        exited.complete(null);
       }
 
       @Override
       public void afterStop(Process process) {
         stateRef.set(deadState);
+        exited.complete(null);
       }
     });
 
@@ -52,6 +62,43 @@ class WatchedProcess<S extends Enum<S>> {
     this.pid = PidUtil.getPid(startedProcess.getProcess());
   }
 
+  /**
+   * Waits until {@code ready} is completed, usually by a trigger on the output of the process, or until the process exits.
+   * The process is destroyed if it is not ready in time, with the java process it has started if its PID is known.
+   *
+   * @param javaPid the PID of the java process started by the process, or -1 if it is not known yet
+   * @return false if the process exited before being ready
+   */
+  public boolean awaitReady(CompletableFuture<?> ready, AtomicInteger javaPid) {
+    Duration timeout = ProcessReadiness.defaultTimeout();
+    try {
+      return ProcessReadiness.await(ready, exited, timeout);
+    } catch (InterruptedException e) {
+      destroy(javaPid.get());
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (TimeoutException e) {
+      destroy(javaPid.get());
+      throw new RuntimeException("Process with PID " + pid + " is not ready after " + timeout, e);
+    }
+  }
+
+  private void destroy(int javaPid) {
+    Process process = startedProcess.getProcess();
+    try {
+      if (javaPid > 0) {
+        Processes.newPidProcess(javaPid).destroyForcefully();
+      }
+      process.destroyForcibly();
+      process.waitFor(10, TimeUnit.SECONDS);
+    } catch (IOException e) {
+      process.destroyForcibly();
+    } catch (InterruptedException e) {
+      process.destroyForcibly();
+      Thread.currentThread().interrupt();
+    }
+  }
+
   public boolean isAlive() {
     return startedProcess.getProcess().isAlive();
   }
@@ -17,12 +17,17 @@
 package org.terracotta.angela.common.util;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.CopyOption;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
@@ -97,6 +102,31 @@ public class FileUtils {
     }
   }
 
+  /**
+   * Recreates the tree of a folder in another one, hard-linking the files instead of copying them when possible.
+   * The files must then be replaced, not modified in place, to not change the source tree.
+   */
+  public static void linkTree(Path src, Path dest) {
+    try (Stream<Path> walk = Files.walk(src)) {
+      for (Path source : (Iterable<Path>) walk::iterator) {
+        Path target = dest.resolve(src.relativize(source).toString());
+        if (Files.isSymbolicLink(source)) {
+          Files.createSymbolicLink(target, Files.readSymbolicLink(source));
+        } else if (Files.isDirectory(source)) {
+          Files.createDirectories(target);
+        } else {
+          try {
+            Files.createLink(target, source);
+          } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   public static void deleteTree(Path file) {
     try {
       org.terracotta.utilities.io.Files.deleteTree(file);
@@ -104,4 +134,29 @@ public class FileUtils {
       throw new UncheckedIOException(e);
     }
   }
+
+  /**
+   * @return the SHA-256 of the content of the file, in lowercase hex
+   */
+  public static String sha256(Path file) {
+    MessageDigest messageDigest;
+    try {
+      messageDigest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    try (InputStream in = new DigestInputStream(Files.newInputStream(file), messageDigest)) {
+      byte[] buffer = new byte[64 * 1024];
+      while (in.read(buffer) != -1) {
+        // digest is computed while reading
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    StringBuilder sb = new StringBuilder(64);
+    for (byte b : messageDigest.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
 }
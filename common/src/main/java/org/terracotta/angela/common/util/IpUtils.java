@@ -69,4 +69,24 @@ public class IpUtils {
   public static String getHostName() {
     return LOCAL_HOSTNAME;
   }
+
+  /**
+   * The address the listening sockets bind to: the one of {@link AngelaProperties#BIND_ADDRESS} if set, otherwise the one
+   * of the local host name, which the other hosts connect to.
+   *
+   * @return the address, or null to listen on all the interfaces when the local host name resolves to a loopback address,
+   * which the other hosts could not connect to
+   */
+  public static InetAddress getBindAddress() {
+    String configured = AngelaProperties.BIND_ADDRESS.getValue();
+    try {
+      if (configured != null && !configured.isEmpty()) {
+        return InetAddress.getByName(configured);
+      }
+      InetAddress address = InetAddress.getByName(LOCAL_HOSTNAME);
+      return address.isLoopbackAddress() ? null : address;
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException("Unable to resolve the bind address: " + (configured == null || configured.isEmpty() ? LOCAL_HOSTNAME : configured), e);
+    }
+  }
 }
@@ -20,21 +20,31 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import static org.terracotta.angela.common.util.FileUtils.setCorrectPermissions;
 
 public class KitUtils {
   public static void extractZip(Path kitInstaller, Path kitDest) {
-    try (ArchiveInputStream archiveIs = new ZipArchiveInputStream(new BufferedInputStream(Files.newInputStream(kitInstaller)))) {
+    try (ArchiveInputStream<?> archiveIs = new ZipArchiveInputStream(new BufferedInputStream(Files.newInputStream(kitInstaller)))) {
       extractArchive(archiveIs, kitDest);
     } catch (IOException ioe) {
       ioe.printStackTrace();
@@ -43,8 +53,91 @@ public class KitUtils {
     setCorrectPermissions(kitDest);
   }
 
+  /**
+   * Extracts a zip kit using several threads, each of them reading its share of the entries through its own
+   * random-access {@link ZipFile}.
+   */
+  public static void extractZip(Path kitInstaller, Path kitDest, int parallelism) {
+    List<String> names = new ArrayList<>();
+    try (ZipFile zipFile = ZipFile.builder().setPath(kitInstaller).get()) {
+      for (ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+        if (!entry.isDirectory()) {
+          names.add(entry.getName());
+        }
+      }
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Error when extracting installer package", ioe);
+    }
+
+    int threads = Math.max(1, Math.min(parallelism, names.size()));
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> futures = new ArrayList<>(threads);
+      for (int i = 0; i < threads; i++) {
+        List<String> share = names.subList(names.size() * i / threads, names.size() * (i + 1) / threads);
+        futures.add(executorService.submit(() -> {
+          try (ZipFile zipFile = ZipFile.builder().setPath(kitInstaller).get()) {
+            for (String name : share) {
+              Path pathEntryOutput = resolveEntry(kitDest, name);
+              Files.createDirectories(pathEntryOutput.getParent());
+              try (InputStream is = zipFile.getInputStream(zipFile.getEntry(name))) {
+                Files.copy(is, pathEntryOutput);
+              }
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw new UncheckedIOException("Error when extracting installer package", (IOException) cause);
+      }
+      throw new RuntimeException("Error when extracting installer package", cause);
+    } finally {
+      executorService.shutdownNow();
+    }
+    setCorrectPermissions(kitDest);
+  }
+
+  /**
+   * Extracts a kit archive (zip or tar.gz) depending on its file name.
+   * Zip archives are extracted in parallel. Tar.gz archives can only be read sequentially.
+   */
+  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+  public static void extract(Path kitInstaller, Path kitDest, int parallelism) {
+    String name = kitInstaller.getFileName().toString();
+    if (name.endsWith(".zip")) {
+      extractZip(kitInstaller, kitDest, parallelism);
+    } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+      extractTarGz(kitInstaller, kitDest);
+    } else {
+      throw new IllegalArgumentException("Unsupported kit archive: " + kitInstaller);
+    }
+  }
+
+  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+  public static boolean isSupportedArchive(Path kitInstaller) {
+    String name = kitInstaller.getFileName().toString();
+    return name.endsWith(".zip") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+  }
+
+  private static Path resolveEntry(Path kitDest, String name) throws IOException {
+    Path pathEntryOutput = kitDest.resolve(name).normalize();
+    if (!pathEntryOutput.startsWith(kitDest.normalize())) {
+      throw new IOException("Archive entry is outside of the target directory: " + name);
+    }
+    return pathEntryOutput;
+  }
+
   @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
-  public static void extractArchive(ArchiveInputStream archiveIs, Path pathOutput) throws IOException {
+  public static void extractArchive(ArchiveInputStream<?> archiveIs, Path pathOutput) throws IOException {
     while (true) {
       ArchiveEntry archiveEntry = archiveIs.getNextEntry();
       if (archiveEntry == null) {
@@ -63,7 +156,7 @@ public class KitUtils {
   }
 
   public static void extractTarGz(Path kitInstaller, Path kitDest) {
-    try (ArchiveInputStream archiveIs = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(Files
+    try (ArchiveInputStream<?> archiveIs = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(Files
         .newInputStream(kitInstaller))))) {
       extractArchive(archiveIs, kitDest);
     } catch (IOException ioe) {
@@ -0,0 +1,50 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.common.util;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.terracotta.angela.common.AngelaProperties.PROCESS_READY_TIMEOUT;
+
+/**
+ * Waits for a spawned process to be ready without polling: the readiness future is completed by a trigger on the
+ * output of the process, and the exit future by the termination of the process, whichever comes first wakes up the caller.
+ */
+public class ProcessReadiness {
+
+  public static Duration defaultTimeout() {
+    return Duration.ofSeconds(Long.parseLong(PROCESS_READY_TIMEOUT.getValue()));
+  }
+
+  /**
+   * @return true if the process is ready, false if it exited before being ready
+   * @throws TimeoutException if the process is neither ready nor exited after the timeout
+   */
+  public static boolean await(CompletableFuture<?> ready, CompletableFuture<?> exited, Duration timeout) throws InterruptedException, TimeoutException {
+    try {
+      CompletableFuture.anyOf(ready, exited).get(timeout.toMillis(), MILLISECONDS);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failure while waiting for the process to be ready", e.getCause());
+    }
+    // a process can print its readiness and exit right after: being ready wins
+    return ready.isDone() && !ready.isCompletedExceptionally();
+  }
+}
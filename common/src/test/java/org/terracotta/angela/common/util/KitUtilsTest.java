@@ -0,0 +1,80 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.common.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class KitUtilsTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testExtractZipInParallel() throws IOException {
+    Path zip = tmp.getRoot().toPath().resolve("kit.zip");
+    try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+      zos.putNextEntry(new ZipEntry("kit/"));
+      zos.closeEntry();
+      for (int i = 0; i < 50; i++) {
+        zos.putNextEntry(new ZipEntry("kit/lib/dir" + (i % 5) + "/file" + i + ".txt"));
+        zos.write(("content" + i).getBytes(UTF_8));
+        zos.closeEntry();
+      }
+    }
+
+    Path dest = tmp.newFolder("dest").toPath();
+    KitUtils.extract(zip, dest, 4);
+
+    for (int i = 0; i < 50; i++) {
+      Path file = dest.resolve("kit/lib/dir" + (i % 5) + "/file" + i + ".txt");
+      assertEquals("content" + i, new String(Files.readAllBytes(file), UTF_8));
+    }
+  }
+
+  @Test
+  public void testExtractZipRejectsEntriesOutsideOfDestination() throws IOException {
+    Path zip = tmp.getRoot().toPath().resolve("kit.zip");
+    try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+      zos.putNextEntry(new ZipEntry("../evil.txt"));
+      zos.write("evil".getBytes(UTF_8));
+      zos.closeEntry();
+    }
+
+    Path dest = tmp.newFolder("dest").toPath();
+    try {
+      KitUtils.extract(zip, dest, 2);
+      fail();
+    } catch (UncheckedIOException e) {
+      // expected
+    }
+    assertFalse(Files.exists(dest.resolve("../evil.txt")));
+  }
+}
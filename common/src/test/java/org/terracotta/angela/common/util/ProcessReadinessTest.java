@@ -0,0 +1,56 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.common.util;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessReadinessTest {
+  @Test
+  public void testReady() throws Exception {
+    CompletableFuture<Void> ready = new CompletableFuture<>();
+    CompletableFuture<Void> exited = new CompletableFuture<>();
+    CompletableFuture.runAsync(() -> ready.complete(null));
+    assertTrue(ProcessReadiness.await(ready, exited, Duration.ofSeconds(10)));
+  }
+
+  @Test
+  public void testExitedBeforeReady() throws Exception {
+    CompletableFuture<Void> ready = new CompletableFuture<>();
+    CompletableFuture<Void> exited = new CompletableFuture<>();
+    CompletableFuture.runAsync(() -> exited.complete(null));
+    assertFalse(ProcessReadiness.await(ready, exited, Duration.ofSeconds(10)));
+  }
+
+  @Test
+  public void testReadyThenExited() throws Exception {
+    CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
+    CompletableFuture<Void> exited = CompletableFuture.completedFuture(null);
+    assertTrue(ProcessReadiness.await(ready, exited, Duration.ofSeconds(10)));
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void testTimeout() throws Exception {
+    ProcessReadiness.await(new CompletableFuture<>(), new CompletableFuture<>(), Duration.ofMillis(10));
+  }
+}
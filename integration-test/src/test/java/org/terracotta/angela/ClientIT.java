@@ -17,6 +17,7 @@
 package org.terracotta.angela;
 
 import org.junit.Test;
+import org.terracotta.angela.agent.com.AgentID;
 import org.terracotta.angela.client.Client;
 import org.terracotta.angela.client.ClientArray;
 import org.terracotta.angela.client.ClientArrayFuture;
@@ -38,6 +39,7 @@ import org.terracotta.angela.common.topology.LicenseType;
 import org.terracotta.angela.common.topology.PackageType;
 import org.terracotta.angela.common.topology.Topology;
 import org.terracotta.angela.util.Versions;
+import org.terracotta.hostedclient.StaticStateJob;
 
 import java.io.File;
 import java.io.IOException;
@@ -57,6 +59,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.Thread.sleep;
+import static java.util.stream.Collectors.toSet;
 import static org.hamcrest.CoreMatchers.anyOf;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -568,6 +571,41 @@ public class ClientIT extends BaseIT {
     }
   }
 
+  @Test
+  public void testClientsHostedInSameJvm() throws Exception {
+    assumeFalse("Cannot run without Ignite when using client jobs", agentID.isLocal());
+
+    ConfigurationContext configContext = customConfigurationContext()
+        .clientArray(clientArray -> clientArray
+            .clientArrayTopology(new ClientArrayTopology(newClientArrayConfig().hostSerie(2, hostname)))
+            .clientsPerJvm(2));
+
+    try (ClusterFactory factory = angelaOrchestrator.newClusterFactory("ClientTest::testClientsHostedInSameJvm", configContext)) {
+      try (ClientArray clientArray = factory.clientArray(0)) {
+        Set<AgentID> jvms = clientArray.getClients().stream().map(Client::getClientAgentID).collect(toSet());
+        assertThat(clientArray.getClients().size(), is(2));
+        assertThat(jvms.size(), is(1));
+
+        // each client loads the job in its own class loader, and keeps it for its next jobs
+        clientArray.executeOnAll(new StaticStateJob()).get();
+        clientArray.executeOnAll(new StaticStateJob()).get();
+
+        Cluster cluster = factory.cluster();
+        assertThat(cluster.atomicCounter("StaticStateJob::runs::1", 0L).get(), is(2L));
+        assertThat(cluster.atomicCounter("StaticStateJob::runs::2", 0L).get(), is(2L));
+        assertThat(cluster.atomicCounter("StaticStateJob::runs::3", 0L).get(), is(0L));
+
+        Client client = clientArray.getClients().iterator().next();
+        try {
+          client.stop();
+          fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+          // expected: a hosted client is stopped with its JVM
+        }
+      }
+    }
+  }
+
   @Test
   public void testClientArrayHostNames() throws Exception {
     assumeFalse("Cannot run without Ignite when using client jobs", agentID.isLocal());
@@ -31,9 +31,16 @@ import org.zeroturnaround.process.PidUtil;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Arrays.asList;
@@ -114,6 +121,22 @@ public class IgniteFreeExecutorIT {
     assertEquals(4, executor.executeAsync(AgentID.local(), (IgniteCallable<? extends Object>) () -> counter.incrementAndGet()).get());
   }
 
+  @Test
+  public void testExecuteConcurrently() throws Exception {
+    int jobs = 16;
+    CyclicBarrier barrier = new CyclicBarrier(jobs);
+    List<Future<Integer>> futures = new ArrayList<>();
+    for (int i = 0; i < jobs; i++) {
+      // a job can only complete once all the jobs are running
+      futures.add(executor.executeAsync(AgentID.local(), (IgniteCallable<Integer>) () -> barrier.await(10, TimeUnit.SECONDS)));
+    }
+    Set<Integer> arrivals = new HashSet<>();
+    for (Future<Integer> future : futures) {
+      arrivals.add(future.get());
+    }
+    assertEquals(jobs, arrivals.size());
+  }
+
   @Test
   public void testUploadFiles() throws IOException {
     initFiles();
@@ -139,6 +162,24 @@ public class IgniteFreeExecutorIT {
     assertTrue(Files.exists(Paths.get("target/download/files/sub/three.txt")));
   }
 
+  @Test
+  public void testDownloadFolder() throws IOException {
+    initFiles();
+
+    executor.downloadFolder(executor.getLocalAgentID(), Paths.get("target", "files").toAbsolutePath().toString(), Paths.get("target", "folder"), true);
+    assertTrue(Files.exists(Paths.get("target/folder/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/folder/sub/three.txt")));
+  }
+
+  @Test
+  public void testUploadFolder() throws IOException {
+    initFiles();
+
+    executor.uploadFolder(executor.getLocalAgentID(), Paths.get("target", "files"), Paths.get("target", "uploaded").toAbsolutePath().toString());
+    assertTrue(Files.exists(Paths.get("target/uploaded/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/uploaded/sub/three.txt")));
+  }
+
   @Test
   public void testUploadClientJars() throws IOException {
     initFiles();
@@ -165,8 +206,8 @@ public class IgniteFreeExecutorIT {
     assertEquals(0, executor.getFileTransferQueue(instanceId).size());
     executor.uploadKit(AgentID.local(), instanceId, distribution, "ehcache-clustered-3.9.9-kit", Paths.get("target", "files"));
     assertEquals(0, executor.getFileTransferQueue(instanceId).size());
-    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/files/two.txt")));
-    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/files/sub/three.txt")));
+    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/ehcache-clustered-3.9.9-kit/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/ehcache-clustered-3.9.9-kit/sub/three.txt")));
   }
 
   private static final AtomicInteger counter = new AtomicInteger();
@@ -23,7 +23,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.terracotta.angela.agent.Agent;
 import org.terracotta.angela.common.cluster.AtomicCounter;
+import org.terracotta.angela.common.cluster.Barrier;
 import org.terracotta.angela.common.cluster.Cluster;
+import org.terracotta.angela.common.cluster.StripedCounter;
 import org.terracotta.angela.common.distribution.Distribution;
 import org.terracotta.angela.common.net.DefaultPortAllocator;
 import org.terracotta.angela.common.net.PortAllocator;
@@ -34,15 +36,18 @@ import org.zeroturnaround.process.PidUtil;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.terracotta.angela.common.AngelaProperties.FILE_TRANSFER_DATA_CHANNEL;
 import static org.terracotta.angela.common.distribution.Distribution.distribution;
 import static org.terracotta.angela.common.topology.LicenseType.TERRACOTTA_OS;
 import static org.terracotta.angela.common.topology.PackageType.KIT;
@@ -151,12 +156,35 @@ public class IgniteLocalExecutorIT {
     }
   }
 
+  @SuppressWarnings("Convert2MethodRef")
+  @Test
+  public void testPipeline() {
+    try (Agent agent2 = Agent.ignite(agent.getGroupId(), "client-1", portAllocator, executor.getGroup().getPeerAddresses())) {
+      AgentExecutor agentExecutor = executor.forAgent(agent2.getAgentID());
+      List<Object> results = agentExecutor.pipeline()
+          .then(() -> counter.incrementAndGet())
+          .then((IgniteRunnable) () -> counter.incrementAndGet())
+          .then(() -> counter.incrementAndGet(), value -> value < 3)
+          .then(() -> counter.incrementAndGet())
+          .execute();
+      // the pipeline stopped after the 3rd job
+      assertEquals(asList(1, null, 3), results);
+      assertEquals(3, counter.get());
+    }
+  }
+
   @Test
   public void testUploadFiles() throws IOException {
     initFiles();
 
     InstanceId instanceId = new InstanceId("foo", "client");
-    executor.uploadFiles(instanceId, asList(Paths.get("target", "one.txt"), Paths.get("target", "files")), CompletableFuture.completedFuture(null));
+    // no receiver is running: the files have to be queued instead of being offered through a data channel
+    System.setProperty(FILE_TRANSFER_DATA_CHANNEL.getPropertyName(), "false");
+    try {
+      executor.uploadFiles(instanceId, asList(Paths.get("target", "one.txt"), Paths.get("target", "files")), CompletableFuture.completedFuture(null));
+    } finally {
+      System.clearProperty(FILE_TRANSFER_DATA_CHANNEL.getPropertyName());
+    }
     assertEquals(4, executor.getFileTransferQueue(instanceId).size());
   }
 
@@ -176,6 +204,24 @@ public class IgniteLocalExecutorIT {
     assertTrue(Files.exists(Paths.get("target/download/files/sub/three.txt")));
   }
 
+  @Test
+  public void testDownloadFolder() throws IOException {
+    initFiles();
+
+    executor.downloadFolder(agentID, Paths.get("target", "files").toAbsolutePath().toString(), Paths.get("target", "folder"), true);
+    assertTrue(Files.exists(Paths.get("target/folder/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/folder/sub/three.txt")));
+  }
+
+  @Test
+  public void testUploadFolder() throws IOException {
+    initFiles();
+
+    executor.uploadFolder(agentID, Paths.get("target", "files"), Paths.get("target", "uploaded").toAbsolutePath().toString());
+    assertTrue(Files.exists(Paths.get("target/uploaded/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/uploaded/sub/three.txt")));
+  }
+
   @Test
   public void testUploadClientJars() throws IOException {
     initFiles();
@@ -210,8 +256,69 @@ public class IgniteLocalExecutorIT {
     }
 
     assertEquals(0, executor.getFileTransferQueue(instanceId).size());
-    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/files/two.txt")));
-    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/files/sub/three.txt")));
+    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/ehcache-clustered-3.9.9-kit/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/ehcache-clustered-3.9.9-kit/sub/three.txt")));
+  }
+
+  @Test
+  public void testCyclicBarrier() throws Exception {
+    int rounds = 20;
+    Cluster cluster = executor.getCluster();
+    IgniteRunnable party = () -> {
+      Barrier barrier = cluster.barrier("testCyclicBarrier", 2);
+      AtomicCounter arrived = cluster.atomicCounter("testCyclicBarrier", 0);
+      for (int round = 1; round <= rounds; round++) {
+        arrived.incrementAndGet();
+        barrier.await();
+        if (arrived.get() < 2L * round) {
+          throw new AssertionError("Released round: " + round + " before all the parties arrived: " + arrived);
+        }
+      }
+    };
+
+    // one party on each node, so that some rounds are released by a message from the other node
+    try (Agent agent2 = Agent.ignite(agent.getGroupId(), "client-1", portAllocator, executor.getGroup().getPeerAddresses())) {
+      Future<Void> remote = executor.executeAsync(agent2.getAgentID(), party);
+      party.run();
+      remote.get();
+    }
+    assertEquals(2L * rounds, cluster.atomicCounter("testCyclicBarrier", 0).get());
+  }
+
+  @Test
+  public void testStripedCounter() throws Exception {
+    int increments = 100_000;
+    Cluster cluster = executor.getCluster();
+    IgniteRunnable party = () -> {
+      StripedCounter stripedCounter = cluster.stripedCounter("testStripedCounter");
+      for (int i = 0; i < increments; i++) {
+        stripedCounter.increment();
+      }
+      stripedCounter.flush();
+    };
+
+    try (Agent agent2 = Agent.ignite(agent.getGroupId(), "client-1", portAllocator, executor.getGroup().getPeerAddresses())) {
+      Future<Void> remote = executor.executeAsync(agent2.getAgentID(), party);
+      party.run();
+      remote.get();
+    }
+    assertEquals(2L * increments, cluster.stripedCounter("testStripedCounter").sum());
+  }
+
+  @Test
+  public void testStripedCounterSentToAnotherNode() throws Exception {
+    StripedCounter stripedCounter = executor.getCluster().stripedCounter("testStripedCounterSentToAnotherNode");
+    stripedCounter.add(2);
+
+    try (Agent agent2 = Agent.ignite(agent.getGroupId(), "client-1", portAllocator, executor.getGroup().getPeerAddresses())) {
+      // the counter adds to the stripe of the node it is used on
+      executor.execute(agent2.getAgentID(), (IgniteRunnable) () -> {
+        stripedCounter.add(3);
+        stripedCounter.flush();
+      });
+    }
+    stripedCounter.flush();
+    assertEquals(5L, stripedCounter.sum());
   }
 
   private static final AtomicInteger counter = new AtomicInteger();
@@ -0,0 +1,465 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.angela.agent.com;
+
+import org.apache.ignite.lang.IgniteCallable;
+import org.apache.ignite.lang.IgniteRunnable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terracotta.angela.agent.Agent;
+import org.terracotta.angela.agent.AgentDaemon;
+import org.terracotta.angela.common.clientconfig.ClientId;
+import org.terracotta.angela.common.clientconfig.ClientSymbolicName;
+import org.terracotta.angela.common.distribution.Distribution;
+import org.terracotta.angela.common.net.DefaultPortAllocator;
+import org.terracotta.angela.common.net.PortAllocator;
+import org.terracotta.angela.common.topology.InstanceId;
+import org.terracotta.angela.common.util.IpUtils;
+import org.zeroturnaround.process.PidUtil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.terracotta.angela.common.AngelaProperties.FILE_TRANSFER_DATA_CHANNEL;
+import static org.terracotta.angela.common.distribution.Distribution.distribution;
+import static org.terracotta.angela.common.topology.LicenseType.TERRACOTTA_OS;
+import static org.terracotta.angela.common.topology.PackageType.KIT;
+import static org.terracotta.angela.common.topology.Version.version;
+
+public class RpcExecutorIT {
+
+  UUID group = UUID.randomUUID();
+  transient PortAllocator portAllocator = new DefaultPortAllocator();
+  transient Agent agent = Agent.rpcOrchestrator(group, portAllocator);
+  AgentID agentID = agent.getAgentID();
+  transient Executor executor = new RpcExecutor(agent);
+  String secret = ((RpcExecutor) executor).getSecret();
+
+  @Before
+  public void setUp() {
+    counter.set(0);
+  }
+
+  @After
+  public void tearDown() {
+    executor.close();
+    agent.close();
+    portAllocator.close();
+  }
+
+  @Test
+  public void testGetLocalAgentID() {
+    assertEquals(Agent.AGENT_TYPE_ORCHESTRATOR + "#" + PidUtil.getMyPid() + "@" + IpUtils.getHostName() + "#" + agentID.getPort(), executor.getLocalAgentID().toString());
+  }
+
+  @Test
+  public void testFindAgentID() {
+    assertTrue(executor.findAgentID("localhost").isPresent());
+    assertFalse(executor.findAgentID("foo").isPresent());
+    assertEquals(agentID, executor.findAgentID("localhost").get());
+
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret)) {
+      // agents ask the orchestrator
+      assertEquals(agentID, agent2.getRpcExecutor().findAgentID("localhost").get());
+      assertFalse(agent2.getRpcExecutor().findAgentID("foo").isPresent());
+    }
+  }
+
+  @Test
+  public void testStartRemoteAgent() {
+    assertEquals(1, executor.getGroup().size());
+    assertFalse(executor.startRemoteAgent("foo").isPresent());
+    assertTrue(executor.findAgentID("foo").isPresent());
+    assertEquals(agentID, executor.findAgentID("foo").get());
+    assertEquals(1, executor.getGroup().size());
+  }
+
+  @Test
+  public void testGetGroup() throws InterruptedException {
+    AgentGroup group = executor.getGroup();
+    assertEquals(this.group, group.getId());
+    assertEquals(1, group.size());
+    assertEquals(agentID, group.getAllAgents().iterator().next());
+    assertEquals(agentID.toString(), group.getJoinProperties().get("angela.rpc.hub"));
+    assertEquals(secret, group.getJoinProperties().get("angela.rpc.secret"));
+
+    AgentID clientAgentID;
+    try (Agent client = Agent.rpc(this.group, "client-1", agentID, secret)) {
+      clientAgentID = client.getAgentID();
+      assertEquals(2, executor.getGroup().size());
+      assertTrue(executor.getGroup().contains(clientAgentID));
+      assertEquals(asList(clientAgentID), executor.getGroup().getClientAgents());
+
+      // agents get a snapshot of the group of the orchestrator
+      group = client.getRpcExecutor().getGroup();
+      assertEquals(this.group, group.getId());
+      assertEquals(2, group.size());
+    }
+
+    // the agent leaves the group when its connection is closed
+    while (executor.getGroup().contains(clientAgentID)) {
+      Thread.sleep(50);
+    }
+    assertEquals(1, executor.getGroup().size());
+  }
+
+  @Test
+  public void testRejectsAgentOfAnotherGroup() {
+    try (Agent ignored = Agent.rpc(UUID.randomUUID(), "client-1", agentID, secret)) {
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("is not part of group"));
+    }
+    assertEquals(1, executor.getGroup().size());
+  }
+
+  @Test
+  public void testRejectsAgentWithoutTheSecret() {
+    try (Agent ignored = Agent.rpc(group, "client-1", agentID, "foo")) {
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("did not present the secret"));
+    }
+    assertEquals(1, executor.getGroup().size());
+  }
+
+  @Test
+  public void testClosesConnectionSendingJobsBeforeHello() throws IOException {
+    try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(agentID.getHostName(), agentID.getPort()))) {
+      // a request frame: length, id, kind, payload
+      ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + Long.BYTES + 1 + 1).putInt(1).putLong(1).put(RpcConnection.REQUEST).put((byte) 0);
+      frame.flip();
+      channel.write(frame);
+      assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+    }
+    assertEquals(1, executor.getGroup().size());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testGetCluster() {
+    executor.getCluster();
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testGetClusterClientId() {
+    executor.getCluster(new ClientId(new ClientSymbolicName("foo"), "localhost"));
+  }
+
+  @SuppressWarnings("Convert2MethodRef")
+  @Test
+  public void testExecute() throws ExecutionException, InterruptedException {
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret);
+         Agent agent3 = Agent.rpc(group, "client-2", agentID, secret)) {
+      Executor executor2 = agent2.getRpcExecutor();
+      executor.execute(agentID, (IgniteRunnable) () -> counter.incrementAndGet());
+      executor.execute(agent2.getAgentID(), (IgniteRunnable) () -> counter.incrementAndGet());
+      assertEquals(2, counter.get());
+
+      executor2.executeAsync(agentID, (IgniteRunnable) () -> counter.incrementAndGet()).get();
+      executor2.executeAsync(agent2.getAgentID(), (IgniteRunnable) () -> counter.incrementAndGet()).get();
+      assertEquals(4, counter.get());
+
+      assertEquals(5, executor.execute(agent2.getAgentID(), (IgniteCallable<? extends Object>) () -> counter.incrementAndGet()));
+      assertEquals(6, executor2.executeAsync(agentID, (IgniteCallable<? extends Object>) () -> counter.incrementAndGet()).get());
+
+      // jobs between agents go through the orchestrator
+      assertEquals(7, executor2.execute(agent3.getAgentID(), (IgniteCallable<? extends Object>) () -> counter.incrementAndGet()));
+    }
+  }
+
+  @SuppressWarnings("Convert2MethodRef")
+  @Test
+  public void testPipeline() {
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret)) {
+      AgentExecutor agentExecutor = executor.forAgent(agent2.getAgentID());
+      List<Object> results = agentExecutor.pipeline()
+          .then(() -> counter.incrementAndGet())
+          .then((IgniteRunnable) () -> counter.incrementAndGet())
+          .then(() -> counter.incrementAndGet(), value -> value < 3)
+          .then(() -> counter.incrementAndGet())
+          .execute();
+      // the pipeline stopped after the 3rd job
+      assertEquals(asList(1, null, 3), results);
+      assertEquals(3, counter.get());
+    }
+  }
+
+  @Test
+  public void testExecuteFailure() throws InterruptedException {
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret)) {
+      executor.executeAsync(agent2.getAgentID(), (IgniteRunnable) () -> {
+        throw new IllegalStateException("boom");
+      }).get();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+      assertEquals("boom", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testPeerClassLoading() {
+    // the agent cannot load this test class by itself, so it fetches it from the orchestrator
+    ClassLoader classLoader = new ClassLoader(getClass().getClassLoader()) {
+      @Override
+      protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (name.startsWith(RpcExecutorIT.class.getName())) {
+          throw new ClassNotFoundException(name);
+        }
+        return super.loadClass(name, resolve);
+      }
+    };
+    try (RpcExecutor executor2 = RpcExecutor.connect(group, "client-1", agentID, secret, classLoader)) {
+      String loader = executor.execute(executor2.getLocalAgentID(), (IgniteCallable<String>) () -> RpcExecutorIT.class.getClassLoader().getClass().getName());
+      assertNotEquals(getClass().getClassLoader().getClass().getName(), loader);
+      assertEquals(1, (int) executor.execute(executor2.getLocalAgentID(), (IgniteCallable<Integer>) () -> counter.incrementAndGet()));
+      // the class has been loaded on the agent: the counter of the orchestrator is not incremented
+      assertEquals(0, counter.get());
+    }
+  }
+
+  @Test
+  public void testDeployJobClasses() throws Exception {
+    // the agent cannot load this test class by itself, but it finds it in the deployed classpath
+    ClassLoader classLoader = new JobClassLoader(new ClassLoader(getClass().getClassLoader()) {
+      @Override
+      protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (name.startsWith(RpcExecutorIT.class.getName())) {
+          throw new ClassNotFoundException(name);
+        }
+        return super.loadClass(name, resolve);
+      }
+    }, false);
+    Path classes = Paths.get(RpcExecutorIT.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    try (RpcExecutor executor2 = RpcExecutor.connect(group, "client-1", agentID, secret, classLoader)) {
+      executor.deployJobClasses(executor2.getLocalAgentID(), singletonList(classes));
+      ClassLoadingStats before = ClassLoadingStats.snapshot();
+      String loader = executor.execute(executor2.getLocalAgentID(), (IgniteCallable<String>) () -> RpcExecutorIT.class.getClassLoader().getClass().getName());
+      assertEquals(JobClassLoader.class.getName(), loader);
+      assertEquals(before.getClasses(), ClassLoadingStats.snapshot().getClasses());
+    }
+  }
+
+  @Test
+  public void testSharedObjects() {
+    // lists that are only appended to are pushed as deltas
+    SharedObjects.Sharing<ArrayList<String>, List<String>> sharing = new SharedObjects.Sharing<ArrayList<String>, List<String>>() {
+      @Override
+      public List<String> snapshot(ArrayList<String> value) {
+        return new ArrayList<>(value);
+      }
+
+      @Override
+      public Optional<SharedObjects.Delta<ArrayList<String>>> diff(List<String> pushed, ArrayList<String> value) {
+        ArrayList<String> added = new ArrayList<>(value.subList(pushed.size(), value.size()));
+        return Optional.of(list -> list.addAll(added));
+      }
+    };
+    String key = UUID.randomUUID() + "/list";
+    ArrayList<String> list = new ArrayList<>(asList("a", "b"));
+
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret)) {
+      SharedObjects.Ref<ArrayList<String>> ref = SharedObjects.share(executor, agent2.getAgentID(), key, list, sharing);
+      assertEquals(asList("a", "b"), executor.execute(agent2.getAgentID(), (IgniteCallable<List<String>>) ref::copy));
+      // not pushed again
+      assertEquals(ref.toString(), SharedObjects.share(executor, agent2.getAgentID(), key, list, sharing).toString());
+
+      list.add("c");
+      SharedObjects.Ref<ArrayList<String>> ref2 = SharedObjects.share(executor, agent2.getAgentID(), key, list, sharing);
+      assertNotEquals(ref.toString(), ref2.toString());
+      assertEquals(asList("a", "b", "c"), executor.execute(agent2.getAgentID(), (IgniteCallable<List<String>>) ref2::copy));
+      try {
+        executor.execute(agent2.getAgentID(), (IgniteCallable<List<String>>) ref::get);
+        fail();
+      } catch (IllegalStateException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("not found on agent"));
+      }
+    }
+
+    // the local agent does not alias the value of the orchestrator
+    String localKey = UUID.randomUUID() + "/list";
+    SharedObjects.share(executor, agentID, localKey, list, sharing);
+    list.add("d");
+    SharedObjects.Ref<ArrayList<String>> local = SharedObjects.share(executor, agentID, localKey, list, sharing);
+    assertEquals(asList("a", "b", "c", "d"), executor.execute(agentID, (IgniteCallable<List<String>>) local::copy));
+
+    // closing the orchestrator forgets the shared objects
+    SharedObjects.forget(executor);
+    try {
+      local.get();
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("not found on agent"));
+    }
+  }
+
+  @Test
+  public void testUploadFolder() throws IOException {
+    initFiles();
+
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret)) {
+      executor.uploadFolder(agent2.getAgentID(), Paths.get("target", "files"), Paths.get("target", "uploaded").toAbsolutePath().toString());
+    }
+    assertTrue(Files.exists(Paths.get("target/uploaded/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/uploaded/sub/three.txt")));
+  }
+
+  @Test
+  public void testUploadFolderThroughQueue() throws IOException {
+    initFiles();
+
+    // the chunks are polled by the agent from the file transfer queue hosted by the orchestrator
+    System.setProperty(FILE_TRANSFER_DATA_CHANNEL.getPropertyName(), "false");
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret)) {
+      executor.uploadFolder(agent2.getAgentID(), Paths.get("target", "files"), Paths.get("target", "uploaded-queue").toAbsolutePath().toString());
+    } finally {
+      System.clearProperty(FILE_TRANSFER_DATA_CHANNEL.getPropertyName());
+    }
+    assertTrue(Files.exists(Paths.get("target/uploaded-queue/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/uploaded-queue/sub/three.txt")));
+  }
+
+  @Test
+  public void testDownloadFolder() throws IOException {
+    initFiles();
+
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret)) {
+      executor.downloadFolder(agent2.getAgentID(), Paths.get("target", "files").toAbsolutePath().toString(), Paths.get("target", "folder"), true);
+    }
+    assertTrue(Files.exists(Paths.get("target/folder/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/folder/sub/three.txt")));
+  }
+
+  @Test
+  public void testUploadClientJars() throws IOException {
+    initFiles();
+
+    InstanceId instanceId = new InstanceId(UUID.randomUUID().toString(), "client");
+    assertEquals(0, executor.getFileTransferQueue(instanceId).size());
+
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret)) {
+      executor.uploadClientJars(agent2.getAgentID(), instanceId, asList(Paths.get("target", "one.txt"), Paths.get("target", "files")));
+    }
+
+    assertEquals(0, executor.getFileTransferQueue(instanceId).size());
+    assertTrue(Files.exists(Paths.get("target/angela/work/" + instanceId + "/lib/one.txt")));
+    assertTrue(Files.exists(Paths.get("target/angela/work/" + instanceId + "/lib/files/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/angela/work/" + instanceId + "/lib/files/sub/three.txt")));
+  }
+
+  @Test
+  public void testUploadKit() throws IOException {
+    if (Files.exists(Paths.get("target/angela/kits/3.9.9"))) {
+      org.terracotta.utilities.io.Files.deleteTree(Paths.get("target/angela/kits/3.9.9"));
+    }
+
+    initFiles();
+
+    Distribution distribution = distribution(version("3.9.9"), KIT, TERRACOTTA_OS);
+    InstanceId instanceId = new InstanceId(UUID.randomUUID().toString(), "client");
+
+    try (Agent agent2 = Agent.rpc(group, "client-1", agentID, secret)) {
+      executor.uploadKit(agent2.getAgentID(), instanceId, distribution, "ehcache-clustered-3.9.9-kit", Paths.get("target", "files"));
+    }
+
+    assertEquals(0, executor.getFileTransferQueue(instanceId).size());
+    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/ehcache-clustered-3.9.9-kit/two.txt")));
+    assertTrue(Files.exists(Paths.get("target/angela/kits/3.9.9/ehcache-clustered-3.9.9-kit/sub/three.txt")));
+  }
+
+  @Test
+  public void testAgentDaemon() throws IOException, InterruptedException, ExecutionException {
+    try (AgentDaemon daemon = new AgentDaemon(0, "jar-1", "daemon-secret")) {
+      Thread thread = new Thread(() -> daemon.run(Duration.ofMinutes(1)));
+      thread.setDaemon(true);
+      thread.start();
+
+      // lease requests without the shared secret are denied
+      assertFalse(AgentDaemon.lease("localhost", daemon.getPort(), "jar-1", "foo", group, agentID, secret, Duration.ofSeconds(5)).isPresent());
+      assertFalse(daemon.isLeased());
+
+      AgentDaemon.Connection lease = AgentDaemon.lease("localhost", daemon.getPort(), "jar-1", "daemon-secret", group, agentID, secret, Duration.ofSeconds(5)).get();
+      AgentID daemonAgentID = lease.getAgentID();
+      assertEquals(Agent.AGENT_TYPE_REMOTE, daemonAgentID.getName());
+      assertTrue(executor.getGroup().contains(daemonAgentID));
+      assertEquals(1, (int) executor.execute(daemonAgentID, (IgniteCallable<Integer>) () -> counter.incrementAndGet()));
+
+      // the daemon serves one orchestrator at a time
+      assertFalse(AgentDaemon.lease("localhost", daemon.getPort(), "jar-1", "daemon-secret", UUID.randomUUID(), agentID, secret, Duration.ZERO).isPresent());
+
+      // shutting the agent down releases the daemon instead of exiting the JVM
+      executor.shutdown(daemonAgentID).get().get();
+      while (daemon.isLeased()) {
+        Thread.sleep(50);
+      }
+      assertFalse(executor.getGroup().contains(daemonAgentID));
+      lease.close();
+
+      // the next orchestrator session leases the same daemon
+      UUID group2 = UUID.randomUUID();
+      try (Agent agent2 = Agent.rpcOrchestrator(group2, portAllocator);
+           RpcExecutor executor2 = new RpcExecutor(agent2);
+           AgentDaemon.Connection lease2 = AgentDaemon.lease("localhost", daemon.getPort(), "jar-1", "daemon-secret", group2, agent2.getAgentID(), executor2.getSecret(), Duration.ofSeconds(5)).get()) {
+        assertTrue(executor2.getGroup().contains(lease2.getAgentID()));
+        assertEquals(2, (int) executor2.execute(lease2.getAgentID(), (IgniteCallable<Integer>) () -> counter.incrementAndGet()));
+      }
+      // closing the lease connection releases the daemon
+      while (daemon.isLeased()) {
+        Thread.sleep(50);
+      }
+
+      // a daemon running another agent jar exits
+      try {
+        AgentDaemon.lease("localhost", daemon.getPort(), "jar-2", "daemon-secret", group, agentID, secret, Duration.ZERO);
+        fail();
+      } catch (IOException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("is not running the same agent jar"));
+      }
+      thread.join(5_000);
+      assertFalse(thread.isAlive());
+    }
+  }
+
+  private static final AtomicInteger counter = new AtomicInteger();
+
+  private static void initFiles() throws IOException {
+    Files.createDirectories(Paths.get("target", "files", "sub"));
+    Files.write(Paths.get("target", "one.txt"), new byte[0]);
+    Files.write(Paths.get("target", "files", "two.txt"), new byte[0]);
+    Files.write(Paths.get("target", "files", "sub", "three.txt"), new byte[0]);
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.hostedclient;
+
+import org.terracotta.angela.client.ClientJob;
+import org.terracotta.angela.common.cluster.Cluster;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts its runs in a static field. It is not in an Angela package, so that each client hosted in a JVM loads it in
+ * its own class loader: the count is then the one of the client, and not the one of the JVM.
+ */
+public class StaticStateJob implements ClientJob {
+  private static final long serialVersionUID = 1L;
+
+  private static final AtomicInteger RUNS = new AtomicInteger();
+
+  @Override
+  public void run(Cluster cluster) {
+    int runs = RUNS.incrementAndGet();
+    cluster.atomicCounter("StaticStateJob::runs::" + runs, 0L).incrementAndGet();
+  }
+}